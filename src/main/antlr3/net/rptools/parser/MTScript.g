@@ -19,11 +19,14 @@ tokens {
     VARIABLE;
     PROPERTY;
     PROMPT;
+    CONDITIONAL;
 }
 
 @parser::header {
     package net.rptools.parser;
     
+    import java.util.ArrayList;
+    import java.util.List;
     import java.util.Map;
     import java.util.HashMap;
     import net.rptools.parser.symboltable.SymbolTable;
@@ -47,10 +50,22 @@ tokens {
     
     private SymbolTable symbolTable;
     
+    private String rollNamePrefix = "";
+    
+    private final List<String> rollNames = new ArrayList<>();
+    
     public void setSymbolTable(SymbolTable stable) {
         symbolTable = stable;
     }
     
+    public void setRollNamePrefix(String prefix) {
+        rollNamePrefix = prefix;
+    }
+    
+    public List<String> getRollNames() {
+        return rollNames;
+    }
+    
     public void reportError(RecognitionException e) {
       super.reportError(e);
       throw new ParserException(e.getMessage(), e);
@@ -88,7 +103,28 @@ assignmentTarget
  
 
 expression
-    : listConcatExpression
+    : conditionalExpression
+    ;
+
+conditionalExpression
+    : (orExpression -> orExpression) 
+      ('?' t=expression ':' f=expression -> ^(CONDITIONAL $conditionalExpression $t $f))?
+    ;
+
+orExpression
+    : andExpression ('||'^ andExpression)*
+    ;
+
+andExpression
+    : equalityExpression ('&&'^ equalityExpression)*
+    ;
+
+equalityExpression
+    : relationalExpression (('==' | '!=')^ relationalExpression)*
+    ;
+
+relationalExpression
+    : listConcatExpression (('<' | '<=' | '>' | '>=')^ listConcatExpression)*
     ;
     
 listConcatExpression
@@ -191,11 +227,12 @@ roll
             rexpr = RollExpression.getRollExpression(rollStr);
          }
       
-         symbolTable.setRollExpression("Roll Sequence " + rollSequence, rexpr);
+         rollNames.add(rollNamePrefix + "Roll Sequence " + rollSequence);
+         symbolTable.setRollExpression(rollNamePrefix + "Roll Sequence " + rollSequence, rexpr);
 
  
       }
-      -> ^(ROLL["Roll Sequence " + rollSequence])
+      -> ^(ROLL[$start, rollNamePrefix + "Roll Sequence " + rollSequence])
     ;
 
 
@@ -230,7 +267,8 @@ variable
     ;
     
 prompt
-    : '?' '$'Identifier (':' StringLiteral)? -> ^(PROMPT Identifier StringLiteral?)
+    // A ':' after a prompt inside a conditional expression is always the prompt description.
+    : '?' '$'Identifier (options {greedy=true;} : ':' StringLiteral)? -> ^(PROMPT Identifier StringLiteral?)
     ;
     
 Null  
@@ -952,7 +990,8 @@ Label
   labelText = labelText.trim();
   setText(labelText);  
 }
-    : '|' .* '|'
+    // Labels can not be empty so that || is the logical or operator.
+    : '|' ~'|' .* '|'
     ;
 
 StringLiteral
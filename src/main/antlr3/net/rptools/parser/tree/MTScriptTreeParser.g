@@ -18,10 +18,77 @@ options {
     
     private net.rptools.parser.tree.ScriptNode scriptNode;
     
+    private java.util.List<String> parameterNames = java.util.Collections.emptyList();
+    
+    private java.util.Map<net.rptools.parser.tree.ScriptTreeNode, net.rptools.parser.SourceSpan> sourceSpans = 
+            new java.util.IdentityHashMap<net.rptools.parser.tree.ScriptTreeNode, net.rptools.parser.SourceSpan>();
+    
     
     public void setSymbolTable(SymbolTable stable) {
         symbolTable = stable;
     }
+    
+    public void setParameterNames(java.util.List<String> names) {
+        parameterNames = names;
+    }
+    
+    public java.util.Map<net.rptools.parser.tree.ScriptTreeNode, net.rptools.parser.SourceSpan> getSourceSpans() {
+        return sourceSpans;
+    }
+    
+    private void recordSpan(net.rptools.parser.tree.ScriptTreeNode node, Object first, Object second) {
+        TokenStream tokens = input.getTokenStream();
+        if (node == null || tokens == null) {
+            return;
+        }
+        
+        int start = -1;
+        int stop = -1;
+        for (Object o : new Object[] { first, second }) {
+            if (o instanceof CommonTree) {
+                CommonTree tree = (CommonTree) o;
+                if (tree.getTokenStartIndex() >= 0 && tree.getTokenStopIndex() >= tree.getTokenStartIndex()) {
+                    start = tree.getTokenStartIndex();
+                    stop = tree.getTokenStopIndex();
+                } else if (tree.getToken() != null && tree.getToken().getTokenIndex() >= 0) {
+                    start = tree.getToken().getTokenIndex();
+                    stop = start;
+                }
+            }
+            if (start >= 0) {
+                break;
+            }
+        }
+        
+        if (start < 0) {
+            return;
+        }
+        
+        // The parser includes trailing separators and the end of file in some spans.
+        while (stop > start && (tokens.get(stop).getType() == Token.EOF 
+                || tokens.get(stop).getChannel() != Token.DEFAULT_CHANNEL || ";".equals(tokens.get(stop).getText()))) {
+            stop--;
+        }
+        
+        CommonToken startToken = (CommonToken) tokens.get(start);
+        CommonToken stopToken = (CommonToken) tokens.get(stop);
+        sourceSpans.put(node, new net.rptools.parser.SourceSpan(
+                new net.rptools.parser.SourcePosition(startToken.getLine(), startToken.getCharPositionInLine() + 1), 
+                startToken.getStartIndex(), stopToken.getStopIndex() + 1));
+    }
+    
+    private net.rptools.parser.SourcePosition position(CommonTree tree) {
+        if (tree.getLine() <= 0) {
+            return null;
+        }
+        return new net.rptools.parser.SourcePosition(tree.getLine(), tree.getCharPositionInLine() + 1);
+    }
+    
+    private void checkNotParameter(String name) {
+        if (parameterNames.contains(name)) {
+            throw new IllegalArgumentException("Parameter " + name + " can not be assigned a value.");
+        }
+    }
 }
 
 evaluator   returns [net.rptools.parser.tree.ScriptTreeNode node] 
@@ -41,7 +108,15 @@ statement
   
 
 assignment returns [net.rptools.parser.tree.ScriptTreeNode node] 
+  @init {
+      Object first = input.LT(1);
+      Object second = input.LT(2);
+  }
+  @after {
+      recordSpan(node, first, second);
+  }
   : ^(ASSIGNMENT VARIABLE id=Identifier n=expression) { 
+        checkNotParameter(id.toString());
         node = new net.rptools.parser.tree.AssignVariableNode(id.toString(), n);
     }
   | ^(ASSIGNMENT PROPERTY id=Identifier n=expression) {
@@ -50,6 +125,13 @@ assignment returns [net.rptools.parser.tree.ScriptTreeNode node]
   ;
   
 expression returns [net.rptools.parser.tree.ScriptTreeNode node]
+  @init {
+      Object first = input.LT(1);
+      Object second = input.LT(2);
+  }
+  @after {
+      recordSpan(node, first, second);
+  }
     : ^('+' op1=expression op2=expression) { 
         node = net.rptools.parser.tree.BinaryMathOpNode.getAddNode(op1, op2);
       }
@@ -71,6 +153,42 @@ expression returns [net.rptools.parser.tree.ScriptTreeNode node]
     | ^(UNARY_MINUS n=expression) {
         node = new net.rptools.parser.tree.NegateNode(n);
       }
+    | ^(UNARY_NOT n=expression) {
+        node = new net.rptools.parser.tree.NotNode(n);
+      }
+    | ^(cmp='==' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.EQUAL, op1, op2,
+                position(cmp));
+      }
+    | ^(cmp='!=' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.NOT_EQUAL, op1, op2,
+                position(cmp));
+      }
+    | ^(cmp='<' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.LESS_THAN, op1, op2,
+                position(cmp));
+      }
+    | ^(cmp='<=' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.LESS_THAN_OR_EQUAL, op1, op2,
+                position(cmp));
+      }
+    | ^(cmp='>' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.GREATER_THAN, op1, op2,
+                position(cmp));
+      }
+    | ^(cmp='>=' op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ComparisonNode(net.rptools.parser.tree.ComparisonNode.Operation.GREATER_THAN_OR_EQUAL, op1, op2,
+                position(cmp));
+      }
+    | ^('&&' op1=expression op2=expression) {
+        node = net.rptools.parser.tree.LogicalNode.getAndNode(op1, op2);
+      }
+    | ^('||' op1=expression op2=expression) {
+        node = net.rptools.parser.tree.LogicalNode.getOrNode(op1, op2);
+      }
+    | ^(CONDITIONAL cond=expression op1=expression op2=expression) {
+        node = new net.rptools.parser.tree.ConditionalNode(cond, op1, op2);
+      }
     | i=Integer {
         node = new net.rptools.parser.tree.ConstantNode(java.lang.Integer.parseInt(i.toString())); 
       }
@@ -103,7 +221,12 @@ expression returns [net.rptools.parser.tree.ScriptTreeNode node]
         } else {
             times = java.lang.Integer.parseInt(i.toString());
         }
-        node = net.rptools.parser.tree.RepeatGroupNode.getVariableRepeatSumNode($Identifier.getText(), expr);
+        if (parameterNames.contains($Identifier.getText())) {
+            node = net.rptools.parser.tree.RepeatGroupNode.getParameterRepeatSumNode(
+                    parameterNames.indexOf($Identifier.getText()), expr);
+        } else {
+            node = net.rptools.parser.tree.RepeatGroupNode.getVariableRepeatSumNode($Identifier.getText(), expr);
+        }
        }
      | ^(REPEAT_SUM_GROUP PROPERTY Identifier expr=expression) {
         int times;
@@ -139,7 +262,12 @@ expression returns [net.rptools.parser.tree.ScriptTreeNode node]
         } else {
             times = java.lang.Integer.parseInt(i.toString());
         }
-        node = net.rptools.parser.tree.RepeatGroupNode.getVariableRepeatNode($Identifier.getText(), expr);
+        if (parameterNames.contains($Identifier.getText())) {
+            node = net.rptools.parser.tree.RepeatGroupNode.getParameterRepeatNode(
+                    parameterNames.indexOf($Identifier.getText()), expr);
+        } else {
+            node = net.rptools.parser.tree.RepeatGroupNode.getVariableRepeatNode($Identifier.getText(), expr);
+        }
        }
      | ^(REPEAT_GROUP PROPERTY Identifier expr=expression) {
         int times;
@@ -160,18 +288,24 @@ expression returns [net.rptools.parser.tree.ScriptTreeNode node]
         node = net.rptools.parser.tree.RepeatGroupNode.getPromptRepeatNode(prompt, expr);
        }  
     | VARIABLE Identifier  {
-        node = new net.rptools.parser.tree.VariableNode($Identifier.toString());
+        if (parameterNames.contains($Identifier.toString())) {
+            node = new net.rptools.parser.tree.ParameterNode(parameterNames.indexOf($Identifier.toString()));
+        } else {
+            node = new net.rptools.parser.tree.VariableNode($Identifier.toString());
+        }
       }
     | PROPERTY Identifier {
         node = new net.rptools.parser.tree.PropertyNode($Identifier.toString());
       }
     | ROLL { 
-        node = new net.rptools.parser.tree.RollNode($ROLL.toString());
+        node = new net.rptools.parser.tree.RollNode($ROLL.toString(), symbolTable.getRollExpression($ROLL.toString()),
+                position($ROLL));
       }
     | ^('&' op1=expression op2=expression) {
         node = new net.rptools.parser.tree.ListConcatNode(op1, op2);
       }
     | ^(PROMPT Identifier StringLiteral?) {
+        checkNotParameter($Identifier.toString());
         String prompt;
         if ($StringLiteral == null) {
             prompt = null;
@@ -188,7 +322,8 @@ expression returns [net.rptools.parser.tree.ScriptTreeNode node]
           alist = new net.rptools.parser.tree.FunctionArgumentList();
         }
 
-        node = new net.rptools.parser.tree.FunctionCallNode(func.getText(), alist);
+        node = new net.rptools.parser.tree.FunctionCallNode(func.getText(), alist,
+                new net.rptools.parser.SourcePosition(func.getLine(), func.getCharPositionInLine() + 1));
     }
    ;
 
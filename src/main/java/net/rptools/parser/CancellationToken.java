@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+/**
+ * CancellationToken is used to cooperatively cancel the evaluation of a script from
+ * another thread. The evaluating thread checks the token periodically and aborts the
+ * evaluation with an {@link EvaluationLimitExceededException} once it has been cancelled.
+ *
+ */
+public final class CancellationToken {
+
+	/** Has the token been cancelled. */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels any evaluation that is using this token.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks to see if the token has been cancelled.
+	 *
+	 * @return true if the token has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
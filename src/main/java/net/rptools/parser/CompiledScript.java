@@ -0,0 +1,477 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.EvaluationLimitExceededException.Limit;
+import net.rptools.parser.functions.dice.DiceDistribution;
+import net.rptools.parser.symboltable.SymbolTable;
+import net.rptools.parser.symboltable.SymbolTableBuilder;
+import net.rptools.parser.tree.ColumnarEvaluator;
+import net.rptools.parser.tree.DeterminismAnalyzer;
+import net.rptools.parser.tree.DistributionAnalyzer;
+import net.rptools.parser.tree.MTScriptTreeParser;
+import net.rptools.parser.tree.PassManager;
+import net.rptools.parser.tree.PropertyReferenceCollector;
+import net.rptools.parser.tree.ScriptCostEstimator;
+import net.rptools.parser.tree.ScriptTreeNode;
+import net.rptools.parser.tree.TracingInstrumenter;
+import net.rptools.parser.tree.VariableReferenceCollector;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.CommonTreeNodeStream;
+
+/**
+ * CompiledScript is a script that has been parsed into a tree that can be evaluated 
+ * many times, with different contexts, without parsing it again.
+ *
+ */
+public final class CompiledScript {
+
+	/** The root node of the compiled script. */
+	private final ScriptTreeNode root;
+	
+	/** The names of the properties read by the script. */
+	private final Set<String> referencedProperties;
+	
+	/** The names of the variables read by the script. */
+	private final Set<String> referencedVariables;
+	
+	/** The spans of the source text that the nodes were parsed from. */
+	private final Map<ScriptTreeNode, SourceSpan> sourceSpans;
+	
+	/** The names the rolls of the script are recorded under in the symbol table. */
+	private final List<String> rollNames;
+	
+	/** The id of the last script compiled with its own roll names. */
+	private static final AtomicLong LAST_SCRIPT_ID = new AtomicLong();
+	
+	/** The estimated cost of the script, -1 if it has not been estimated yet. */
+	private long cost = -1;
+	
+	/** The root node of the copy of the script with tracing, null if it has not been created yet. */
+	private volatile ScriptTreeNode tracedRoot;
+	
+	/**
+	 * Creates a new CompiledScript.
+	 * 
+	 * @param node The root node of the compiled script.
+	 * @param spans The spans of the source text that the nodes were parsed from.
+	 * @param names The names the rolls of the script are recorded under.
+	 */
+	private CompiledScript(ScriptTreeNode node, Map<ScriptTreeNode, SourceSpan> spans, List<String> names) {
+		root = node;
+		sourceSpans = spans;
+		rollNames = names;
+		referencedProperties = PropertyReferenceCollector.collect(node);
+		referencedVariables = VariableReferenceCollector.collect(node);
+	}
+	
+	/**
+	 * Compiles a script. The names of the rolls are prefixed with an id for the script, so 
+	 * that the rolls of different scripts evaluated with the same context do not collide.
+	 * 
+	 * @param text The text of the script.
+	 * 
+	 * @return the compiled script.
+	 * 
+	 * @throws NullPointerException if text is null.
+	 * 
+	 * @see #getRollNames()
+	 */
+	public static CompiledScript compile(String text) {
+		return compile(text, new SymbolTableBuilder().toSymbolTable(), Collections.<String>emptyList(), 
+				nextRollNamePrefix());
+	}
+	
+	/**
+	 * Compiles a script, registering the roll expressions in the specified symbol table.
+	 * 
+	 * @param text The text of the script.
+	 * @param symbolTable The symbol table to register the roll expressions in.
+	 * 
+	 * @return the compiled script.
+	 * 
+	 * @throws NullPointerException if text is null.
+	 * @throws ParserException if the script can not be parsed.
+	 */
+	static CompiledScript compile(String text, SymbolTable symbolTable) {
+		return compile(text, symbolTable, Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Compiles a script with parameters, registering the roll expressions in the specified 
+	 * symbol table. Variables in the script with the same name as a parameter read the
+	 * parameter instead.
+	 * 
+	 * @param text The text of the script.
+	 * @param symbolTable The symbol table to register the roll expressions in.
+	 * @param parameterNames The names of the parameters in slot order.
+	 * 
+	 * @return the compiled script.
+	 * 
+	 * @throws NullPointerException if text is null.
+	 * @throws ParserException if the script can not be parsed.
+	 * @throws IllegalArgumentException if the script assigns a value to a parameter.
+	 */
+	static CompiledScript compile(String text, SymbolTable symbolTable, List<String> parameterNames) {
+		return compile(text, symbolTable, parameterNames, "");
+	}
+	
+	/**
+	 * Compiles a script with parameters, registering the roll expressions in the specified 
+	 * symbol table under names with a prefix.
+	 * 
+	 * @param text The text of the script.
+	 * @param symbolTable The symbol table to register the roll expressions in.
+	 * @param parameterNames The names of the parameters of the script.
+	 * @param rollNamePrefix The prefix for the names of the rolls.
+	 * 
+	 * @return the compiled script.
+	 * 
+	 * @throws NullPointerException if text is null.
+	 * @throws ParserException if the script can not be parsed.
+	 * @throws IllegalArgumentException if the script assigns a value to a parameter.
+	 */
+	static CompiledScript compile(String text, SymbolTable symbolTable, List<String> parameterNames, 
+			String rollNamePrefix) {
+		if (text == null) {
+			throw new NullPointerException("Text to parse can not be null.");
+		}
+		
+		MTScriptLexer lexer = new MTScriptLexer(new ANTLRStringStream(text));
+		CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+		MTScriptParser parser = new MTScriptParser(tokenStream);
+		parser.setSymbolTable(symbolTable);
+		parser.setRollNamePrefix(rollNamePrefix);
+
+		try {
+			CommonTree tree = (CommonTree) (parser.mtscript().getTree());
+
+
+			CommonTreeNodeStream nodeStream = new CommonTreeNodeStream(tree);
+			nodeStream.setTokenStream(tokenStream);
+			MTScriptTreeParser walker = new MTScriptTreeParser(nodeStream);
+
+			walker.setSymbolTable(symbolTable);
+			walker.setParameterNames(parameterNames);
+
+			ScriptTreeNode node = walker.evaluator();
+			return new CompiledScript(node, walker.getSourceSpans(), 
+					Collections.unmodifiableList(new ArrayList<>(parser.getRollNames())));
+		} catch (RecognitionException e) {
+			// TODO: log?
+			throw new ParserException(e.getLocalizedMessage(), e);
+		}
+	}
+	
+	/**
+	 * Returns a copy of this script optimized by the passes of a pass manager.
+	 * 
+	 * @param passManager The pass manager to optimize the script with.
+	 * 
+	 * @return the optimized script, this script if no passes changed it.
+	 * 
+	 * @throws NullPointerException if passManager is null.
+	 */
+	public CompiledScript optimize(PassManager passManager) {
+		if (passManager == null) {
+			throw new NullPointerException("Pass manager can not be null.");
+		}
+		
+		ScriptTreeNode optimized = passManager.optimize(root);
+		return optimized == root ? this : new CompiledScript(optimized, sourceSpans, rollNames);
+	}
+	
+	/**
+	 * Returns the estimated worst case cost of evaluating the script.
+	 * 
+	 * @return the estimated cost.
+	 * 
+	 * @see ScriptCostEstimator
+	 */
+	public long estimateCost() {
+		if (cost < 0) {
+			cost = new ScriptCostEstimator().estimate(root);
+		}
+		return cost;
+	}
+	
+	/**
+	 * Returns the names of the properties for the default id that the script reads.
+	 * 
+	 * @return the names of the properties.
+	 */
+	public Set<String> getReferencedProperties() {
+		return referencedProperties;
+	}
+	
+	/**
+	 * Returns the names of the variables that the script reads.
+	 * 
+	 * @return the names of the variables.
+	 */
+	public Set<String> getReferencedVariables() {
+		return referencedVariables;
+	}
+	
+	/**
+	 * Checks whether the result of the script depends only on the variables and properties
+	 * it reads and evaluating it has no side effects. This is checked each time it is called
+	 * as functions can be marked as deterministic after the script has been compiled.
+	 * 
+	 * @return true if the script is deterministic.
+	 * 
+	 * @see DeterminismAnalyzer
+	 */
+	public boolean isDeterministic() {
+		return DeterminismAnalyzer.isDeterministic(root);
+	}
+	
+	/**
+	 * Computes the exact probability distribution of the value of the script. The script 
+	 * must be a single expression made up of dice rolls, integer constants, +, - and *.
+	 * 
+	 * @return the distribution.
+	 * 
+	 * @throws IllegalArgumentException if a distribution can not be computed for the script.
+	 * 
+	 * @see DistributionAnalyzer
+	 */
+	public DiceDistribution getDistribution() {
+		return DistributionAnalyzer.analyze(root);
+	}
+	
+	/**
+	 * Returns the names the rolls of the script are recorded under in the symbol table of 
+	 * the context it is evaluated with, in the order the rolls appear in the script.
+	 * 
+	 * @return the names of the rolls.
+	 */
+	public List<String> getRollNames() {
+		return rollNames;
+	}
+	
+	/**
+	 * Returns a new prefix for the names of the rolls of a script that is compiled with its 
+	 * own symbol table.
+	 * 
+	 * @return the prefix.
+	 */
+	static String nextRollNamePrefix() {
+		return "Script " + LAST_SCRIPT_ID.incrementAndGet() + " ";
+	}
+	
+	/**
+	 * Returns the root node of the compiled script.
+	 * 
+	 * @return the root node.
+	 */
+	ScriptTreeNode getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Returns the root node of the copy of the script that traces and profiles the evaluation
+	 * of each node, creating it the first time it is needed.
+	 * 
+	 * @return the root node of the traced script.
+	 */
+	private ScriptTreeNode getTracedRoot() {
+		ScriptTreeNode traced = tracedRoot;
+		if (traced == null) {
+			traced = TracingInstrumenter.instrument(root, sourceSpans);
+			tracedRoot = traced;
+		}
+		return traced;
+	}
+	
+	/**
+	 * Evaluates the script and returns a {@link DataValue} with the results.
+	 * Since a script may have multiple statements the {@link DataValue} returned is
+	 * always of type {@link DataType#LIST} which contains the result of each statement.
+	 * 
+	 * @param context The context to evaluate the script with.
+	 * 
+	 * @return the results of evaluating the script.
+	 * 
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 * @throws EvaluationLimitExceededException if the estimated cost of the script is over the
+	 *         cost limit of the context, in which case the script is not evaluated.
+	 * @throws NullPointerException if context is null.
+	 */
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		return evaluate(new ScriptContext[] { context })[0];
+	}
+	
+	/**
+	 * Evaluates the script and returns either the results or the error that stopped the 
+	 * evaluation. Errors in the script are expected when users write them, so rather than
+	 * throwing the errors are returned with the position in the script where they occurred,
+	 * and the exceptions for them are created without stack traces.
+	 * 
+	 * @param context The context to evaluate the script with.
+	 * 
+	 * @return the result of evaluating the script.
+	 * 
+	 * @throws NullPointerException if context is null.
+	 */
+	public EvaluationResult evaluateToResult(ScriptContext context) {
+		if (context == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+		
+		boolean oldErrorsAsValues = context.isErrorsAsValues();
+		context.setErrorsAsValues(true);
+		try {
+			return EvaluationResult.success(evaluate(context));
+		} catch (ExpressionEvaluatorException e) {
+			return EvaluationResult.failure(ScriptError.fromException(e));
+		} catch (RuntimeException e) {
+			return EvaluationResult.failure(new ScriptError(ScriptError.Kind.RUNTIME, String.valueOf(e.getMessage()), 
+					null, -1));
+		} finally {
+			context.setErrorsAsValues(oldErrorsAsValues);
+		}
+	}
+	
+	/**
+	 * Evaluates the script for each of the contexts and returns the results for each context.
+	 * The script is evaluated column by column, each node of the script is evaluated for 
+	 * all the contexts before moving on to the next node. Variables, properties, dice rolls 
+	 * and limits are all separate for each context.
+	 * 
+	 * @param contexts The contexts to evaluate the script with.
+	 * 
+	 * @return the results of evaluating the script for each context, in the same order as 
+	 *         the contexts.
+	 * 
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script for
+	 *         any of the contexts.
+	 * @throws EvaluationLimitExceededException if the estimated cost of the script is over the
+	 *         cost limit of any of the contexts, in which case the script is not evaluated.
+	 * @throws NullPointerException if contexts or any of the contexts are null.
+	 * 
+	 * @see ScriptContextBuilder#toScriptContexts(java.util.Collection)
+	 */
+	public DataValue[] evaluate(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		return evaluate(contexts, false);
+	}
+	
+	/**
+	 * Evaluates the script in a transaction, even if the context is not transactional, so 
+	 * that if the evaluation does not complete it leaves no changes behind.
+	 * 
+	 * @param context The context to evaluate the script with.
+	 * 
+	 * @return the results of evaluating the script.
+	 * 
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 */
+	DataValue evaluateInTransaction(ScriptContext context) throws ExpressionEvaluatorException {
+		return evaluate(new ScriptContext[] { context }, true)[0];
+	}
+	
+	/**
+	 * Evaluates the script for each of the contexts.
+	 * 
+	 * @param contexts The contexts to evaluate the script with.
+	 * @param forceTransaction Should the evaluation be in a transaction for contexts that are 
+	 *        not transactional.
+	 * 
+	 * @return the results of evaluating the script for each context.
+	 * 
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 */
+	private DataValue[] evaluate(ScriptContext[] contexts, boolean forceTransaction) 
+			throws ExpressionEvaluatorException {
+		if (contexts == null) {
+			throw new NullPointerException("Script contexts can not be null.");
+		}
+		
+		for (ScriptContext context : contexts) {
+			if (context == null) {
+				throw new NullPointerException("Script context can not be null.");
+			}
+			
+			long costLimit = context.getCostLimit();
+			if (costLimit != ScriptContext.NO_COST_LIMIT && estimateCost() > costLimit) {
+				throw new EvaluationLimitExceededException("Estimated cost of script " + estimateCost() + 
+						" exceeds the limit of " + costLimit + ".", Limit.COST, 0, 0);
+			}
+		}
+
+		DataValue[] results;
+		// Only the transactions begun here are committed or rolled back, a transaction the
+		// caller began is left to the caller.
+		boolean[] began = new boolean[contexts.length];
+		try {
+			for (int i = 0; i < contexts.length; i++) {
+				ScriptContext context = contexts[i];
+				context.startEvaluation();
+				SymbolTable symbolTable = context.getSymbolTable();
+				symbolTable.prefetchProperties(referencedProperties);
+				if ((forceTransaction || context.isTransactional()) && symbolTable.isInTransaction() == false) {
+					symbolTable.beginTransaction();
+					began[i] = true;
+				}
+			}
+			
+			// Tracing and profiling are chosen once for the whole evaluation rather than 
+			// checked at every node.
+			ScriptTreeNode node = root;
+			for (ScriptContext context : contexts) {
+				if (context.isInstrumented()) {
+					node = getTracedRoot();
+					break;
+				}
+			}
+			
+			if (contexts.length == 1) {
+				results = new DataValue[] { node.evaluate(contexts[0]) };
+			} else {
+				results = ColumnarEvaluator.evaluate(node, contexts);
+			}
+			
+			for (int i = 0; i < contexts.length; i++) {
+				if (began[i]) {
+					contexts[i].getSymbolTable().commit();
+				}
+			}
+		} finally {
+			for (int i = 0; i < contexts.length; i++) {
+				SymbolTable symbolTable = contexts[i].getSymbolTable();
+				if (began[i]) {
+					symbolTable.rollback();
+				}
+				symbolTable.clearPrefetchedProperties();
+				contexts[i].finishEvaluation();
+			}
+		}
+		
+		return results;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+import net.rptools.parser.EvaluationLimitExceededException.Limit;
+
+/**
+ * Keeps track of the work performed while evaluating a script and aborts the evaluation
+ * once any of the limits have been exceeded.
+ *
+ * Steps are counted on every call to {@link #step()} but the more expensive checks (the
+ * clock and the cancellation token) are only performed every {@link #CHECK_INTERVAL} steps.
+ *
+ */
+final class EvaluationBudget {
+
+	/** The number of steps between checks of the clock and cancellation token. */
+	static final long CHECK_INTERVAL = 1024;
+
+	/** The value used when there is no limit on the number of steps. */
+	static final long NO_STEP_LIMIT = Long.MAX_VALUE;
+	
+	/** The value used when there is no limit on the memory used. */
+	static final long NO_MEMORY_LIMIT = Long.MAX_VALUE;
+	
+	/** 
+	 * The estimated number of bytes used by each element of a list created by the engine, 
+	 * this is the reference held in the list and a small value object.
+	 */
+	static final long ESTIMATED_BYTES_PER_ELEMENT = 32;
+
+	/** The maximum number of steps an evaluation can perform. */
+	private final long maxSteps;
+
+	/** The maximum number of nanoseconds an evaluation can run for, 0 if there is no limit. */
+	private final long timeLimitNanos;
+
+	/** The token used to cancel the evaluation, null if there is no token. */
+	private CancellationToken cancellationToken;
+	
+	/** The maximum number of list elements the evaluation can create. */
+	private final long maxElements;
+	
+	/** The maximum number of bytes the evaluation can use for lists. */
+	private final long maxBytes;
+	
+	/** The number of list elements created in the current evaluation. */
+	private long elements;
+
+	/** The number of steps performed in the current evaluation. */
+	private long steps;
+
+	/** The step count at which the next full check is performed. */
+	private long nextCheck;
+
+	/** The time (from {@link System#nanoTime()}) the current evaluation started. */
+	private long startTime;
+
+	/**
+	 * Creates a new EvaluationBudget.
+	 *
+	 * @param stepLimit The maximum number of steps or {@link #NO_STEP_LIMIT}.
+	 * @param timeLimitMillis The maximum number of milliseconds or 0 for no limit.
+	 * @param token The cancellation token or null.
+	 * @param memoryLimit The maximum number of bytes or {@link #NO_MEMORY_LIMIT}.
+	 */
+	EvaluationBudget(long stepLimit, long timeLimitMillis, CancellationToken token, long memoryLimit) {
+		assert stepLimit >= 0 : "Step limit can not be negative";
+		assert timeLimitMillis >= 0 : "Time limit can not be negative";
+		assert memoryLimit >= 0 : "Memory limit can not be negative";
+
+		maxSteps = stepLimit;
+		timeLimitNanos = timeLimitMillis * 1000000L;
+		cancellationToken = token;
+		maxBytes = memoryLimit;
+		maxElements = memoryLimit / ESTIMATED_BYTES_PER_ELEMENT;
+		start();
+	}
+
+	/**
+	 * Resets the budget for the start of a new evaluation.
+	 */
+	void start() {
+		steps = 0;
+		elements = 0;
+		startTime = System.nanoTime();
+		scheduleNextCheck();
+	}
+
+	/**
+	 * Sets the token used to cancel evaluations, replacing the token the budget was
+	 * created with.
+	 *
+	 * @param token The cancellation token or null.
+	 */
+	void setCancellationToken(CancellationToken token) {
+		cancellationToken = token;
+	}
+
+	/**
+	 * Records that one step of evaluation has been performed.
+	 *
+	 * @throws EvaluationLimitExceededException if any of the limits have been exceeded.
+	 */
+	void step() throws EvaluationLimitExceededException {
+		if (++steps >= nextCheck) {
+			check();
+		}
+	}
+
+	/**
+	 * Records that several steps of evaluation are about to be performed.
+	 *
+	 * @param count The number of steps.
+	 *
+	 * @throws EvaluationLimitExceededException if any of the limits have been exceeded.
+	 */
+	void steps(long count) throws EvaluationLimitExceededException {
+		if (count <= maxSteps - steps) {
+			steps += count;
+		} else {
+			steps = maxSteps == NO_STEP_LIMIT ? NO_STEP_LIMIT : maxSteps + 1;
+		}
+		if (steps >= nextCheck) {
+			check();
+		}
+	}
+
+	/**
+	 * Records that a list with the specified number of elements is about to be created. 
+	 * This must be called before the list is allocated so that the evaluation fails before
+	 * the memory is used.
+	 *
+	 * @param count The number of elements in the list, counts of zero or less reserve nothing.
+	 *
+	 * @throws EvaluationLimitExceededException if the memory limit would be exceeded.
+	 */
+	void reserveElements(long count) throws EvaluationLimitExceededException {
+		if (count <= 0) {
+			return;
+		}
+		
+		if (count > maxElements - elements) {
+			throw new EvaluationLimitExceededException("Evaluation exceeded the memory limit of " + maxBytes + 
+					" bytes creating a list of " + count + " elements (" + elements + " elements already created).",
+					Limit.MEMORY, steps, getElapsedMillis());
+		}
+		elements += count;
+	}
+
+	/**
+	 * Records that working memory other than a list is about to be allocated. The memory is
+	 * counted as the number of list elements that would use the same number of bytes.
+	 *
+	 * @param bytes The number of bytes.
+	 *
+	 * @throws EvaluationLimitExceededException if the memory limit would be exceeded.
+	 */
+	void reserveBytes(long bytes) throws EvaluationLimitExceededException {
+		reserveElements((bytes + ESTIMATED_BYTES_PER_ELEMENT - 1) / ESTIMATED_BYTES_PER_ELEMENT);
+	}
+
+	/**
+	 * Returns the number of list elements created in the current evaluation.
+	 *
+	 * @return the number of list elements.
+	 */
+	long getElements() {
+		return elements;
+	}
+
+	/**
+	 * Returns the number of steps performed in the current evaluation.
+	 *
+	 * @return the number of steps.
+	 */
+	long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the number of milliseconds since the current evaluation started.
+	 *
+	 * @return the elapsed time in milliseconds.
+	 */
+	long getElapsedMillis() {
+		return (System.nanoTime() - startTime) / 1000000L;
+	}
+
+	/**
+	 * Checks all the limits.
+	 *
+	 * @throws EvaluationLimitExceededException if any of the limits have been exceeded.
+	 */
+	private void check() throws EvaluationLimitExceededException {
+		if (steps > maxSteps) {
+			throw new EvaluationLimitExceededException("Evaluation exceeded the limit of " + maxSteps + " steps.",
+					Limit.STEPS, steps, getElapsedMillis());
+		}
+
+		if (cancellationToken != null && cancellationToken.isCancelled()) {
+			throw new EvaluationLimitExceededException("Evaluation was cancelled.", Limit.CANCELLED, steps,
+					getElapsedMillis());
+		}
+
+		if (timeLimitNanos > 0 && System.nanoTime() - startTime > timeLimitNanos) {
+			throw new EvaluationLimitExceededException("Evaluation exceeded the time limit of " +
+					timeLimitNanos / 1000000L + "ms.", Limit.TIME, steps, getElapsedMillis());
+		}
+
+		scheduleNextCheck();
+	}
+
+	/**
+	 * Calculates the step count at which the next full check will be performed.
+	 */
+	private void scheduleNextCheck() {
+		long next = steps + CHECK_INTERVAL;
+		if (next < steps) {
+			next = NO_STEP_LIMIT;
+		} else if (maxSteps != NO_STEP_LIMIT && next > maxSteps) {
+			next = maxSteps + 1;
+		}
+		nextCheck = next;
+	}
+}
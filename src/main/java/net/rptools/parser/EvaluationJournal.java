@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.functions.ScriptFunction;
+
+/**
+ * Records the prompt answers, dice rolls and results of functions that are not deterministic
+ * of a {@link SuspendableEvaluation} so that the evaluation can be replayed up to the point 
+ * it was suspended and produce the same results.
+ * <p>
+ * Variables and properties read by the script are not recorded, so if they change while the
+ * evaluation is suspended the replay may take a different path through the script. The name 
+ * of each prompt, the name and plan of each roll and the function of each call are recorded
+ * along with the values, and the replay fails if it does not reach them in the same order.
+ * </p>
+ */
+final class EvaluationJournal {
+
+	/** The answers to the prompts in the order they were asked. */
+	private final List<DataValue> promptAnswers = new ArrayList<>();
+	
+	/** The names of the prompts that were answered, in the same order as the answers. */
+	private final List<String> promptNames = new ArrayList<>();
+
+	/** The results of the dice rolls in the order they were rolled. */
+	private final List<DataValue> rolls = new ArrayList<>();
+	
+	/** The names of the dice rolls, in the same order as the results. */
+	private final List<String> rollNames = new ArrayList<>();
+	
+	/** The plans of the dice rolls, in the same order as the results, null if not known. */
+	private final List<RollPlan> rollPlans = new ArrayList<>();
+
+	/** 
+	 * The results of the calls to functions that are not deterministic in the order they were
+	 * made, null for calls that did not complete before the evaluation was suspended.
+	 */
+	private final List<DataValue> callResults = new ArrayList<>();
+	
+	/** The functions called, in the same order as the results. */
+	private final List<ScriptFunction> callFunctions = new ArrayList<>();
+	
+	/** 
+	 * The indexes of the next call, roll and prompt answer when each call completed, so that
+	 * the calls, rolls and prompts made by a replayed call can be skipped.
+	 */
+	private final List<int[]> callEnds = new ArrayList<>();
+
+	/** The index of the next prompt answer to replay. */
+	private int promptIndex;
+
+	/** The index of the next dice roll to replay. */
+	private int rollIndex;
+	
+	/** The index of the next function call to replay. */
+	private int callIndex;
+
+	/**
+	 * Moves back to the start of the journal before the evaluation is replayed.
+	 */
+	void rewind() {
+		promptIndex = 0;
+		rollIndex = 0;
+		callIndex = 0;
+	}
+
+	/**
+	 * Returns the answer for the next prompt.
+	 *
+	 * @param name The name of the prompt.
+	 * @param description The description of the prompt or null.
+	 *
+	 * @return the answer to the prompt.
+	 *
+	 * @throws EvaluationSuspendedException if the prompt has not been answered yet.
+	 * @throws ExpressionEvaluatorException if the replay reached a different prompt than
+	 *         the one answered.
+	 */
+	DataValue nextPromptAnswer(String name, String description) throws ExpressionEvaluatorException {
+		if (promptIndex < promptAnswers.size()) {
+			if (promptNames.get(promptIndex).equals(name) == false) {
+				throw diverged("prompt " + promptNames.get(promptIndex), "prompt " + name);
+			}
+			return promptAnswers.get(promptIndex++);
+		}
+
+		throw new EvaluationSuspendedException(name, description);
+	}
+
+	/**
+	 * Adds the answer to the prompt the evaluation was suspended at.
+	 *
+	 * @param name The name of the prompt.
+	 * @param answer The answer to the prompt.
+	 */
+	void addPromptAnswer(String name, DataValue answer) {
+		promptNames.add(name);
+		promptAnswers.add(answer);
+	}
+
+	/**
+	 * Returns the result of the next dice roll if it is being replayed.
+	 *
+	 * @param name The name of the roll.
+	 * @param plan The plan of the roll or null if it is not known.
+	 *
+	 * @return the result of the dice roll or null if it has not been rolled before.
+	 * 
+	 * @throws ExpressionEvaluatorException if the replay reached a different roll than the
+	 *         one recorded.
+	 */
+	DataValue nextRoll(String name, RollPlan plan) throws ExpressionEvaluatorException {
+		if (rollIndex < rolls.size()) {
+			RollPlan recordedPlan = rollPlans.get(rollIndex);
+			if (rollNames.get(rollIndex).equals(name) == false 
+					|| (recordedPlan != null && plan != null && recordedPlan.equals(plan) == false)) {
+				throw diverged("roll " + describeRoll(rollNames.get(rollIndex), recordedPlan), 
+						"roll " + describeRoll(name, plan));
+			}
+			return rolls.get(rollIndex++);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records the result of a new dice roll.
+	 *
+	 * @param name The name of the roll.
+	 * @param plan The plan of the roll or null if it is not known.
+	 * @param result The result of the dice roll.
+	 */
+	void recordRoll(String name, RollPlan plan, DataValue result) {
+		rollNames.add(name);
+		rollPlans.add(plan);
+		rolls.add(result);
+		rollIndex++;
+	}
+	
+	/**
+	 * Returns the result of the next function call if it completed before the evaluation was
+	 * suspended. Anything recorded while the call was made is skipped, as it is not made again.
+	 * 
+	 * @param function The function being called.
+	 * 
+	 * @return the result of the call or null if it has not completed before.
+	 * 
+	 * @throws ExpressionEvaluatorException if the replay reached a call to a different 
+	 *         function than the one recorded.
+	 */
+	DataValue nextCallResult(ScriptFunction function) throws ExpressionEvaluatorException {
+		if (callIndex < callResults.size() && callFunctions.get(callIndex) != function) {
+			throw diverged("call to " + callFunctions.get(callIndex).getDefinition().name(), 
+					"call to " + function.getDefinition().name());
+		}
+		
+		if (callIndex < callResults.size() && callResults.get(callIndex) != null) {
+			int[] end = callEnds.get(callIndex);
+			DataValue result = callResults.get(callIndex);
+			callIndex = end[0];
+			rollIndex = end[1];
+			promptIndex = end[2];
+			return result;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Starts recording a function call, calls made by the function are recorded after it.
+	 * 
+	 * @param function The function being called.
+	 * 
+	 * @return the slot to record the result of the call in.
+	 */
+	int beginCall(ScriptFunction function) {
+		if (callIndex == callResults.size()) {
+			callResults.add(null);
+			callEnds.add(null);
+			callFunctions.add(function);
+		}
+		return callIndex++;
+	}
+	
+	/**
+	 * Records the result of a function call that has completed.
+	 * 
+	 * @param slot The slot returned by {@link #beginCall(ScriptFunction)}.
+	 * @param result The result of the call.
+	 */
+	void endCall(int slot, DataValue result) {
+		callResults.set(slot, result);
+		callEnds.set(slot, new int[] { callIndex, rollIndex, promptIndex });
+	}
+	
+	/**
+	 * Returns a description of a roll for errors.
+	 * 
+	 * @param name The name of the roll.
+	 * @param plan The plan of the roll or null.
+	 * 
+	 * @return the description.
+	 */
+	private static String describeRoll(String name, RollPlan plan) {
+		return plan == null ? name : name + " (" + plan + ")";
+	}
+	
+	/**
+	 * Returns the exception for a replay that did not reach what was recorded, which happens 
+	 * when variables or properties the script reads change while it is suspended.
+	 * 
+	 * @param expected What was recorded.
+	 * @param actual What the replay reached.
+	 * 
+	 * @return the exception.
+	 */
+	private static ExpressionEvaluatorException diverged(String expected, String actual) {
+		return new ExpressionEvaluatorException("Resumed evaluation did not replay as it was evaluated before it " 
+				+ "was suspended, expected the " + expected + " but reached the " + actual + ".");
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+/**
+ * Exception thrown when the evaluation of a script is aborted because it exceeded
+ * one of the limits set for the {@link ScriptContext} or was cancelled.
+ *
+ */
+public class EvaluationLimitExceededException extends ExpressionEvaluatorException {
+
+	/** Serial UID. */
+	private static final long serialVersionUID = 2381563946022712475L;
+
+	/**
+	 * Enumeration of the limits that can cause an evaluation to be aborted.
+	 */
+	public enum Limit {
+		/** The maximum number of evaluation steps was exceeded. */
+		STEPS,
+		/** The time limit for the evaluation was exceeded. */
+		TIME,
+		/** The evaluation was cancelled. */
+		CANCELLED,
+		/** The memory limit for the evaluation was exceeded. */
+		MEMORY,
+		/** The estimated cost of the script exceeded the limit, the script was not evaluated. */
+		COST
+	}
+
+	/** The limit that was exceeded. */
+	private final Limit limit;
+
+	/** The number of steps performed before the evaluation was aborted. */
+	private final long steps;
+
+	/** The number of milliseconds the evaluation ran for before it was aborted. */
+	private final long elapsedMillis;
+
+	/**
+	 * Creates a new EvaluationLimitExceededException.
+	 *
+	 * @param msg A message describing the exception.
+	 * @param lim The limit that was exceeded.
+	 * @param stepCount The number of steps performed before the evaluation was aborted.
+	 * @param elapsed The number of milliseconds the evaluation ran for.
+	 */
+	public EvaluationLimitExceededException(String msg, Limit lim, long stepCount, long elapsed) {
+		super(msg);
+		limit = lim;
+		steps = stepCount;
+		elapsedMillis = elapsed;
+	}
+
+	/**
+	 * Returns the limit that was exceeded.
+	 *
+	 * @return the limit that was exceeded.
+	 */
+	public Limit getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of steps that were performed before the evaluation was aborted.
+	 *
+	 * @return the number of steps performed.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the number of milliseconds that the evaluation ran for before it was aborted.
+	 *
+	 * @return the elapsed time in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+}
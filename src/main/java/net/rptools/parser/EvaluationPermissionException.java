@@ -45,6 +45,17 @@ public class EvaluationPermissionException extends ExpressionEvaluatorException
 	public EvaluationPermissionException(String msg, Throwable cause) {
 		super(msg, cause);
 	}
+	
+	/**
+	 * Creates a new EvaluationPermissionException which may skip filling in the stack trace.
+	 * 
+	 * @param msg A message describing the exception.
+	 * @param cause The original exception or null.
+	 * @param writableStackTrace true if the stack trace should be filled in.
+	 */
+	public EvaluationPermissionException(String msg, Throwable cause, boolean writableStackTrace) {
+		super(msg, cause, writableStackTrace);
+	}
 
 
 }
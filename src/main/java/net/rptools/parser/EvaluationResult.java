@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * The result of evaluating a script, which is either the value of the script or the 
+ * error that stopped the evaluation.
+ *
+ * @see CompiledScript#evaluateToResult(ScriptContext)
+ */
+public final class EvaluationResult {
+
+	/** The value of the script, null if there was an error. */
+	private final DataValue value;
+	
+	/** The error that stopped the evaluation, null if there was no error. */
+	private final ScriptError error;
+	
+	/**
+	 * Creates a new EvaluationResult.
+	 * 
+	 * @param val The value of the script or null.
+	 * @param err The error that stopped the evaluation or null.
+	 */
+	private EvaluationResult(DataValue val, ScriptError err) {
+		value = val;
+		error = err;
+	}
+	
+	/**
+	 * Returns a successful EvaluationResult.
+	 * 
+	 * @param val The value of the script.
+	 * 
+	 * @return the EvaluationResult.
+	 */
+	static EvaluationResult success(DataValue val) {
+		return new EvaluationResult(val, null);
+	}
+	
+	/**
+	 * Returns a failed EvaluationResult.
+	 * 
+	 * @param err The error that stopped the evaluation.
+	 * 
+	 * @return the EvaluationResult.
+	 */
+	static EvaluationResult failure(ScriptError err) {
+		return new EvaluationResult(null, err);
+	}
+	
+	/**
+	 * Checks if the evaluation stopped with an error.
+	 * 
+	 * @return true if there was an error.
+	 */
+	public boolean isError() {
+		return error != null;
+	}
+	
+	/**
+	 * Returns the value of the script.
+	 * 
+	 * @return the value of the script.
+	 * 
+	 * @throws IllegalStateException if the evaluation stopped with an error.
+	 */
+	public DataValue getValue() {
+		if (error != null) {
+			throw new IllegalStateException("Evaluation failed: " + error);
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns the error that stopped the evaluation.
+	 * 
+	 * @return the error or null if there was no error.
+	 */
+	public ScriptError getError() {
+		return error;
+	}
+	
+	@Override
+	public String toString() {
+		return error != null ? error.toString() : String.valueOf(value);
+	}
+}
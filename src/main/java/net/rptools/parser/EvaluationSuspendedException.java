@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+/**
+ * Exception used to unwind a {@link SuspendableEvaluation} when it reaches a prompt that
+ * has not been answered yet. It never escapes from {@link SuspendableEvaluation}.
+ *
+ */
+class EvaluationSuspendedException extends ExpressionEvaluatorException {
+
+	/** Serial UID. */
+	private static final long serialVersionUID = -3150987262358746119L;
+
+	/** The name of the prompt. */
+	private final String promptName;
+
+	/** The description of the prompt, null if there is no description. */
+	private final String promptDescription;
+
+	/**
+	 * Creates a new EvaluationSuspendedException.
+	 *
+	 * @param name The name of the prompt.
+	 * @param description The description of the prompt or null.
+	 */
+	EvaluationSuspendedException(String name, String description) {
+		super("Evaluation suspended at prompt " + name);
+		promptName = name;
+		promptDescription = description;
+	}
+
+	/**
+	 * Returns the name of the prompt.
+	 *
+	 * @return the name of the prompt.
+	 */
+	String getPromptName() {
+		return promptName;
+	}
+
+	/**
+	 * Returns the description of the prompt.
+	 *
+	 * @return the description of the prompt or null.
+	 */
+	String getPromptDescription() {
+		return promptDescription;
+	}
+}
@@ -24,6 +24,12 @@ public class ExpressionEvaluatorException extends Exception {
 	
 	/** The serial version UID */
 	private static final long serialVersionUID = -4948811949842408127L;
+	
+	/** The position in the script where the error occurred, null if it is not known. */
+	private SourcePosition sourcePosition;
+	
+	/** The index of the statement where the error occurred, -1 if it is not known. */
+	private int statementIndex = -1;
 
 	/**
 	 * Creates a new ExpressionEvaluatorException.
@@ -44,5 +50,61 @@ public class ExpressionEvaluatorException extends Exception {
 	public ExpressionEvaluatorException(String msg, Throwable cause) {
 		super(msg, cause);
 	}
+	
+	/**
+	 * Creates a new ExpressionEvaluatorException which may skip filling in the stack trace. 
+	 * The stack trace is expensive to create and is not needed for errors in scripts that 
+	 * are reported to the user rather than a developer.
+	 * 
+	 * @param msg A message describing the exception.
+	 * @param cause The original exception or null.
+	 * @param writableStackTrace true if the stack trace should be filled in.
+	 */
+	public ExpressionEvaluatorException(String msg, Throwable cause, boolean writableStackTrace) {
+		super(msg, cause, true, writableStackTrace);
+	}
+	
+	/**
+	 * Returns the position in the script where the error occurred.
+	 * 
+	 * @return the position or null if it is not known.
+	 */
+	public SourcePosition getSourcePosition() {
+		return sourcePosition;
+	}
+	
+	/**
+	 * Sets the position in the script where the error occurred, if it has not already been
+	 * set. The exception passes through the nodes from the innermost out so the first 
+	 * position set is the most precise.
+	 * 
+	 * @param pos The position.
+	 */
+	public void setSourcePositionIfAbsent(SourcePosition pos) {
+		if (sourcePosition == null) {
+			sourcePosition = pos;
+		}
+	}
+	
+	/**
+	 * Returns the index of the statement in the script where the error occurred.
+	 * 
+	 * @return the index of the statement, starting at 0, or -1 if it is not known.
+	 */
+	public int getStatementIndex() {
+		return statementIndex;
+	}
+	
+	/**
+	 * Sets the index of the statement in the script where the error occurred, if it has 
+	 * not already been set.
+	 * 
+	 * @param index The index of the statement, starting at 0.
+	 */
+	public void setStatementIndexIfAbsent(int index) {
+		if (statementIndex < 0) {
+			statementIndex = index;
+		}
+	}
 
 }
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.symboltable.SymbolTableBuilder;
+
+/**
+ * PreparedScript is a script with declared parameters that is compiled once and then
+ * executed many times with different arguments, without building or parsing a new script
+ * for each set of arguments.
+ *
+ * Parameters are referenced in the script as variables, so a script prepared with the 
+ * parameter {@code hp} reads the argument bound to it wherever {@code $hp} appears. 
+ * Parameters can not be assigned a value in the script.
+ *
+ */
+public final class PreparedScript {
+
+	/** The compiled script. */
+	private final CompiledScript script;
+
+	/** The names of the parameters in slot order. */
+	private final List<String> parameterNames;
+
+	/**
+	 * Creates a new PreparedScript.
+	 *
+	 * @param compiled The compiled script.
+	 * @param names The names of the parameters in slot order.
+	 */
+	private PreparedScript(CompiledScript compiled, List<String> names) {
+		script = compiled;
+		parameterNames = names;
+	}
+
+	/**
+	 * Prepares a script with parameters.
+	 *
+	 * @param text The text of the script.
+	 * @param parameters The names of the parameters, the arguments to
+	 *        {@link #execute(ScriptContext, DataValue...)} are bound in the same order.
+	 *
+	 * @return the prepared script.
+	 *
+	 * @throws NullPointerException if text or any of the parameter names are null.
+	 * @throws IllegalArgumentException if a parameter name is repeated or the script assigns 
+	 *         a value to a parameter.
+	 */
+	public static PreparedScript prepare(String text, String... parameters) {
+		if (text == null) {
+			throw new NullPointerException("Text to parse can not be null.");
+		}
+
+		List<String> names = new ArrayList<>(parameters.length);
+		for (String name : parameters) {
+			if (name == null) {
+				throw new NullPointerException("Parameter name can not be null.");
+			}
+
+			if (names.contains(name)) {
+				throw new IllegalArgumentException("Parameter " + name + " is declared more than once.");
+			}
+			names.add(name);
+		}
+		names = Collections.unmodifiableList(names);
+
+		return new PreparedScript(CompiledScript.compile(text, new SymbolTableBuilder().toSymbolTable(), names, 
+				CompiledScript.nextRollNamePrefix()), names);
+	}
+
+	/**
+	 * Returns the names of the parameters in the order the arguments are bound.
+	 *
+	 * @return the names of the parameters.
+	 */
+	public List<String> getParameterNames() {
+		return parameterNames;
+	}
+
+	/**
+	 * Returns the compiled script. The compiled script reads its parameters from the context
+	 * so it can only be evaluated with the arguments bound, which is why it is not public.
+	 *
+	 * @return the compiled script.
+	 */
+	CompiledScript getCompiledScript() {
+		return script;
+	}
+
+	/**
+	 * Executes the script with the arguments bound to the parameters.
+	 *
+	 * @param context The context to execute the script with.
+	 * @param args The arguments, one for each parameter in the order they were declared.
+	 *
+	 * @return the results of evaluating the script.
+	 *
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 * @throws NullPointerException if context or any of the arguments are null.
+	 * @throws IllegalArgumentException if the number of arguments does not match the number
+	 *         of parameters.
+	 */
+	public DataValue execute(ScriptContext context, DataValue... args) throws ExpressionEvaluatorException {
+		if (context == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+
+		DataValue[] previous = context.getParameters();
+		context.setParameters(bindArguments(args));
+		try {
+			return script.evaluate(context);
+		} finally {
+			context.setParameters(previous);
+		}
+	}
+
+	/**
+	 * Checks the arguments for the parameters and returns a copy of them to bind to a context.
+	 *
+	 * @param args The arguments, one for each parameter in the order they were declared.
+	 *
+	 * @return a copy of the arguments.
+	 *
+	 * @throws NullPointerException if any of the arguments are null.
+	 * @throws IllegalArgumentException if the number of arguments does not match the number
+	 *         of parameters.
+	 */
+	DataValue[] bindArguments(DataValue... args) {
+		if (args.length != parameterNames.size()) {
+			throw new IllegalArgumentException("Expected " + parameterNames.size() + " arguments but got " +
+					args.length + ".");
+		}
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null) {
+				throw new NullPointerException("Argument for parameter " + parameterNames.get(i) + " is null.");
+			}
+		}
+
+		return Arrays.copyOf(args, args.length);
+	}
+}
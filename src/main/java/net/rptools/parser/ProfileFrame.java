@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A frame in the tree of call stacks recorded by the profiler, the time of each frame
+ * excludes the time of its children.
+ *
+ */
+final class ProfileFrame {
+
+	/** The name of the frame. */
+	private final String name;
+	
+	/** The frame this frame was called from, null for the root. */
+	private final ProfileFrame parent;
+	
+	/** The frames called from this frame, mapped by name. */
+	private final Map<String, ProfileFrame> children = new LinkedHashMap<>();
+	
+	/** The time spent in this frame, excluding its children, in nanoseconds. */
+	private long selfTime;
+	
+	/** The number of times the frame was entered. */
+	private long calls;
+	
+	/**
+	 * Creates a new ProfileFrame.
+	 * 
+	 * @param frameName The name of the frame.
+	 * @param parentFrame The frame this frame was called from or null.
+	 */
+	ProfileFrame(String frameName, ProfileFrame parentFrame) {
+		name = frameName;
+		parent = parentFrame;
+	}
+	
+	/**
+	 * Returns the frame called from this frame with the specified name, creating it if 
+	 * it does not exist.
+	 * 
+	 * @param childName The name of the frame.
+	 * 
+	 * @return the child frame.
+	 */
+	ProfileFrame getChild(String childName) {
+		ProfileFrame child = children.get(childName);
+		if (child == null) {
+			child = new ProfileFrame(childName, this);
+			children.put(childName, child);
+		}
+		return child;
+	}
+	
+	/**
+	 * Returns the frame called from this frame with the specified name.
+	 * 
+	 * @param childName The name of the frame.
+	 * 
+	 * @return the child frame or null if it does not exist.
+	 */
+	ProfileFrame findChild(String childName) {
+		return children.get(childName);
+	}
+	
+	/**
+	 * Returns the frames called from this frame.
+	 * 
+	 * @return the child frames.
+	 */
+	Collection<ProfileFrame> getChildren() {
+		return children.values();
+	}
+	
+	/**
+	 * Adds a call of this frame.
+	 * 
+	 * @param time The time spent in the frame, excluding its children, in nanoseconds.
+	 * @param count The number of calls.
+	 */
+	void add(long time, long count) {
+		selfTime += time;
+		calls += count;
+	}
+	
+	/**
+	 * Returns the name of the frame.
+	 * 
+	 * @return the name.
+	 */
+	String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the frame this frame was called from.
+	 * 
+	 * @return the parent frame or null for the root.
+	 */
+	ProfileFrame getParent() {
+		return parent;
+	}
+	
+	/**
+	 * Returns the time spent in this frame, excluding its children.
+	 * 
+	 * @return the time in nanoseconds.
+	 */
+	long getSelfTime() {
+		return selfTime;
+	}
+	
+	/**
+	 * Returns the number of times the frame was entered.
+	 * 
+	 * @return the number of calls.
+	 */
+	long getCalls() {
+		return calls;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.Arrays;
+
+/**
+ * ProfileRecorder records the time spent in each node of a script during a single sampled
+ * evaluation. It belongs to the context being evaluated and is merged into the
+ * {@link ScriptProfiler} when the evaluation finishes.
+ *
+ */
+public final class ProfileRecorder {
+	
+	/** The initial depth of the stack. */
+	private static final int INITIAL_DEPTH = 32;
+
+	/** The root of the call stacks recorded. */
+	private final ProfileFrame root = new ProfileFrame(null, null);
+	
+	/** The frame currently being evaluated. */
+	private ProfileFrame current = root;
+	
+	/** The times the frames on the stack were entered. */
+	private long[] startTimes = new long[INITIAL_DEPTH];
+	
+	/** The time spent in the children of the frames on the stack. */
+	private long[] childTimes = new long[INITIAL_DEPTH];
+	
+	/** The number of frames on the stack. */
+	private int depth;
+	
+	/**
+	 * Creates a new ProfileRecorder.
+	 */
+	ProfileRecorder() {
+	}
+	
+	/**
+	 * Records that the evaluation of a frame started.
+	 * 
+	 * @param name The name of the frame.
+	 */
+	public void enter(String name) {
+		if (depth == startTimes.length) {
+			startTimes = Arrays.copyOf(startTimes, depth * 2);
+			childTimes = Arrays.copyOf(childTimes, depth * 2);
+		}
+		
+		current = current.getChild(name);
+		childTimes[depth] = 0;
+		startTimes[depth++] = System.nanoTime();
+	}
+	
+	/**
+	 * Records that the evaluation of the current frame finished.
+	 */
+	public void exit() {
+		long elapsed = System.nanoTime() - startTimes[--depth];
+		current.add(elapsed - childTimes[depth], 1);
+		if (depth > 0) {
+			childTimes[depth - 1] += elapsed;
+		}
+		current = current.getParent();
+	}
+	
+	/**
+	 * Returns the root of the call stacks recorded.
+	 * 
+	 * @return the root frame.
+	 */
+	ProfileFrame getRoot() {
+		return root;
+	}
+}
@@ -14,7 +14,15 @@ w * Licensed under the Apache License, Version 2.0 (the "License");
  */
 package net.rptools.parser;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.permissions.PlayerPermissions;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.functions.ScriptFunction;
+import net.rptools.parser.functions.ScriptFunctionException;
+import net.rptools.parser.random.RandomSource;
 import net.rptools.parser.symboltable.SymbolTable;
 
 /**
@@ -23,6 +31,12 @@ import net.rptools.parser.symboltable.SymbolTable;
  */
 public class ScriptContext {
 
+	/** The value used when there is no limit on the estimated cost of a script. */
+	public static final long NO_COST_LIMIT = Long.MAX_VALUE;
+
+	/** The id of this context, unique within the JVM. */
+	private final long id;
+	
 	/** The player permissions for this context. */
 	private final PlayerPermissions playerPermissions;
 	
@@ -42,18 +56,82 @@ public class ScriptContext {
 	 */
 	private final boolean debug;
 	
+	/** 
+	 * The limits on the evaluation of the script, null if there are no limits 
+	 * so that the checks cost nothing.
+	 */
+	private EvaluationBudget budget;
+	
+	/** The maximum estimated cost of scripts that can be evaluated with this context. */
+	private final long costLimit;
+	
+	/** Are the variables and properties set by a script only committed if it succeeds. */
+	private final boolean transactional;
+	
+	/** The buffer events are traced to in debug mode, null if not in debug mode. */
+	private final TraceBuffer traceBuffer;
+	
+	/** The profiler that samples evaluations with this context, null if there is none. */
+	private final ScriptProfiler profiler;
+	
+	/** The recorder for the evaluation in progress, null if it is not being profiled. */
+	private ProfileRecorder profileRecorder;
+	
+	/** 
+	 * The journal of the suspendable evaluation in progress, null if the evaluation can not
+	 * be suspended.
+	 */
+	private EvaluationJournal journal;
+	
+	/** The arguments bound to the parameters of a prepared script, null if there are none. */
+	private DataValue[] parameters;
+	
+	/** Are errors being returned as values rather than reported to a developer. */
+	private boolean errorsAsValues;
+	
+	/** The pool the context was created by, null if it was not created by a pool. */
+	private ScriptContextPool pool;
+	
+	/** Is the context waiting in its pool to be acquired again. */
+	private final AtomicBoolean released = new AtomicBoolean();
+	
 	/**
 	 * Creates a new ScriptContext object. 
 	 * 
+	 * @param contextId The id of the context.
 	 * @param permissions The player permissions that the script will execute with.
 	 * @param symTable The symbol table used to resolve symbols.
 	 * @param uData Any data you need made available to functions.
+	 * @param debugFlag Is the script being run in debug mode.
+	 * @param evalBudget The limits on the evaluation of the script or null for no limits.
+	 * @param maxCost The maximum estimated cost of a script or {@link #NO_COST_LIMIT}.
+	 * @param transactionalFlag Are scripts evaluated in a transaction.
+	 * @param trace The buffer to trace events to or null, only used in debug mode.
+	 * @param scriptProfiler The profiler that samples evaluations or null.
 	 */
-	ScriptContext(PlayerPermissions permissions, SymbolTable symTable, Object uData, boolean debugFlag) {
+	ScriptContext(long contextId, PlayerPermissions permissions, SymbolTable symTable, Object uData, boolean debugFlag,
+				  EvaluationBudget evalBudget, long maxCost, boolean transactionalFlag, TraceBuffer trace,
+				  ScriptProfiler scriptProfiler) {
+		id = contextId;
 		playerPermissions = permissions;
 		symbolTable = symTable;
 		userData = uData;
 		debug = debugFlag;
+		budget = evalBudget;
+		costLimit = maxCost;
+		transactional = transactionalFlag;
+		traceBuffer = debugFlag ? trace : null;
+		profiler = scriptProfiler;
+	}
+
+	/**
+	 * Returns the id of the context, which is unique within the JVM and identifies the
+	 * rolls made by the context in a roll audit log.
+	 * 
+	 * @return the id.
+	 */
+	public long getId() {
+		return id;
 	}
 
 	/**
@@ -92,5 +170,401 @@ public class ScriptContext {
 		return debug;
 	}
 	
+	/**
+	 * Returns the buffer that the evaluation of scripts is traced to in debug mode.
+	 * 
+	 * @return the trace buffer or null if the context is not in debug mode.
+	 */
+	public TraceBuffer getTraceBuffer() {
+		return traceBuffer;
+	}
+	
+	/**
+	 * Returns the recorder for the evaluation in progress if it has been sampled by the profiler.
+	 * 
+	 * @return the profile recorder or null if the evaluation is not being profiled.
+	 */
+	public ProfileRecorder getProfileRecorder() {
+		return profileRecorder;
+	}
+	
+	/**
+	 * Checks if the evaluation in progress needs the copy of the script that traces and
+	 * profiles each node.
+	 * 
+	 * @return true if the evaluation is traced or profiled.
+	 */
+	boolean isInstrumented() {
+		return traceBuffer != null || profileRecorder != null;
+	}
+	
+	/**
+	 * Records that a step of evaluation has been performed. This should be called by anything
+	 * that performs an unbounded amount of work such as loops and function calls.
+	 * 
+	 * @throws EvaluationLimitExceededException if the evaluation has exceeded one of its limits
+	 *         or has been cancelled.
+	 */
+	public void countStep() throws EvaluationLimitExceededException {
+		if (budget != null) {
+			budget.step();
+		}
+	}
+	
+	/**
+	 * Records that several steps of evaluation are about to be performed.
+	 * 
+	 * @param count The number of steps.
+	 * 
+	 * @throws EvaluationLimitExceededException if the evaluation has exceeded one of its limits
+	 *         or has been cancelled.
+	 */
+	public void countSteps(long count) throws EvaluationLimitExceededException {
+		if (budget != null) {
+			budget.steps(count);
+		}
+	}
+	
+	/**
+	 * Records that a list with the specified number of elements is about to be created by 
+	 * the evaluation. This should be called before the list is allocated so that evaluations 
+	 * that would exceed the memory limit fail before the memory is used.
+	 * 
+	 * @param count The number of elements in the list, counts of zero or less reserve nothing.
+	 * 
+	 * @throws EvaluationLimitExceededException if the memory limit for the evaluation would
+	 *         be exceeded.
+	 */
+	public void reserveListElements(long count) throws EvaluationLimitExceededException {
+		if (budget != null) {
+			budget.reserveElements(count);
+		}
+	}
+	
+	/**
+	 * Returns the source of random numbers for the context, see 
+	 * {@link SymbolTable#getRandomSource()}.
+	 * 
+	 * @return the random source.
+	 */
+	public RandomSource getRandomSource() {
+		return symbolTable.getRandomSource();
+	}
+	
+	/**
+	 * Records that working memory other than a list, such as the dice tracked by a roll, is 
+	 * about to be allocated by the evaluation.
+	 * 
+	 * @param bytes The number of bytes.
+	 * 
+	 * @throws EvaluationLimitExceededException if the memory limit for the evaluation would
+	 *         be exceeded.
+	 */
+	public void reserveMemory(long bytes) throws EvaluationLimitExceededException {
+		if (budget != null) {
+			budget.reserveBytes(bytes);
+		}
+	}
+	
+	/**
+	 * Checks to see if there are any limits on the evaluation of the script.
+	 * 
+	 * @return true if the evaluation is limited.
+	 */
+	public boolean hasEvaluationLimits() {
+		return budget != null;
+	}
+	
+	/**
+	 * Returns the maximum estimated cost of scripts that can be evaluated with this context.
+	 * Scripts with a higher estimated cost are rejected before they are evaluated.
+	 * 
+	 * @return the maximum estimated cost or {@link #NO_COST_LIMIT} if there is no limit.
+	 */
+	public long getCostLimit() {
+		return costLimit;
+	}
+	
+	/**
+	 * Checks to see if scripts are evaluated in a transaction. When they are the variables
+	 * and properties set by a script are held in the symbol table and only passed on to the
+	 * resolvers if the script is evaluated without error.
+	 * 
+	 * @return true if scripts are evaluated in a transaction.
+	 */
+	public boolean isTransactional() {
+		return transactional;
+	}
+	
+	/**
+	 * Prompts for a value. If the evaluation is a {@link SuspendableEvaluation} the evaluation
+	 * is suspended until the prompt is answered rather than waiting for the prompt resolver.
+	 * 
+	 * @param name The name of the prompt.
+	 * @param description The description of the prompt or null.
+	 * 
+	 * @return the value.
+	 * 
+	 * @throws ExpressionEvaluatorException if the prompt was cancelled.
+	 */
+	public DataValue promptForValue(String name, String description) throws ExpressionEvaluatorException {
+		if (journal != null) {
+			return journal.nextPromptAnswer(name, description);
+		}
+		
+		if (description == null) {
+			return symbolTable.promptForValue(name);
+		} else {
+			return symbolTable.promptForValue(name, description);
+		}
+	}
+	
+	/**
+	 * Rolls the dice for the named roll expression. If a {@link SuspendableEvaluation} is being
+	 * resumed then the dice rolled before it was suspended are replayed rather than rolled again.
+	 * 
+	 * @param name The name of the roll expression.
+	 * 
+	 * @return the result of the roll.
+	 * 
+	 * @throws ExpressionEvaluatorException if a resumed evaluation reached a different roll 
+	 *         than the one rolled before it was suspended.
+	 */
+	public DataValue resolveRoll(String name) throws ExpressionEvaluatorException {
+		return resolveRoll(name, null);
+	}
+	
+	/**
+	 * Rolls the dice for the named roll expression using a roll plan compiled from it. If a
+	 * {@link SuspendableEvaluation} is being resumed then the dice rolled before it was 
+	 * suspended are replayed rather than rolled again.
+	 * 
+	 * @param name The name of the roll expression.
+	 * @param plan The roll plan compiled from the roll expression or null to compile it.
+	 * 
+	 * @return the result of the roll.
+	 * 
+	 * @throws ExpressionEvaluatorException if a resumed evaluation reached a different roll 
+	 *         than the one rolled before it was suspended.
+	 */
+	public DataValue resolveRoll(String name, RollPlan plan) throws ExpressionEvaluatorException {
+		if (journal == null) {
+			return roll(name, plan);
+		}
+		
+		DataValue result = journal.nextRoll(name, plan);
+		if (result == null) {
+			result = roll(name, plan);
+			journal.recordRoll(name, plan, result);
+		} else {
+			symbolTable.addRollResult(name, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Calls a function that has not been marked as deterministic. If a 
+	 * {@link SuspendableEvaluation} is being resumed then the result of a call that completed
+	 * before it was suspended is replayed rather than calling the function again, so that
+	 * shuffles, random numbers and side effects are not repeated.
+	 * 
+	 * @param function The function to call.
+	 * @param args The arguments for the function.
+	 * 
+	 * @return the result of the call.
+	 * 
+	 * @throws ScriptFunctionException if an error occurs in the function, or a resumed 
+	 *         evaluation reached a call to a different function than the one called before it
+	 *         was suspended.
+	 */
+	public DataValue callFunction(ScriptFunction function, Map<String, DataValue> args) 
+			throws ScriptFunctionException {
+		if (journal == null) {
+			return function.call(this, args);
+		}
+		
+		DataValue result;
+		try {
+			result = journal.nextCallResult(function);
+		} catch (ExpressionEvaluatorException e) {
+			throw new ScriptFunctionException(e.getMessage(), e);
+		}
+		if (result == null) {
+			int slot = journal.beginCall(function);
+			result = function.call(this, args);
+			journal.endCall(slot, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Rolls the dice for the named roll expression.
+	 * 
+	 * @param name The name of the roll expression.
+	 * @param plan The roll plan compiled from the roll expression or null to compile it.
+	 * 
+	 * @return the result of the roll.
+	 */
+	private DataValue roll(String name, RollPlan plan) {
+		return plan == null ? symbolTable.resolveRoll(name) : symbolTable.resolveRoll(name, plan);
+	}
+	
+	/**
+	 * Returns the argument bound to a parameter of the {@link PreparedScript} being executed.
+	 * 
+	 * @param slot The slot of the parameter.
+	 * 
+	 * @return the argument bound to the parameter.
+	 * 
+	 * @throws IllegalStateException if a prepared script is not being executed.
+	 * @throws IndexOutOfBoundsException if there is no parameter for the slot.
+	 */
+	public DataValue getParameter(int slot) {
+		if (parameters == null) {
+			throw new IllegalStateException("No parameters are bound for the evaluation.");
+		}
+		
+		return parameters[slot];
+	}
+	
+	/**
+	 * Sets the arguments bound to the parameters of the prepared script being executed.
+	 * 
+	 * @param args The arguments or null if a prepared script is not being executed.
+	 */
+	void setParameters(DataValue[] args) {
+		parameters = args;
+	}
+	
+	/**
+	 * Returns the arguments bound to the parameters of the script being evaluated.
+	 * 
+	 * @return the arguments or null if no parameters are bound.
+	 */
+	DataValue[] getParameters() {
+		return parameters;
+	}
+	
+	/**
+	 * Checks if errors in the evaluation in progress are returned to the caller as values.
+	 * Errors that are returned as values are meant for the user who wrote the script so 
+	 * functions should not log them or fill in stack traces for them.
+	 * 
+	 * @return true if errors are returned as values.
+	 * 
+	 * @see CompiledScript#evaluateToResult(ScriptContext)
+	 */
+	public boolean isErrorsAsValues() {
+		return errorsAsValues;
+	}
+	
+	/**
+	 * Sets if errors in the evaluation in progress are returned to the caller as values.
+	 * 
+	 * @param flag true if errors are returned as values.
+	 */
+	void setErrorsAsValues(boolean flag) {
+		errorsAsValues = flag;
+	}
+	
+	/**
+	 * Sets the journal of the suspendable evaluation in progress.
+	 * 
+	 * @param evalJournal The journal or null if the evaluation can not be suspended.
+	 */
+	void setJournal(EvaluationJournal evalJournal) {
+		journal = evalJournal;
+	}
+	
+	/**
+	 * Returns the pool the context was created by.
+	 * 
+	 * @return the pool or null if the context was not created by a pool.
+	 */
+	ScriptContextPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Sets the pool the context was created by.
+	 * 
+	 * @param contextPool The pool.
+	 */
+	void setPool(ScriptContextPool contextPool) {
+		pool = contextPool;
+	}
+	
+	/**
+	 * Marks the context as released to its pool.
+	 * 
+	 * @return true if the context was marked, false if it had already been released.
+	 */
+	boolean markReleased() {
+		return released.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Marks the context as acquired from its pool.
+	 */
+	void markAcquired() {
+		released.set(false);
+	}
+	
+	/**
+	 * Sets the token used to cancel evaluations with the context, replacing the token the
+	 * context was built with.
+	 * 
+	 * @param token The cancellation token or null for no token.
+	 */
+	void setCancellationToken(CancellationToken token) {
+		if (budget != null) {
+			budget.setCancellationToken(token);
+		} else if (token != null) {
+			budget = new EvaluationBudget(EvaluationBudget.NO_STEP_LIMIT, 0, token, EvaluationBudget.NO_MEMORY_LIMIT);
+		}
+	}
+	
+	/**
+	 * Resets the context so that it can be used to evaluate an unrelated script. The symbol
+	 * table is reset and any state left by the last evaluation is discarded, the permissions,
+	 * user data, limits and resolvers are kept.
+	 * 
+	 * @see SymbolTable#reset()
+	 */
+	void reset() {
+		symbolTable.reset();
+		if (traceBuffer != null) {
+			traceBuffer.clear();
+		}
+		journal = null;
+		parameters = null;
+		errorsAsValues = false;
+	}
+	
+	/**
+	 * Resets the step count and timer at the start of the evaluation of a script, and
+	 * decides if the evaluation is profiled.
+	 */
+	void startEvaluation() {
+		if (budget != null) {
+			budget.start();
+		}
+		
+		if (profiler != null) {
+			profileRecorder = profiler.sample();
+		}
+	}
+	
+	/**
+	 * Adds the profile of the evaluation that has finished to the profiler, if it was sampled.
+	 */
+	void finishEvaluation() {
+		if (profileRecorder != null) {
+			profiler.record(profileRecorder);
+			profileRecorder = null;
+		}
+	}
 	
 }
@@ -14,7 +14,21 @@
  */
 package net.rptools.parser;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.rptools.lib.permissions.PermissionLevel;
 import net.rptools.lib.permissions.PlayerPermissions;
+import net.rptools.parser.audit.RollAuditLog;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
+import net.rptools.parser.symboltable.HistoryListener;
+import net.rptools.parser.symboltable.HistoryPolicy;
 import net.rptools.parser.symboltable.PropertyResolver;
 import net.rptools.parser.symboltable.SymbolTableBuilder;
 import net.rptools.parser.symboltable.VariableResolver;
@@ -40,6 +54,81 @@ public class ScriptContextBuilder {
 	/** Should the script be evaluated in debug mode. */
 	private boolean debug = false;
 	
+	/** The maximum number of steps the evaluation can perform. */
+	private long maxSteps = EvaluationBudget.NO_STEP_LIMIT;
+	
+	/** The maximum number of milliseconds the evaluation can run for, 0 for no limit. */
+	private long timeLimit = 0;
+	
+	/** The token used to cancel the evaluation. */
+	private CancellationToken cancellationToken;
+	
+	/** The maximum number of bytes the evaluation can use for lists it creates. */
+	private long memoryLimit = EvaluationBudget.NO_MEMORY_LIMIT;
+	
+	/** The maximum estimated cost of scripts for each permission level. */
+	private final Map<PermissionLevel, Long> costLimits = new EnumMap<>(PermissionLevel.class);
+	
+	/** Should scripts be evaluated in a transaction. */
+	private boolean transactional = false;
+	
+	/** The number of events held by the trace buffer in debug mode. */
+	private int traceCapacity = TraceBuffer.DEFAULT_CAPACITY;
+	
+	/** The profiler that samples the evaluation of scripts. */
+	private ScriptProfiler profiler;
+	
+	/** The source that the random sources for each context are split from. */
+	private RandomSource randomSource = ThreadLocalRandomSource.INSTANCE;
+	
+	/** The log every roll is audited to, null if rolls are not audited. */
+	private RollAuditLog rollAuditLog;
+	
+	/** The policy for the roll results kept by the contexts. */
+	private HistoryPolicy rollHistoryPolicy = HistoryPolicy.UNBOUNDED;
+	
+	/** The policy for the label values kept by the contexts. */
+	private HistoryPolicy labelHistoryPolicy = HistoryPolicy.UNBOUNDED;
+	
+	/** The listeners that roll results and labels are streamed to. */
+	private final List<HistoryListener> historyListeners = new ArrayList<>();
+	
+	/** The id of the last context built. */
+	private static final AtomicLong LAST_CONTEXT_ID = new AtomicLong();
+	
+	
+	/**
+	 * Creates a new ScriptContextBuilder.
+	 */
+	public ScriptContextBuilder() {
+	}
+	
+	/**
+	 * Creates a new ScriptContextBuilder with the same settings as another.
+	 * 
+	 * @param other The builder to copy the settings from.
+	 */
+	private ScriptContextBuilder(ScriptContextBuilder other) {
+		playerPermissions = other.playerPermissions;
+		variableResolver = other.variableResolver;
+		propertyResolver = other.propertyResolver;
+		userData = other.userData;
+		debug = other.debug;
+		maxSteps = other.maxSteps;
+		timeLimit = other.timeLimit;
+		cancellationToken = other.cancellationToken;
+		memoryLimit = other.memoryLimit;
+		costLimits.putAll(other.costLimits);
+		transactional = other.transactional;
+		traceCapacity = other.traceCapacity;
+		profiler = other.profiler;
+		randomSource = other.randomSource;
+		rollAuditLog = other.rollAuditLog;
+		rollHistoryPolicy = other.rollHistoryPolicy;
+		labelHistoryPolicy = other.labelHistoryPolicy;
+		historyListeners.addAll(other.historyListeners);
+	}
+	
 	
 	/**
 	 * Sets the player permissions for the script context.
@@ -108,7 +197,9 @@ public class ScriptContextBuilder {
 	}
 	
 	/**
-	 * Sets the debug flag for script evaluation.
+	 * Sets the debug flag for script evaluation. In debug mode the evaluation of each node
+	 * of a script is traced to the {@link ScriptContext#getTraceBuffer() trace buffer} of 
+	 * the context.
 	 * 
 	 * @param dbg The value to set debug flag to.
 	 * 
@@ -121,13 +212,398 @@ public class ScriptContextBuilder {
 	}
 	
 	
+	/**
+	 * Sets the number of events the trace buffer holds in debug mode, older events are
+	 * overwritten once the buffer is full.
+	 * 
+	 * @param events The number of events.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws IllegalArgumentException if events is less than 1.
+	 */
+	public ScriptContextBuilder setTraceCapacity(int events) {
+		if (events < 1) {
+			throw new IllegalArgumentException("Trace capacity must be at least 1.");
+		}
+		
+		traceCapacity = events;
+		return this;
+	}
+	
+	
+	/**
+	 * Sets the profiler that samples the evaluation of scripts with the context. The 
+	 * profiler can be shared by many contexts.
+	 * 
+	 * @param scriptProfiler The profiler.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if scriptProfiler is null.
+	 */
+	public ScriptContextBuilder setProfiler(ScriptProfiler scriptProfiler) {
+		if (scriptProfiler == null) {
+			throw new NullPointerException("Profiler can not be null.");
+		}
+		
+		profiler = scriptProfiler;
+		return this;
+	}
+	
+	
+	/**
+	 * Sets the source of random numbers for dice rolls. Each context built gets its own
+	 * source from {@link RandomSource#split()}, so contexts rolling dice on different 
+	 * threads do not contend for a shared generator. The default is the 
+	 * {@link ThreadLocalRandomSource}. Use a {@link net.rptools.parser.random.SplitMix64RandomSource}
+	 * to seed the rolls, or a {@link net.rptools.parser.random.RecordingRandomSource} to 
+	 * record them so they can be replayed.
+	 * 
+	 * @param source The source of random numbers.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if source is null.
+	 */
+	public ScriptContextBuilder setRandomSource(RandomSource source) {
+		if (source == null) {
+			throw new NullPointerException("Random source can not be null.");
+		}
+		
+		randomSource = source;
+		return this;
+	}
+	
+	
+	/**
+	 * Sets the log that every roll made by the contexts built is written to. The log can be
+	 * shared by many contexts, rolls are identified by {@link ScriptContext#getId()}. Rolls
+	 * made with an audit log always keep their individual dice so they can be logged.
+	 * 
+	 * @param auditLog The roll audit log.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if auditLog is null.
+	 */
+	public ScriptContextBuilder setRollAuditLog(RollAuditLog auditLog) {
+		if (auditLog == null) {
+			throw new NullPointerException("Roll audit log can not be null.");
+		}
+		
+		rollAuditLog = auditLog;
+		return this;
+	}
+	
+	/**
+	 * Sets how many roll results the symbol table of each context keeps. Contexts that are
+	 * used for a long time should use a bounded policy so the results do not keep growing.
+	 * 
+	 * @param policy The policy for the roll results.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if policy is null.
+	 */
+	public ScriptContextBuilder setRollHistoryPolicy(HistoryPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Roll history policy can not be null.");
+		}
+		
+		rollHistoryPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Sets how many label values the symbol table of each context keeps.
+	 * 
+	 * @param policy The policy for the label values.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if policy is null.
+	 */
+	public ScriptContextBuilder setLabelHistoryPolicy(HistoryPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Label history policy can not be null.");
+		}
+		
+		labelHistoryPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Adds a listener that the roll results and label values of the contexts built are
+	 * streamed to, events are identified by {@link ScriptContext#getId()}.
+	 * 
+	 * @param listener The listener to add.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if listener is null.
+	 */
+	public ScriptContextBuilder addHistoryListener(HistoryListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("History listener can not be null.");
+		}
+		
+		historyListeners.add(listener);
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum number of steps that the evaluation of a script can perform before
+	 * it is aborted. Steps are counted for each statement, each iteration of a repeat group
+	 * and each function call.
+	 * 
+	 * @param steps The maximum number of steps.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws IllegalArgumentException if steps is negative.
+	 */
+	public ScriptContextBuilder setMaxSteps(long steps) {
+		if (steps < 0) {
+			throw new IllegalArgumentException("Maximum number of steps can not be negative.");
+		}
+		
+		maxSteps = steps;
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum amount of time that the evaluation of a script can run for before it 
+	 * is aborted. The time is measured from the start of each script evaluation.
+	 * 
+	 * @param millis The time limit in milliseconds, 0 for no limit.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws IllegalArgumentException if millis is negative.
+	 */
+	public ScriptContextBuilder setTimeLimit(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Time limit can not be negative.");
+		}
+		
+		timeLimit = millis;
+		return this;
+	}
+	
+	/**
+	 * Sets the token that can be used to cancel the evaluation of a script.
+	 * 
+	 * @param token The cancellation token.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if token is null.
+	 */
+	public ScriptContextBuilder setCancellationToken(CancellationToken token) {
+		if (token == null) {
+			throw new NullPointerException("Cancellation token can not be null.");
+		}
+		
+		cancellationToken = token;
+		return this;
+	}
+	
+	
+	/**
+	 * Sets the maximum amount of memory that the lists created while evaluating a script can
+	 * use. The memory used is estimated from the number of elements in the lists created by
+	 * repeat groups, list concatenation, list functions and JavaScript functions.
+	 * 
+	 * @param bytes The maximum number of bytes.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws IllegalArgumentException if bytes is negative.
+	 */
+	public ScriptContextBuilder setMemoryLimit(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Memory limit can not be negative.");
+		}
+		
+		memoryLimit = bytes;
+		return this;
+	}
+	
+	
+	/**
+	 * Sets the maximum estimated cost of scripts that can be evaluated by players with the
+	 * specified permission level. Scripts with a higher estimated cost are rejected before 
+	 * they are evaluated. Only the limit for the permission level of the player permissions
+	 * of the context is used.
+	 * 
+	 * @param level The permission level the limit applies to.
+	 * @param cost The maximum estimated cost.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if level is null.
+	 * @throws IllegalArgumentException if cost is negative.
+	 * 
+	 * @see net.rptools.parser.tree.ScriptCostEstimator
+	 */
+	public ScriptContextBuilder setCostLimit(PermissionLevel level, long cost) {
+		if (level == null) {
+			throw new NullPointerException("Permission level can not be null.");
+		}
+		
+		if (cost < 0) {
+			throw new IllegalArgumentException("Cost limit can not be negative.");
+		}
+		
+		costLimits.put(level, cost);
+		return this;
+	}
+	
+	
+	/**
+	 * Sets if scripts should be evaluated in a transaction. When they are the variables and
+	 * properties set by a script are only passed to the resolvers, as a single batch, once 
+	 * the script has been evaluated without error. If an error occurs they are discarded.
+	 * 
+	 * @param trans Should scripts be evaluated in a transaction.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @see net.rptools.parser.symboltable.SymbolTable#beginTransaction()
+	 */
+	public ScriptContextBuilder setTransactional(boolean trans) {
+		transactional = trans;
+		return this;
+	}
+	
+	
 	/**
 	 * Returns a ScriptContext built from this object.
 	 * 
 	 * @return the ScriptContext.
 	 */
 	public ScriptContext toScriptContext() {
+		return toScriptContext(null, randomSource);
+	}
+	
+	/**
+	 * Returns a ScriptContext built from this object that rolls dice with a source split
+	 * from a different random source than the one set on this object.
+	 * 
+	 * @param source The random source to split the source for the context from.
+	 * 
+	 * @return the ScriptContext.
+	 */
+	ScriptContext toScriptContext(RandomSource source) {
+		return toScriptContext(null, source);
+	}
+	
+	/**
+	 * Returns a pool of ScriptContexts built from the current settings of this object. 
+	 * Changing this object afterwards does not affect the pool.
+	 * 
+	 * @param maxIdle The maximum number of contexts the pool keeps for reuse.
+	 * 
+	 * @return the ScriptContextPool.
+	 * 
+	 * @throws IllegalArgumentException if maxIdle is less than 1.
+	 */
+	public ScriptContextPool toScriptContextPool(int maxIdle) {
+		return new ScriptContextPool(new ScriptContextBuilder(this), maxIdle);
+	}
+	
+	/**
+	 * Returns a ScriptSimulator that evaluates scripts many times using contexts built from
+	 * the current settings of this object, on a shared fork join pool. Changing this object
+	 * afterwards does not affect the simulator.
+	 * 
+	 * @return the ScriptSimulator.
+	 */
+	public ScriptSimulator toScriptSimulator() {
+		return new ScriptSimulator(new ScriptContextBuilder(this), null);
+	}
+	
+	/**
+	 * Returns a ScriptSimulator that evaluates scripts many times using contexts built from
+	 * the current settings of this object, on the specified fork join pool. Changing this 
+	 * object afterwards does not affect the simulator.
+	 * 
+	 * @param pool The pool to run the simulations on.
+	 * 
+	 * @return the ScriptSimulator.
+	 * 
+	 * @throws NullPointerException if pool is null.
+	 */
+	public ScriptSimulator toScriptSimulator(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new NullPointerException("Fork join pool can not be null.");
+		}
+		
+		return new ScriptSimulator(new ScriptContextBuilder(this), pool);
+	}
+	
+	/**
+	 * Returns a ScriptContext built from this object for each of the property ids. Properties
+	 * read and set without an id in each context use the properties for its id, this allows 
+	 * a {@link CompiledScript} to be evaluated against the properties of several ids at once.
+	 * 
+	 * @param propertyIds The property ids to build contexts for.
+	 * 
+	 * @return the ScriptContexts in the same order as the property ids.
+	 * 
+	 * @throws NullPointerException if propertyIds or any of the ids are null.
+	 * 
+	 * @see CompiledScript#evaluate(ScriptContext[])
+	 */
+	public ScriptContext[] toScriptContexts(Collection<String> propertyIds) {
+		if (propertyIds == null) {
+			throw new NullPointerException("Property ids can not be null.");
+		}
+		
+		ScriptContext[] contexts = new ScriptContext[propertyIds.size()];
+		int i = 0;
+		for (String id : propertyIds) {
+			if (id == null) {
+				throw new NullPointerException("Property id can not be null.");
+			}
+			contexts[i++] = toScriptContext(id, randomSource);
+		}
+		
+		return contexts;
+	}
+	
+	/**
+	 * Returns the token that will be used to cancel the evaluation.
+	 * 
+	 * @return the cancellation token or null if there is none.
+	 */
+	CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+	
+	/**
+	 * Returns a ScriptContext built from this object.
+	 * 
+	 * @param propertyId The id to use in place of the default property id or null.
+	 * @param source The random source to split the source for the context from.
+	 * 
+	 * @return the ScriptContext.
+	 */
+	private ScriptContext toScriptContext(String propertyId, RandomSource source) {
+		long contextId = LAST_CONTEXT_ID.incrementAndGet();
 		SymbolTableBuilder symTableBuilder = new SymbolTableBuilder();
+		symTableBuilder.setDefaultPropertyId(propertyId);
+		symTableBuilder.setRandomSource(source.split());
+		symTableBuilder.setContextId(contextId);
+		symTableBuilder.setRollHistoryPolicy(rollHistoryPolicy);
+		symTableBuilder.setLabelHistoryPolicy(labelHistoryPolicy);
+		for (HistoryListener listener : historyListeners) {
+			symTableBuilder.addHistoryListener(listener);
+		}
+		if (rollAuditLog != null) {
+			symTableBuilder.setRollAuditLog(rollAuditLog, contextId);
+		}
 		if (propertyResolver != null) {
 			symTableBuilder.setPropertyResolver(propertyResolver);
 		}
@@ -136,7 +612,24 @@ public class ScriptContextBuilder {
 			symTableBuilder.setVariableResolver(variableResolver);
 		}
 		
-		return new ScriptContext(playerPermissions, symTableBuilder.toSymbolTable(), userData, debug);
+		EvaluationBudget budget = null;
+		if (maxSteps != EvaluationBudget.NO_STEP_LIMIT || timeLimit > 0 || cancellationToken != null ||
+				memoryLimit != EvaluationBudget.NO_MEMORY_LIMIT) {
+			budget = new EvaluationBudget(maxSteps, timeLimit, cancellationToken, memoryLimit);
+		}
+		
+		long costLimit = ScriptContext.NO_COST_LIMIT;
+		if (playerPermissions != null && playerPermissions.getPermissionLevel() != null) {
+			Long limit = costLimits.get(playerPermissions.getPermissionLevel());
+			if (limit != null) {
+				costLimit = limit;
+			}
+		}
+		
+		TraceBuffer trace = debug ? new TraceBuffer(traceCapacity) : null;
+		
+		return new ScriptContext(contextId, playerPermissions, symTableBuilder.toSymbolTable(), userData, debug, 
+				budget, costLimit, transactional, trace, profiler);
 	}
 	
 	
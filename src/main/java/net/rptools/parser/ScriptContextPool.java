@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ScriptContextPool keeps {@link ScriptContext}s that have been used so that they can be
+ * reused rather than building a new context, symbol table and resolvers for every script.
+ * Contexts are reset when they are released back to the pool, which clears the variables,
+ * labels and roll results but keeps the permissions and resolvers. Properties and variables
+ * held by resolvers supplied to the builder are not cleared.
+ * <p>
+ * Contexts can be acquired from and released to the pool by any number of threads, but a
+ * context must only be used by one thread at a time.
+ * </p>
+ * <p>
+ * Contexts acquired with {@link #acquire()} share the cancellation token of the builder, if
+ * it has one, so cancelling it cancels all of them. Use {@link #acquire(CancellationToken)} 
+ * to cancel the evaluations of each context separately.
+ * </p>
+ * 
+ * @see ScriptContextBuilder#toScriptContextPool(int)
+ */
+public final class ScriptContextPool {
+
+	/** The builder used to create new contexts. */
+	private final ScriptContextBuilder builder;
+	
+	/** The contexts waiting to be reused. */
+	private final BlockingQueue<ScriptContext> idle;
+	
+	/** The cancellation token of the builder, null if it has none. */
+	private final CancellationToken defaultToken;
+	
+	/**
+	 * Creates a new ScriptContextPool.
+	 * 
+	 * @param contextBuilder The builder used to create new contexts, it must not be changed
+	 *        after the pool is created.
+	 * @param maxIdle The maximum number of contexts kept for reuse.
+	 * 
+	 * @throws IllegalArgumentException if maxIdle is less than 1.
+	 */
+	ScriptContextPool(ScriptContextBuilder contextBuilder, int maxIdle) {
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("Maximum number of idle contexts must be at least 1.");
+		}
+		
+		builder = contextBuilder;
+		idle = new ArrayBlockingQueue<>(maxIdle);
+		defaultToken = builder.getCancellationToken();
+	}
+	
+	/**
+	 * Returns a context from the pool, or a new context if there are none waiting to be reused.
+	 * The context uses the cancellation token of the builder, if it has one.
+	 * 
+	 * @return the context.
+	 */
+	public ScriptContext acquire() {
+		return acquireContext(defaultToken);
+	}
+	
+	/**
+	 * Returns a context from the pool, or a new context if there are none waiting to be reused.
+	 * The context uses the specified cancellation token in place of the token of the builder
+	 * until it is released.
+	 * 
+	 * @param token The token used to cancel evaluations with the context.
+	 * 
+	 * @return the context.
+	 * 
+	 * @throws NullPointerException if token is null.
+	 */
+	public ScriptContext acquire(CancellationToken token) {
+		if (token == null) {
+			throw new NullPointerException("Cancellation token can not be null.");
+		}
+		
+		return acquireContext(token);
+	}
+	
+	/**
+	 * Returns a context from the pool, or a new context if there are none waiting to be reused.
+	 * 
+	 * @param token The token used to cancel evaluations with the context or null.
+	 * 
+	 * @return the context.
+	 */
+	private ScriptContext acquireContext(CancellationToken token) {
+		ScriptContext context = idle.poll();
+		if (context == null) {
+			synchronized (builder) {
+				context = builder.toScriptContext();
+			}
+			context.setPool(this);
+		} else {
+			context.markAcquired();
+		}
+		
+		if (token != defaultToken) {
+			context.setCancellationToken(token);
+		}
+		
+		return context;
+	}
+	
+	/**
+	 * Resets a context and returns it to the pool so that it can be reused, restoring the 
+	 * cancellation token of the builder. If the pool already holds the maximum number of idle
+	 * contexts the context is discarded. The context must not be used after it has been 
+	 * released.
+	 * 
+	 * @param context The context to release.
+	 * 
+	 * @throws NullPointerException if context is null.
+	 * @throws IllegalArgumentException if context was not acquired from this pool.
+	 * @throws IllegalStateException if context has already been released.
+	 */
+	public void release(ScriptContext context) {
+		if (context == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+		
+		if (context.getPool() != this) {
+			throw new IllegalArgumentException("Script context was not acquired from this pool.");
+		}
+		
+		if (context.markReleased() == false) {
+			throw new IllegalStateException("Script context has already been released.");
+		}
+		
+		context.reset();
+		context.setCancellationToken(defaultToken);
+		idle.offer(context);
+	}
+	
+	/**
+	 * Returns the number of contexts waiting to be reused.
+	 * 
+	 * @return the number of idle contexts.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+/**
+ * An error that occurred while evaluating a script, returned as a value rather than thrown.
+ *
+ * @see CompiledScript#evaluateToResult(ScriptContext)
+ */
+public final class ScriptError {
+	
+	/** The kinds of errors. */
+	public enum Kind {
+		/** The script could not be evaluated, for example it called an unknown function. */
+		EVALUATION,
+		/** The script tried to do something the player does not have permission for. */
+		PERMISSION,
+		/** The evaluation exceeded one of its limits or was cancelled. */
+		LIMIT,
+		/** An unexpected error occurred while evaluating the script. */
+		RUNTIME
+	}
+
+	/** The kind of error. */
+	private final Kind kind;
+	
+	/** The message describing the error. */
+	private final String message;
+	
+	/** The position in the script where the error occurred, null if it is not known. */
+	private final SourcePosition sourcePosition;
+	
+	/** The index of the statement where the error occurred, -1 if it is not known. */
+	private final int statementIndex;
+	
+	/**
+	 * Creates a new ScriptError.
+	 * 
+	 * @param errorKind The kind of error.
+	 * @param msg The message describing the error.
+	 * @param pos The position in the script where the error occurred or null.
+	 * @param statement The index of the statement where the error occurred or -1.
+	 */
+	ScriptError(Kind errorKind, String msg, SourcePosition pos, int statement) {
+		kind = errorKind;
+		message = msg;
+		sourcePosition = pos;
+		statementIndex = statement;
+	}
+	
+	/**
+	 * Creates a ScriptError from an exception thrown while evaluating a script.
+	 * 
+	 * @param e The exception.
+	 * 
+	 * @return the ScriptError.
+	 */
+	static ScriptError fromException(ExpressionEvaluatorException e) {
+		Kind errorKind;
+		if (e instanceof EvaluationPermissionException) {
+			errorKind = Kind.PERMISSION;
+		} else if (e instanceof EvaluationLimitExceededException) {
+			errorKind = Kind.LIMIT;
+		} else {
+			errorKind = Kind.EVALUATION;
+		}
+		
+		return new ScriptError(errorKind, e.getMessage(), e.getSourcePosition(), e.getStatementIndex());
+	}
+	
+	/**
+	 * Returns the kind of error.
+	 * 
+	 * @return the kind of error.
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+	
+	/**
+	 * Returns the message describing the error.
+	 * 
+	 * @return the message.
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	/**
+	 * Returns the position in the script where the error occurred.
+	 * 
+	 * @return the position or null if it is not known.
+	 */
+	public SourcePosition getSourcePosition() {
+		return sourcePosition;
+	}
+	
+	/**
+	 * Returns the index of the statement where the error occurred.
+	 * 
+	 * @return the index of the statement, starting at 0, or -1 if it is not known.
+	 */
+	public int getStatementIndex() {
+		return statementIndex;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(kind).append(": ").append(message);
+		if (sourcePosition != null) {
+			sb.append(" at ").append(sourcePosition);
+		} else if (statementIndex >= 0) {
+			sb.append(" in statement ").append(statementIndex + 1);
+		}
+		return sb.toString();
+	}
+}
@@ -22,14 +22,6 @@ import java.util.List;
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataType;
 import net.rptools.parser.symboltable.SymbolTable;
-import net.rptools.parser.tree.ScriptTreeNode;
-import net.rptools.parser.tree.MTScriptTreeParser;
-
-import org.antlr.runtime.ANTLRStringStream;
-import org.antlr.runtime.CommonTokenStream;
-import org.antlr.runtime.RecognitionException;
-import org.antlr.runtime.tree.CommonTree;
-import org.antlr.runtime.tree.CommonTreeNodeStream;
 
 /**
  * ScriptEvaluator evaluates the scripts passed in and returns the results.
@@ -46,6 +38,9 @@ public class ScriptEvaluator  {
 	
 	/** The index of the input text to process. */
 	private int index;
+	
+	/** The compiled script at index, null if it has not been compiled yet. */
+	private CompiledScript compiledNext;
 
 	/**
 	 * Gets a ScriptEvaluator object to evaluate a script using
@@ -156,6 +151,22 @@ public class ScriptEvaluator  {
 		return index < inputText.size();
 	}
 
+	/**
+	 * Returns the estimated worst case cost of evaluating the next script, this can be used to
+	 * decide how to schedule the script before it is evaluated. The script is compiled but not
+	 * evaluated, the compiled script is kept so that it is not compiled again by 
+	 * {@link #evaluateNext()}.
+	 * 
+	 * @return the estimated cost of the next script.
+	 * 
+	 * @throws IndexOutOfBoundsException if there are no more scripts to evaluate.
+	 * 
+	 * @see CompiledScript#estimateCost()
+	 */
+	public long estimateNextCost() {
+		return compileNext().estimateCost();
+	}
+
 	/**
 	 * Evaluates the next script and returns a {@link DataValue} with the results.
 	 * Since a script may have multiple statements the {@link DataValue} returned is
@@ -164,38 +175,36 @@ public class ScriptEvaluator  {
 	 * @return the results of evaluating the script.
 	 * 
 	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 * @throws EvaluationLimitExceededException if the estimated cost of the script is over the
+	 *         cost limit of the context, in which case the script is not evaluated.
 	 * @throws IndexOutOfBoundsException if there are no more scripts to evaluate.
 	 */
 	public DataValue evaluateNext() throws ExpressionEvaluatorException {
+		DataValue results = compileNext().evaluate(scriptContext);
+		compiledNext = null;
+		index++;
 		
+		return results;
+	}
+	
+	/**
+	 * Compiles the next script, if the script has already been compiled then the existing
+	 * compiled script is returned.
+	 * 
+	 * @return the compiled script.
+	 * 
+	 * @throws ParserException if the script can not be parsed.
+	 * @throws IndexOutOfBoundsException if there are no more scripts to evaluate.
+	 */
+	private CompiledScript compileNext() throws ParserException {
 		if (index >= inputText.size()) {
 			throw new IndexOutOfBoundsException("Evaluate Index = " + index + " input lines size = " + inputText.size()) ;
 		}
 		
-		MTScriptLexer lexer = new MTScriptLexer(new ANTLRStringStream(
-				inputText.get(index)));
-		CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-		MTScriptParser parser = new MTScriptParser(tokenStream);
-		parser.setSymbolTable(scriptContext.getSymbolTable());
-
-		DataValue results;
-		try {
-			CommonTree tree = (CommonTree) (parser.mtscript().getTree());
-
-
-			CommonTreeNodeStream nodeStream = new CommonTreeNodeStream(tree);
-			MTScriptTreeParser walker = new MTScriptTreeParser(nodeStream);
-
-			walker.setSymbolTable(scriptContext.getSymbolTable());
-
-			ScriptTreeNode scriptNode = walker.evaluator();
-
-			results = scriptNode.evaluate(scriptContext);
-            index++;
-		} catch (RecognitionException e) {
-			// TODO: log?
-			throw new ParserException(e.getLocalizedMessage(), e);
+		if (compiledNext == null) {
+			compiledNext = CompiledScript.compile(inputText.get(index), scriptContext.getSymbolTable());
 		}
-		return results;
+		
+		return compiledNext;
 	}
 }
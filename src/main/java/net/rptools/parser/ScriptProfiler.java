@@ -0,0 +1,249 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ScriptProfiler samples the evaluation of scripts and records the time spent in each 
+ * node and function call. Only one in every {@code sampleInterval} evaluations is profiled,
+ * the others are evaluated exactly as they would be without a profiler, so the overhead 
+ * is bounded and the profiler can be left on.
+ * <p>
+ * The times are aggregated across all the sampled evaluations by call stack, where each
+ * frame is named after the kind of node, the function or variable name and the position
+ * of the node in the script. The number of distinct frames kept is limited, calls that 
+ * would add frames past the limit are added to a {@value #TRUNCATED_FRAME} frame instead.
+ * </p>
+ * <p>
+ * A ScriptProfiler can be shared by any number of contexts and threads.
+ * </p>
+ * 
+ * @see ScriptContextBuilder#setProfiler(ScriptProfiler)
+ */
+public final class ScriptProfiler {
+	
+	/** The default maximum number of distinct frames kept. */
+	public static final int DEFAULT_MAX_FRAMES = 10000;
+	
+	/** The name of the frame that calls are added to once the frame limit is reached. */
+	public static final String TRUNCATED_FRAME = "[truncated]";
+
+	/** Profile one evaluation in this many. */
+	private final int sampleInterval;
+	
+	/** The maximum number of distinct frames kept. */
+	private final int maxFrames;
+	
+	/** The number of evaluations that have asked whether to sample. */
+	private final AtomicLong evaluations = new AtomicLong();
+	
+	/** The root of the aggregated call stacks, guarded by this. */
+	private ProfileFrame root = new ProfileFrame(null, null);
+	
+	/** The number of distinct frames kept, guarded by this. */
+	private int frameCount;
+	
+	/** The number of evaluations that have been profiled, guarded by this. */
+	private long samples;
+	
+	/**
+	 * Creates a new ScriptProfiler that keeps up to {@link #DEFAULT_MAX_FRAMES} frames.
+	 * 
+	 * @param interval Profile one evaluation in this many, 1 to profile every evaluation.
+	 * 
+	 * @throws IllegalArgumentException if interval is less than 1.
+	 */
+	public ScriptProfiler(int interval) {
+		this(interval, DEFAULT_MAX_FRAMES);
+	}
+	
+	/**
+	 * Creates a new ScriptProfiler.
+	 * 
+	 * @param interval Profile one evaluation in this many, 1 to profile every evaluation.
+	 * @param frames The maximum number of distinct frames kept.
+	 * 
+	 * @throws IllegalArgumentException if interval or frames is less than 1.
+	 */
+	public ScriptProfiler(int interval, int frames) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Sample interval must be at least 1.");
+		}
+		
+		if (frames < 1) {
+			throw new IllegalArgumentException("Maximum number of frames must be at least 1.");
+		}
+		
+		sampleInterval = interval;
+		maxFrames = frames;
+	}
+	
+	/**
+	 * Returns a recorder for an evaluation if it should be profiled.
+	 * 
+	 * @return the recorder or null if the evaluation is not sampled.
+	 */
+	ProfileRecorder sample() {
+		if (evaluations.getAndIncrement() % sampleInterval != 0) {
+			return null;
+		}
+		return new ProfileRecorder();
+	}
+	
+	/**
+	 * Adds the call stacks recorded during an evaluation to the profile.
+	 * 
+	 * @param recorder The recorder for the evaluation.
+	 */
+	synchronized void record(ProfileRecorder recorder) {
+		samples++;
+		merge(recorder.getRoot(), root);
+	}
+	
+	/**
+	 * Adds the times of the children of a recorded frame to the children of an aggregated frame.
+	 * 
+	 * @param from The recorded frame.
+	 * @param to The aggregated frame.
+	 */
+	private void merge(ProfileFrame from, ProfileFrame to) {
+		for (ProfileFrame child : from.getChildren()) {
+			ProfileFrame target = to.findChild(child.getName());
+			if (target == null) {
+				if (frameCount < maxFrames) {
+					target = to.getChild(child.getName());
+					frameCount++;
+				} else {
+					target = to.findChild(TRUNCATED_FRAME);
+					if (target == null) {
+						// The truncated frames are allowed to go over the limit, there is at most one per frame.
+						target = to.getChild(TRUNCATED_FRAME);
+					}
+					target.add(totalTime(child), child.getCalls());
+					continue;
+				}
+			}
+			
+			target.add(child.getSelfTime(), child.getCalls());
+			merge(child, target);
+		}
+	}
+	
+	/**
+	 * Returns the time spent in a frame including its children.
+	 * 
+	 * @param frame The frame.
+	 * 
+	 * @return the time in nanoseconds.
+	 */
+	private static long totalTime(ProfileFrame frame) {
+		long total = frame.getSelfTime();
+		for (ProfileFrame child : frame.getChildren()) {
+			total += totalTime(child);
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the number of evaluations that have been profiled.
+	 * 
+	 * @return the number of samples.
+	 */
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+	
+	/**
+	 * Returns the time spent in each frame, excluding the frames it calls, added up over 
+	 * all the call stacks the frame appears in. 
+	 * 
+	 * @return the times in nanoseconds mapped by frame name.
+	 */
+	public synchronized Map<String, Long> getSelfTimes() {
+		Map<String, Long> times = new HashMap<>();
+		addSelfTimes(root, times);
+		return times;
+	}
+	
+	/**
+	 * Adds the self times of the children of a frame to a map.
+	 * 
+	 * @param frame The frame.
+	 * @param times The map to add the times to.
+	 */
+	private static void addSelfTimes(ProfileFrame frame, Map<String, Long> times) {
+		for (ProfileFrame child : frame.getChildren()) {
+			Long time = times.get(child.getName());
+			times.put(child.getName(), (time == null ? 0 : time) + child.getSelfTime());
+			addSelfTimes(child, times);
+		}
+	}
+	
+	/**
+	 * Writes the profile in the folded stack format read by flame graph tools. Each line 
+	 * is a call stack with the frames separated by {@code ;} followed by a space and the 
+	 * time spent in the last frame of the stack in nanoseconds.
+	 * 
+	 * @param out Where to write the profile.
+	 * 
+	 * @throws IOException if an error occurs writing the profile.
+	 */
+	public synchronized void writeFoldedStacks(Appendable out) throws IOException {
+		writeFoldedStacks(root, new ArrayList<String>(), out);
+	}
+	
+	/**
+	 * Writes the call stacks below a frame in the folded stack format.
+	 * 
+	 * @param frame The frame.
+	 * @param stack The names of the frames above the children of the frame.
+	 * @param out Where to write the profile.
+	 * 
+	 * @throws IOException if an error occurs writing the profile.
+	 */
+	private static void writeFoldedStacks(ProfileFrame frame, List<String> stack, Appendable out) 
+			throws IOException {
+		for (ProfileFrame child : frame.getChildren()) {
+			stack.add(child.getName());
+			long nanos = child.getSelfTime();
+			if (nanos > 0) {
+				for (int i = 0; i < stack.size(); i++) {
+					if (i > 0) {
+						out.append(';');
+					}
+					out.append(stack.get(i));
+				}
+				out.append(' ').append(Long.toString(nanos)).append('\n');
+			}
+			writeFoldedStacks(child, stack, out);
+			stack.remove(stack.size() - 1);
+		}
+	}
+	
+	/**
+	 * Discards the profile recorded so far.
+	 */
+	public synchronized void reset() {
+		root = new ProfileFrame(null, null);
+		frameCount = 0;
+		samples = 0;
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.lib.permissions.PermissionLevel;
+import net.rptools.parser.symboltable.SymbolTable;
+import net.rptools.parser.symboltable.VersionedPropertyResolver;
+import net.rptools.parser.symboltable.VersionedVariableResolver;
+
+/**
+ * ScriptResultCache caches the results of deterministic compiled scripts, so that scripts
+ * that only derive a value from variables and properties are not evaluated again until one
+ * of the variables or properties changes.
+ *
+ * A result is cached for each script and symbol table, along with the versions of the 
+ * variables and properties the script reads. The cached result is returned while the
+ * symbol table reports the same versions, this requires the resolvers to be a 
+ * {@link VersionedVariableResolver} and {@link VersionedPropertyResolver}. Scripts that are 
+ * not deterministic (see {@link CompiledScript#isDeterministic()}) or that read variables 
+ * or properties without a version are always evaluated.
+ *
+ * Scripts and symbol tables are weakly referenced so that the cache does not keep them
+ * alive once they are no longer used elsewhere.
+ *
+ */
+public final class ScriptResultCache {
+
+	/** The cached results for each script. */
+	private final Map<CompiledScript, ScriptEntry> scripts = new WeakHashMap<>();
+	
+	/** The number of evaluations that returned a cached result. */
+	private long hits;
+	
+	/** The number of evaluations of cacheable scripts that did not find a cached result. */
+	private long misses;
+	
+	/**
+	 * Evaluates the script, returning the cached result if the script is deterministic and
+	 * none of the variables or properties it reads have changed since it was cached.
+	 * 
+	 * @param script The script to evaluate.
+	 * @param context The context to evaluate the script with.
+	 * 
+	 * @return the results of evaluating the script.
+	 * 
+	 * @throws ExpressionEvaluatorException if errors occur while evaluating the script.
+	 * @throws NullPointerException if script or context is null.
+	 */
+	public DataValue evaluate(CompiledScript script, ScriptContext context) throws ExpressionEvaluatorException {
+		if (script == null) {
+			throw new NullPointerException("Script can not be null.");
+		}
+		
+		if (context == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+		
+		// Determinism is checked on every evaluation as functions the script calls can be 
+		// marked as deterministic or not at any time.
+		if (script.isDeterministic() == false) {
+			return script.evaluate(context);
+		}
+		
+		ScriptEntry entry = getEntry(script);
+		SymbolTable symbolTable = context.getSymbolTable();
+		long[] variableVersions = new long[entry.variables.length];
+		for (int i = 0; i < variableVersions.length; i++) {
+			variableVersions[i] = symbolTable.getVariableVersion(entry.variables[i]);
+			if (variableVersions[i] == SymbolTable.NO_VERSION) {
+				return script.evaluate(context);
+			}
+		}
+		
+		long[] propertyVersions = new long[entry.properties.length];
+		for (int i = 0; i < propertyVersions.length; i++) {
+			propertyVersions[i] = symbolTable.getPropertyVersion(entry.properties[i]);
+			if (propertyVersions[i] == SymbolTable.NO_VERSION) {
+				return script.evaluate(context);
+			}
+		}
+		
+		PermissionLevel level = context.getPlayerPermissions().getPermissionLevel();
+		synchronized (this) {
+			CachedResult cached = entry.results.get(symbolTable);
+			if (cached != null && cached.matches(variableVersions, propertyVersions, level)) {
+				hits++;
+				return cached.value;
+			}
+			misses++;
+		}
+		
+		DataValue value = script.evaluate(context);
+		synchronized (this) {
+			entry.results.put(symbolTable, new CachedResult(value, variableVersions, propertyVersions, level));
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Discards all the cached results.
+	 */
+	public synchronized void clear() {
+		scripts.clear();
+	}
+	
+	/**
+	 * Returns the number of evaluations that returned a cached result.
+	 * 
+	 * @return the number of cache hits.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of evaluations of deterministic scripts that did not find a cached
+	 * result.
+	 * 
+	 * @return the number of cache misses.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+	
+	/**
+	 * Returns the entry for a script, creating it the first time the script is seen.
+	 * 
+	 * @param script The script to get the entry for.
+	 * 
+	 * @return the entry.
+	 */
+	private synchronized ScriptEntry getEntry(CompiledScript script) {
+		ScriptEntry entry = scripts.get(script);
+		if (entry == null) {
+			entry = new ScriptEntry(script);
+			scripts.put(script, entry);
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * The information kept for each script. 
+	 */
+	private static final class ScriptEntry {
+		
+		/** The names of the variables read by the script. */
+		private final String[] variables;
+		
+		/** The names of the properties read by the script. */
+		private final String[] properties;
+		
+		/** The cached results for each symbol table. */
+		private final Map<SymbolTable, CachedResult> results = new WeakHashMap<>();
+		
+		/**
+		 * Creates a new ScriptEntry.
+		 * 
+		 * @param script The script.
+		 */
+		private ScriptEntry(CompiledScript script) {
+			variables = toArray(script.getReferencedVariables());
+			properties = toArray(script.getReferencedProperties());
+		}
+		
+		/**
+		 * Returns the names in a set as an array.
+		 * 
+		 * @param names The names.
+		 * 
+		 * @return the names as an array.
+		 */
+		private static String[] toArray(Set<String> names) {
+			return names.toArray(new String[names.size()]);
+		}
+	}
+	
+	/**
+	 * A cached result and the versions of the inputs it was evaluated with. 
+	 */
+	private static final class CachedResult {
+		
+		/** The result of evaluating the script. */
+		private final DataValue value;
+		
+		/** The versions of the variables read by the script. */
+		private final long[] variableVersions;
+		
+		/** The versions of the properties read by the script. */
+		private final long[] propertyVersions;
+		
+		/** The permission level of the context the script was evaluated with. */
+		private final PermissionLevel permissionLevel;
+		
+		/**
+		 * Creates a new CachedResult.
+		 * 
+		 * @param val The result of evaluating the script.
+		 * @param varVersions The versions of the variables read by the script.
+		 * @param propVersions The versions of the properties read by the script.
+		 * @param level The permission level of the context.
+		 */
+		private CachedResult(DataValue val, long[] varVersions, long[] propVersions, PermissionLevel level) {
+			value = val;
+			variableVersions = varVersions;
+			propertyVersions = propVersions;
+			permissionLevel = level;
+		}
+		
+		/**
+		 * Checks whether the result was evaluated with the same inputs.
+		 * 
+		 * @param varVersions The current versions of the variables read by the script.
+		 * @param propVersions The current versions of the properties read by the script.
+		 * @param level The permission level of the current context.
+		 * 
+		 * @return true if the cached result can be used.
+		 */
+		private boolean matches(long[] varVersions, long[] propVersions, PermissionLevel level) {
+			return permissionLevel == level && Arrays.equals(variableVersions, varVersions) 
+					&& Arrays.equals(propertyVersions, propVersions);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.SplitMix64RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
+
+/**
+ * ScriptSimulator evaluates a {@link CompiledScript} many times and aggregates the value of
+ * its last statement, without keeping the individual values. The iterations are split into
+ * blocks of {@link #BLOCK_SIZE} that are run as tasks on a fork join pool, each block with 
+ * its own context and random stream. The blocks and their streams depend only on the seed 
+ * and the number of iterations, so a seeded simulation gives the same result however many
+ * threads run it.
+ * <p>
+ * The script must not prompt and its last statement must be a number or a roll result. 
+ * Contexts are reset between iterations, so variables do not carry over from one iteration
+ * to the next.
+ * </p>
+ * 
+ * @see ScriptContextBuilder#toScriptSimulator()
+ */
+public final class ScriptSimulator {
+	
+	/** The number of iterations run by each task with a single context. */
+	public static final int BLOCK_SIZE = 1024;
+	
+	/** The builder used to create the contexts. */
+	private final ScriptContextBuilder builder;
+	
+	/** The pool to run the simulations on, null for the shared pool. */
+	private final ForkJoinPool pool;
+	
+	/**
+	 * Creates a new ScriptSimulator.
+	 * 
+	 * @param contextBuilder The builder used to create the contexts, it must not be changed 
+	 *        after the simulator is created.
+	 * @param forkJoinPool The pool to run the simulations on, or null for the shared pool.
+	 */
+	ScriptSimulator(ScriptContextBuilder contextBuilder, ForkJoinPool forkJoinPool) {
+		builder = contextBuilder;
+		pool = forkJoinPool;
+	}
+	
+	/**
+	 * Runs a simulation with a random seed.
+	 * 
+	 * @param script The script to simulate.
+	 * @param iterations The number of times to evaluate the script.
+	 * 
+	 * @return the result of the simulation.
+	 * 
+	 * @throws NullPointerException if script is null.
+	 * @throws IllegalArgumentException if iterations is negative.
+	 * @throws ExpressionEvaluatorException if an evaluation of the script fails.
+	 */
+	public SimulationResult simulate(CompiledScript script, long iterations) throws ExpressionEvaluatorException {
+		return simulate(script, iterations, ThreadLocalRandomSource.INSTANCE.nextLong());
+	}
+	
+	/**
+	 * Runs a simulation with a seed, which makes the result reproducible.
+	 * 
+	 * @param script The script to simulate.
+	 * @param iterations The number of times to evaluate the script.
+	 * @param seed The seed for the random streams of the blocks of iterations.
+	 * 
+	 * @return the result of the simulation.
+	 * 
+	 * @throws NullPointerException if script is null.
+	 * @throws IllegalArgumentException if iterations is negative.
+	 * @throws ExpressionEvaluatorException if an evaluation of the script fails.
+	 */
+	public SimulationResult simulate(CompiledScript script, long iterations, long seed) 
+			throws ExpressionEvaluatorException {
+		if (script == null) {
+			throw new NullPointerException("Script can not be null.");
+		}
+		
+		if (iterations < 0) {
+			throw new IllegalArgumentException("Number of iterations can not be negative.");
+		}
+		
+		SimulationTask task = new SimulationTask(script, seed, 0, iterations);
+		try {
+			return (pool == null ? SharedPool.POOL : pool).invoke(task).toResult();
+		} catch (SimulationFailure e) {
+			// The fork join pool may rethrow a copy of the exception with the original as its cause.
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof ExpressionEvaluatorException) {
+					throw (ExpressionEvaluatorException) t;
+				}
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Evaluates a script for a block of iterations.
+	 * 
+	 * @param script The script to evaluate.
+	 * @param seed The seed of the simulation.
+	 * @param start The index of the first iteration.
+	 * @param end The index after the last iteration.
+	 * 
+	 * @return the accumulated values.
+	 * 
+	 * @throws ExpressionEvaluatorException if an evaluation of the script fails.
+	 */
+	private SimulationAccumulator runBlock(CompiledScript script, long seed, long start, long end) 
+			throws ExpressionEvaluatorException {
+		RandomSource source = SplitMix64RandomSource.stream(seed, start / BLOCK_SIZE);
+		ScriptContext context;
+		synchronized (builder) {
+			context = builder.toScriptContext(source);
+		}
+		
+		SimulationAccumulator acc = new SimulationAccumulator();
+		for (long i = start; i < end; i++) {
+			if (i > start) {
+				context.reset();
+			}
+			acc.add(valueOf(script.evaluate(context)));
+		}
+		
+		return acc;
+	}
+	
+	/**
+	 * Returns the value of the last statement of a script result as a number.
+	 * 
+	 * @param result The result of evaluating the script.
+	 * 
+	 * @return the value.
+	 * 
+	 * @throws ExpressionEvaluatorException if the last statement is not a finite number.
+	 */
+	private static double valueOf(DataValue result) throws ExpressionEvaluatorException {
+		List<DataValue> values = result.asList();
+		if (values.isEmpty()) {
+			throw new ExpressionEvaluatorException("Simulated script has no statements.");
+		}
+		
+		DataValue value = values.get(values.size() - 1);
+		if (value.dataType() == DataType.RESULT) {
+			value = value.asResult().getValue();
+		}
+		
+		if (value.dataType() != DataType.LONG && value.dataType() != DataType.DOUBLE) {
+			throw new ExpressionEvaluatorException("Simulated script must return a number, not " + value.dataType() + ".");
+		}
+		
+		double number = value.asDouble();
+		if (Double.isNaN(number) || Double.isInfinite(number)) {
+			throw new ExpressionEvaluatorException("Simulated script must return a finite number, not " + number + ".");
+		}
+		
+		return number;
+	}
+	
+	/**
+	 * Task that runs a range of iterations, splitting it in half until it is a single block.
+	 */
+	private final class SimulationTask extends RecursiveTask<SimulationAccumulator> {
+		
+		/** Version for serialization. */
+		private static final long serialVersionUID = 1L;
+
+		/** The script to evaluate. */
+		private final CompiledScript script;
+		
+		/** The seed of the simulation. */
+		private final long seed;
+		
+		/** The index of the first iteration. */
+		private final long start;
+		
+		/** The index after the last iteration. */
+		private final long end;
+		
+		/**
+		 * Creates a new SimulationTask.
+		 * 
+		 * @param compiledScript The script to evaluate.
+		 * @param simulationSeed The seed of the simulation.
+		 * @param first The index of the first iteration.
+		 * @param last The index after the last iteration.
+		 */
+		SimulationTask(CompiledScript compiledScript, long simulationSeed, long first, long last) {
+			script = compiledScript;
+			seed = simulationSeed;
+			start = first;
+			end = last;
+		}
+
+		@Override
+		protected SimulationAccumulator compute() {
+			long blocks = (end - start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			if (blocks <= 1) {
+				try {
+					return runBlock(script, seed, start, end);
+				} catch (ExpressionEvaluatorException e) {
+					throw new SimulationFailure(e);
+				}
+			}
+			
+			// Split on a block boundary so each block always gets the same random stream.
+			long mid = start + (blocks / 2) * BLOCK_SIZE;
+			SimulationTask right = new SimulationTask(script, seed, mid, end);
+			right.fork();
+			SimulationAccumulator acc = new SimulationTask(script, seed, start, mid).compute();
+			acc.merge(right.join());
+			return acc;
+		}
+	}
+	
+	/**
+	 * Unchecked wrapper used to pass an evaluation failure out of the fork join pool.
+	 */
+	private static final class SimulationFailure extends RuntimeException {
+		
+		/** Version for serialization. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Creates a new SimulationFailure.
+		 * 
+		 * @param cause The evaluation failure.
+		 */
+		SimulationFailure(ExpressionEvaluatorException cause) {
+			super(cause);
+		}
+	}
+	
+	/**
+	 * Holds the pool shared by simulators that were not given a pool, created when first used.
+	 */
+	private static final class SharedPool {
+		
+		/** The shared pool. */
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+}
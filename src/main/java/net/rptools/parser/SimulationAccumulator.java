@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the values of a simulation as they are produced, without keeping them. The
+ * mean and variance use Welford's algorithm and accumulators from different parts of the
+ * simulation are merged with Chan's parallel update.
+ *
+ * The histogram counts the values in bins whose width is a power of two, starting at 
+ * {@link #MIN_BIN_WIDTH} so fractional values are kept apart. When there are more than
+ * {@link #MAX_BINS} bins, or a value is too far from zero for the bins, the width is doubled
+ * and neighbouring bins are joined, so the memory used is bounded whatever the values. The 
+ * width only depends on the values added, not the order they were added or merged in.
+ *
+ */
+final class SimulationAccumulator {
+
+	/** The most bins the histogram can have before the bins are made wider. */
+	static final int MAX_BINS = 2048;
+	
+	/** The width of the narrowest bins of the histogram. */
+	static final double MIN_BIN_WIDTH = 0x1p-16;
+	
+	/** The largest bin index, values further from zero make the bins wider. */
+	private static final double MAX_BIN_INDEX = 0x1p62;
+	
+	/** The number of values added. */
+	private long count;
+	
+	/** The mean of the values added. */
+	private double mean;
+	
+	/** The sum of the squared differences from the mean. */
+	private double m2;
+	
+	/** The smallest value added. */
+	private double min = Double.POSITIVE_INFINITY;
+	
+	/** The largest value added. */
+	private double max = Double.NEGATIVE_INFINITY;
+	
+	/** The width of the bins of the histogram. */
+	private double binWidth = MIN_BIN_WIDTH;
+	
+	/** The number of values added to each bin, by the index of the bin counting from zero. */
+	private Map<Long, long[]> histogram = new HashMap<>();
+	
+	/**
+	 * Adds a value.
+	 * 
+	 * @param value The value to add, which must be finite.
+	 */
+	void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		
+		double index = Math.floor(value / binWidth);
+		while (Math.abs(index) >= MAX_BIN_INDEX) {
+			widen();
+			index = Math.floor(value / binWidth);
+		}
+		addToBin(histogram, (long) index, 1);
+		while (histogram.size() > MAX_BINS) {
+			widen();
+		}
+	}
+	
+	/**
+	 * Merges the values added to another accumulator into this one.
+	 * 
+	 * @param other The other accumulator.
+	 */
+	void merge(SimulationAccumulator other) {
+		if (other.count == 0) {
+			return;
+		}
+		
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		
+		while (binWidth < other.binWidth) {
+			widen();
+		}
+		
+		// Both widths are powers of two so the other bins fit exactly in these bins.
+		int shift = Math.getExponent(binWidth) - Math.getExponent(other.binWidth);
+		for (Map.Entry<Long, long[]> entry : other.histogram.entrySet()) {
+			addToBin(histogram, entry.getKey() >> shift, entry.getValue()[0]);
+		}
+		while (histogram.size() > MAX_BINS) {
+			widen();
+		}
+	}
+	
+	/**
+	 * Doubles the width of the bins, joining each even bin with the odd bin above it.
+	 */
+	private void widen() {
+		Map<Long, long[]> wider = new HashMap<>(histogram.size());
+		for (Map.Entry<Long, long[]> entry : histogram.entrySet()) {
+			addToBin(wider, entry.getKey() >> 1, entry.getValue()[0]);
+		}
+		histogram = wider;
+		binWidth *= 2;
+	}
+	
+	/**
+	 * Adds to the number of values in a bin.
+	 * 
+	 * @param bins The bins of the histogram.
+	 * @param index The index of the bin.
+	 * @param values The number of values to add.
+	 */
+	private static void addToBin(Map<Long, long[]> bins, long index, long values) {
+		long[] bin = bins.get(index);
+		if (bin == null) {
+			bins.put(index, new long[] { values });
+		} else {
+			bin[0] += values;
+		}
+	}
+	
+	/**
+	 * Returns the result of the values added.
+	 * 
+	 * @return the result.
+	 */
+	SimulationResult toResult() {
+		Map<Double, Long> counts = new HashMap<>(histogram.size() * 2);
+		for (Map.Entry<Long, long[]> entry : histogram.entrySet()) {
+			counts.put(entry.getKey() * binWidth, entry.getValue()[0]);
+		}
+		
+		return new SimulationResult(count, mean, count == 0 ? 0 : m2 / count, min, max, binWidth, counts);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The aggregated values of a {@link ScriptSimulator} run. The mean, variance, minimum and 
+ * maximum are of the exact values. The histogram counts the values in bins of equal width 
+ * so the histogram and percentiles are approximate, each value is counted in the bin at
+ * or below it and is less than {@link #getBinWidth()} above the start of its bin. The bins
+ * are as narrow as possible while keeping the histogram to a bounded number of bins, so 
+ * scripts with a small range of values, such as integer dice totals, have exact results.
+ * <p>
+ * SimulationResults are immutable.
+ * </p>
+ */
+public final class SimulationResult {
+
+	/** The number of iterations. */
+	private final long iterations;
+	
+	/** The mean of the values. */
+	private final double mean;
+	
+	/** The population variance of the values. */
+	private final double variance;
+	
+	/** The smallest value. */
+	private final double min;
+	
+	/** The largest value. */
+	private final double max;
+	
+	/** The width of the bins of the histogram. */
+	private final double binWidth;
+	
+	/** The number of values in each bin, by the start of the bin in ascending order. */
+	private final SortedMap<Double, Long> histogram;
+	
+	/**
+	 * Creates a new SimulationResult.
+	 * 
+	 * @param count The number of iterations.
+	 * @param meanValue The mean of the values.
+	 * @param varianceValue The population variance of the values.
+	 * @param minValue The smallest value.
+	 * @param maxValue The largest value.
+	 * @param width The width of the bins of the histogram.
+	 * @param counts The number of values in each bin, by the start of the bin.
+	 */
+	SimulationResult(long count, double meanValue, double varianceValue, double minValue, double maxValue, 
+			double width, Map<Double, Long> counts) {
+		iterations = count;
+		mean = meanValue;
+		variance = varianceValue;
+		min = minValue;
+		max = maxValue;
+		binWidth = width;
+		histogram = Collections.unmodifiableSortedMap(new TreeMap<>(counts));
+	}
+	
+	/**
+	 * Returns the number of iterations that were run.
+	 * 
+	 * @return the number of iterations.
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+	
+	/**
+	 * Returns the mean of the values.
+	 * 
+	 * @return the mean.
+	 */
+	public double getMean() {
+		return mean;
+	}
+	
+	/**
+	 * Returns the population variance of the values.
+	 * 
+	 * @return the variance.
+	 */
+	public double getVariance() {
+		return variance;
+	}
+	
+	/**
+	 * Returns the population standard deviation of the values.
+	 * 
+	 * @return the standard deviation.
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(variance);
+	}
+	
+	/**
+	 * Returns the smallest value.
+	 * 
+	 * @return the smallest value.
+	 */
+	public double getMin() {
+		return min;
+	}
+	
+	/**
+	 * Returns the largest value.
+	 * 
+	 * @return the largest value.
+	 */
+	public double getMax() {
+		return max;
+	}
+	
+	/**
+	 * Returns the width of the bins of the histogram, which is a power of two.
+	 * 
+	 * @return the width of the bins.
+	 */
+	public double getBinWidth() {
+		return binWidth;
+	}
+	
+	/**
+	 * Returns the number of values in each bin of the histogram. A bin counts the values 
+	 * from its start up to but not including the start plus {@link #getBinWidth()}.
+	 * 
+	 * @return an unmodifiable map of the counts by the start of the bin in ascending order.
+	 */
+	public SortedMap<Double, Long> getHistogram() {
+		return histogram;
+	}
+	
+	/**
+	 * Returns an approximate percentile of the values using the nearest rank method. The 
+	 * percentile is the start of the bin of the histogram that holds the value at the rank, 
+	 * so it is at most {@link #getBinWidth()} below the exact percentile.
+	 * 
+	 * @param percent The percentile, from 0 to 100.
+	 * 
+	 * @return the value at the percentile.
+	 * 
+	 * @throws IllegalArgumentException if percent is not between 0 and 100.
+	 * @throws IllegalStateException if no iterations were run.
+	 */
+	public double getPercentile(double percent) {
+		if (!(percent >= 0 && percent <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		
+		if (iterations == 0) {
+			throw new IllegalStateException("No iterations were run.");
+		}
+		
+		long rank = Math.max(1, (long) Math.ceil(percent / 100 * iterations));
+		long seen = 0;
+		for (Map.Entry<Double, Long> entry : histogram.entrySet()) {
+			seen += entry.getValue();
+			if (seen >= rank) {
+				return entry.getKey();
+			}
+		}
+		return histogram.lastKey();
+	}
+	
+	@Override
+	public String toString() {
+		return "SimulationResult[iterations=" + iterations + ", mean=" + mean + ", variance=" + variance + "]";
+	}
+}
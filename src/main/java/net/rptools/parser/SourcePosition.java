@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.io.Serializable;
+
+/**
+ * The position of an element of a script in the source text of the script.
+ *
+ */
+public final class SourcePosition implements Serializable {
+
+	/** Serial UID. */
+	private static final long serialVersionUID = -5137702913846262411L;
+
+	/** The line number, starting at 1. */
+	private final int line;
+	
+	/** The column number, starting at 1. */
+	private final int column;
+	
+	/**
+	 * Creates a new SourcePosition.
+	 * 
+	 * @param lineNumber The line number, starting at 1.
+	 * @param columnNumber The column number, starting at 1.
+	 */
+	public SourcePosition(int lineNumber, int columnNumber) {
+		line = lineNumber;
+		column = columnNumber;
+	}
+	
+	/**
+	 * Returns the line number, starting at 1.
+	 * 
+	 * @return the line number.
+	 */
+	public int getLine() {
+		return line;
+	}
+	
+	/**
+	 * Returns the column number, starting at 1.
+	 * 
+	 * @return the column number.
+	 */
+	public int getColumn() {
+		return column;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SourcePosition)) {
+			return false;
+		}
+		
+		SourcePosition pos = (SourcePosition) obj;
+		return line == pos.line && column == pos.column;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * line + column;
+	}
+	
+	@Override
+	public String toString() {
+		return "line " + line + ", column " + column;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.io.Serializable;
+
+/**
+ * The span of text in the source of a script that an element of the script was parsed from.
+ *
+ */
+public final class SourceSpan implements Serializable {
+
+	/** Serial UID. */
+	private static final long serialVersionUID = 3385069183571947227L;
+
+	/** The position of the first character of the span. */
+	private final SourcePosition start;
+	
+	/** The index of the first character of the span in the source text. */
+	private final int startIndex;
+	
+	/** The index after the last character of the span in the source text. */
+	private final int endIndex;
+	
+	/**
+	 * Creates a new SourceSpan.
+	 * 
+	 * @param startPos The position of the first character of the span.
+	 * @param begin The index of the first character of the span in the source text.
+	 * @param end The index after the last character of the span in the source text.
+	 * 
+	 * @throws NullPointerException if startPos is null.
+	 * @throws IllegalArgumentException if begin is negative or end is less than begin.
+	 */
+	public SourceSpan(SourcePosition startPos, int begin, int end) {
+		if (startPos == null) {
+			throw new NullPointerException("Start position can not be null.");
+		}
+		
+		if (begin < 0 || end < begin) {
+			throw new IllegalArgumentException("Invalid span " + begin + " to " + end + ".");
+		}
+		
+		start = startPos;
+		startIndex = begin;
+		endIndex = end;
+	}
+	
+	/**
+	 * Returns the position of the first character of the span.
+	 * 
+	 * @return the start position.
+	 */
+	public SourcePosition getStart() {
+		return start;
+	}
+	
+	/**
+	 * Returns the index of the first character of the span in the source text.
+	 * 
+	 * @return the start index.
+	 */
+	public int getStartIndex() {
+		return startIndex;
+	}
+	
+	/**
+	 * Returns the index after the last character of the span in the source text, so that
+	 * {@code text.substring(getStartIndex(), getEndIndex())} is the text of the span.
+	 * 
+	 * @return the end index.
+	 */
+	public int getEndIndex() {
+		return endIndex;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SourceSpan)) {
+			return false;
+		}
+		
+		SourceSpan span = (SourceSpan) obj;
+		return start.equals(span.start) && startIndex == span.startIndex && endIndex == span.endIndex;
+	}
+	
+	@Override
+	public int hashCode() {
+		return (31 * start.hashCode() + startIndex) * 31 + endIndex;
+	}
+	
+	@Override
+	public String toString() {
+		return start + " [" + startIndex + ", " + endIndex + ")";
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * SuspendableEvaluation evaluates a script that may prompt for values without blocking the
+ * evaluating thread while it waits for the answer. When the evaluation reaches a prompt 
+ * that has not been answered it is suspended and the thread is released, the prompt can then
+ * be sent to the player and the evaluation resumed on any thread once the answer arrives.
+ *
+ * The evaluation is resumed by replaying it from the start, with the answers already given,
+ * the dice already rolled and the results of the calls to functions that have not been 
+ * marked as deterministic recorded so that the replay produces the same results. Functions 
+ * with random results or side effects are therefore not called again for the replay. The 
+ * script is always evaluated in a transaction so a suspended evaluation leaves no variables, 
+ * properties, roll results or labels behind. A SuspendableEvaluation must not be used by 
+ * more than one thread at a time.
+ *
+ */
+public final class SuspendableEvaluation {
+
+	/** The script being evaluated. */
+	private final CompiledScript script;
+
+	/** The context the script is evaluated with. */
+	private final ScriptContext context;
+
+	/** The arguments bound to the parameters of the script, null if it has no parameters. */
+	private final DataValue[] parameters;
+
+	/** The prompt answers and dice rolls recorded so far. */
+	private final EvaluationJournal journal = new EvaluationJournal();
+
+	/** The result of the evaluation, null if it has not completed. */
+	private DataValue result;
+
+	/** The name of the prompt the evaluation is suspended at, null if it is not suspended. */
+	private String promptName;
+
+	/** The description of the prompt the evaluation is suspended at. */
+	private String promptDescription;
+
+	/**
+	 * Creates a new SuspendableEvaluation.
+	 *
+	 * @param compiled The script to evaluate.
+	 * @param ctx The context to evaluate the script with.
+	 * @param args The arguments bound to the parameters of the script, null if it has none.
+	 */
+	private SuspendableEvaluation(CompiledScript compiled, ScriptContext ctx, DataValue[] args) {
+		script = compiled;
+		context = ctx;
+		parameters = args;
+	}
+
+	/**
+	 * Starts the evaluation of a script, the evaluation runs until it completes or reaches a
+	 * prompt that has not been answered.
+	 *
+	 * @param compiled The script to evaluate.
+	 * @param ctx The context to evaluate the script with.
+	 *
+	 * @return the evaluation, which is either complete or suspended.
+	 *
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the script.
+	 * @throws NullPointerException if compiled or ctx is null.
+	 */
+	public static SuspendableEvaluation start(CompiledScript compiled, ScriptContext ctx)
+			throws ExpressionEvaluatorException {
+		if (compiled == null) {
+			throw new NullPointerException("Compiled script can not be null.");
+		}
+
+		if (ctx == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+
+		SuspendableEvaluation evaluation = new SuspendableEvaluation(compiled, ctx, null);
+		evaluation.run();
+		return evaluation;
+	}
+
+	/**
+	 * Starts the evaluation of a prepared script with the arguments bound to its parameters,
+	 * the arguments stay bound each time the evaluation is resumed.
+	 *
+	 * @param prepared The prepared script to evaluate.
+	 * @param ctx The context to evaluate the script with.
+	 * @param args The arguments, one for each parameter in the order they were declared.
+	 *
+	 * @return the evaluation, which is either complete or suspended.
+	 *
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the script.
+	 * @throws NullPointerException if prepared, ctx or any of the arguments are null.
+	 * @throws IllegalArgumentException if the number of arguments does not match the number
+	 *         of parameters.
+	 */
+	public static SuspendableEvaluation start(PreparedScript prepared, ScriptContext ctx, DataValue... args)
+			throws ExpressionEvaluatorException {
+		if (prepared == null) {
+			throw new NullPointerException("Prepared script can not be null.");
+		}
+
+		if (ctx == null) {
+			throw new NullPointerException("Script context can not be null.");
+		}
+
+		SuspendableEvaluation evaluation = new SuspendableEvaluation(prepared.getCompiledScript(), ctx, 
+				prepared.bindArguments(args));
+		evaluation.run();
+		return evaluation;
+	}
+
+	/**
+	 * Resumes the evaluation with the answer to the prompt it is suspended at. The evaluation
+	 * runs until it completes or reaches another prompt that has not been answered.
+	 *
+	 * @param answer The answer to the prompt.
+	 *
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the script, or the 
+	 *         replay reaches different prompts, rolls or calls than before it was suspended
+	 *         because variables or properties it reads have changed.
+	 * @throws NullPointerException if answer is null.
+	 * @throws IllegalStateException if the evaluation is not suspended.
+	 */
+	public void resume(DataValue answer) throws ExpressionEvaluatorException {
+		if (answer == null) {
+			throw new NullPointerException("Prompt answer can not be null.");
+		}
+
+		if (isSuspended() == false) {
+			throw new IllegalStateException("Evaluation is not suspended.");
+		}
+
+		journal.addPromptAnswer(promptName, answer);
+		run();
+	}
+
+	/**
+	 * Checks to see if the evaluation is suspended waiting for the answer to a prompt.
+	 *
+	 * @return true if the evaluation is suspended.
+	 */
+	public boolean isSuspended() {
+		return promptName != null;
+	}
+
+	/**
+	 * Returns the name of the prompt the evaluation is suspended at.
+	 *
+	 * @return the name of the prompt or null if the evaluation is not suspended.
+	 */
+	public String getPromptName() {
+		return promptName;
+	}
+
+	/**
+	 * Returns the description of the prompt the evaluation is suspended at.
+	 *
+	 * @return the description of the prompt or null if there is no description or the 
+	 *         evaluation is not suspended.
+	 */
+	public String getPromptDescription() {
+		return promptDescription;
+	}
+
+	/**
+	 * Returns the result of the completed evaluation.
+	 *
+	 * @return the result of the evaluation.
+	 *
+	 * @throws IllegalStateException if the evaluation is suspended.
+	 */
+	public DataValue getResult() {
+		if (isSuspended()) {
+			throw new IllegalStateException("Evaluation is suspended at prompt " + promptName);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Evaluates the script from the start with its arguments bound, replaying the recorded
+	 * answers and dice rolls.
+	 *
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the script.
+	 */
+	private void run() throws ExpressionEvaluatorException {
+		promptName = null;
+		promptDescription = null;
+		journal.rewind();
+		DataValue[] previous = context.getParameters();
+		context.setParameters(parameters);
+		context.setJournal(journal);
+		try {
+			result = script.evaluateInTransaction(context);
+		} catch (EvaluationSuspendedException e) {
+			promptName = e.getPromptName();
+			promptDescription = e.getPromptDescription();
+		} finally {
+			context.setJournal(null);
+			context.setParameters(previous);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * TraceBuffer is a fixed size ring buffer of the events recorded while evaluating a script
+ * in debug mode. Once the buffer is full the oldest events are overwritten, so it always 
+ * holds the most recent events which can be dumped when a script fails.
+ * <p>
+ * The kind, depth and time of each event are packed into a {@code long} array, the only
+ * objects held are the trace points and the values or messages, so recording an event 
+ * does not allocate.
+ * </p>
+ * <p>
+ * A TraceBuffer belongs to a single {@link ScriptContext} and is not thread safe.
+ * </p>
+ * 
+ * @see ScriptContextBuilder#setDebug(boolean)
+ */
+public final class TraceBuffer {
+	
+	/** The default number of events held. */
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	/** The number of {@code long}s used for each event. */
+	private static final int WORDS_PER_EVENT = 2;
+	
+	/** The kind and depth of the events followed by the time of the events. */
+	private final long[] words;
+	
+	/** The trace points of the events. */
+	private final TracePoint[] points;
+	
+	/** The values or exception messages of the events. */
+	private final Object[] payloads;
+	
+	/** The index the next event will be written at. */
+	private int next;
+	
+	/** The total number of events recorded since the buffer was last cleared. */
+	private long recorded;
+	
+	/** The current depth of the evaluation. */
+	private int depth;
+	
+	/**
+	 * Creates a new TraceBuffer.
+	 * 
+	 * @param capacity The maximum number of events held.
+	 * 
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 */
+	public TraceBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Trace buffer capacity must be at least 1.");
+		}
+		
+		words = new long[capacity * WORDS_PER_EVENT];
+		points = new TracePoint[capacity];
+		payloads = new Object[capacity];
+	}
+	
+	/**
+	 * Records that the evaluation of an element of the script started.
+	 * 
+	 * @param point The point in the script.
+	 */
+	public void enter(TracePoint point) {
+		record(TraceEvent.Kind.ENTER, depth++, point, null);
+	}
+	
+	/**
+	 * Records that the evaluation of an element of the script returned a value.
+	 * 
+	 * @param point The point in the script.
+	 * @param value The value returned.
+	 */
+	public void exit(TracePoint point, DataValue value) {
+		record(TraceEvent.Kind.EXIT, --depth, point, value);
+	}
+	
+	/**
+	 * Records that the evaluation of an element of the script threw an exception.
+	 * 
+	 * @param point The point in the script.
+	 * @param e The exception thrown.
+	 */
+	public void error(TracePoint point, Throwable e) {
+		record(TraceEvent.Kind.ERROR, --depth, point, e.getMessage());
+	}
+	
+	/**
+	 * Records an event.
+	 * 
+	 * @param kind The kind of event.
+	 * @param eventDepth The depth of the event.
+	 * @param point The point in the script.
+	 * @param payload The value or exception message.
+	 */
+	private void record(TraceEvent.Kind kind, int eventDepth, TracePoint point, Object payload) {
+		words[next * WORDS_PER_EVENT] = ((long) kind.ordinal() << 32) | (eventDepth & 0xFFFFFFFFL);
+		words[next * WORDS_PER_EVENT + 1] = System.nanoTime();
+		points[next] = point;
+		payloads[next] = payload;
+		
+		if (++next == points.length) {
+			next = 0;
+		}
+		recorded++;
+	}
+	
+	/**
+	 * Returns the maximum number of events held.
+	 * 
+	 * @return the capacity.
+	 */
+	public int getCapacity() {
+		return points.length;
+	}
+	
+	/**
+	 * Returns the number of events held.
+	 * 
+	 * @return the number of events.
+	 */
+	public int getEventCount() {
+		return (int) Math.min(recorded, points.length);
+	}
+	
+	/**
+	 * Returns the number of events that have been overwritten since the buffer was last cleared.
+	 * 
+	 * @return the number of events overwritten.
+	 */
+	public long getDroppedCount() {
+		return recorded - getEventCount();
+	}
+	
+	/**
+	 * Returns the events held, oldest first.
+	 * 
+	 * @return the events.
+	 */
+	public List<TraceEvent> getEvents() {
+		int count = getEventCount();
+		List<TraceEvent> events = new ArrayList<>(count);
+		int index = count < points.length ? 0 : next;
+		TraceEvent.Kind[] kinds = TraceEvent.Kind.values();
+		for (int i = 0; i < count; i++) {
+			long header = words[index * WORDS_PER_EVENT];
+			TraceEvent.Kind kind = kinds[(int) (header >>> 32)];
+			Object payload = payloads[index];
+			events.add(new TraceEvent(kind, (int) header, words[index * WORDS_PER_EVENT + 1], points[index], 
+					kind == TraceEvent.Kind.EXIT ? (DataValue) payload : null, 
+					kind == TraceEvent.Kind.ERROR ? (String) payload : null));
+			
+			if (++index == points.length) {
+				index = 0;
+			}
+		}
+		return events;
+	}
+	
+	/**
+	 * Writes the events held, oldest first, one per line.
+	 * 
+	 * @param out Where to write the events.
+	 * 
+	 * @throws IOException if an error occurs writing the events.
+	 */
+	public void dump(Appendable out) throws IOException {
+		long dropped = getDroppedCount();
+		if (dropped > 0) {
+			out.append("... ").append(Long.toString(dropped)).append(" earlier events dropped\n");
+		}
+		
+		for (TraceEvent event : getEvents()) {
+			out.append(event.toString()).append('\n');
+		}
+	}
+	
+	/**
+	 * Discards all the events held.
+	 */
+	public void clear() {
+		Arrays.fill(points, null);
+		Arrays.fill(payloads, null);
+		next = 0;
+		recorded = 0;
+		depth = 0;
+	}
+}
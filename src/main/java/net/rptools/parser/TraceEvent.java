@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * An event recorded in a {@link TraceBuffer} while evaluating a script.
+ *
+ */
+public final class TraceEvent {
+	
+	/** The kinds of events. */
+	public enum Kind {
+		/** The evaluation of an element of the script started. */
+		ENTER,
+		/** The evaluation of an element of the script returned a value. */
+		EXIT,
+		/** The evaluation of an element of the script threw an exception. */
+		ERROR
+	}
+
+	/** The kind of event. */
+	private final Kind kind;
+	
+	/** The depth of the element in the evaluation, 0 for the statements of the script. */
+	private final int depth;
+	
+	/** The time of the event from {@link System#nanoTime()}. */
+	private final long timestamp;
+	
+	/** The point in the script the event was recorded for. */
+	private final TracePoint point;
+	
+	/** The value returned for {@link Kind#EXIT} events. */
+	private final DataValue value;
+	
+	/** The message of the exception for {@link Kind#ERROR} events. */
+	private final String message;
+	
+	/**
+	 * Creates a new TraceEvent.
+	 * 
+	 * @param eventKind The kind of event.
+	 * @param eventDepth The depth of the element in the evaluation.
+	 * @param time The time of the event.
+	 * @param tracePoint The point in the script the event was recorded for.
+	 * @param val The value returned or null.
+	 * @param msg The message of the exception or null.
+	 */
+	TraceEvent(Kind eventKind, int eventDepth, long time, TracePoint tracePoint, DataValue val, String msg) {
+		kind = eventKind;
+		depth = eventDepth;
+		timestamp = time;
+		point = tracePoint;
+		value = val;
+		message = msg;
+	}
+	
+	/**
+	 * Returns the kind of event.
+	 * 
+	 * @return the kind of event.
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+	
+	/**
+	 * Returns the depth of the element in the evaluation, 0 for the statements of the script.
+	 * 
+	 * @return the depth.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * Returns the time of the event as returned by {@link System#nanoTime()}.
+	 * 
+	 * @return the time of the event.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the point in the script the event was recorded for.
+	 * 
+	 * @return the trace point.
+	 */
+	public TracePoint getTracePoint() {
+		return point;
+	}
+	
+	/**
+	 * Returns the value returned by the element of the script.
+	 * 
+	 * @return the value or null if this is not an {@link Kind#EXIT} event.
+	 */
+	public DataValue getValue() {
+		return value;
+	}
+	
+	/**
+	 * Returns the message of the exception thrown by the element of the script.
+	 * 
+	 * @return the message or null if this is not an {@link Kind#ERROR} event.
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			sb.append("  ");
+		}
+		sb.append(kind).append(' ').append(point.getDescription());
+		if (point.getSourceSpan() != null) {
+			sb.append(" (").append(point.getSourceSpan().getStart()).append(')');
+		}
+		if (kind == Kind.EXIT) {
+			sb.append(" = ").append(value);
+		} else if (kind == Kind.ERROR) {
+			sb.append(": ").append(message);
+		}
+		return sb.toString();
+	}
+}
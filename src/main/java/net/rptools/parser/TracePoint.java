@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser;
+
+/**
+ * A point in a script that records events in a {@link TraceBuffer} when it is evaluated.
+ *
+ */
+public interface TracePoint {
+
+	/**
+	 * Returns a short description of the element of the script, such as the kind of node
+	 * and the name of the function it calls.
+	 * 
+	 * @return the description.
+	 */
+	public String getDescription();
+	
+	/**
+	 * Returns the span of the source text the element of the script was parsed from.
+	 * 
+	 * @return the span or null if it is not known.
+	 */
+	public SourceSpan getSourceSpan();
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.audit;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of roll audit log segments, shared by the {@link RollAuditLog} that writes them
+ * and the {@link RollAuditReader} that reads them.
+ * <p>
+ * Each segment starts with {@link #MAGIC} and {@link #VERSION} as ints, followed by the 
+ * records. Each record is an int length followed by that many bytes: the timestamp and 
+ * context id as longs, then the number of dice, sides, reroll value, explode value and 
+ * number of dice kept as variable length integers, a flags byte, the number of faces and 
+ * each face as variable length integers and, if any dice were dropped, a bitmap of the 
+ * dropped dice. Rolls with too many dice to keep have {@link #FLAG_SUMMARY} set and the 
+ * total of the roll as a long in place of the faces and bitmap. The length is written last so a reader never sees a partial record, and a
+ * length of 0 marks the end of the records in a segment.
+ * </p>
+ */
+final class RollAuditFormat {
+
+	/** The first int of every segment. */
+	static final int MAGIC = 0x52504147;
+	
+	/** The version of the segment layout. */
+	static final int VERSION = 1;
+	
+	/** The size of the segment header. */
+	static final int HEADER_SIZE = 8;
+	
+	/** The flag set if the roll is verbose. */
+	static final int FLAG_VERBOSE = 1;
+	
+	/** The flag set if the verbose roll is summed. */
+	static final int FLAG_SUM = 2;
+	
+	/** The flag set if the highest dice are kept. */
+	static final int FLAG_KEEP_HIGHEST = 4;
+	
+	/** The flag set if the record has a bitmap of dropped dice. */
+	static final int FLAG_DROPPED = 8;
+	
+	/** The flag set if the record only has the total of the roll rather than its dice. */
+	static final int FLAG_SUMMARY = 16;
+	
+	/** The prefix of segment file names. */
+	static final String SEGMENT_PREFIX = "rolls-";
+	
+	/** The suffix of segment file names. */
+	static final String SEGMENT_SUFFIX = ".seg";
+	
+	/** Stop instantiation. */
+	private RollAuditFormat() {
+	}
+	
+	/**
+	 * Returns the file name of a segment.
+	 * 
+	 * @param index The index of the segment.
+	 * 
+	 * @return the file name.
+	 */
+	static String segmentName(long index) {
+		return String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+	}
+	
+	/**
+	 * Returns the index of a segment from its file name.
+	 * 
+	 * @param name The file name.
+	 * 
+	 * @return the index or -1 if the name is not the name of a segment.
+	 */
+	static long segmentIndex(String name) {
+		if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Reads a variable length integer.
+	 * 
+	 * @param buffer The buffer to read from.
+	 * 
+	 * @return the value.
+	 * 
+	 * @throws IllegalArgumentException if the value is not valid.
+	 */
+	static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (buffer.hasRemaining() == false) {
+				break;
+			}
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Invalid roll audit record.");
+	}
+}
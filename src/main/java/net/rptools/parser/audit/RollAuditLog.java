@@ -0,0 +1,577 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.rptools.parser.functions.RollFaces;
+import net.rptools.parser.functions.RollPlan;
+
+/**
+ * RollAuditLog keeps every roll made by the contexts it is set on, for settling disputes 
+ * about rolls. Rolls are appended to a lock free queue by the evaluating threads and 
+ * written by a single writer thread to memory mapped segment files in a directory, a new
+ * segment is started when the current one is full. The log is append only, opening a 
+ * directory that already has segments starts a new segment after them.
+ * <p>
+ * Appending never blocks, if the writer falls behind by more than the queue capacity the
+ * roll is not logged and counted in {@link #getDroppedCount()}. The queue capacity is in 
+ * bytes, as a queued roll keeps all of its dice until it is written. A roll with more dice
+ * than fit in the queue capacity can only be logged as a summary of its total, see 
+ * {@link #canAppendDice(RollPlan)}.
+ * </p>
+ * 
+ * @see RollAuditReader
+ * @see net.rptools.parser.ScriptContextBuilder#setRollAuditLog(RollAuditLog)
+ */
+public final class RollAuditLog implements Closeable {
+	
+	/** The default size of the segment files. */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	/** The default maximum number of bytes of rolls waiting to be written. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024 * 1024;
+	
+	/** 
+	 * The largest queue capacity, which also bounds the size of a single roll so that its 
+	 * record always fits in a segment.
+	 */
+	public static final int MAX_QUEUE_CAPACITY = 1024 * 1024 * 1024;
+	
+	/** The estimated number of bytes used by a queued roll in addition to its dice. */
+	private static final long PENDING_ROLL_OVERHEAD = 96;
+	
+	/** How long the writer sleeps when there are no rolls to write, in nanoseconds. */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** The directory the segments are written to. */
+	private final Path directory;
+	
+	/** The size of the segment files. */
+	private final int segmentSize;
+	
+	/** The maximum number of bytes of rolls waiting to be written. */
+	private final long queueCapacity;
+	
+	/** The rolls waiting to be written. */
+	private final Queue<PendingRoll> queue = new ConcurrentLinkedQueue<>();
+	
+	/** The estimated number of bytes of the rolls waiting to be written. */
+	private final AtomicLong queuedBytes = new AtomicLong();
+	
+	/** The number of rolls appended to the queue. */
+	private final AtomicLong appended = new AtomicLong();
+	
+	/** The number of rolls that were not logged because the queue was full or the log closed. */
+	private final AtomicLong droppedCount = new AtomicLong();
+	
+	/** The number of rolls written, only changed by the writer thread. */
+	private volatile long written;
+	
+	/** Has the log been closed. */
+	private volatile boolean closed;
+	
+	/** 
+	 * The first error writing the log, null if there has been no error. Rolls are not written
+	 * after an error but the queue is still drained.
+	 */
+	private volatile IOException error;
+	
+	/** The thread that writes the rolls. */
+	private final Thread writer;
+	
+	/** Lock held while the current segment is written to or changed. */
+	private final Object segmentLock = new Object();
+	
+	/** The current segment, only changed by the writer thread. */
+	private MappedByteBuffer segment;
+	
+	/** The index of the current segment. */
+	private long segmentIndex;
+	
+	/** Buffer the writer encodes records into before copying them to the segment. */
+	private byte[] scratch = new byte[256];
+	
+	/**
+	 * Opens a roll audit log with the default segment size and queue capacity.
+	 * 
+	 * @param dir The directory to write the segments to, which is created if it does not exist.
+	 * 
+	 * @throws NullPointerException if dir is null.
+	 * @throws IOException if the directory or the first segment can not be created.
+	 */
+	public RollAuditLog(Path dir) throws IOException {
+		this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	/**
+	 * Opens a roll audit log.
+	 * 
+	 * @param dir The directory to write the segments to, which is created if it does not exist.
+	 * @param segmentBytes The size of the segment files, a single roll too large for a segment
+	 *        is written to a segment of its own.
+	 * @param capacity The maximum number of bytes of rolls waiting to be written, rolls 
+	 *        larger than this are never logged.
+	 * 
+	 * @throws NullPointerException if dir is null.
+	 * @throws IllegalArgumentException if segmentBytes is less than 1024 or capacity is less 
+	 *         than 1024 or more than {@link #MAX_QUEUE_CAPACITY}.
+	 * @throws IOException if the directory or the first segment can not be created.
+	 */
+	public RollAuditLog(Path dir, int segmentBytes, int capacity) throws IOException {
+		if (dir == null) {
+			throw new NullPointerException("Audit log directory can not be null.");
+		}
+		
+		if (segmentBytes < 1024) {
+			throw new IllegalArgumentException("Segment size must be at least 1024 bytes.");
+		}
+		
+		if (capacity < 1024 || capacity > MAX_QUEUE_CAPACITY) {
+			throw new IllegalArgumentException("Queue capacity must be between 1024 and " + MAX_QUEUE_CAPACITY + 
+					" bytes.");
+		}
+		
+		directory = dir;
+		segmentSize = segmentBytes;
+		queueCapacity = capacity;
+		
+		Files.createDirectories(directory);
+		long last = -1;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				last = Math.max(last, RollAuditFormat.segmentIndex(file.getFileName().toString()));
+			}
+		}
+		segmentIndex = last;
+		openSegment(RollAuditFormat.HEADER_SIZE);
+		
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "Roll Audit Writer " + directory.getFileName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Appends a roll to the log. This only queues the roll, it is written by the writer thread.
+	 * 
+	 * @param contextId The id of the context that rolled the dice.
+	 * @param plan The plan that was rolled.
+	 * @param faces The dice that were rolled.
+	 * 
+	 * @return true if the roll was queued, false if the queue is full, the roll is larger than
+	 *         the queue capacity or the log is closed.
+	 * 
+	 * @throws NullPointerException if plan or faces is null.
+	 */
+	public boolean append(long contextId, RollPlan plan, RollFaces faces) {
+		if (plan == null) {
+			throw new NullPointerException("Roll plan can not be null.");
+		}
+		
+		if (faces == null) {
+			throw new NullPointerException("Roll faces can not be null.");
+		}
+		
+		long bytes = PENDING_ROLL_OVERHEAD + 5L * faces.size();
+		return enqueue(new PendingRoll(System.currentTimeMillis(), contextId, plan, faces, 0, bytes));
+	}
+	
+	/**
+	 * Checks if the dice of a roll fit in the queue capacity. The dice of rolls that do not 
+	 * fit are never logged by {@link #append(long, RollPlan, RollFaces)}, so rather than
+	 * keeping every die these rolls should be logged with 
+	 * {@link #appendSummary(long, RollPlan, long)}.
+	 * 
+	 * @param plan The plan that will be rolled.
+	 * 
+	 * @return true if the dice of the roll can be appended.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public boolean canAppendDice(RollPlan plan) {
+		if (plan == null) {
+			throw new NullPointerException("Roll plan can not be null.");
+		}
+		
+		return PENDING_ROLL_OVERHEAD + 5L * plan.getCount() <= queueCapacity;
+	}
+	
+	/**
+	 * Appends the total of a roll to the log without its dice. This only queues the roll, 
+	 * it is written by the writer thread.
+	 * 
+	 * @param contextId The id of the context that rolled the dice.
+	 * @param plan The plan that was rolled.
+	 * @param total The total of the roll.
+	 * 
+	 * @return true if the roll was queued, false if the queue is full or the log is closed.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public boolean appendSummary(long contextId, RollPlan plan, long total) {
+		if (plan == null) {
+			throw new NullPointerException("Roll plan can not be null.");
+		}
+		
+		return enqueue(new PendingRoll(System.currentTimeMillis(), contextId, plan, null, total, 
+				PENDING_ROLL_OVERHEAD));
+	}
+	
+	/**
+	 * Queues a roll to be written unless the queue is full or the log is closed. Every roll
+	 * is either counted as appended and then written, or counted as dropped.
+	 * 
+	 * @param roll The roll to queue.
+	 * 
+	 * @return true if the roll was queued.
+	 */
+	private boolean enqueue(PendingRoll roll) {
+		if (closed) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		
+		if (queuedBytes.addAndGet(roll.bytes) > queueCapacity) {
+			queuedBytes.addAndGet(-roll.bytes);
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		
+		queue.offer(roll);
+		// The log may have been closed after it was checked and the writer may have already
+		// stopped, if the roll is still queued it will never be written.
+		if (closed && queue.remove(roll)) {
+			queuedBytes.addAndGet(-roll.bytes);
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		
+		appended.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Waits until every roll appended before this was called has been written, then forces
+	 * the current segment to storage.
+	 * 
+	 * @throws IOException if the log could not be written.
+	 */
+	public void flush() throws IOException {
+		long target = appended.get();
+		while (written < target && writer.isAlive()) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		
+		synchronized (segmentLock) {
+			if (segment != null) {
+				segment.force();
+			}
+		}
+		
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Closes the log, writing the rolls that are waiting. Rolls appended afterwards are not 
+	 * logged.
+	 * 
+	 * @throws IOException if the log could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		LockSupport.unpark(writer);
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+		synchronized (segmentLock) {
+			if (segment != null) {
+				segment.force();
+				segment = null;
+			}
+		}
+		
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Returns the directory the segments are written to.
+	 * 
+	 * @return the directory.
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Returns the number of rolls that have been written.
+	 * 
+	 * @return the number of rolls written.
+	 */
+	public long getWrittenCount() {
+		return written;
+	}
+	
+	/**
+	 * Returns the number of rolls that were not logged because the queue was full or the 
+	 * log was closed.
+	 * 
+	 * @return the number of rolls not logged.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	/**
+	 * Writes queued rolls until the log is closed and the queue is empty.
+	 */
+	private void writeLoop() {
+		while (true) {
+			PendingRoll roll = queue.poll();
+			if (roll == null) {
+				if (closed && queue.isEmpty()) {
+					return;
+				}
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				continue;
+			}
+			
+			queuedBytes.addAndGet(-roll.bytes);
+			if (error == null) {
+				try {
+					write(roll);
+				} catch (IOException e) {
+					error = e;
+				} catch (RuntimeException e) {
+					// The writer must keep draining the queue or flush and close would wait forever.
+					error = new IOException("Roll could not be written to the audit log.", e);
+				}
+			}
+			written++;
+		}
+	}
+	
+	/**
+	 * Encodes a roll and writes it to the current segment, starting a new segment if it
+	 * does not fit.
+	 * 
+	 * @param roll The roll to write.
+	 * 
+	 * @throws IOException if a new segment could not be created.
+	 */
+	private void write(PendingRoll roll) throws IOException {
+		int length = encode(roll);
+		synchronized (segmentLock) {
+			if (segment.remaining() < length + 8) {
+				openSegment(length + 8 + RollAuditFormat.HEADER_SIZE);
+			}
+			
+			int start = segment.position();
+			segment.position(start + 4);
+			segment.put(scratch, 0, length);
+			// The length is written last so readers never see a partial record.
+			segment.putInt(start, length);
+		}
+	}
+	
+	/**
+	 * Encodes a roll into the scratch buffer.
+	 * 
+	 * @param roll The roll to encode.
+	 * 
+	 * @return the number of bytes encoded.
+	 */
+	private int encode(PendingRoll roll) {
+		RollPlan plan = roll.plan;
+		RollFaces faces = roll.faces;
+		int dice = faces == null ? 0 : faces.size();
+		// The queue capacity limits the number of dice so this can not overflow.
+		int maxLength = 16 + 5 * 6 + 1 + 8 + 5 * dice + (dice + 7) / 8;
+		if (scratch.length < maxLength) {
+			scratch = new byte[Math.max(maxLength, scratch.length * 2)];
+		}
+		
+		int pos = putLong(0, roll.timestamp);
+		pos = putLong(pos, roll.contextId);
+		pos = putVarint(pos, plan.getCount());
+		pos = putVarint(pos, plan.getSides());
+		pos = putVarint(pos, plan.getRerollAt());
+		pos = putVarint(pos, plan.getExplodeAt());
+		pos = putVarint(pos, plan.getKeep());
+		
+		int flags = 0;
+		flags |= plan.isVerbose() ? RollAuditFormat.FLAG_VERBOSE : 0;
+		flags |= plan.isSum() ? RollAuditFormat.FLAG_SUM : 0;
+		flags |= plan.isKeepHighest() ? RollAuditFormat.FLAG_KEEP_HIGHEST : 0;
+		if (faces == null) {
+			scratch[pos++] = (byte) (flags | RollAuditFormat.FLAG_SUMMARY);
+			return putLong(pos, roll.total);
+		}
+		
+		flags |= plan.dropsDice() ? RollAuditFormat.FLAG_DROPPED : 0;
+		scratch[pos++] = (byte) flags;
+		
+		pos = putVarint(pos, dice);
+		for (int i = 0; i < dice; i++) {
+			pos = putVarint(pos, faces.getFace(i));
+		}
+		
+		if (plan.dropsDice()) {
+			int bitmap = pos;
+			pos += (dice + 7) / 8;
+			Arrays.fill(scratch, bitmap, pos, (byte) 0);
+			for (int i = 0; i < dice; i++) {
+				if (faces.isDropped(i)) {
+					scratch[bitmap + i / 8] |= 1 << (i % 8);
+				}
+			}
+		}
+		
+		return pos;
+	}
+	
+	/**
+	 * Writes a long to the scratch buffer.
+	 * 
+	 * @param pos The position to write at.
+	 * @param value The value.
+	 * 
+	 * @return the position after the value.
+	 */
+	private int putLong(int pos, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			scratch[pos++] = (byte) (value >>> shift);
+		}
+		return pos;
+	}
+	
+	/**
+	 * Writes a variable length integer to the scratch buffer.
+	 * 
+	 * @param pos The position to write at.
+	 * @param value The value, which is never negative.
+	 * 
+	 * @return the position after the value.
+	 */
+	private int putVarint(int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			scratch[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		scratch[pos++] = (byte) value;
+		return pos;
+	}
+	
+	/**
+	 * Forces the current segment to storage and starts the next one.
+	 * 
+	 * @param minSize The minimum size of the new segment.
+	 * 
+	 * @throws IOException if the segment could not be created.
+	 */
+	private void openSegment(int minSize) throws IOException {
+		if (segment != null) {
+			segment.force();
+		}
+		
+		segmentIndex++;
+		Path file = directory.resolve(RollAuditFormat.segmentName(segmentIndex));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minSize));
+		}
+		segment.putInt(RollAuditFormat.MAGIC);
+		segment.putInt(RollAuditFormat.VERSION);
+	}
+	
+	/**
+	 * A roll waiting to be written.
+	 */
+	private static final class PendingRoll {
+		
+		/** The time of the roll. */
+		final long timestamp;
+		
+		/** The id of the context that rolled the dice. */
+		final long contextId;
+		
+		/** The plan that was rolled. */
+		final RollPlan plan;
+		
+		/** The dice that were rolled, null if only the total is logged. */
+		final RollFaces faces;
+		
+		/** The total of the roll if only the total is logged. */
+		final long total;
+		
+		/** The estimated number of bytes used by the roll while it is queued. */
+		final long bytes;
+		
+		/**
+		 * Creates a new PendingRoll.
+		 * 
+		 * @param time The time of the roll.
+		 * @param context The id of the context that rolled the dice.
+		 * @param rollPlan The plan that was rolled.
+		 * @param rollFaces The dice that were rolled, or null if only the total is logged.
+		 * @param rollTotal The total of the roll if only the total is logged.
+		 * @param size The estimated number of bytes used by the roll while it is queued.
+		 */
+		PendingRoll(long time, long context, RollPlan rollPlan, RollFaces rollFaces, long rollTotal, long size) {
+			timestamp = time;
+			contextId = context;
+			plan = rollPlan;
+			faces = rollFaces;
+			total = rollTotal;
+			bytes = size;
+		}
+	}
+}
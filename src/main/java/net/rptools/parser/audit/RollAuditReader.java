@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.rptools.parser.functions.RollPlan;
+
+/**
+ * RollAuditReader reads the rolls written by a {@link RollAuditLog}, for example to look up
+ * the rolls of a disputed evaluation. It can read a log that is still being written, the
+ * rolls written so far are returned.
+ *
+ */
+public final class RollAuditReader {
+
+	/** The directory the segments are in. */
+	private final Path directory;
+	
+	/**
+	 * Creates a new RollAuditReader.
+	 * 
+	 * @param dir The directory the segments are in.
+	 * 
+	 * @throws NullPointerException if dir is null.
+	 */
+	public RollAuditReader(Path dir) {
+		if (dir == null) {
+			throw new NullPointerException("Audit log directory can not be null.");
+		}
+		
+		directory = dir;
+	}
+	
+	/**
+	 * Returns all of the rolls in the log, in the order they were written.
+	 * 
+	 * @return the rolls.
+	 * 
+	 * @throws IOException if the log could not be read.
+	 * @throws IllegalArgumentException if a segment is not a valid roll audit segment.
+	 */
+	public List<RollAuditRecord> readAll() throws IOException {
+		return read(null, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Returns the rolls made by a context, in the order they were written.
+	 * 
+	 * @param contextId The id of the context.
+	 * 
+	 * @return the rolls.
+	 * 
+	 * @throws IOException if the log could not be read.
+	 * @throws IllegalArgumentException if a segment is not a valid roll audit segment.
+	 */
+	public List<RollAuditRecord> findByContext(long contextId) throws IOException {
+		return read(contextId, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Returns the rolls made during a period of time, in the order they were written.
+	 * 
+	 * @param fromMillis The start of the period, inclusive, in milliseconds since the epoch.
+	 * @param toMillis The end of the period, exclusive, in milliseconds since the epoch.
+	 * 
+	 * @return the rolls.
+	 * 
+	 * @throws IOException if the log could not be read.
+	 * @throws IllegalArgumentException if a segment is not a valid roll audit segment.
+	 */
+	public List<RollAuditRecord> findBetween(long fromMillis, long toMillis) throws IOException {
+		return read(null, fromMillis, toMillis);
+	}
+	
+	/**
+	 * Reads the rolls that match a filter.
+	 * 
+	 * @param contextId The id of the context to return the rolls of, or null for all contexts.
+	 * @param fromMillis The start of the period to return the rolls of, inclusive.
+	 * @param toMillis The end of the period to return the rolls of, exclusive.
+	 * 
+	 * @return the rolls.
+	 * 
+	 * @throws IOException if the log could not be read.
+	 */
+	private List<RollAuditRecord> read(Long contextId, long fromMillis, long toMillis) throws IOException {
+		if (Files.isDirectory(directory) == false) {
+			return Collections.emptyList();
+		}
+		
+		Map<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				long index = RollAuditFormat.segmentIndex(file.getFileName().toString());
+				if (index >= 0) {
+					segments.put(index, file);
+				}
+			}
+		}
+		
+		List<RollAuditRecord> records = new ArrayList<>();
+		for (Path file : segments.values()) {
+			ByteBuffer buffer;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			
+			if (buffer.remaining() < RollAuditFormat.HEADER_SIZE || buffer.getInt() != RollAuditFormat.MAGIC 
+					|| buffer.getInt() != RollAuditFormat.VERSION) {
+				throw new IllegalArgumentException(file + " is not a roll audit segment.");
+			}
+			
+			while (buffer.remaining() >= 4) {
+				int length = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+				
+				ByteBuffer record = buffer.slice();
+				record.limit(length);
+				buffer.position(buffer.position() + length);
+				
+				long timestamp = record.getLong();
+				long context = record.getLong();
+				if ((contextId != null && context != contextId) || timestamp < fromMillis || timestamp >= toMillis) {
+					continue;
+				}
+				records.add(decode(timestamp, context, record));
+			}
+		}
+		
+		return records;
+	}
+	
+	/**
+	 * Decodes the rest of a roll record.
+	 * 
+	 * @param timestamp The time of the roll.
+	 * @param contextId The id of the context that rolled the dice.
+	 * @param record The record, positioned after the context id.
+	 * 
+	 * @return the roll.
+	 * 
+	 * @throws IllegalArgumentException if the record is not valid.
+	 */
+	private static RollAuditRecord decode(long timestamp, long contextId, ByteBuffer record) {
+		int count = RollAuditFormat.readVarint(record);
+		int sides = RollAuditFormat.readVarint(record);
+		int reroll = RollAuditFormat.readVarint(record);
+		int explode = RollAuditFormat.readVarint(record);
+		int keep = RollAuditFormat.readVarint(record);
+		int flags = record.get();
+		RollPlan plan = new RollPlan(count, sides, (flags & RollAuditFormat.FLAG_VERBOSE) != 0, 
+				(flags & RollAuditFormat.FLAG_SUM) != 0, reroll, explode, keep, 
+				(flags & RollAuditFormat.FLAG_KEEP_HIGHEST) != 0);
+		
+		if ((flags & RollAuditFormat.FLAG_SUMMARY) != 0) {
+			return new RollAuditRecord(timestamp, contextId, plan, record.getLong());
+		}
+		
+		int dice = RollAuditFormat.readVarint(record);
+		if (dice > record.remaining()) {
+			throw new IllegalArgumentException("Invalid roll audit record.");
+		}
+		int[] faces = new int[dice];
+		for (int i = 0; i < dice; i++) {
+			faces[i] = RollAuditFormat.readVarint(record);
+		}
+		
+		boolean[] dropped = null;
+		if ((flags & RollAuditFormat.FLAG_DROPPED) != 0) {
+			dropped = new boolean[dice];
+			int bitmap = record.position();
+			for (int i = 0; i < dice; i++) {
+				dropped[i] = (record.get(bitmap + i / 8) & (1 << (i % 8))) != 0;
+			}
+		}
+		
+		return new RollAuditRecord(timestamp, contextId, plan, faces, dropped);
+	}
+}
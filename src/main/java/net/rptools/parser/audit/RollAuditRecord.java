@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.audit;
+
+import java.util.Arrays;
+
+import net.rptools.parser.functions.RollPlan;
+
+/**
+ * A roll read back from a roll audit log. Rolls with too many dice to be kept in the log 
+ * are summary records that only have the total of the roll.
+ * <p>
+ * RollAuditRecords are immutable.
+ * </p>
+ * 
+ * @see RollAuditReader
+ */
+public final class RollAuditRecord {
+
+	/** The time of the roll, in milliseconds since the epoch. */
+	private final long timestamp;
+	
+	/** The id of the context that rolled the dice. */
+	private final long contextId;
+	
+	/** The plan that was rolled. */
+	private final RollPlan plan;
+	
+	/** The values of the dice rolled. */
+	private final int[] faces;
+	
+	/** Which dice were dropped, null if no dice were dropped. */
+	private final boolean[] dropped;
+	
+	/** The total of a summary record, which has no faces. */
+	private final long summaryTotal;
+	
+	/** Is this a summary record. */
+	private final boolean summary;
+	
+	/**
+	 * Creates a new RollAuditRecord.
+	 * 
+	 * @param time The time of the roll.
+	 * @param context The id of the context that rolled the dice.
+	 * @param rollPlan The plan that was rolled.
+	 * @param values The values of the dice rolled.
+	 * @param droppedDice Which dice were dropped, or null if no dice were dropped.
+	 */
+	RollAuditRecord(long time, long context, RollPlan rollPlan, int[] values, boolean[] droppedDice) {
+		timestamp = time;
+		contextId = context;
+		plan = rollPlan;
+		faces = values;
+		dropped = droppedDice;
+		summaryTotal = 0;
+		summary = false;
+	}
+	
+	/**
+	 * Creates a new summary RollAuditRecord.
+	 * 
+	 * @param time The time of the roll.
+	 * @param context The id of the context that rolled the dice.
+	 * @param rollPlan The plan that was rolled.
+	 * @param total The total of the roll.
+	 */
+	RollAuditRecord(long time, long context, RollPlan rollPlan, long total) {
+		timestamp = time;
+		contextId = context;
+		plan = rollPlan;
+		faces = new int[0];
+		dropped = null;
+		summaryTotal = total;
+		summary = true;
+	}
+	
+	/**
+	 * Returns the time of the roll.
+	 * 
+	 * @return the time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the id of the context that rolled the dice.
+	 * 
+	 * @return the context id.
+	 * 
+	 * @see net.rptools.parser.ScriptContext#getId()
+	 */
+	public long getContextId() {
+		return contextId;
+	}
+	
+	/**
+	 * Returns the plan that was rolled.
+	 * 
+	 * @return the roll plan.
+	 */
+	public RollPlan getRollPlan() {
+		return plan;
+	}
+	
+	/**
+	 * Checks if the record is a summary of a roll with too many dice to keep in the log, 
+	 * which only has the total of the roll.
+	 * 
+	 * @return true if the record is a summary.
+	 */
+	public boolean isSummary() {
+		return summary;
+	}
+	
+	/**
+	 * Returns the values of all of the dice rolled, including dice that were dropped.
+	 * 
+	 * @return a copy of the values, which is empty for a summary record.
+	 */
+	public int[] getFaces() {
+		return Arrays.copyOf(faces, faces.length);
+	}
+	
+	/**
+	 * Checks if a die was dropped by a keep or drop modifier.
+	 * 
+	 * @param index The index of the die.
+	 * 
+	 * @return true if the die was dropped.
+	 * 
+	 * @throws IndexOutOfBoundsException if there is no die for the index.
+	 */
+	public boolean isDropped(int index) {
+		if (index < 0 || index >= faces.length) {
+			throw new IndexOutOfBoundsException("No die at index " + index);
+		}
+		return dropped != null && dropped[index];
+	}
+	
+	/**
+	 * Returns the total of the dice that were kept.
+	 * 
+	 * @return the total.
+	 */
+	public long getTotal() {
+		if (summary) {
+			return summaryTotal;
+		}
+		
+		long total = 0;
+		for (int i = 0; i < faces.length; i++) {
+			if (dropped == null || dropped[i] == false) {
+				total += faces[i];
+			}
+		}
+		return total;
+	}
+	
+	@Override
+	public String toString() {
+		return "RollAuditRecord[" + timestamp + ", context " + contextId + ", " + plan + " = " + getTotal() + "]";
+	}
+}
@@ -19,6 +19,9 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import net.rptools.parser.functions.dice.DiceChanceFunction;
+import net.rptools.parser.functions.dice.DiceDistributionFunction;
+import net.rptools.parser.functions.dice.DiceMeanFunction;
 import net.rptools.parser.functions.dictionary.DictFunction;
 import net.rptools.parser.functions.dictionary.DictGetFunction;
 import net.rptools.parser.functions.dictionary.DictRemoveFunction;
@@ -69,6 +72,9 @@ public class BuiltInFunctionList {
         addBuiltInFunction(DictRemoveFunction.getDictRemoveFunction());
         addBuiltInFunction(ListCountFunction.listCountFunction());
         addBuiltInFunction(new FunctionAlias("list.count", ListCountFunction.listCountFunction()));
+        addBuiltInFunction(DiceDistributionFunction.getDiceDistributionFunction());
+        addBuiltInFunction(DiceMeanFunction.getDiceMeanFunction());
+        addBuiltInFunction(DiceChanceFunction.getDiceChanceFunction());
 
     }
 	/**
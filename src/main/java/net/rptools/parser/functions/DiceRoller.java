@@ -14,63 +14,379 @@
  */
 package net.rptools.parser.functions;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.Arrays;
 
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
 import net.rptools.lib.result.ResultBuilder;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
 
 // TODO: Temporary implementation of this class.
 public class DiceRoller {
 	
-	private final Random random = new Random();
+	/** The maximum number of dice generated at a time when only the total is needed. */
+	static final int CHUNK_SIZE = 1024;
 	
+	/** The source of the random numbers for the rolls. */
+	private final RandomSource random;
 	
+	/**
+	 * Creates a new DiceRoller that uses the {@link ThreadLocalRandomSource}.
+	 */
+	public DiceRoller() {
+		this(ThreadLocalRandomSource.INSTANCE);
+	}
+	
+	/**
+	 * Creates a new DiceRoller.
+	 * 
+	 * @param source The source of the random numbers for the rolls.
+	 * 
+	 * @throws NullPointerException if source is null.
+	 */
+	public DiceRoller(RandomSource source) {
+		if (source == null) {
+			throw new NullPointerException("Random source can not be null.");
+		}
+		
+		random = source;
+	}
+	
+	
+	/**
+	 * Rolls the dice for a roll string. The roll string is compiled every time, scripts 
+	 * use {@link #roll(RollPlan)} with the plan compiled when the script was parsed.
+	 * 
+	 * @param rollStr The roll string.
+	 * @param verbose Is the roll verbose.
+	 * 
+	 * @return the result of the roll.
+	 * 
+	 * @throws IllegalArgumentException if the roll string is not valid.
+	 */
 	public DataValue roll(String rollStr, boolean verbose) {
-		String[] vals = rollStr.split("[dD]");
+		return roll(RollPlan.compile(rollStr, verbose, false));
+	}
+	
+	/**
+	 * Rolls the dice for a roll plan. Only verbose rolls keep the individual dice, other 
+	 * rolls are summed a chunk at a time so rolls of huge numbers of dice use little memory.
+	 * 
+	 * @param plan The roll plan.
+	 * 
+	 * @return the result of the roll.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public DataValue roll(RollPlan plan) {
+		if (plan.isVerbose() == false) {
+			long total = rollTotal(plan);
+			ResultBuilder res = new ResultBuilder().setLongValue(total);
+			res = res.setDetailedResult(DataValueFactory.stringValue(Long.toString(total)));
+			return DataValueFactory.resultValue(res.toResult());
+		}
 		
-		int numberRolls;
-		if (vals[0].length() == 0) {
-			numberRolls = 1;
-		} else {
-			numberRolls = Integer.parseInt(vals[0]);
+		return toResult(plan, rollFaces(plan));
+	}
+	
+	/**
+	 * Returns the result of a roll from the dice that were rolled for it. Only verbose 
+	 * results include the individual dice.
+	 * 
+	 * @param plan The roll plan.
+	 * @param faces The dice rolled for the plan.
+	 * 
+	 * @return the result of the roll.
+	 * 
+	 * @throws NullPointerException if plan or faces is null.
+	 */
+	public DataValue toResult(RollPlan plan, RollFaces faces) {
+		ResultBuilder res = new ResultBuilder().setLongValue(faces.getTotal());
+		if (plan.isVerbose() == false) {
+			res = res.setDetailedResult(DataValueFactory.stringValue(Long.toString(faces.getTotal())));
+			return DataValueFactory.resultValue(res.toResult());
 		}
 		
-		int sides = Integer.parseInt(vals[1]);
+		res = res.setDetailedResult(DataValueFactory.stringValue(faces.getDetails()));
+		res = res.setIndividualValues(faces.asList());
+		return DataValueFactory.resultValue(res.toResult());
+	}
+	
+	/**
+	 * Rolls the dice for a roll plan and keeps the individual dice in a primitive array.
+	 * 
+	 * @param plan The roll plan.
+	 * 
+	 * @return the dice rolled.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public RollFaces rollFaces(RollPlan plan) {
+		int[] faces = new int[plan.getCount()];
+		random.nextInts(plan.getSides(), faces, 0, faces.length);
+		applyModifiers(plan, faces, faces.length);
 		
-		List<Long> rolls = new ArrayList<>(sides);
+		boolean[] dropped = null;
+		if (plan.dropsDice()) {
+			dropped = selectDropped(faces, plan.getKeep(), plan.isKeepHighest());
+		}
 		
-		int total = 0;
-		for (int i = 0; i < numberRolls; i++) {
-			long r = roll(sides);
-			total += r;
-			rolls.add(r);
+		long total = 0;
+		for (int i = 0; i < faces.length; i++) {
+			if (dropped == null || dropped[i] == false) {
+				total += faces[i];
+			}
 		}
-		StringBuilder sb = new StringBuilder();
-		if (verbose == false) {
-			sb.append(total);
-		} else {
-			for (int i = 0; i < rolls.size(); i++) {
-				if (i > 0) {
-					sb.append(",");
+		
+		return new RollFaces(faces, dropped, total);
+	}
+	
+	/**
+	 * Returns the number of random draws rolling a plan can take, exploding dice are counted
+	 * for the most times they can explode.
+	 * 
+	 * @param plan The roll plan.
+	 * 
+	 * @return the most random draws for the roll.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public static long maxDraws(RollPlan plan) {
+		long draws = plan.getCount();
+		return plan.getExplodeAt() != 0 ? draws * (RollPlan.MAX_EXPLOSIONS + 1) : draws;
+	}
+	
+	/**
+	 * Returns the number of bytes {@link #rollTotal(RollPlan)} uses to track the kept or
+	 * dropped dice of a plan, which unlike the rest of its memory depends on the number of dice.
+	 * 
+	 * @param plan The roll plan.
+	 * 
+	 * @return the number of bytes.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public static long trackingBytes(RollPlan plan) {
+		if (plan.dropsDice() == false) {
+			return 0;
+		}
+		return 4L * Math.min(plan.getKeep(), plan.getCount() - plan.getKeep());
+	}
+	
+	/**
+	 * Rolls the dice for a roll plan and returns only the total. The dice are generated
+	 * {@link #CHUNK_SIZE} at a time and never kept, so the memory used does not depend on
+	 * the number of dice. If dice are kept or dropped only the smaller of the kept and the
+	 * dropped dice are tracked, in a bounded heap.
+	 * 
+	 * @param plan The roll plan.
+	 * 
+	 * @return the total of the roll.
+	 * 
+	 * @throws NullPointerException if plan is null.
+	 */
+	public long rollTotal(RollPlan plan) {
+		final int sides = plan.getSides();
+		final boolean modified = plan.getRerollAt() != 0 || plan.getExplodeAt() != 0;
+		// Faces from the random source start at 0 unless the modifiers have been applied.
+		final int offset = modified ? 0 : 1;
+		int remaining = plan.getCount();
+		
+		// Track whichever of the kept or dropped dice there are fewer of. A heap of the
+		// highest values has the lowest at its root, values are negated to track the lowest.
+		int kept = plan.getKeep();
+		boolean trackKept = kept <= remaining - kept;
+		int[] heap = new int[plan.dropsDice() ? (trackKept ? kept : remaining - kept) : 0];
+		int heapSize = 0;
+		int sign = trackKept == plan.isKeepHighest() ? 1 : -1;
+		
+		int[] faces = new int[Math.min(remaining, CHUNK_SIZE)];
+		long total = 0;
+		while (remaining > 0) {
+			int length = Math.min(remaining, faces.length);
+			random.nextInts(sides, faces, 0, length);
+			if (modified) {
+				applyModifiers(plan, faces, length);
+			}
+			total += (long) length * offset;
+			
+			for (int i = 0; i < length; i++) {
+				total += faces[i];
+				if (heap.length > 0) {
+					int value = sign * faces[i];
+					if (heapSize < heap.length) {
+						heap[heapSize] = value;
+						siftUp(heap, heapSize++);
+					} else if (value > heap[0]) {
+						heap[0] = value;
+						siftDown(heap, heapSize);
+					}
 				}
-				sb.append(rolls.get(i));
 			}
-			sb.append(" = ");
-			sb.append(total);
+			remaining -= length;
+		}
+		
+		if (plan.dropsDice()) {
+			long tracked = 0;
+			for (int i = 0; i < heapSize; i++) {
+				tracked += sign * heap[i] + offset;
+			}
+			total = trackKept ? tracked : total - tracked;
 		}
-
-		ResultBuilder res = new ResultBuilder().setLongValue(total);
-		res = res.setDetailedResult(DataValueFactory.stringValue(sb.toString()));
-		res = res.setIndividualValues(DataValueFactory.longListValue(rolls).asList());
-		return DataValueFactory.resultValue(res.toResult());
 		
+		return total;
 	}
+	
+	/**
+	 * Applies the reroll and explode modifiers of a roll plan to dice that have been rolled.
+	 * 
+	 * @param plan The roll plan.
+	 * @param faces The faces rolled, starting at 0, which are changed in place to the values
+	 *        of the dice, starting at 1.
+	 * @param length The number of faces to modify.
+	 */
+	private void applyModifiers(RollPlan plan, int[] faces, int length) {
+		final int sides = plan.getSides();
+		final int rerollAt = plan.getRerollAt();
+		final int explodeAt = plan.getExplodeAt();
+		
+		for (int i = 0; i < length; i++) {
+			int value = faces[i] + 1;
+			if (value <= rerollAt) {
+				value = random.nextInt(sides) + 1;
+			}
+			
+			if (explodeAt != 0) {
+				int roll = value;
+				for (int n = 0; roll >= explodeAt && n < RollPlan.MAX_EXPLOSIONS; n++) {
+					roll = random.nextInt(sides) + 1;
+					value += roll;
+				}
+			}
+			faces[i] = value;
+		}
+	}
+	
+	/**
+	 * Selects the dice that are dropped. The value that separates the kept and dropped dice
+	 * is found by selection, without sorting, and dice equal to it are kept in the order 
+	 * they were rolled.
+	 * 
+	 * @param faces The values of the dice.
+	 * @param keep The number of dice to keep.
+	 * @param highest Are the highest dice kept.
+	 * 
+	 * @return which dice are dropped.
+	 */
+	private static boolean[] selectDropped(int[] faces, int keep, boolean highest) {
+		boolean[] dropped = new boolean[faces.length];
+		if (keep == 0) {
+			Arrays.fill(dropped, true);
+			return dropped;
+		}
+		
+		int[] scratch = Arrays.copyOf(faces, faces.length);
+		int threshold = select(scratch, highest ? faces.length - keep : keep - 1);
+		
+		int equalKept = keep;
+		for (int face : faces) {
+			if (highest ? face > threshold : face < threshold) {
+				equalKept--;
+			}
+		}
+		
+		for (int i = 0; i < faces.length; i++) {
+			int face = faces[i];
+			if (face == threshold) {
+				dropped[i] = equalKept-- <= 0;
+			} else {
+				dropped[i] = highest ? face < threshold : face > threshold;
+			}
+		}
 		
+		return dropped;
+	}
+	
+	/**
+	 * Finds the value that would be at an index if the values were sorted in ascending order,
+	 * partially reordering the values.
+	 * 
+	 * @param values The values.
+	 * @param index The index.
+	 * 
+	 * @return the value at the index.
+	 */
+	private static int select(int[] values, int index) {
+		int left = 0;
+		int right = values.length - 1;
+		while (left < right) {
+			int pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int tmp = values[i];
+					values[i++] = values[j];
+					values[j--] = tmp;
+				}
+			}
+			if (index <= j) {
+				right = j;
+			} else if (index >= i) {
+				left = i;
+			} else {
+				break;
+			}
+		}
+		return values[index];
+	}
+	
+	/**
+	 * Moves the last value added to a min-heap up to its place.
+	 * 
+	 * @param heap The heap.
+	 * @param index The index of the value added.
+	 */
+	private static void siftUp(int[] heap, int index) {
+		int value = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (heap[parent] <= value) {
+				break;
+			}
+			heap[index] = heap[parent];
+			index = parent;
+		}
+		heap[index] = value;
+	}
 	
-	private int roll(int sides) {
-		return random.nextInt(sides) + 1;
+	/**
+	 * Moves the root of a min-heap down to its place after it has been replaced.
+	 * 
+	 * @param heap The heap.
+	 * @param size The number of values in the heap.
+	 */
+	private static void siftDown(int[] heap, int size) {
+		int value = heap[0];
+		int index = 0;
+		int child;
+		while ((child = 2 * index + 1) < size) {
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (heap[child] >= value) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = value;
 	}
 }
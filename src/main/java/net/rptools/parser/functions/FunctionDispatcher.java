@@ -20,6 +20,7 @@ import java.util.*;
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
 import net.rptools.lib.permissions.PermissionLevel;
+import net.rptools.parser.EvaluationLimitExceededException;
 import net.rptools.parser.EvaluationPermissionException;
 import net.rptools.parser.ExpressionEvaluatorException;
 import net.rptools.parser.ScriptContext;
@@ -101,6 +102,52 @@ public final class FunctionDispatcher {
 	}
 
 
+	/**
+	 * Returns the estimated cost of calling the named function. 
+	 * 
+	 * @param functionName The name of the function.
+	 * 
+	 * @return the estimated cost of calling the function, or 
+	 *         {@link FunctionManager#DEFAULT_FUNCTION_COST} if the function does not exist.
+	 * 
+	 * @throws NullPointerException if functionName is null.
+	 * 
+	 * @see FunctionManager#getFunctionCost(ScriptFunction)
+	 */
+	public long getFunctionCost(String functionName) {
+		if (functionName == null) {
+			throw new NullPointerException("Function name can not be null.");
+		}
+		
+		ScriptFunction function = getFunction(functionName);
+		if (function == null) {
+			return FunctionManager.DEFAULT_FUNCTION_COST;
+		}
+		
+		return FunctionManager.getFunctionCost(function);
+	}
+	
+	/**
+	 * Checks to see if the named function is deterministic. 
+	 * 
+	 * @param functionName The name of the function.
+	 * 
+	 * @return true if the function exists and has been marked as deterministic.
+	 * 
+	 * @throws NullPointerException if functionName is null.
+	 * 
+	 * @see FunctionManager#isDeterministic(ScriptFunction)
+	 */
+	public boolean isFunctionDeterministic(String functionName) {
+		if (functionName == null) {
+			throw new NullPointerException("Function name can not be null.");
+		}
+		
+		ScriptFunction function = getFunction(functionName);
+		
+		return function != null && FunctionManager.isDeterministic(function);
+	}
+	
 	/**
 	 * Calls the named function with the specified arguments. 
 	 * 
@@ -132,48 +179,84 @@ public final class FunctionDispatcher {
 			throw new NullPointerException("Context can not be null in function call.");
 		}
 		
+		// Errors returned as values are reported to the user so skip the stack traces.
+		final boolean stackTrace = !context.isErrorsAsValues();
+		
 		ScriptFunction function = getFunction(functionName);
 		if (function == null) {
-			throw new ExpressionEvaluatorException("Unknown function " + functionName);
+			throw new ExpressionEvaluatorException("Unknown function " + functionName, null, stackTrace);
 		}
 		
 		PermissionLevel plevel = context.getPlayerPermissions().getPermissionLevel();
 		PermissionLevel requiredLevel = FunctionManager.getFunctionPermission(function);
 		
 		if (plevel.hasAtLeastPermission(requiredLevel) == false) {
-			throw new EvaluationPermissionException("You do not have permission to call " + functionName);
+			throw new EvaluationPermissionException("You do not have permission to call " + functionName, null,
+					stackTrace);
 		}
 		
 		
-		Map<String, DataValue> argMap = resolveArguments(function.getDefinition(), args);
+		// Wrong or missing arguments are the most common mistake in scripts, so they are 
+		// reported the same way as other errors in the script.
+		Map<String, DataValue> argMap;
+		try {
+			argMap = resolveArguments(function.getDefinition(), args, stackTrace);
+		} catch (IllegalArgumentException e) {
+			// An argument could not be coerced to the type of its parameter.
+			throw new ExpressionEvaluatorException(e.getMessage(), e, stackTrace);
+		}
 		
 		DataValue res;
 		try {
-			res = function.call(context, argMap);
+			if (FunctionManager.isDeterministic(function)) {
+				res = function.call(context, argMap);
+			} else {
+				res = context.callFunction(function, argMap);
+			}
             res = function.getDefinition().getReturnType().coerce(res);
         } catch (ScriptFunctionException es) {
-			throw new ExpressionEvaluatorException(es.getMessage(), es);
+			throwIfLimitExceeded(es);
+			throw new ExpressionEvaluatorException(es.getMessage(), es, stackTrace);
 		} catch (Exception e) {
-            e.printStackTrace();
-			throw new ExpressionEvaluatorException(e.getMessage(), e);
+			throwIfLimitExceeded(e);
+			throw new ExpressionEvaluatorException(e.getMessage(), e, stackTrace);
 		}
 		
 		return res;
 		
 	}
 	
+	/**
+	 * Rethrows the {@link EvaluationLimitExceededException} that caused an exception in a 
+	 * function unchanged, so that the limit that was exceeded is reported rather than a
+	 * general evaluation error.
+	 * 
+	 * @param e The exception thrown by the function.
+	 * 
+	 * @throws EvaluationLimitExceededException if e or one of its causes is one.
+	 */
+	private static void throwIfLimitExceeded(Throwable e) throws EvaluationLimitExceededException {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof EvaluationLimitExceededException) {
+				throw (EvaluationLimitExceededException) cause;
+			}
+		}
+	}
+	
 	/**
 	 * Returns a map containing the positional arguments in the argument list for the function
 	 * mapped to their parameter names. 
 	 * 
 	 * @param def The function definition to match the arguments and parameters for.
 	 * @param args The arguments to attempt to match to the parameter list.
+	 * @param stackTrace Should the stack trace of errors be filled in.
 	 * 
 	 * @return The mapping between the arguments and the parameters.
 	 * 
-	 * @throws IllegalArgumentException if there are too many arguments to match.
+	 * @throws ExpressionEvaluatorException if there are too many arguments to match.
 	 */
-	private Map<String, DataValue> resolvePositionalArguments(FunctionDefinition def, ArgumentList args) {
+	private Map<String, DataValue> resolvePositionalArguments(FunctionDefinition def, ArgumentList args, 
+			boolean stackTrace) throws ExpressionEvaluatorException {
 		assert def != null : "Function definiotn is null";
 		assert args != null : "Argument list is null";
 			
@@ -186,7 +269,8 @@ public final class FunctionDispatcher {
 				if (def.hasPositionalArgumentConsumer()) {
 					consumerList.add(dv);
 				} else {
-					throw new IllegalArgumentException("Too many parameters for function " + def.name());
+					throw new ExpressionEvaluatorException("Too many parameters for function " + def.name(), null, 
+							stackTrace);
 				}
 			} else {
 				FunctionParameter param = iter.next();
@@ -211,20 +295,25 @@ public final class FunctionDispatcher {
 	 * 
 	 * @param def The function definition to try map the arguments to parameters for.
 	 * @param args The arguments to try map to the parameter list.
+	 * @param stackTrace Should the stack trace of errors be filled in.
 	 * @return the mapping between arguments and parameters.
 	 * 
-	 * @throws IllegalArgumentException if the arguments do not map to the parameters.
+	 * @throws ExpressionEvaluatorException if the arguments do not map to the parameters.
+	 * @throws IllegalArgumentException if an argument can not be coerced to the type of its
+	 *         parameter.
 	 */
-	private Map<String, DataValue> resolveArguments(FunctionDefinition def, ArgumentList args) {
+	private Map<String, DataValue> resolveArguments(FunctionDefinition def, ArgumentList args, 
+			boolean stackTrace) throws ExpressionEvaluatorException {
 				
 		if (def.parameters().isEmpty()) {
 			if (args.getPositionalArguments().size() > 0 || args.getNamedArguments().size() > 0) {
-				throw new IllegalArgumentException("Function " + def.name() + " does not accept any parameters.");
+				throw new ExpressionEvaluatorException("Function " + def.name() + " does not accept any parameters.", 
+						null, stackTrace);
 			}
 		}
 		
 		// First turn positional parameters into named parameters
-		Map<String, DataValue> argMap = resolvePositionalArguments(def, args);
+		Map<String, DataValue> argMap = resolvePositionalArguments(def, args, stackTrace);
 
         // Unknown parementers that will be assigned to a named consumer if one exists.
         Map<String, DataValue> unknownArgs = new LinkedHashMap<>();
@@ -232,12 +321,13 @@ public final class FunctionDispatcher {
         // Next step is to add any named parameters.
 		for (String namep : args.getNamedArguments().keySet()) {
 			if (argMap.containsKey(namep)) {
-				throw new IllegalArgumentException("Call to function " + def.name() + " defines argument " + namep +
-                        " more than once.");
+				throw new ExpressionEvaluatorException("Call to function " + def.name() + " defines argument " + namep +
+                        " more than once.", null, stackTrace);
 			}
 			
 			if (def.isValidParameterName(namep) == false) {
-				throw new IllegalArgumentException("Invalid parameter name " + namep + " for function " + def.name());
+				throw new ExpressionEvaluatorException("Invalid parameter name " + namep + " for function " + def.name(), 
+						null, stackTrace);
 			}
 
 			DataValue dv = args.getNamedArguments().get(namep);
@@ -270,8 +360,8 @@ public final class FunctionDispatcher {
 		// At this point the arguments map should contain all the defined parameters for the function.
 		for (FunctionParameter p : def.parameters()) {
 			if (argMap.containsKey(p.name()) == false) {
-				throw new IllegalArgumentException("Paramenter " + p.name() + " missing from call to function " +
-                        def.name());
+				throw new ExpressionEvaluatorException("Paramenter " + p.name() + " missing from call to function " +
+                        def.name(), null, stackTrace);
 			}
 		}
 		return argMap;
@@ -21,7 +21,9 @@ import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import net.rptools.lib.permissions.PermissionLevel;
@@ -35,6 +37,9 @@ import net.rptools.parser.functions.javascript.JavaScriptFunctionEvaluator;
  */
 public class FunctionManager {
 
+	/** The estimated cost of calling a function that has not had a cost set. */
+	public static final long DEFAULT_FUNCTION_COST = 1;
+
 	/** The list of built in functions. */
 	private final static Map<String, ScriptFunction> builtinFunctions = new TreeMap<>();
 	
@@ -47,6 +52,12 @@ public class FunctionManager {
 	/** The list of permissions required to run the function. */
 	private final static Map<ScriptFunction, PermissionLevel> userFunctionPermissions = new HashMap<>();
 	
+	/** The estimated cost of calling the functions that have had a cost set. */
+	private final static Map<ScriptFunction, Long> functionCosts = new HashMap<>();
+	
+	/** The functions that always return the same result for the same arguments. */
+	private final static Set<ScriptFunction> deterministicFunctions = new HashSet<>();
+	
 	
 	/** Stop instantiation. */
 	private FunctionManager(){
@@ -155,6 +166,91 @@ public class FunctionManager {
 		}
 	}
 	
+	/**
+	 * Returns the estimated cost of calling the function, this is used when estimating the 
+	 * cost of a script before it is evaluated. The cost is in the same units as the evaluation 
+	 * steps so a function that costs 10 should take about as long as 10 function calls that
+	 * cost 1.
+	 * 
+	 * @param function The function to get the cost for.
+	 * 
+	 * @return the estimated cost, {@link #DEFAULT_FUNCTION_COST} if no cost has been set.
+	 * 
+	 * @throws NullPointerException if function is null.
+	 */
+	public static long getFunctionCost(ScriptFunction function) {
+		if (function == null) {
+			throw new NullPointerException("Function is null.");
+		}
+		
+		Long cost = functionCosts.get(function);
+		return cost == null ? DEFAULT_FUNCTION_COST : cost;
+	}
+	
+	/**
+	 * Sets the estimated cost of calling the function.
+	 * 
+	 * @param function The function to set the cost for.
+	 * @param cost The estimated cost.
+	 * 
+	 * @throws NullPointerException if function is null.
+	 * @throws IllegalArgumentException if cost is negative.
+	 * 
+	 * @see #getFunctionCost(ScriptFunction)
+	 */
+	public static void setFunctionCost(ScriptFunction function, long cost) {
+		if (function == null) {
+			throw new NullPointerException("Function is null.");
+		}
+		
+		if (cost < 0) {
+			throw new IllegalArgumentException("Function cost can not be negative.");
+		}
+		
+		functionCosts.put(function, cost);
+	}
+	
+	/**
+	 * Checks to see if the function is deterministic, that is it always returns the same result
+	 * for the same arguments and has no side effects. The results of scripts that only call 
+	 * deterministic functions can be cached.
+	 * 
+	 * @param function The function to check.
+	 * 
+	 * @return true if the function has been marked as deterministic.
+	 * 
+	 * @throws NullPointerException if function is null.
+	 */
+	public static boolean isDeterministic(ScriptFunction function) {
+		if (function == null) {
+			throw new NullPointerException("Function is null.");
+		}
+		
+		return deterministicFunctions.contains(function);
+	}
+	
+	/**
+	 * Marks the function as deterministic or not.
+	 * 
+	 * @param function The function to mark.
+	 * @param deterministic true if the function is deterministic.
+	 * 
+	 * @throws NullPointerException if function is null.
+	 * 
+	 * @see #isDeterministic(ScriptFunction)
+	 */
+	public static void setDeterministic(ScriptFunction function, boolean deterministic) {
+		if (function == null) {
+			throw new NullPointerException("Function is null.");
+		}
+		
+		if (deterministic) {
+			deterministicFunctions.add(function);
+		} else {
+			deterministicFunctions.remove(function);
+		}
+	}
+	
 	/**
 	 * Defines the user defined function.
 	 * 
@@ -194,6 +290,8 @@ public class FunctionManager {
 		if (userFunctionPermissions.containsKey(function)) {
 			userFunctionPermissions.remove(function);
 			userFunctions.remove(function.getDefinition().name());
+			functionCosts.remove(function);
+			deterministicFunctions.remove(function);
 		}
 	}
 	
@@ -201,6 +299,10 @@ public class FunctionManager {
 	 * Removes all the user defined functions.
 	 */
 	public static void undefineAll() {
+		for (ScriptFunction function : userFunctions.values()) {
+			functionCosts.remove(function);
+			deterministicFunctions.remove(function);
+		}
 		userFunctionPermissions.clear();
 		userFunctions.clear();
 	}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.functions;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.lib.datavalue.DataValueFactory;
+
+/**
+ * The individual dice of a roll, held as an {@code int[]} of faces and which of them were
+ * dropped. The list of {@link DataValue}s for the dice and the detail text of the roll are
+ * only created when they are first asked for, and each die is only boxed when it is read
+ * from the list.
+ * <p>
+ * RollFaces are immutable.
+ * </p>
+ */
+public final class RollFaces {
+
+	/** The values of the dice rolled, starting at 1. */
+	private final int[] faces;
+	
+	/** Which dice were dropped, null if no dice were dropped. */
+	private final boolean[] dropped;
+	
+	/** The total of the dice that were kept. */
+	private final long total;
+	
+	/** The list view of the kept dice, null until it is first asked for. */
+	private List<DataValue> values;
+	
+	/** The detail text of the roll, null until it is first asked for. */
+	private String details;
+	
+	/**
+	 * Creates a new RollFaces. The arrays are not copied and must not be modified afterwards.
+	 * 
+	 * @param rolled The values of the dice rolled, starting at 1.
+	 * @param droppedDice Which dice were dropped, or null if no dice were dropped.
+	 * @param keptTotal The total of the dice that were kept.
+	 */
+	RollFaces(int[] rolled, boolean[] droppedDice, long keptTotal) {
+		faces = rolled;
+		dropped = droppedDice;
+		total = keptTotal;
+	}
+	
+	/**
+	 * Returns the number of dice rolled.
+	 * 
+	 * @return the number of dice.
+	 */
+	public int size() {
+		return faces.length;
+	}
+	
+	/**
+	 * Returns the value of a die, including dice that were dropped.
+	 * 
+	 * @param index The index of the die.
+	 * 
+	 * @return the face rolled, starting at 1.
+	 * 
+	 * @throws IndexOutOfBoundsException if there is no die for the index.
+	 */
+	public int getFace(int index) {
+		return faces[index];
+	}
+	
+	/**
+	 * Checks if a die was dropped by a keep or drop modifier.
+	 * 
+	 * @param index The index of the die.
+	 * 
+	 * @return true if the die was dropped.
+	 * 
+	 * @throws IndexOutOfBoundsException if there is no die for the index.
+	 */
+	public boolean isDropped(int index) {
+		if (index < 0 || index >= faces.length) {
+			throw new IndexOutOfBoundsException("No die at index " + index);
+		}
+		return dropped != null && dropped[index];
+	}
+	
+	/**
+	 * Returns the total of the roll, which only includes the dice that were kept.
+	 * 
+	 * @return the total.
+	 */
+	public long getTotal() {
+		return total;
+	}
+	
+	/**
+	 * Returns a copy of the values of all of the dice, including dice that were dropped.
+	 * 
+	 * @return the faces rolled, starting at 1.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(faces, faces.length);
+	}
+	
+	/**
+	 * Returns an unmodifiable list view of the values of the dice that were kept.
+	 * 
+	 * @return the kept dice as {@link DataValue}s.
+	 */
+	public List<DataValue> asList() {
+		if (values == null) {
+			int[] kept = faces;
+			if (dropped != null) {
+				kept = new int[faces.length];
+				int size = 0;
+				for (int i = 0; i < faces.length; i++) {
+					if (dropped[i] == false) {
+						kept[size++] = faces[i];
+					}
+				}
+				kept = Arrays.copyOf(kept, size);
+			}
+			values = new FaceList(kept);
+		}
+		return values;
+	}
+	
+	/**
+	 * Returns the detail text of the roll, in the form {@code 3,1,6 = 10}. Dropped dice are
+	 * shown in parentheses, {@code 3,(1),6 = 9}.
+	 * 
+	 * @return the detail text.
+	 */
+	public String getDetails() {
+		if (details == null) {
+			StringBuilder sb = new StringBuilder(faces.length * 3 + 24);
+			for (int i = 0; i < faces.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				if (dropped != null && dropped[i]) {
+					sb.append('(').append(faces[i]).append(')');
+				} else {
+					sb.append(faces[i]);
+				}
+			}
+			sb.append(" = ").append(total);
+			details = sb.toString();
+		}
+		return details;
+	}
+	
+	@Override
+	public String toString() {
+		return getDetails();
+	}
+	
+	/**
+	 * Unmodifiable list view of an array of faces that boxes each face as it is read.
+	 */
+	private static final class FaceList extends AbstractList<DataValue> implements RandomAccess {
+		
+		/** The faces rolled. */
+		private final int[] faces;
+		
+		/**
+		 * Creates a new FaceList.
+		 * 
+		 * @param values The faces rolled.
+		 */
+		FaceList(int[] values) {
+			faces = values;
+		}
+
+		@Override
+		public DataValue get(int index) {
+			return DataValueFactory.longValue(faces[index]);
+		}
+
+		@Override
+		public int size() {
+			return faces.length;
+		}
+	}
+}
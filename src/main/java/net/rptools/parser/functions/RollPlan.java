@@ -0,0 +1,373 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.functions;
+
+import net.rptools.lib.result.RollExpression;
+
+/**
+ * RollPlan is a roll string compiled into the numbers needed to roll it. Roll strings are
+ * fixed when a script is parsed, so they are compiled once and rolling the dice is then
+ * just arithmetic and calls to the random source.
+ * <p>
+ * After the number of dice and sides a roll string can have the following modifiers, 
+ * each at most once and in any order, where N is a number.
+ * </p>
+ * <ul>
+ * <li>{@code rN} rerolls, once, any die that shows N or less.</li>
+ * <li>{@code e} or {@code eN} explodes any die that shows the maximum or N or more, rolling
+ * it again and adding to it, at most {@link #MAX_EXPLOSIONS} times for each die.</li>
+ * <li>{@code khN}, {@code klN} keeps the N highest or lowest dice, {@code kN} is the same
+ * as {@code khN}.</li>
+ * <li>{@code dhN}, {@code dlN} drops the N highest or lowest dice, {@code dN} is the same
+ * as {@code dlN}.</li>
+ * </ul>
+ * <p>
+ * RollPlans are immutable.
+ * </p>
+ */
+public final class RollPlan {
+
+	/** The number of dice to roll. */
+	private final int count;
+	
+	/** The number of sides on each die. */
+	private final int sides;
+	
+	/** Is the roll verbose. */
+	private final boolean verbose;
+	
+	/** Is the verbose roll summed. */
+	private final boolean sum;
+	
+	/** Dice showing this or less are rerolled once, 0 for no reroll. */
+	private final int rerollAt;
+	
+	/** Dice showing this or more explode, 0 for no explosion. */
+	private final int explodeAt;
+	
+	/** The number of dice that are kept. */
+	private final int keep;
+	
+	/** Are the highest dice kept, rather than the lowest. */
+	private final boolean keepHighest;
+	
+	/** The maximum number of times a single die can explode. */
+	public static final int MAX_EXPLOSIONS = 100;
+	
+	/**
+	 * Creates a new RollPlan.
+	 * 
+	 * @param diceCount The number of dice to roll.
+	 * @param diceSides The number of sides on each die.
+	 * @param verboseFlag Is the roll verbose.
+	 * @param sumFlag Is the verbose roll summed.
+	 * 
+	 * @throws IllegalArgumentException if diceCount is negative or diceSides is less than 1.
+	 */
+	public RollPlan(int diceCount, int diceSides, boolean verboseFlag, boolean sumFlag) {
+		this(diceCount, diceSides, verboseFlag, sumFlag, 0, 0, diceCount, true);
+	}
+	
+	/**
+	 * Creates a new RollPlan with modifiers.
+	 * 
+	 * @param diceCount The number of dice to roll.
+	 * @param diceSides The number of sides on each die.
+	 * @param verboseFlag Is the roll verbose.
+	 * @param sumFlag Is the verbose roll summed.
+	 * @param reroll Dice showing this or less are rerolled once, 0 for no reroll.
+	 * @param explode Dice showing this or more explode, 0 for no explosion.
+	 * @param keepCount The number of dice to keep, more than diceCount keeps all of them.
+	 * @param highest Are the highest dice kept, rather than the lowest.
+	 * 
+	 * @throws IllegalArgumentException if diceCount or keepCount is negative, diceSides is 
+	 *         less than 1, reroll is not between 0 and diceSides - 1, explode is not 0 or 
+	 *         between 2 and diceSides, or exploding dice could overflow an int.
+	 */
+	public RollPlan(int diceCount, int diceSides, boolean verboseFlag, boolean sumFlag, int reroll, int explode,
+			int keepCount, boolean highest) {
+		if (diceCount < 0) {
+			throw new IllegalArgumentException("Number of dice can not be negative.");
+		}
+		
+		if (diceSides < 1) {
+			throw new IllegalArgumentException("Dice must have at least one side.");
+		}
+		
+		if (reroll < 0 || reroll >= diceSides && reroll > 0) {
+			throw new IllegalArgumentException("Reroll must be less than the number of sides.");
+		}
+		
+		if (explode != 0) {
+			if (explode < 2 || explode > diceSides) {
+				throw new IllegalArgumentException("Explode must be between 2 and the number of sides.");
+			}
+			if (diceSides > Integer.MAX_VALUE / (MAX_EXPLOSIONS + 1)) {
+				throw new IllegalArgumentException("Dice with " + diceSides + " sides can not explode.");
+			}
+		}
+		
+		if (keepCount < 0) {
+			throw new IllegalArgumentException("Number of dice to keep can not be negative.");
+		}
+		
+		count = diceCount;
+		sides = diceSides;
+		verbose = verboseFlag;
+		sum = sumFlag;
+		rerollAt = reroll;
+		explodeAt = explode;
+		keep = Math.min(keepCount, diceCount);
+		keepHighest = highest;
+	}
+	
+	/**
+	 * Compiles a roll expression into a RollPlan.
+	 * 
+	 * @param expr The roll expression.
+	 * 
+	 * @return the RollPlan.
+	 * 
+	 * @throws NullPointerException if expr is null.
+	 * @throws IllegalArgumentException if the roll string is not valid.
+	 */
+	public static RollPlan compile(RollExpression expr) {
+		if (expr == null) {
+			throw new NullPointerException("Roll expression can not be null.");
+		}
+		
+		return compile(expr.getRollString(), expr.isVerbose(), expr.isSum());
+	}
+	
+	/**
+	 * Compiles a roll string, such as {@code 3d6}, {@code d20} or {@code 4d6kh3}, into a RollPlan.
+	 * 
+	 * @param rollString The roll string.
+	 * @param verboseFlag Is the roll verbose.
+	 * @param sumFlag Is the verbose roll summed.
+	 * 
+	 * @return the RollPlan.
+	 * 
+	 * @throws NullPointerException if rollString is null.
+	 * @throws IllegalArgumentException if the roll string is not valid.
+	 */
+	public static RollPlan compile(String rollString, boolean verboseFlag, boolean sumFlag) {
+		if (rollString == null) {
+			throw new NullPointerException("Roll string can not be null.");
+		}
+		
+		int len = rollString.length();
+		int pos = 0;
+		while (pos < len && Character.isDigit(rollString.charAt(pos))) {
+			pos++;
+		}
+		int diceCount = pos == 0 ? 1 : parseNumber(rollString, 0, pos);
+		
+		if (pos == len || (rollString.charAt(pos) != 'd' && rollString.charAt(pos) != 'D')) {
+			throw new IllegalArgumentException("Invalid roll " + rollString + ".");
+		}
+		
+		int sidesStart = ++pos;
+		while (pos < len && Character.isDigit(rollString.charAt(pos))) {
+			pos++;
+		}
+		if (pos == sidesStart) {
+			throw new IllegalArgumentException("Invalid roll " + rollString + ".");
+		}
+		int diceSides = parseNumber(rollString, sidesStart, pos);
+		
+		int reroll = -1;
+		int explode = -1;
+		int keepCount = -1;
+		boolean highest = true;
+		while (pos < len) {
+			char modifier = Character.toLowerCase(rollString.charAt(pos++));
+			char kind = pos < len ? Character.toLowerCase(rollString.charAt(pos)) : 0;
+			if ((modifier == 'k' || modifier == 'd') && (kind == 'h' || kind == 'l')) {
+				pos++;
+			}
+			
+			int numStart = pos;
+			while (pos < len && Character.isDigit(rollString.charAt(pos))) {
+				pos++;
+			}
+			int value = pos == numStart ? -1 : parseNumber(rollString, numStart, pos);
+			
+			if (modifier == 'r' && reroll < 0 && value > 0) {
+				reroll = value;
+			} else if (modifier == 'e' && explode < 0 && value != 0) {
+				explode = value < 0 ? diceSides : value;
+			} else if ((modifier == 'k' || modifier == 'd') && keepCount < 0 && value >= 0) {
+				if (modifier == 'k') {
+					keepCount = value;
+					highest = kind != 'l';
+				} else {
+					keepCount = Math.max(diceCount - value, 0);
+					highest = kind != 'h';
+				}
+			} else {
+				throw new IllegalArgumentException("Invalid roll " + rollString + ".");
+			}
+		}
+		
+		return new RollPlan(diceCount, diceSides, verboseFlag, sumFlag, Math.max(reroll, 0), Math.max(explode, 0), 
+				keepCount < 0 ? diceCount : keepCount, highest);
+	}
+	
+	/**
+	 * Parses a number from part of a roll string.
+	 * 
+	 * @param rollString The roll string.
+	 * @param start The index of the first digit.
+	 * @param end The index after the last digit.
+	 * 
+	 * @return the number.
+	 * 
+	 * @throws IllegalArgumentException if the number is too large.
+	 */
+	private static int parseNumber(String rollString, int start, int end) {
+		try {
+			return Integer.parseInt(rollString.substring(start, end));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid roll " + rollString + ".", e);
+		}
+	}
+	
+	/**
+	 * Returns the number of dice to roll.
+	 * 
+	 * @return the number of dice.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of sides on each die.
+	 * 
+	 * @return the number of sides.
+	 */
+	public int getSides() {
+		return sides;
+	}
+	
+	/**
+	 * Checks if the roll is verbose, showing the individual dice.
+	 * 
+	 * @return true if the roll is verbose.
+	 */
+	public boolean isVerbose() {
+		return verbose;
+	}
+	
+	/**
+	 * Checks if the verbose roll is summed.
+	 * 
+	 * @return true if the roll is summed.
+	 */
+	public boolean isSum() {
+		return sum;
+	}
+	
+	/**
+	 * Returns the value that dice showing it or less are rerolled once.
+	 * 
+	 * @return the reroll value or 0 if dice are not rerolled.
+	 */
+	public int getRerollAt() {
+		return rerollAt;
+	}
+	
+	/**
+	 * Returns the value that dice showing it or more explode.
+	 * 
+	 * @return the explode value or 0 if dice do not explode.
+	 */
+	public int getExplodeAt() {
+		return explodeAt;
+	}
+	
+	/**
+	 * Returns the number of dice that are kept.
+	 * 
+	 * @return the number of dice that are kept.
+	 */
+	public int getKeep() {
+		return keep;
+	}
+	
+	/**
+	 * Checks if the highest dice are kept, rather than the lowest. This is only meaningful
+	 * if {@link #getKeep()} is less than {@link #getCount()}.
+	 * 
+	 * @return true if the highest dice are kept.
+	 */
+	public boolean isKeepHighest() {
+		return keepHighest;
+	}
+	
+	/**
+	 * Checks if any dice are dropped.
+	 * 
+	 * @return true if fewer dice are kept than are rolled.
+	 */
+	public boolean dropsDice() {
+		return keep < count;
+	}
+	
+	/**
+	 * Checks if the roll has any modifiers that change the value of individual dice or 
+	 * which dice are kept.
+	 * 
+	 * @return true if the roll has modifiers.
+	 */
+	public boolean hasModifiers() {
+		return rerollAt != 0 || explodeAt != 0 || dropsDice();
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof RollPlan)) {
+			return false;
+		}
+		
+		RollPlan plan = (RollPlan) obj;
+		return count == plan.count && sides == plan.sides && verbose == plan.verbose && sum == plan.sum
+				&& rerollAt == plan.rerollAt && explodeAt == plan.explodeAt && keep == plan.keep 
+				&& (keepHighest == plan.keepHighest || dropsDice() == false);
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = ((count * 31 + sides) * 31 + (verbose ? 1 : 0)) * 31 + (sum ? 1 : 0);
+		return ((hash * 31 + rerollAt) * 31 + explodeAt) * 31 + keep;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(count).append('d').append(sides);
+		if (rerollAt != 0) {
+			sb.append('r').append(rerollAt);
+		}
+		if (explodeAt != 0) {
+			sb.append('e').append(explodeAt);
+		}
+		if (dropsDice()) {
+			sb.append(keepHighest ? "kh" : "kl").append(keep);
+		}
+		return sb.toString();
+	}
+}
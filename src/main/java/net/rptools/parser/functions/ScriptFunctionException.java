@@ -17,6 +17,10 @@ package net.rptools.parser.functions;
 /**
  * Exception that scripts throw when something goes wrong.
  *
+ * These exceptions report errors in the script, such as invalid arguments, to the user
+ * so they do not fill in a stack trace, which would cost far more than the rest of the
+ * failed call. The stack trace of the cause, if there is one, is kept.
+ *
  */
 public class ScriptFunctionException extends Exception {
 
@@ -31,7 +35,7 @@ public class ScriptFunctionException extends Exception {
 	 * @param msg A message describing the exception.
 	 */
 	public ScriptFunctionException(String msg) {
-		super(msg);
+		super(msg, null, true, false);
 	}
 	
 	/**
@@ -42,6 +46,6 @@ public class ScriptFunctionException extends Exception {
 	 * @param cause The original exception.
 	 */
 	public ScriptFunctionException(String msg, Throwable cause) {
-		super(msg, cause);
+		super(msg, cause, true, false);
 	}
 }
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.functions.dice;
+
+import java.util.Map;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.lib.datavalue.DataValueFactory;
+import net.rptools.parser.ScriptContext;
+import net.rptools.parser.functions.FunctionDefinition;
+import net.rptools.parser.functions.FunctionDefinitionBuilder;
+import net.rptools.parser.functions.ScriptFunction;
+import net.rptools.parser.functions.ScriptFunctionException;
+
+/**
+ * Implements the dice.chance RPTools script function, which returns the exact probability of a dice
+ * expression rolling at least, at most or exactly a value.
+ */
+public class DiceChanceFunction implements ScriptFunction {
+
+	/** The singleton instance. */
+	private static final DiceChanceFunction INSTANCE = new DiceChanceFunction();
+
+	/** The function definition for the dice.chance script function. */
+	private final FunctionDefinition functionDefinition;
+
+	/** The name of the parameter for the smallest value to count. */
+	private static final String AT_LEAST = "atLeast";
+
+	/** The name of the parameter for the largest value to count. */
+	private static final String AT_MOST = "atMost";
+
+	/** The name of the parameter for the only value to count. */
+	private static final String EQUAL_TO = "equals";
+
+	/**
+	 * Creates a new DiceChanceFunction.
+	 */
+	private DiceChanceFunction() {
+		functionDefinition = new FunctionDefinitionBuilder().setName("dice.chance")
+				.setReturnType(DataType.DOUBLE)
+				.addParameter("expression", DataType.STRING)
+				.addParameter(AT_LEAST, DataType.LONG, DataValueFactory.nullDataValue())
+				.addParameter(AT_MOST, DataType.LONG, DataValueFactory.nullDataValue())
+				.addParameter(EQUAL_TO, DataType.LONG, DataValueFactory.nullDataValue())
+				.toFunctionDefinition();
+	}
+
+	/**
+	 * Returns the singleton instance of DiceChanceFunction.
+	 *
+	 * @return the instance.
+	 */
+	public static DiceChanceFunction getDiceChanceFunction() {
+		return INSTANCE;
+	}
+
+	@Override
+	public FunctionDefinition getDefinition() {
+		return functionDefinition;
+	}
+
+	@Override
+	public DataValue call(ScriptContext context, Map<String, DataValue> args) throws ScriptFunctionException {
+		DataValue atLeast = args.get(AT_LEAST);
+		DataValue atMost = args.get(AT_MOST);
+		DataValue equal = args.get(EQUAL_TO);
+
+		if (atLeast.dataType() == DataType.NULL && atMost.dataType() == DataType.NULL 
+				&& equal.dataType() == DataType.NULL) {
+			throw new ScriptFunctionException("dice.chance requires one of " + AT_LEAST + ", " + AT_MOST + " or " + EQUAL_TO + ".");
+		}
+
+		DiceDistribution dist = DiceExpressions.distribution(args.get("expression").asString());
+
+		long low = atLeast.dataType() == DataType.NULL ? dist.getMin() : atLeast.asLong();
+		long high = atMost.dataType() == DataType.NULL ? dist.getMax() : atMost.asLong();
+		if (equal.dataType() != DataType.NULL) {
+			low = Math.max(low, equal.asLong());
+			high = Math.min(high, equal.asLong());
+		}
+
+		return DataValueFactory.doubleValue(dist.probabilityBetween(low, high));
+	}
+}
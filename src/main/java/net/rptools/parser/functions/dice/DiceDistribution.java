@@ -0,0 +1,415 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.functions.dice;
+
+import java.util.Arrays;
+
+import net.rptools.parser.functions.RollPlan;
+
+/**
+ * The exact probability distribution of a dice roll, or of an arithmetic expression over
+ * dice rolls and constants. The distribution is held as the number of ways each value can
+ * be rolled, out of the total number of equally likely outcomes, so combining distributions
+ * is exact discrete convolution over {@code long} arrays.
+ * <p>
+ * DiceDistributions are immutable.
+ * </p>
+ */
+public final class DiceDistribution {
+
+	/** The maximum number of distinct values a distribution can have. */
+	public static final int MAX_VALUES = 1 << 20;
+
+	/**
+	 * The maximum number of multiply-adds combining two distributions can take, so that a
+	 * distribution requested by a script is computed in milliseconds.
+	 */
+	public static final long MAX_WORK = 1L << 24;
+
+	/** The smallest value of the distribution. */
+	private final long min;
+
+	/** The number of outcomes for each value, starting at the smallest value. */
+	private final long[] counts;
+
+	/** The total number of outcomes. */
+	private final long total;
+
+	/**
+	 * Creates a new DiceDistribution.
+	 *
+	 * @param minValue The smallest value.
+	 * @param valueCounts The number of outcomes for each value, starting at minValue.
+	 * @param totalCount The total number of outcomes.
+	 */
+	private DiceDistribution(long minValue, long[] valueCounts, long totalCount) {
+		min = minValue;
+		counts = valueCounts;
+		total = totalCount;
+	}
+
+	/**
+	 * Returns the distribution of a constant.
+	 *
+	 * @param value The constant.
+	 *
+	 * @return the distribution.
+	 */
+	public static DiceDistribution constant(long value) {
+		return new DiceDistribution(value, new long[] { 1 }, 1);
+	}
+
+	/**
+	 * Returns the distribution of the sum of a roll.
+	 *
+	 * @param plan The roll.
+	 *
+	 * @return the distribution.
+	 *
+	 * @throws NullPointerException if plan is null.
+	 * @throws IllegalArgumentException if the roll has modifiers or too many outcomes.
+	 */
+	public static DiceDistribution ofRoll(RollPlan plan) {
+		if (plan == null) {
+			throw new NullPointerException("Roll plan can not be null.");
+		}
+
+		if (plan.hasModifiers()) {
+			throw new IllegalArgumentException("Distribution can not be computed for roll " + plan + " with modifiers.");
+		}
+
+		return ofDice(plan.getCount(), plan.getSides());
+	}
+
+	/**
+	 * Returns the distribution of the sum of rolling several dice.
+	 *
+	 * @param dice The number of dice.
+	 * @param sides The number of sides on each die.
+	 *
+	 * @return the distribution.
+	 *
+	 * @throws IllegalArgumentException if dice is negative, sides is less than 1 or the roll
+	 *         has too many values or outcomes or takes too much work to compute.
+	 */
+	public static DiceDistribution ofDice(int dice, int sides) {
+		if (dice < 0) {
+			throw new IllegalArgumentException("Number of dice can not be negative.");
+		}
+
+		if (sides < 1) {
+			throw new IllegalArgumentException("Dice must have at least one side.");
+		}
+
+		long[] die = new long[checkSize(sides)];
+		Arrays.fill(die, 1);
+		DiceDistribution single = new DiceDistribution(1, die, sides);
+
+		// Exponentiation by squaring, so n dice take O(log n) convolutions.
+		DiceDistribution result = constant(0);
+		DiceDistribution power = single;
+		for (int n = dice; n > 0; n >>= 1) {
+			if ((n & 1) != 0) {
+				result = result.add(power);
+			}
+			if (n > 1) {
+				power = power.add(power);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the distribution of the sum of a value from this distribution and an independent
+	 * value from another.
+	 *
+	 * @param other The other distribution.
+	 *
+	 * @return the distribution of the sum.
+	 *
+	 * @throws NullPointerException if other is null.
+	 * @throws IllegalArgumentException if the result has too many values or outcomes or
+	 *         takes too much work to compute.
+	 */
+	public DiceDistribution add(DiceDistribution other) {
+		if (other == null) {
+			throw new NullPointerException("Distribution can not be null.");
+		}
+
+		// Every count is at most the total, so checking the total up front means the
+		// convolution itself can not overflow.
+		long newTotal = multiplyExact(total, other.total);
+		checkWork(other);
+		int size = checkSize((long) counts.length + other.counts.length - 1);
+		long[] result = new long[size];
+		for (int i = 0; i < counts.length; i++) {
+			long count = counts[i];
+			if (count == 0) {
+				continue;
+			}
+			for (int j = 0; j < other.counts.length; j++) {
+				result[i + j] += count * other.counts[j];
+			}
+		}
+
+		return new DiceDistribution(min + other.min, result, newTotal);
+	}
+
+	/**
+	 * Returns the distribution of the negated values of this distribution.
+	 *
+	 * @return the negated distribution.
+	 */
+	public DiceDistribution negate() {
+		long[] result = new long[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			result[counts.length - 1 - i] = counts[i];
+		}
+		return new DiceDistribution(-getMax(), result, total);
+	}
+
+	/**
+	 * Returns the distribution of the difference between a value from this distribution and
+	 * an independent value from another.
+	 *
+	 * @param other The other distribution.
+	 *
+	 * @return the distribution of the difference.
+	 *
+	 * @throws NullPointerException if other is null.
+	 * @throws IllegalArgumentException if the result has too many values or outcomes or
+	 *         takes too much work to compute.
+	 */
+	public DiceDistribution subtract(DiceDistribution other) {
+		if (other == null) {
+			throw new NullPointerException("Distribution can not be null.");
+		}
+
+		return add(other.negate());
+	}
+
+	/**
+	 * Returns the distribution of the product of a value from this distribution and an 
+	 * independent value from another.
+	 *
+	 * @param other The other distribution.
+	 *
+	 * @return the distribution of the product.
+	 *
+	 * @throws NullPointerException if other is null.
+	 * @throws IllegalArgumentException if the result has too many values or outcomes or
+	 *         takes too much work to compute.
+	 */
+	public DiceDistribution multiply(DiceDistribution other) {
+		if (other == null) {
+			throw new NullPointerException("Distribution can not be null.");
+		}
+
+		long newTotal = multiplyExact(total, other.total);
+		checkWork(other);
+		long a = multiplyExact(min, other.min);
+		long b = multiplyExact(min, other.getMax());
+		long c = multiplyExact(getMax(), other.min);
+		long d = multiplyExact(getMax(), other.getMax());
+		long lowest = Math.min(Math.min(a, b), Math.min(c, d));
+		long highest = Math.max(Math.max(a, b), Math.max(c, d));
+
+		long[] result = new long[checkSize(highest - lowest + 1)];
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			for (int j = 0; j < other.counts.length; j++) {
+				int index = (int) ((min + i) * (other.min + j) - lowest);
+				result[index] += counts[i] * other.counts[j];
+			}
+		}
+
+		return new DiceDistribution(lowest, result, newTotal);
+	}
+
+	/**
+	 * Returns the smallest value of the distribution.
+	 *
+	 * @return the smallest value.
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value of the distribution.
+	 *
+	 * @return the largest value.
+	 */
+	public long getMax() {
+		return min + counts.length - 1;
+	}
+
+	/**
+	 * Returns the total number of equally likely outcomes.
+	 *
+	 * @return the total number of outcomes.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the number of outcomes that result in a value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return the number of outcomes.
+	 */
+	public long getCount(long value) {
+		if (value < min || value > getMax()) {
+			return 0;
+		}
+		return counts[(int) (value - min)];
+	}
+
+	/**
+	 * Returns the probability of a value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return the probability.
+	 */
+	public double probability(long value) {
+		return (double) getCount(value) / total;
+	}
+
+	/**
+	 * Returns the probability of a value at least as large as the specified value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return the probability.
+	 */
+	public double probabilityAtLeast(long value) {
+		return probabilityBetween(value, getMax());
+	}
+
+	/**
+	 * Returns the probability of a value at most as large as the specified value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return the probability.
+	 */
+	public double probabilityAtMost(long value) {
+		return probabilityBetween(getMin(), value);
+	}
+
+	/**
+	 * Returns the probability of a value between two values, inclusive.
+	 *
+	 * @param low The smallest value.
+	 * @param high The largest value.
+	 *
+	 * @return the probability.
+	 */
+	public double probabilityBetween(long low, long high) {
+		long count = 0;
+		for (long v = Math.max(low, min); v <= Math.min(high, getMax()); v++) {
+			count += counts[(int) (v - min)];
+		}
+		return (double) count / total;
+	}
+
+	/**
+	 * Returns the mean, or expected value, of the distribution.
+	 *
+	 * @return the mean.
+	 */
+	public double getMean() {
+		double sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			sum += (double) i * counts[i];
+		}
+		return min + sum / total;
+	}
+
+	/**
+	 * Checks that a distribution with the specified number of values can be created.
+	 *
+	 * @param size The number of values.
+	 *
+	 * @return the number of values.
+	 *
+	 * @throws IllegalArgumentException if there are too many values.
+	 */
+	private static int checkSize(long size) {
+		if (size > MAX_VALUES) {
+			throw new IllegalArgumentException("Distribution has too many values.");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Checks that combining this distribution with another does not take too much work.
+	 *
+	 * @param other The other distribution.
+	 *
+	 * @throws IllegalArgumentException if the combination takes more than {@link #MAX_WORK}
+	 *         multiply-adds.
+	 */
+	private void checkWork(DiceDistribution other) {
+		if ((long) counts.length * other.counts.length > MAX_WORK) {
+			throw new IllegalArgumentException("Distribution takes too much work to compute.");
+		}
+	}
+
+	/**
+	 * Multiplies two values, checking for overflow.
+	 *
+	 * @param a The first value.
+	 * @param b The second value.
+	 *
+	 * @return the product.
+	 *
+	 * @throws IllegalArgumentException if the product overflows.
+	 */
+	private static long multiplyExact(long a, long b) {
+		long r = a * b;
+		long ax = Math.abs(a);
+		long ay = Math.abs(b);
+		if (((ax | ay) >>> 31 != 0) && ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1))) {
+			throw new IllegalArgumentException("Distribution has too many outcomes.");
+		}
+		return r;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof DiceDistribution)) {
+			return false;
+		}
+
+		DiceDistribution dist = (DiceDistribution) obj;
+		return min == dist.min && total == dist.total && Arrays.equals(counts, dist.counts);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (31 * min + Arrays.hashCode(counts));
+	}
+
+	@Override
+	public String toString() {
+		return "DiceDistribution[" + min + ".." + getMax() + " of " + total + "]";
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.functions.dice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.rptools.parser.CompiledScript;
+import net.rptools.parser.functions.ScriptFunctionException;
+
+/**
+ * Computes the distributions of dice expressions for the dice script functions. The 
+ * distributions of recently used expressions are cached so that scripts that ask about
+ * the same expression repeatedly do not parse it and convolve the dice again.
+ */
+final class DiceExpressions {
+
+	/** The maximum number of distributions to cache. */
+	private static final int CACHE_SIZE = 64;
+
+	/** The cached distributions, keyed by expression, in least recently used order. */
+	private static final Map<String, DiceDistribution> CACHE =
+			new LinkedHashMap<String, DiceDistribution>(CACHE_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, DiceDistribution> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	/** Stop instantiation. */
+	private DiceExpressions() {
+	}
+
+	/**
+	 * Returns the distribution of a dice expression.
+	 *
+	 * @param expression The dice expression.
+	 *
+	 * @return the distribution.
+	 *
+	 * @throws ScriptFunctionException if the expression is invalid or a distribution can not
+	 *         be computed for it.
+	 */
+	static DiceDistribution distribution(String expression) throws ScriptFunctionException {
+		synchronized (CACHE) {
+			DiceDistribution dist = CACHE.get(expression);
+			if (dist != null) {
+				return dist;
+			}
+		}
+
+		DiceDistribution dist;
+		try {
+			dist = CompiledScript.compile(expression).getDistribution();
+		} catch (RuntimeException e) {
+			throw new ScriptFunctionException("Can not compute distribution of " + expression + ": " + e.getMessage(), e);
+		}
+
+		synchronized (CACHE) {
+			CACHE.put(expression, dist);
+		}
+		return dist;
+	}
+}
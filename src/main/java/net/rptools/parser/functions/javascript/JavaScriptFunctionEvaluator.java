@@ -18,12 +18,15 @@ import net.rptools.lib.datavalue.DataType;
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
 import net.rptools.lib.result.ResultBuilder;
+import net.rptools.parser.EvaluationLimitExceededException;
 import net.rptools.parser.ScriptContext;
 import net.rptools.parser.functions.FunctionDefinitionBuilder;
 import net.rptools.parser.functions.ScriptFunction;
 import net.rptools.parser.functions.ScriptFunctionException;
 import net.rptools.parser.jsapi.ExportJS;
 import net.rptools.parser.jsapi.ExportedFunction;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
 import org.mozilla.javascript.*;
 
 import java.io.IOException;
@@ -61,6 +64,9 @@ public class JavaScriptFunctionEvaluator {
     /** The top level scope where all the JavaScript code that forms the base API lives. */
     private Scriptable sharedScope;
 
+    /** The random source of the context calling JavaScript on this thread, used by Math.random. */
+    private final ThreadLocal<RandomSource> currentRandomSource = new ThreadLocal<>();
+
 
 
 
@@ -75,6 +81,7 @@ public class JavaScriptFunctionEvaluator {
             Path p = Paths.get(url.toURI());
             byte[] bytes = Files.readAllBytes(p);
             sharedScope = jsContext.initStandardObjects();
+            replaceMathRandom(sharedScope);
             jsContext.evaluateString(sharedScope, new String(bytes), "BaseAPI", 0, null);
         } catch (URISyntaxException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
@@ -133,6 +140,8 @@ public class JavaScriptFunctionEvaluator {
 
 
         Scriptable scope = functionScopes.get(function);
+        RandomSource previousSource = currentRandomSource.get();
+        currentRandomSource.set(context.getRandomSource());
         Context jsContext = Context.enter();
         DataValue result = null;
         try {
@@ -162,6 +171,8 @@ public class JavaScriptFunctionEvaluator {
             //Object functionArgs[] = toJSArgs(args);
             Object oresult = callFunc.call(jsContext, scope, scope, callArgs);
 
+            // Account for any lists before they are converted so large arrays fail before allocation.
+            reserveListElements(context, oresult);
 
             // Now convert to DataValue
             switch(returnType) {
@@ -195,15 +206,93 @@ public class JavaScriptFunctionEvaluator {
 
         }  catch(Exception e) {
             jsContext.exit();
+            currentRandomSource.set(previousSource);
             throw new ScriptFunctionException(e.getLocalizedMessage(), e);
         }
 
         jsContext.exit();
+        currentRandomSource.set(previousSource);
 
 
         return result;
     }
 
+    /**
+     * Replaces Math.random in the scope with a function that draws from the random source of the
+     * {@link ScriptContext} calling the JavaScript function, so that seeded and replayed evaluations
+     * produce the same results. Outside of a call the {@link ThreadLocalRandomSource} is used.
+     *
+     * @param scope The scope to replace Math.random in.
+     */
+    private void replaceMathRandom(Scriptable scope) {
+        Scriptable math = (Scriptable) scope.get("Math", scope);
+        ScriptableObject.putProperty(math, "random", new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable callScope, Scriptable thisObj, Object[] args) {
+                RandomSource source = currentRandomSource.get();
+                if (source == null) {
+                    source = ThreadLocalRandomSource.INSTANCE;
+                }
+                // The top 53 bits give a uniformly distributed double in [0, 1).
+                return (source.nextLong() >>> 11) * 0x1.0p-53;
+            }
+        });
+    }
+
+    /**
+     * Reserves the list elements that will be created when converting the object to a
+     * {@link DataValue} against the memory limit of the {@link ScriptContext}.
+     *
+     * @param context The script context the function is being called in.
+     * @param o The object that will be converted.
+     *
+     * @throws EvaluationLimitExceededException if the memory limit would be exceeded.
+     * @throws ScriptFunctionException if the object contains itself, which can not be converted.
+     */
+    private void reserveListElements(ScriptContext context, Object o) 
+            throws EvaluationLimitExceededException, ScriptFunctionException {
+        reserveListElements(context, o, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    }
+
+    /**
+     * Reserves the list elements that will be created when converting the object to a
+     * {@link DataValue} against the memory limit of the {@link ScriptContext}.
+     *
+     * @param context The script context the function is being called in.
+     * @param o The object that will be converted.
+     * @param enclosing The arrays and objects that contain the object.
+     *
+     * @throws EvaluationLimitExceededException if the memory limit would be exceeded.
+     * @throws ScriptFunctionException if the object contains itself, which can not be converted.
+     */
+    private void reserveListElements(ScriptContext context, Object o, Set<Object> enclosing)
+            throws EvaluationLimitExceededException, ScriptFunctionException {
+        if (!(o instanceof NativeArray) && !(o instanceof NativeObject)) {
+            return;
+        }
+
+        // Objects can be shared in more than one place, but an object can not be inside itself.
+        if (!enclosing.add(o)) {
+            throw new ScriptFunctionException("JavaScript result contains itself and can not be converted.");
+        }
+
+        if (o instanceof NativeArray) {
+            NativeArray arr = (NativeArray)o;
+            long length = arr.getLength();
+            context.reserveListElements(length);
+            for (int i = 0; i < length; i++) {
+                reserveListElements(context, arr.get(i, arr), enclosing);
+            }
+        } else {
+            NativeObject no = (NativeObject) o;
+            for (Object id : no.getIds()) {
+                reserveListElements(context, no.get(id.toString(), no), enclosing);
+            }
+        }
+
+        enclosing.remove(o);
+    }
+
     /**
      * Returns the {@link DataValue} of type {@link DataType#BOOLEAN} representation of the object.
      *
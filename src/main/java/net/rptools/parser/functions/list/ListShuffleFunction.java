@@ -15,7 +15,6 @@
 package net.rptools.parser.functions.list;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +25,7 @@ import net.rptools.parser.ScriptContext;
 import net.rptools.parser.functions.FunctionDefinition;
 import net.rptools.parser.functions.FunctionDefinitionBuilder;
 import net.rptools.parser.functions.ScriptFunction;
+import net.rptools.parser.random.RandomSource;
 
 /**
  * Implements the list.shuffle script function.
@@ -75,7 +75,13 @@ public class ListShuffleFunction implements ScriptFunction {
 		}
 		list.addAll(values.asList());
 
-		Collections.shuffle(list);
+		// Shuffle with the random source of the context so that seeded and replayed evaluations
+		// produce the same order.
+		RandomSource random = context.getRandomSource();
+		for (int i = list.size() - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			list.set(j, list.set(i, list.get(j)));
+		}
 		
 		return DataValueFactory.listValue(list);
 	}
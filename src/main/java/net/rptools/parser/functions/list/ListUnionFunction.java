@@ -21,10 +21,12 @@ import java.util.Set;
 import net.rptools.lib.datavalue.DataType;
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
+import net.rptools.parser.EvaluationLimitExceededException;
 import net.rptools.parser.ScriptContext;
 import net.rptools.parser.functions.FunctionDefinition;
 import net.rptools.parser.functions.FunctionDefinitionBuilder;
 import net.rptools.parser.functions.ScriptFunction;
+import net.rptools.parser.functions.ScriptFunctionException;
 
 /**
  * Implements the list.intersection script function.
@@ -63,8 +65,19 @@ public class ListUnionFunction implements ScriptFunction {
 	}
 
 	@Override
-	public DataValue call(ScriptContext context, Map<String, DataValue> args) {
+	public DataValue call(ScriptContext context, Map<String, DataValue> args) throws ScriptFunctionException {
 		DataValue values = args.get("values");
+		
+		long size = 0;
+		for (DataValue list : values.asList()) {
+			size += list.asList().size();
+		}
+		try {
+			context.reserveListElements(size);
+		} catch (EvaluationLimitExceededException e) {
+			throw new ScriptFunctionException(e.getMessage(), e);
+		}
+		
 		Set<DataValue> result = new LinkedHashSet<>();
 		for (DataValue list : values.asList()) {
 			for (DataValue dv : list.asList()) {
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+/**
+ * AbstractRandomSource implements the bounded and block methods of {@link RandomSource} 
+ * on top of {@link #nextLong()}. Bounded values are generated with Lemire's multiply and 
+ * shift method, which only divides when a value has to be rejected to avoid bias.
+ *
+ */
+public abstract class AbstractRandomSource implements RandomSource {
+	
+	/** The mask of the low 32 bits of a long. */
+	private static final long LOW_BITS = 0xFFFFFFFFL;
+
+	@Override
+	public int nextInt(int bound) {
+		checkBound(bound);
+		return boundedInt(bound);
+	}
+
+	@Override
+	public void nextInts(int bound, int[] dest, int offset, int length) {
+		checkBound(bound);
+		checkRange(dest, offset, length);
+		
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			dest[i] = boundedInt(bound);
+		}
+	}
+	
+	/**
+	 * Returns a random value between 0 (inclusive) and bound (exclusive).
+	 * 
+	 * @param bound The upper bound of the value, which must be positive.
+	 * 
+	 * @return the random value.
+	 */
+	private int boundedInt(int bound) {
+		long m = ((nextLong() >>> 32) & LOW_BITS) * bound;
+		long low = m & LOW_BITS;
+		if (low < bound) {
+			long threshold = ((1L << 32) - bound) % bound;
+			while (low < threshold) {
+				m = ((nextLong() >>> 32) & LOW_BITS) * bound;
+				low = m & LOW_BITS;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+	
+	/**
+	 * Checks that the upper bound of random values is valid.
+	 * 
+	 * @param bound The upper bound.
+	 * 
+	 * @throws IllegalArgumentException if bound is not positive.
+	 */
+	static void checkBound(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound must be positive.");
+		}
+	}
+	
+	/**
+	 * Checks that the part of an array to fill is valid.
+	 * 
+	 * @param dest The array to fill.
+	 * @param offset The index of the first element to fill.
+	 * @param length The number of elements to fill.
+	 * 
+	 * @throws IndexOutOfBoundsException if offset or length are outside of dest.
+	 * @throws NullPointerException if dest is null.
+	 */
+	static void checkRange(int[] dest, int offset, int length) {
+		if (dest == null) {
+			throw new NullPointerException("Destination array can not be null.");
+		}
+		
+		if (offset < 0 || length < 0 || offset > dest.length - length) {
+			throw new IndexOutOfBoundsException("Range " + offset + " to " + (offset + length) + 
+					" is outside of array of length " + dest.length + ".");
+		}
+	}
+}
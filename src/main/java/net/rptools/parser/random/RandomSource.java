@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+/**
+ * RandomSource is the source of the random numbers used to roll dice. Implementations can
+ * be supplied with {@link net.rptools.parser.ScriptContextBuilder#setRandomSource(RandomSource)}
+ * to choose the generator used.
+ * <p>
+ * Each context gets its own source from {@link #split()}, so a source only needs to be 
+ * safe for use by a single thread at a time unless {@link #split()} returns the source 
+ * itself.
+ * </p>
+ * 
+ * @see AbstractRandomSource
+ */
+public interface RandomSource {
+
+	/**
+	 * Returns the next uniformly distributed random {@code long}.
+	 * 
+	 * @return the random value.
+	 */
+	public long nextLong();
+	
+	/**
+	 * Returns a uniformly distributed random value between 0 (inclusive) and bound (exclusive).
+	 * 
+	 * @param bound The upper bound of the value.
+	 * 
+	 * @return the random value.
+	 * 
+	 * @throws IllegalArgumentException if bound is not positive.
+	 */
+	public int nextInt(int bound);
+	
+	/**
+	 * Fills part of an array with uniformly distributed random values between 0 (inclusive) 
+	 * and bound (exclusive). Generating values in blocks avoids the per call overhead of
+	 * {@link #nextInt(int)} when rolling many dice.
+	 * 
+	 * @param bound The upper bound of the values.
+	 * @param dest The array to fill.
+	 * @param offset The index of the first element to fill.
+	 * @param length The number of elements to fill.
+	 * 
+	 * @throws IllegalArgumentException if bound is not positive.
+	 * @throws IndexOutOfBoundsException if offset or length are outside of dest.
+	 * @throws NullPointerException if dest is null.
+	 */
+	public void nextInts(int bound, int[] dest, int offset, int length);
+	
+	/**
+	 * Returns a source to be used by a new context. The source returned must produce a 
+	 * sequence independent of this source, or be this source if it is safe to use from 
+	 * several threads at once.
+	 * 
+	 * @return the source for the new context.
+	 */
+	public RandomSource split();
+}
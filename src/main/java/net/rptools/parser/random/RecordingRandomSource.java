@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+/**
+ * RecordingRandomSource draws random values from another source and records them in a 
+ * {@link RollLog}, so that an evaluation can be reproduced exactly with a 
+ * {@link ReplayRandomSource}. Each source split from it records into a new child log, in
+ * the order the sources were split.
+ * <p>
+ * Recording only stores the values drawn, a die costs one byte for up to 128 sides and two
+ * bytes for up to 16384 sides.
+ * </p>
+ */
+public final class RecordingRandomSource implements RandomSource {
+
+	/** The source the values are drawn from. */
+	private final RandomSource source;
+	
+	/** The log the values are recorded in. */
+	private final RollLog log;
+	
+	/**
+	 * Creates a new RecordingRandomSource.
+	 * 
+	 * @param randomSource The source to draw the values from.
+	 * @param rollLog The log to record the values in.
+	 * 
+	 * @throws NullPointerException if randomSource or rollLog is null.
+	 */
+	public RecordingRandomSource(RandomSource randomSource, RollLog rollLog) {
+		if (randomSource == null) {
+			throw new NullPointerException("Random source can not be null.");
+		}
+		
+		if (rollLog == null) {
+			throw new NullPointerException("Roll log can not be null.");
+		}
+		
+		source = randomSource;
+		log = rollLog;
+	}
+	
+	@Override
+	public long nextLong() {
+		long value = source.nextLong();
+		log.writeLong(value);
+		return value;
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		int value = source.nextInt(bound);
+		log.writeInt(value);
+		return value;
+	}
+
+	@Override
+	public void nextInts(int bound, int[] dest, int offset, int length) {
+		source.nextInts(bound, dest, offset, length);
+		for (int i = offset; i < offset + length; i++) {
+			log.writeInt(dest[i]);
+		}
+	}
+
+	/**
+	 * Returns a new recording source that draws from a source split from the source this
+	 * draws from, and records in a new child log.
+	 * 
+	 * @return the new source.
+	 */
+	@Override
+	public synchronized RandomSource split() {
+		return new RecordingRandomSource(source.split(), log.newChild());
+	}
+	
+	/**
+	 * Returns the log the values are recorded in.
+	 * 
+	 * @return the log.
+	 */
+	public RollLog getRollLog() {
+		return log;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+import java.util.List;
+
+/**
+ * ReplayRandomSource draws the values recorded in a {@link RollLog} by a 
+ * {@link RecordingRandomSource}, so an evaluation with the same script and the same 
+ * sequence of contexts reproduces the recorded evaluation exactly. Each source split from
+ * it replays the next child log.
+ * <p>
+ * If the evaluation asks for more values than were recorded, or a value that does not fit
+ * the bound asked for, the evaluation has diverged from the recording and an 
+ * {@link IllegalStateException} is thrown.
+ * </p>
+ */
+public final class ReplayRandomSource implements RandomSource {
+
+	/** The log the values are replayed from. */
+	private final RollLog log;
+	
+	/** The position of the next bounded value in the log. */
+	private int intPosition;
+	
+	/** The index of the next unbounded value in the log. */
+	private int longIndex;
+	
+	/** The index of the next child log to replay from. */
+	private int childIndex;
+	
+	/**
+	 * Creates a new ReplayRandomSource.
+	 * 
+	 * @param rollLog The log to replay the values from.
+	 * 
+	 * @throws NullPointerException if rollLog is null.
+	 */
+	public ReplayRandomSource(RollLog rollLog) {
+		if (rollLog == null) {
+			throw new NullPointerException("Roll log can not be null.");
+		}
+		
+		log = rollLog;
+	}
+	
+	@Override
+	public long nextLong() {
+		return log.readLong(longIndex++);
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		AbstractRandomSource.checkBound(bound);
+		long read = log.readInt(intPosition);
+		int value = (int) read;
+		if (value >= bound) {
+			throw new IllegalStateException("Roll log value " + value + " does not fit bound " + bound 
+					+ ", the evaluation does not match the recording.");
+		}
+		intPosition = (int) (read >>> 32);
+		return value;
+	}
+
+	@Override
+	public void nextInts(int bound, int[] dest, int offset, int length) {
+		AbstractRandomSource.checkBound(bound);
+		AbstractRandomSource.checkRange(dest, offset, length);
+		for (int i = offset; i < offset + length; i++) {
+			dest[i] = nextInt(bound);
+		}
+	}
+
+	/**
+	 * Returns a source that replays the next child log.
+	 * 
+	 * @return the new source.
+	 * 
+	 * @throws IllegalStateException if all of the child logs have been replayed.
+	 */
+	@Override
+	public synchronized RandomSource split() {
+		List<RollLog> children = log.getChildren();
+		if (childIndex >= children.size()) {
+			throw new IllegalStateException("Roll log has no more split sources to replay.");
+		}
+		return new ReplayRandomSource(children.get(childIndex++));
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RollLog is a compact record of the random values drawn by a {@link RecordingRandomSource},
+ * which a {@link ReplayRandomSource} draws again to reproduce an evaluation exactly. Bounded
+ * values, which are what dice are rolled with, are stored as variable length integers so 
+ * most dice take a single byte. Each source split from the recording source records into
+ * its own child log, so contexts evaluated on different threads never share a log.
+ * <p>
+ * A log must only be written by one thread at a time, although children can be added from
+ * any thread.
+ * </p>
+ */
+public final class RollLog {
+	
+	/** The version of the serialized form. */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The bounded values drawn, as variable length integers. */
+	private byte[] ints = new byte[32];
+	
+	/** The number of bytes of bounded values. */
+	private int intsLength;
+	
+	/** The number of bounded values drawn. */
+	private int intCount;
+	
+	/** The unbounded values drawn. */
+	private long[] longs = new long[0];
+	
+	/** The number of unbounded values drawn. */
+	private int longCount;
+	
+	/** The logs of the sources split from the recording source, in the order they were split. */
+	private final List<RollLog> children = new ArrayList<>();
+	
+	/**
+	 * Creates a new empty RollLog.
+	 */
+	public RollLog() {
+	}
+	
+	/**
+	 * Appends a bounded value.
+	 * 
+	 * @param value The value, which is never negative.
+	 */
+	void writeInt(int value) {
+		if (intsLength + 5 > ints.length) {
+			ints = Arrays.copyOf(ints, ints.length * 2);
+		}
+		while ((value & ~0x7F) != 0) {
+			ints[intsLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		ints[intsLength++] = (byte) value;
+		intCount++;
+	}
+	
+	/**
+	 * Appends an unbounded value.
+	 * 
+	 * @param value The value.
+	 */
+	void writeLong(long value) {
+		if (longCount == longs.length) {
+			longs = Arrays.copyOf(longs, Math.max(4, longs.length * 2));
+		}
+		longs[longCount++] = value;
+	}
+	
+	/**
+	 * Reads a bounded value.
+	 * 
+	 * @param position The index of the first byte of the value.
+	 * 
+	 * @return the value in the low 32 bits and the index after it in the high 32 bits.
+	 * 
+	 * @throws IllegalStateException if there are no more bounded values.
+	 */
+	long readInt(int position) {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			if (position >= intsLength || shift > 28) {
+				throw new IllegalStateException("Roll log has no more values to replay.");
+			}
+			byte b = ints[position++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+			shift += 7;
+		}
+		return ((long) position << 32) | (value & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Reads an unbounded value.
+	 * 
+	 * @param index The index of the value.
+	 * 
+	 * @return the value.
+	 * 
+	 * @throws IllegalStateException if there are no more unbounded values.
+	 */
+	long readLong(int index) {
+		if (index >= longCount) {
+			throw new IllegalStateException("Roll log has no more values to replay.");
+		}
+		return longs[index];
+	}
+	
+	/**
+	 * Adds a log for a source split from the recording source.
+	 * 
+	 * @return the new log.
+	 */
+	synchronized RollLog newChild() {
+		RollLog child = new RollLog();
+		children.add(child);
+		return child;
+	}
+	
+	/**
+	 * Returns the number of bounded values, such as dice, drawn. This does not include
+	 * values drawn by sources split from the recording source.
+	 * 
+	 * @return the number of bounded values.
+	 */
+	public int getIntCount() {
+		return intCount;
+	}
+	
+	/**
+	 * Returns the number of unbounded values drawn. This does not include values drawn by 
+	 * sources split from the recording source.
+	 * 
+	 * @return the number of unbounded values.
+	 */
+	public int getLongCount() {
+		return longCount;
+	}
+	
+	/**
+	 * Returns the logs of the sources split from the recording source.
+	 * 
+	 * @return the child logs in the order the sources were split.
+	 */
+	public synchronized List<RollLog> getChildren() {
+		return Collections.unmodifiableList(new ArrayList<>(children));
+	}
+	
+	/**
+	 * Returns the serialized form of this log and its children.
+	 * 
+	 * @return the serialized log.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(intsLength + longCount * 8 + 16);
+		out.write(FORMAT_VERSION);
+		write(out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Writes this log and its children.
+	 * 
+	 * @param out The stream to write to.
+	 */
+	private void write(ByteArrayOutputStream out) {
+		writeVarint(out, intCount);
+		writeVarint(out, intsLength);
+		out.write(ints, 0, intsLength);
+		writeVarint(out, longCount);
+		for (int i = 0; i < longCount; i++) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (longs[i] >>> shift));
+			}
+		}
+		
+		List<RollLog> logs = getChildren();
+		writeVarint(out, logs.size());
+		for (RollLog child : logs) {
+			child.write(out);
+		}
+	}
+	
+	/**
+	 * Writes a variable length integer.
+	 * 
+	 * @param out The stream to write to.
+	 * @param value The value, which is never negative.
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	/**
+	 * Creates a RollLog from its serialized form.
+	 * 
+	 * @param bytes The serialized log.
+	 * 
+	 * @return the log.
+	 * 
+	 * @throws NullPointerException if bytes is null.
+	 * @throws IllegalArgumentException if bytes is not a valid serialized log.
+	 */
+	public static RollLog fromByteArray(byte[] bytes) {
+		if (bytes == null) {
+			throw new NullPointerException("Serialized roll log can not be null.");
+		}
+		
+		if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported roll log format.");
+		}
+		
+		int[] position = { 1 };
+		RollLog log = read(bytes, position);
+		if (position[0] != bytes.length) {
+			throw new IllegalArgumentException("Invalid roll log, unexpected data at the end.");
+		}
+		return log;
+	}
+	
+	/**
+	 * Reads a log and its children.
+	 * 
+	 * @param bytes The serialized log.
+	 * @param position The position to read from, which is updated.
+	 * 
+	 * @return the log.
+	 * 
+	 * @throws IllegalArgumentException if the log is not valid.
+	 */
+	private static RollLog read(byte[] bytes, int[] position) {
+		RollLog log = new RollLog();
+		log.intCount = readVarint(bytes, position);
+		int length = readVarint(bytes, position);
+		checkAvailable(bytes, position[0], length);
+		log.ints = Arrays.copyOfRange(bytes, position[0], position[0] + length);
+		log.intsLength = length;
+		position[0] += length;
+		
+		log.longCount = readVarint(bytes, position);
+		checkAvailable(bytes, position[0], (long) log.longCount * 8);
+		log.longs = new long[log.longCount];
+		for (int i = 0; i < log.longCount; i++) {
+			long value = 0;
+			for (int b = 0; b < 8; b++) {
+				value = (value << 8) | (bytes[position[0]++] & 0xFF);
+			}
+			log.longs[i] = value;
+		}
+		
+		int childCount = readVarint(bytes, position);
+		for (int i = 0; i < childCount; i++) {
+			log.children.add(read(bytes, position));
+		}
+		return log;
+	}
+	
+	/**
+	 * Reads a variable length integer.
+	 * 
+	 * @param bytes The serialized log.
+	 * @param position The position to read from, which is updated.
+	 * 
+	 * @return the value.
+	 * 
+	 * @throws IllegalArgumentException if the value is not valid.
+	 */
+	private static int readVarint(byte[] bytes, int[] position) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			checkAvailable(bytes, position[0], 1);
+			byte b = bytes[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				if (value < 0) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Invalid roll log, bad length.");
+	}
+	
+	/**
+	 * Checks that there are enough bytes left to read.
+	 * 
+	 * @param bytes The serialized log.
+	 * @param position The position to read from.
+	 * @param length The number of bytes needed.
+	 * 
+	 * @throws IllegalArgumentException if there are not enough bytes.
+	 */
+	private static void checkAvailable(byte[] bytes, int position, long length) {
+		if (position + length > bytes.length) {
+			throw new IllegalArgumentException("Invalid roll log, truncated.");
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+/**
+ * SplitMix64RandomSource is a small, fast generator using the SplitMix64 algorithm, the
+ * same algorithm as {@code java.util.SplittableRandom}. It is seeded explicitly so the 
+ * rolls of a context can be reproduced, and each split source continues from an 
+ * independent seed. It is not thread safe, each context gets its own split source.
+ *
+ */
+public final class SplitMix64RandomSource extends AbstractRandomSource {
+	
+	/** The increment of the seed, the odd integer closest to 2^64 divided by the golden ratio. */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/** The current seed. */
+	private long seed;
+	
+	/**
+	 * Creates a new SplitMix64RandomSource.
+	 * 
+	 * @param initialSeed The seed to start from.
+	 */
+	public SplitMix64RandomSource(long initialSeed) {
+		seed = initialSeed;
+	}
+	
+	/**
+	 * Returns the source for one of a family of independent streams derived from a seed. 
+	 * The seed of each stream is mixed from the seed and the index, so the streams are not 
+	 * shifted copies of each other as they would be if the index was just added to the seed. 
+	 * It gives the same sources as splitting a source created with the seed once for each 
+	 * index in order.
+	 * 
+	 * @param seed The seed of the family of streams.
+	 * @param index The index of the stream.
+	 * 
+	 * @return the source for the stream.
+	 */
+	public static SplitMix64RandomSource stream(long seed, long index) {
+		return new SplitMix64RandomSource(mix(seed + (index + 1) * GOLDEN_GAMMA));
+	}
+	
+	@Override
+	public long nextLong() {
+		seed += GOLDEN_GAMMA;
+		return mix(seed);
+	}
+	
+	/**
+	 * Returns a new source seeded from the next value of this source.
+	 * 
+	 * @return the new source.
+	 */
+	@Override
+	public synchronized RandomSource split() {
+		return new SplitMix64RandomSource(nextLong());
+	}
+	
+	/**
+	 * Mixes the bits of a seed into a random value.
+	 * 
+	 * @param z The seed.
+	 * 
+	 * @return the random value.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.random;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ThreadLocalRandomSource uses the {@link ThreadLocalRandom} of the thread rolling the dice.
+ * Each thread has its own generator so contexts rolling dice on different threads never
+ * contend with each other. This is the default source.
+ *
+ */
+public final class ThreadLocalRandomSource implements RandomSource {
+	
+	/** The instance shared by all contexts. */
+	public static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+	
+	/**
+	 * Creates a new ThreadLocalRandomSource.
+	 */
+	private ThreadLocalRandomSource() {
+	}
+
+	@Override
+	public long nextLong() {
+		return ThreadLocalRandom.current().nextLong();
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		AbstractRandomSource.checkBound(bound);
+		return ThreadLocalRandom.current().nextInt(bound);
+	}
+
+	@Override
+	public void nextInts(int bound, int[] dest, int offset, int length) {
+		AbstractRandomSource.checkBound(bound);
+		AbstractRandomSource.checkRange(dest, offset, length);
+		
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			dest[i] = random.nextInt(bound);
+		}
+	}
+
+	/**
+	 * Returns this source as it can be shared by any number of threads.
+	 * 
+	 * @return this source.
+	 */
+	@Override
+	public RandomSource split() {
+		return this;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+import java.util.Collection;
+import java.util.Map;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * Interface describing a {@link PropertyResolver} that can get or set several properties at 
+ * once. When the symbol table commits a transaction the properties set during the transaction
+ * are passed to a BatchPropertyResolver as a batch for each id rather than one at a time, and 
+ * the properties a script reads are fetched in a single request before it is evaluated.
+ */
+public interface BatchPropertyResolver extends PropertyResolver {
+
+	/**
+	 * Returns the values of several properties for the default id.
+	 * 
+	 * @param names The names of the properties to get.
+	 * 
+	 * @return the values of the properties mapped by name, properties that do not exist
+	 *         are not included.
+	 * 
+	 * @throws NullPointerException if names is null.
+	 * @throws IllegalArgumentException if there is no default id.
+	 */
+	public Map<String, DataValue> getProperties(Collection<String> names);
+
+	/**
+	 * Returns the values of several properties for the specified id.
+	 * 
+	 * @param id The id for the property set.
+	 * @param names The names of the properties to get.
+	 * 
+	 * @return the values of the properties mapped by name, properties that do not exist
+	 *         are not included.
+	 * 
+	 * @throws NullPointerException if any of the parameters are null.
+	 * @throws IllegalArgumentException if the id does not exist.
+	 */
+	public Map<String, DataValue> getProperties(String id, Collection<String> names);
+
+	/**
+	 * Sets several properties for the default id.
+	 * 
+	 * @param values The values of the properties mapped by name.
+	 * 
+	 * @throws NullPointerException if values is null.
+	 * @throws IllegalArgumentException if there is no default id or the data
+	 * 		   type is not valid for any of the properties.
+	 */
+	public void setProperties(Map<String, DataValue> values);
+
+	/**
+	 * Sets several properties for the specified id.
+	 * 
+	 * @param id The id for the property set.
+	 * @param values The values of the properties mapped by name.
+	 * 
+	 * @throws NullPointerException if any of the parameters are null.
+	 * @throws IllegalArgumentException if the id does not exist or the data
+	 * 		   type is not valid for any of the properties.
+	 */
+	public void setProperties(String id, Map<String, DataValue> values);
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+import java.util.Map;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * Interface describing a {@link VariableResolver} that can set several variables at once.
+ * When the symbol table commits a transaction the variables set during the transaction are
+ * passed to a BatchVariableResolver as a single batch rather than one at a time.
+ */
+public interface BatchVariableResolver extends VariableResolver {
+
+	/**
+	 * Sets several variables.
+	 * 
+	 * @param values The values of the variables mapped by name.
+	 * 
+	 * @throws NullPointerException if values is null.
+	 */
+	public void setVariables(Map<String, DataValue> values);
+}
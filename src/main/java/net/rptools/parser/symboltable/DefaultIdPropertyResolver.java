@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+import java.util.Collection;
+import java.util.Map;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * DefaultIdPropertyResolver wraps another {@link PropertyResolver} and uses a specified id
+ * in place of its default id. This allows the same script to be evaluated against the 
+ * properties for different ids. The versions of the properties are those of the wrapped
+ * resolver, or {@link SymbolTable#NO_VERSION} if it is not a {@link VersionedPropertyResolver}.
+ */
+class DefaultIdPropertyResolver implements VersionedPropertyResolver {
+
+	/** The resolver that is wrapped. */
+	private final PropertyResolver resolver;
+	
+	/** The id used in place of the default id. */
+	private final String defaultId;
+	
+	/**
+	 * Creates a new DefaultIdPropertyResolver.
+	 * 
+	 * @param res The resolver to wrap.
+	 * @param id The id to use in place of the default id.
+	 */
+	private DefaultIdPropertyResolver(PropertyResolver res, String id) {
+		assert res != null : "Property resolver can not be null.";
+		assert id != null : "Default id can not be null.";
+		
+		resolver = res;
+		defaultId = id;
+	}
+	
+	/**
+	 * Returns a resolver that uses the specified id in place of the default id of the
+	 * resolver. If the resolver is a {@link BatchPropertyResolver} then the returned 
+	 * resolver will also be a {@link BatchPropertyResolver}.
+	 * 
+	 * @param res The resolver to wrap.
+	 * @param id The id to use in place of the default id.
+	 * 
+	 * @return the wrapped resolver.
+	 */
+	static PropertyResolver wrap(PropertyResolver res, String id) {
+		if (res instanceof BatchPropertyResolver) {
+			return new Batch((BatchPropertyResolver) res, id);
+		} else {
+			return new DefaultIdPropertyResolver(res, id);
+		}
+	}
+
+	/**
+	 * Returns the id used in place of the default id.
+	 * 
+	 * @return the id.
+	 */
+	String getDefaultId() {
+		return defaultId;
+	}
+
+	@Override
+	public void setProperty(String name, DataValue value) {
+		resolver.setProperty(defaultId, name, value);
+	}
+
+	@Override
+	public DataValue getProperty(String name) {
+		return resolver.getProperty(defaultId, name);
+	}
+
+	@Override
+	public boolean containsProperty(String name) {
+		return resolver.containsProperty(defaultId, name);
+	}
+
+	@Override
+	public boolean canBeSetTo(String name, DataType type) {
+		return resolver.canBeSetTo(defaultId, name, type);
+	}
+
+	@Override
+	public DataType dataType(String name) {
+		return resolver.dataType(defaultId, name);
+	}
+
+	@Override
+	public Collection<String> getPropertyNames() {
+		return resolver.getPropertyNames(defaultId);
+	}
+
+	@Override
+	public void setProperty(String id, String name, DataValue value) {
+		resolver.setProperty(id, name, value);
+	}
+
+	@Override
+	public DataValue getProperty(String id, String name) {
+		return resolver.getProperty(id, name);
+	}
+
+	@Override
+	public boolean containsProperty(String id, String name) {
+		return resolver.containsProperty(id, name);
+	}
+
+	@Override
+	public boolean canBeSetTo(String id, String name, DataType type) {
+		return resolver.canBeSetTo(id, name, type);
+	}
+
+	@Override
+	public DataType dataType(String id, String name) {
+		return resolver.dataType(id, name);
+	}
+
+	@Override
+	public Collection<String> getPropertyNames(String id) {
+		return resolver.getPropertyNames(id);
+	}
+
+	@Override
+	public long getPropertyVersion(String name) {
+		return getPropertyVersion(defaultId, name);
+	}
+
+	@Override
+	public long getPropertyVersion(String id, String name) {
+		if (resolver instanceof VersionedPropertyResolver) {
+			return ((VersionedPropertyResolver) resolver).getPropertyVersion(id, name);
+		}
+		
+		return SymbolTable.NO_VERSION;
+	}
+
+	@Override
+	public boolean hasDefaultId() {
+		return true;
+	}
+
+	@Override
+	public boolean hasId(String id) {
+		return resolver.hasId(id);
+	}
+	
+	/**
+	 * DefaultIdPropertyResolver for resolvers that are {@link BatchPropertyResolver}s.
+	 */
+	private static class Batch extends DefaultIdPropertyResolver implements BatchPropertyResolver {
+		
+		/** The resolver that is wrapped. */
+		private final BatchPropertyResolver batchResolver;
+		
+		/** The id used in place of the default id. */
+		private final String batchDefaultId;
+		
+		/**
+		 * Creates a new Batch resolver.
+		 * 
+		 * @param res The resolver to wrap.
+		 * @param id The id to use in place of the default id.
+		 */
+		private Batch(BatchPropertyResolver res, String id) {
+			super(res, id);
+			batchResolver = res;
+			batchDefaultId = id;
+		}
+
+		@Override
+		public Map<String, DataValue> getProperties(Collection<String> names) {
+			return batchResolver.getProperties(batchDefaultId, names);
+		}
+
+		@Override
+		public Map<String, DataValue> getProperties(String id, Collection<String> names) {
+			return batchResolver.getProperties(id, names);
+		}
+
+		@Override
+		public void setProperties(Map<String, DataValue> values) {
+			batchResolver.setProperties(batchDefaultId, values);
+		}
+
+		@Override
+		public void setProperties(String id, Map<String, DataValue> values) {
+			batchResolver.setProperties(id, values);
+		}
+	}
+}
@@ -16,6 +16,7 @@ package net.rptools.parser.symboltable;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -28,13 +29,19 @@ import net.rptools.lib.datavalue.DataType;
  * the properties to any other object.
  * 
  */
-class DefaultPropertyResolver implements PropertyResolver {
+class DefaultPropertyResolver implements VersionedPropertyResolver {
 
 	/** The id that will be used as the default id. */
 	public final static String NO_ID = "";
 	
 	/** The storage for the properties. */
 	private final Map<String, Map<String, DataValue>> allPropeties = new LinkedHashMap<>();
+	
+	/** The versions of the properties that have been set, mapped by id and name. */
+	private final Map<String, Map<String, Long>> allVersions = new HashMap<>();
+	
+	/** The last version given to a property. */
+	private long lastVersion;
 
 	@Override
 	public void setProperty(String name, DataValue value) {
@@ -83,6 +90,13 @@ class DefaultPropertyResolver implements PropertyResolver {
 		if (canBeSetTo(id, name, value.dataType())) {
 			Map<String, DataValue> properties = getOrCreatePropertyMap(id);
 			properties.put(name, value);
+			
+			Map<String, Long> versions = allVersions.get(id);
+			if (versions == null) {
+				versions = new HashMap<>();
+				allVersions.put(id, versions);
+			}
+			versions.put(name, ++lastVersion);
 		} else {
 			throw new IllegalArgumentException("Property " + name + " can not be set to a " + value.dataType().toString());
 		}		
@@ -150,6 +164,35 @@ class DefaultPropertyResolver implements PropertyResolver {
 		return Collections.unmodifiableCollection(properties.keySet());
 	}
 
+	@Override
+	public long getPropertyVersion(String name) {
+		return getPropertyVersion(NO_ID, name);
+	}
+
+	@Override
+	public long getPropertyVersion(String id, String name) {
+		if (id == null) {
+			throw new NullPointerException("Id of property holder can not be null.");
+		}
+		
+		if (name == null) {
+			throw new NullPointerException("Property name can not be null.");
+		}
+		
+		Map<String, Long> versions = allVersions.get(id);
+		Long version = versions == null ? null : versions.get(name);
+		return version == null ? 0 : version;
+	}
+
+	/**
+	 * Removes all the properties for all ids. The versions given to properties set 
+	 * afterwards carry on from the last version.
+	 */
+	void clear() {
+		allPropeties.clear();
+		allVersions.clear();
+	}
+
 	/**
 	 * Returns the property map for the specified id. If there is no 
 	 * property map for the specified then one will be created and 
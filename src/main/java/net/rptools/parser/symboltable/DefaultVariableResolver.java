@@ -16,6 +16,7 @@ package net.rptools.parser.symboltable;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -27,10 +28,16 @@ import net.rptools.lib.datavalue.DataValue;
  * the variables to any other object.
  * 
  */
-class DefaultVariableResolver implements VariableResolver {
+class DefaultVariableResolver implements VersionedVariableResolver {
 
 	/** The variables. */
 	private final Map<String, DataValue> variables = new LinkedHashMap<>();
+	
+	/** The versions of the variables that have been set. */
+	private final Map<String, Long> versions = new HashMap<>();
+	
+	/** The last version given to a variable. */
+	private long lastVersion;
 
 	@Override
 	public void setVariable(String name, DataValue value) {
@@ -39,6 +46,7 @@ class DefaultVariableResolver implements VariableResolver {
 		}
 
 		variables.put(name, value);
+		versions.put(name, ++lastVersion);
 	}
 
 	@Override
@@ -64,6 +72,25 @@ class DefaultVariableResolver implements VariableResolver {
 		return Collections.unmodifiableCollection(variables.keySet());
 	}
 
+	@Override
+	public long getVariableVersion(String name) {
+		if (name == null) {
+			throw new NullPointerException("Variable name can not be null.");
+		}
+
+		Long version = versions.get(name);
+		return version == null ? 0 : version;
+	}
+	
+	/**
+	 * Removes all the variables. The versions given to variables set afterwards carry on 
+	 * from the last version so they are never mistaken for versions from before the clear.
+	 */
+	void clear() {
+		variables.clear();
+		versions.clear();
+	}
+
 
 
 }
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * Interface for receiving the roll results and label values added to a {@link SymbolTable}
+ * as they are added, whatever its {@link HistoryPolicy} keeps. Listeners are called on the 
+ * thread evaluating the script so they should return quickly. Values added in a transaction 
+ * are delivered in order when the transaction is committed, and are never delivered if it is 
+ * rolled back.
+ */
+public interface HistoryListener {
+
+	/**
+	 * Called when a roll result is added to the symbol table.
+	 * 
+	 * @param contextId The id of the context that made the roll.
+	 * @param name The name of the roll.
+	 * @param result The result of the roll.
+	 */
+	public void rollResultAdded(long contextId, String name, DataValue result);
+	
+	/**
+	 * Called when a value is added to a label in the symbol table.
+	 * 
+	 * @param contextId The id of the context that set the label.
+	 * @param name The name of the label.
+	 * @param value The value for the label.
+	 */
+	public void labelAdded(long contextId, String name, DataValue value);
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+/**
+ * Describes how many of the roll results or label values a {@link SymbolTable} keeps. 
+ * Symbol tables for long lived contexts should use a bounded policy, or {@link #NONE} with a
+ * {@link HistoryListener} to stream the values to where they are needed instead.
+ */
+public final class HistoryPolicy {
+
+	/** The value used for a limit when there is no limit. */
+	public static final int NO_LIMIT = -1;
+	
+	/** Keeps every value, this is the default. */
+	public static final HistoryPolicy UNBOUNDED = new HistoryPolicy(NO_LIMIT, NO_LIMIT);
+	
+	/** Keeps no values. */
+	public static final HistoryPolicy NONE = new HistoryPolicy(NO_LIMIT, 0);
+	
+	/** The maximum number of values kept for each name. */
+	private final int perNameLimit;
+	
+	/** The maximum number of values kept for all names. */
+	private final int totalLimit;
+	
+	/**
+	 * Creates a new HistoryPolicy.
+	 * 
+	 * @param perName The maximum number of values kept for each name or {@link #NO_LIMIT}.
+	 * @param total The maximum number of values kept for all names or {@link #NO_LIMIT}.
+	 */
+	private HistoryPolicy(int perName, int total) {
+		perNameLimit = perName;
+		totalLimit = total;
+	}
+	
+	/**
+	 * Returns a policy that keeps the last values added for each name, older values for 
+	 * the name are discarded.
+	 * 
+	 * @param count The number of values to keep for each name.
+	 * 
+	 * @return the policy.
+	 * 
+	 * @throws IllegalArgumentException if count is less than 1.
+	 */
+	public static HistoryPolicy lastPerName(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Number of values to keep must be at least 1.");
+		}
+		
+		return new HistoryPolicy(count, NO_LIMIT);
+	}
+	
+	/**
+	 * Returns a policy that keeps the last values added for any name in a ring buffer, when
+	 * the buffer is full the oldest value is discarded whatever its name.
+	 * 
+	 * @param capacity The number of values to keep.
+	 * 
+	 * @return the policy.
+	 * 
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 */
+	public static HistoryPolicy ringBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Ring buffer capacity must be at least 1.");
+		}
+		
+		return new HistoryPolicy(NO_LIMIT, capacity);
+	}
+	
+	/**
+	 * Returns the maximum number of values kept for each name.
+	 * 
+	 * @return the maximum number of values or {@link #NO_LIMIT}.
+	 */
+	public int getPerNameLimit() {
+		return perNameLimit;
+	}
+	
+	/**
+	 * Returns the maximum number of values kept for all names.
+	 * 
+	 * @return the maximum number of values or {@link #NO_LIMIT}.
+	 */
+	public int getTotalLimit() {
+		return totalLimit;
+	}
+	
+	/**
+	 * Checks if any values are kept.
+	 * 
+	 * @return true if values are kept.
+	 */
+	public boolean isRetaining() {
+		return totalLimit != 0;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj instanceof HistoryPolicy == false) {
+			return false;
+		}
+		HistoryPolicy other = (HistoryPolicy) obj;
+		return perNameLimit == other.perNameLimit && totalLimit == other.totalLimit;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * perNameLimit + totalLimit;
+	}
+
+	@Override
+	public String toString() {
+		if (totalLimit == 0) {
+			return "none";
+		} else if (totalLimit != NO_LIMIT) {
+			return "ring buffer of " + totalLimit;
+		} else if (perNameLimit != NO_LIMIT) {
+			return "last " + perNameLimit + " per name";
+		} else {
+			return "unbounded";
+		}
+	}
+}
@@ -20,12 +20,17 @@ import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataType;
 import net.rptools.lib.result.RollExpression;
 import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.random.RandomSource;
 
 /**
  * Interface that describes objects that can perform all the lookups and 
  * tracking of the different symbols.
  */
 public interface SymbolTable {
+	
+	/** The version returned for variables and properties whose version is not known. */
+	public static final long NO_VERSION = -1;
 
 	/**
 	 * Checks to see if the symbol table has the variable defined.
@@ -284,7 +289,8 @@ public interface SymbolTable {
 	/**
 	 * Adds a roll result to the symbol table. You can add multiple roll results
 	 * under the same name and the symbol table will keep track of all of them to support
-	 * grouping expressions. 
+	 * grouping expressions. How many of the results are kept depends on the 
+	 * {@link HistoryPolicy} of the symbol table.
 	 * 
 	 * @param name The name of the roll.
 	 * 
@@ -306,6 +312,19 @@ public interface SymbolTable {
 	 * @throws IllegalArgumentException if the roll expression does not exist.
 	 */
 	public DataValue resolveRoll(String name);
+	
+	/**
+	 * Resolves the named roll expression using a roll plan that has already been compiled
+	 * from it. Resolving a roll will automatically add the roll result to the symbol table.
+	 * 
+	 * @param name The name of the roll expression to resolve.
+	 * @param plan The roll plan compiled from the roll expression.
+	 * 
+	 * @return The result of the roll.
+	 * 
+	 * @throws NullPointerException if name or plan is null.
+	 */
+	public DataValue resolveRoll(String name, RollPlan plan);
 
 	/**
 	 * Checks to see if the the specified label exists in the symbol table.
@@ -332,7 +351,8 @@ public interface SymbolTable {
 	public Collection<DataValue> getLabels(String name);
 
 	/**
-	 * Adds a value to the label.
+	 * Adds a value to the label. How many of the values are kept depends on the 
+	 * {@link HistoryPolicy} of the symbol table.
 	 * 
 	 * @param name The name of the label.
 	 * @param value The value for the label.
@@ -373,4 +393,114 @@ public interface SymbolTable {
 	 */
 	public DataValue promptForValue(String name, String Description) throws ExpressionEvaluatorException;
 
+	/**
+	 * Starts a transaction. While the transaction is in progress variables and properties
+	 * that are set are held by the symbol table and are not passed on to the resolvers 
+	 * until {@link #commit()} is called. Reads of variables and properties return the values
+	 * set during the transaction.
+	 * 
+	 * @throws IllegalStateException if a transaction is already in progress.
+	 */
+	public void beginTransaction();
+	
+	/**
+	 * Checks to see if a transaction is in progress.
+	 * 
+	 * @return true if a transaction is in progress.
+	 */
+	public boolean isInTransaction();
+	
+	/**
+	 * Ends the current transaction and passes all the variables and properties set during
+	 * the transaction to the resolvers. If the resolvers are {@link BatchVariableResolver}
+	 * or {@link BatchPropertyResolver} then the values are passed as a single batch.
+	 * 
+	 * @throws IllegalStateException if there is no transaction in progress.
+	 */
+	public void commit();
+	
+	/**
+	 * Ends the current transaction discarding all the variables and properties set during
+	 * the transaction, along with any roll results and labels added during the transaction.
+	 * Does nothing if there is no transaction in progress.
+	 */
+	public void rollback();
+	
+	/**
+	 * Fetches the values of several properties for the default id and keeps them until
+	 * {@link #clearPrefetchedProperties()} is called, so that later reads of these properties
+	 * do not go to the property resolver. The values are only fetched if the property 
+	 * resolver is a {@link BatchPropertyResolver}, otherwise this method does nothing.
+	 * 
+	 * @param names The names of the properties to fetch.
+	 * 
+	 * @throws NullPointerException if names is null.
+	 */
+	public void prefetchProperties(Collection<String> names);
+	
+	/**
+	 * Discards the property values fetched by {@link #prefetchProperties(Collection)}.
+	 */
+	public void clearPrefetchedProperties();
+	
+	/**
+	 * Resets the symbol table so that it can be reused for an unrelated script. Any 
+	 * transaction in progress is rolled back and the roll expressions, roll results, labels
+	 * and prefetched properties are discarded. The variables and properties are also 
+	 * cleared if they are held by the default resolvers, variables and properties held by
+	 * resolvers that were supplied when the symbol table was built are left alone.
+	 */
+	public void reset();
+	
+	/**
+	 * Returns the version of a variable, which changes every time the variable changes.
+	 * 
+	 * @param name The name of the variable.
+	 * 
+	 * @return the version of the variable or {@link #NO_VERSION} if the variable resolver is
+	 *         not a {@link VersionedVariableResolver} or the variable has been set in the 
+	 *         current transaction.
+	 * 
+	 * @throws NullPointerException if name is null.
+	 */
+	public long getVariableVersion(String name);
+	
+	/**
+	 * Returns the version of a property for the default id, which changes every time the 
+	 * property changes.
+	 * 
+	 * @param name The name of the property.
+	 * 
+	 * @return the version of the property or {@link #NO_VERSION} if the property resolver is
+	 *         not a {@link VersionedPropertyResolver} or the property has been set in the 
+	 *         current transaction.
+	 * 
+	 * @throws NullPointerException if name is null.
+	 */
+	public long getPropertyVersion(String name);
+	
+	/**
+	 * Returns the version of a property for the specified id, which changes every time the 
+	 * property changes.
+	 * 
+	 * @param id The id for the property set.
+	 * @param name The name of the property.
+	 * 
+	 * @return the version of the property or {@link #NO_VERSION} if the property resolver is
+	 *         not a {@link VersionedPropertyResolver} or the property has been set in the 
+	 *         current transaction.
+	 * 
+	 * @throws NullPointerException if any of the parameters are null.
+	 */
+	public long getPropertyVersion(String id, String name);
+	
+	/**
+	 * Returns the source of the random numbers used to roll dice. Anything else that needs 
+	 * random numbers while evaluating, such as shuffling a list, should draw from this source 
+	 * so that seeded and replayed evaluations produce the same results.
+	 * 
+	 * @return the random source.
+	 */
+	public RandomSource getRandomSource();
+
 }
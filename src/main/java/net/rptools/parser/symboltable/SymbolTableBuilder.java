@@ -14,6 +14,13 @@
  */
 package net.rptools.parser.symboltable;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.rptools.parser.audit.RollAuditLog;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
+
 /**
  * Builder for a SymbolTable hiding the messy details.
  *
@@ -29,6 +36,27 @@ public class SymbolTableBuilder {
 	/** The prompt resolver. */
 	private PromptResolver promptResolver;
 	
+	/** The id used in place of the default id of the property resolver. */
+	private String defaultPropertyId;
+	
+	/** The source of random numbers for dice rolls. */
+	private RandomSource randomSource = ThreadLocalRandomSource.INSTANCE;
+	
+	/** The log rolls are audited to, null if rolls are not audited. */
+	private RollAuditLog rollAuditLog;
+	
+	/** The id of the context the symbol table belongs to. */
+	private long contextId;
+	
+	/** The policy for the roll results kept. */
+	private HistoryPolicy rollHistoryPolicy = HistoryPolicy.UNBOUNDED;
+	
+	/** The policy for the label values kept. */
+	private HistoryPolicy labelHistoryPolicy = HistoryPolicy.UNBOUNDED;
+	
+	/** The listeners that roll results and labels are streamed to. */
+	private final List<HistoryListener> historyListeners = new ArrayList<>();
+	
 	/**
 	 * Sets the variable resolver that will be used.
 	 * 
@@ -65,6 +93,124 @@ public class SymbolTableBuilder {
 		return this;
 	}
 	
+	/**
+	 * Sets the id that will be used in place of the default id of the property resolver, so
+	 * that properties read and set without an id use the properties for this id.
+	 * @param id The id to use as the default id or null to use the resolvers default id.
+	 * @return {@code this} so that the methods can be chained.
+	 */
+	public SymbolTableBuilder setDefaultPropertyId(String id) {
+		defaultPropertyId = id;
+		return this;
+	}
+	
+	/**
+	 * Sets the source of random numbers for dice rolls. The source is used as is, it is
+	 * not split.
+	 * 
+	 * @param source The source of random numbers.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 * 
+	 * @throws NullPointerException if source is null.
+	 */
+	public SymbolTableBuilder setRandomSource(RandomSource source) {
+		if (source == null) {
+			throw new NullPointerException("Random source can not be null.");
+		}
+		
+		randomSource = source;
+		return this;
+	}
+	
+	/**
+	 * Sets the log that every roll is written to.
+	 * 
+	 * @param auditLog The roll audit log.
+	 * @param contextId The id of the context the rolls are made by.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 * 
+	 * @throws NullPointerException if auditLog is null.
+	 */
+	public SymbolTableBuilder setRollAuditLog(RollAuditLog auditLog, long contextId) {
+		if (auditLog == null) {
+			throw new NullPointerException("Roll audit log can not be null.");
+		}
+		
+		rollAuditLog = auditLog;
+		this.contextId = contextId;
+		return this;
+	}
+	
+	/**
+	 * Sets the id of the context the symbol table belongs to, which is passed to the 
+	 * {@link HistoryListener}s.
+	 * 
+	 * @param id The id of the context.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 */
+	public SymbolTableBuilder setContextId(long id) {
+		contextId = id;
+		return this;
+	}
+	
+	/**
+	 * Sets the policy for the roll results kept by the symbol table.
+	 * 
+	 * @param policy The policy for the roll results.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 * 
+	 * @throws NullPointerException if policy is null.
+	 */
+	public SymbolTableBuilder setRollHistoryPolicy(HistoryPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Roll history policy can not be null.");
+		}
+		
+		rollHistoryPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Sets the policy for the label values kept by the symbol table.
+	 * 
+	 * @param policy The policy for the label values.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 * 
+	 * @throws NullPointerException if policy is null.
+	 */
+	public SymbolTableBuilder setLabelHistoryPolicy(HistoryPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("Label history policy can not be null.");
+		}
+		
+		labelHistoryPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Adds a listener that the roll results and label values are streamed to as they are
+	 * added to the symbol table.
+	 * 
+	 * @param listener The listener to add.
+	 * 
+	 * @return {@code this} so that the methods can be chained.
+	 * 
+	 * @throws NullPointerException if listener is null.
+	 */
+	public SymbolTableBuilder addHistoryListener(HistoryListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("History listener can not be null.");
+		}
+		
+		historyListeners.add(listener);
+		return this;
+	}
+	
 	/**
 	 * Returns a SynbolTable with the values from this builder.
 	 * 
@@ -83,6 +229,13 @@ public class SymbolTableBuilder {
 			promptResolver = new DefaultPromptResolver();
 		}
 		
-		return new SymbolTableImpl(variableResolver, propertyResolver, promptResolver);
+		PropertyResolver propResolver = propertyResolver;
+		if (defaultPropertyId != null) {
+			propResolver = DefaultIdPropertyResolver.wrap(propertyResolver, defaultPropertyId);
+		}
+		
+		return new SymbolTableImpl(variableResolver, propResolver, promptResolver, randomSource, rollAuditLog, 
+				contextId, rollHistoryPolicy, labelHistoryPolicy, 
+				historyListeners.toArray(new HistoryListener[historyListeners.size()]));
 	}
 }
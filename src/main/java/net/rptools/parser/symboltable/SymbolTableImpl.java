@@ -18,7 +18,9 @@ package net.rptools.parser.symboltable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -26,7 +28,11 @@ import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataType;
 import net.rptools.lib.result.RollExpression;
 import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.audit.RollAuditLog;
 import net.rptools.parser.functions.DiceRoller;
+import net.rptools.parser.functions.RollFaces;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.random.RandomSource;
 
 /**
  * SymbolTableImpl the SymbolTable and provides a default implementation that should be 
@@ -45,74 +51,169 @@ class SymbolTableImpl implements SymbolTable {
 	private final PromptResolver promptResolver;
 		
 	/** The roll results defined. */
-	private final Map<String, List<DataValue>> rollResults = new LinkedHashMap<>();
+	private final ValueHistory rollResults;
 
 	/** The roll expression defined. */
 	private final Map<String, RollExpression> rollExpressions = new LinkedHashMap<>();
 	
 	/** The label defined. */
-	private final Map<String, List<DataValue>> labels = new LinkedHashMap<>();
+	private final ValueHistory labels;
 	
+	/** The listeners that the roll results and labels are streamed to. */
+	private final HistoryListener[] historyListeners;
+	
+	/** The variables set in the current transaction, null if there is no transaction. */
+	private Map<String, DataValue> pendingVariables;
+	
+	/** The properties for the default id set in the current transaction. */
+	private Map<String, DataValue> pendingProperties;
+	
+	/** The properties for other ids set in the current transaction, mapped by id. */
+	private Map<String, Map<String, DataValue>> pendingIdProperties;
+	
+	/** 
+	 * The roll results and labels added in the current transaction that have not been 
+	 * delivered to the listeners yet.
+	 */
+	private List<HistoryEvent> pendingHistory;
+	
+	/** The mark of the roll results when the current transaction started. */
+	private long rollResultMark;
+	
+	/** The mark of the labels when the current transaction started. */
+	private long labelMark;
+	
+	/** The properties for the default id fetched before evaluation. */
+	private final Map<String, DataValue> prefetchedProperties = new HashMap<>();
+	
+	
+	/** Temporary Dice Roller will be replace later. */
+	// TODO
+	private final DiceRoller diceRoller;
+	
+	/** The source of random numbers for dice rolls. */
+	private final RandomSource randomSource;
+	
+	/** The log rolls are audited to, null if rolls are not audited. */
+	private final RollAuditLog rollAuditLog;
+	
+	/** The id of the context the symbol table belongs to. */
+	private final long contextId;
 	
 	/**
 	 * Creates a new SymbolTableImpl.
 	 * 
 	 * @param variableResolver The variable resolver to use.
 	 * @param propertyResolver The property resolver to use.
+	 * @param promptResolver The prompt resolver to use.
+	 * @param randomSource The source of random numbers for dice rolls.
+	 * @param auditLog The log rolls are audited to or null.
+	 * @param contextId The id of the context the symbol table belongs to.
+	 * @param rollPolicy The policy for the roll results kept.
+	 * @param labelPolicy The policy for the label values kept.
+	 * @param listeners The listeners that roll results and labels are streamed to.
 	 */
 	SymbolTableImpl(VariableResolver variableResolver, PropertyResolver propertyResolver, 
-				   PromptResolver promptResolver) {
+				   PromptResolver promptResolver, RandomSource randomSource, RollAuditLog auditLog,
+				   long contextId, HistoryPolicy rollPolicy, HistoryPolicy labelPolicy, 
+				   HistoryListener[] listeners) {
 		this.variableResolver = variableResolver;
 		this.propertyResolver = propertyResolver;
 		this.promptResolver = promptResolver;
+		this.diceRoller = new DiceRoller(randomSource);
+		this.randomSource = randomSource;
+		this.rollAuditLog = auditLog;
+		this.contextId = contextId;
+		this.rollResults = new ValueHistory(rollPolicy);
+		this.labels = new ValueHistory(labelPolicy);
+		this.historyListeners = listeners;
 	}
-
-	/** Temporary Dice Roller will be replace later. */
-	// TODO
-	private final DiceRoller diceRoller = new DiceRoller();
 	
 	@Override
 	public boolean containsVariable(String name) {
+		if (pendingVariables != null && pendingVariables.containsKey(name)) {
+			return true;
+		}
 		return variableResolver.containsVariable(name);
 	}
 	
 	@Override
 	public DataValue getVariable(String name) {
+		if (pendingVariables != null && pendingVariables.containsKey(name)) {
+			return pendingVariables.get(name);
+		}
 		return variableResolver.getVariable(name);
 	}
 	
 	@Override
 	public void setVariable(String name, DataValue value) {
-		variableResolver.setVariable(name, value);
+		if (pendingVariables != null) {
+			if (name == null) {
+				throw new NullPointerException("Variable name can not be null.");
+			}
+			pendingVariables.put(name, value);
+		} else {
+			variableResolver.setVariable(name, value);
+		}
 	}
 	
 	@Override
 	public Collection<String> getVariableNames() {
-		return variableResolver.getVariableName();
+		if (pendingVariables == null || pendingVariables.isEmpty()) {
+			return variableResolver.getVariableName();
+		}
+		
+		Collection<String> names = new LinkedHashSet<>(variableResolver.getVariableName());
+		names.addAll(pendingVariables.keySet());
+		return Collections.unmodifiableCollection(names);
 	}
 
 
 	@Override
 	public boolean containsProperty(String name) {
+		if (pendingProperties != null && pendingProperties.containsKey(name)) {
+			return true;
+		}
+		if (prefetchedProperties.containsKey(name)) {
+			return true;
+		}
 		return propertyResolver.containsProperty(name);
 	}
 	
 
 	@Override
 	public DataValue getProperty(String name) {
+		if (pendingProperties != null && pendingProperties.containsKey(name)) {
+			return pendingProperties.get(name);
+		}
+		if (prefetchedProperties.containsKey(name)) {
+			return prefetchedProperties.get(name);
+		}
 		return propertyResolver.getProperty(name);
 	}
 	
 
 	@Override
 	public void setProperty(String name, DataValue value) {
-		propertyResolver.setProperty(name, value);
+		if (pendingProperties != null) {
+			checkPropertyValue(name, value, propertyResolver.canBeSetTo(name, value.dataType()));
+			pendingProperties.put(name, value);
+		} else {
+			propertyResolver.setProperty(name, value);
+			prefetchedProperties.remove(name);
+		}
 	}
 	
 
 	@Override
 	public Collection<String> getPropertyNames() {
-		return variableResolver.getVariableName();
+		if (pendingProperties == null || pendingProperties.isEmpty()) {
+			return propertyResolver.getPropertyNames();
+		}
+		
+		Collection<String> names = new LinkedHashSet<>(propertyResolver.getPropertyNames());
+		names.addAll(pendingProperties.keySet());
+		return Collections.unmodifiableCollection(names);
 	}
 	
 
@@ -150,32 +251,61 @@ class SymbolTableImpl implements SymbolTable {
 
 	@Override
 	public boolean containsRollResult(String name) {
-		return rollResults.containsKey(name);
+		return rollResults.contains(name);
 	}
 
 	
 	@Override
 	public Collection<DataValue> getRollResult(String name) {
-		return Collections.unmodifiableCollection(rollResults.get(name));
+		Collection<DataValue> results = rollResults.get(name);
+		return results == null ? Collections.<DataValue>emptyList() : results;
 	}
 	
 
 	@Override
 	public void addRollResult(String name, DataValue res) {
-		if (containsRollResult(name) == false) {
-			List<DataValue> list = new ArrayList<>();
-			rollResults.put(name, list);
+		if (name == null) {
+			throw new NullPointerException("Roll name can not be null.");
+		}
+		
+		rollResults.add(name, res);
+		if (pendingHistory != null && historyListeners.length > 0) {
+			pendingHistory.add(new HistoryEvent(true, name, res));
+		} else {
+			fireRollResultAdded(name, res);
 		}
-		List<DataValue> list = rollResults.get(name);
-		list.add(res);
 	}
 		
 
 	@Override
 	public DataValue resolveRoll(String name) {
 		RollExpression rexpr = getRollExpression(name);
+		if (rexpr == null) {
+			throw new IllegalArgumentException("Roll expression " + name + " does not exist.");
+		}
+		
+		return resolveRoll(name, RollPlan.compile(rexpr));
+	}
+	
+	@Override
+	public DataValue resolveRoll(String name, RollPlan plan) {
+		if (name == null) {
+			throw new NullPointerException("Roll name can not be null.");
+		}
+		
 		DataValue res;
-		res = diceRoller.roll(rexpr.getRollString(), rexpr.isVerbose());
+		if (rollAuditLog == null) {
+			res = diceRoller.roll(plan);
+		} else if (rollAuditLog.canAppendDice(plan) == false) {
+			// The dice would never fit in the log so only the total is logged, which also saves
+			// keeping every die of a huge roll that is not verbose.
+			res = diceRoller.roll(plan);
+			rollAuditLog.appendSummary(contextId, plan, res.asResult().getValue().asLong());
+		} else {
+			RollFaces faces = diceRoller.rollFaces(plan);
+			rollAuditLog.append(contextId, plan, faces);
+			res = diceRoller.toResult(plan, faces);
+		}
 		addRollResult(name, res);
 		
 		return res;
@@ -185,7 +315,7 @@ class SymbolTableImpl implements SymbolTable {
 
 	@Override
 	public boolean containsLabel(String name) {
-		return labels.containsKey(name);
+		return labels.contains(name);
 	}
 	
 
@@ -197,18 +327,22 @@ class SymbolTableImpl implements SymbolTable {
 
 	@Override
 	public void addLabel(String name, DataValue value) {
-		if (containsLabel(name) == false) {
-			List<DataValue> list = new ArrayList<>();
-			labels.put(name, list);
-		}		
-		List<DataValue> list = labels.get(name);
-		list.add(value);
+		if (name == null) {
+			throw new NullPointerException("Label name can not be null.");
+		}
+		
+		labels.add(name, value);
+		if (pendingHistory != null && historyListeners.length > 0) {
+			pendingHistory.add(new HistoryEvent(false, name, value));
+		} else {
+			fireLabelAdded(name, value);
+		}
 	}
 	
 
 	@Override
 	public Collection<String> getLabels() {
-		return Collections.unmodifiableCollection(labels.keySet());
+		return labels.names();
 	}
 
 	@Override
@@ -218,22 +352,62 @@ class SymbolTableImpl implements SymbolTable {
 
 	@Override
 	public boolean containsProperty(String id, String name) {
+		Map<String, DataValue> pending = getPendingProperties(id, false);
+		if (pending != null && pending.containsKey(name)) {
+			return true;
+		}
 		return propertyResolver.containsProperty(id, name);
 	}
 
 	@Override
 	public DataValue getProperty(String id, String name) {
+		Map<String, DataValue> pending = getPendingProperties(id, false);
+		if (pending != null && pending.containsKey(name)) {
+			return pending.get(name);
+		}
 		return propertyResolver.getProperty(id, name);
 	}
 
 	@Override
 	public void setProperty(String id, String name, DataValue value) {
-		propertyResolver.setProperty(id, name, value);
+		if (pendingIdProperties != null) {
+			checkPropertyValue(name, value, propertyResolver.canBeSetTo(id, name, value.dataType()));
+			getPendingProperties(id, true).put(name, value);
+		} else {
+			propertyResolver.setProperty(id, name, value);
+			if (mayBeDefaultId(id)) {
+				prefetchedProperties.remove(name);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if an id may be the default id of the property resolver, so that properties set
+	 * for it must no longer be read from the prefetched properties. Unless the default id was
+	 * set with {@link SymbolTableBuilder#setDefaultPropertyId(String)} it is not known, so any
+	 * id may be the default id of a resolver that has one.
+	 * 
+	 * @param id The id to check.
+	 * 
+	 * @return true if the id may be the default id.
+	 */
+	private boolean mayBeDefaultId(String id) {
+		if (propertyResolver instanceof DefaultIdPropertyResolver) {
+			return ((DefaultIdPropertyResolver) propertyResolver).getDefaultId().equals(id);
+		}
+		return propertyResolver.hasDefaultId();
 	}
 
 	@Override
 	public Collection<String> getPropertyNames(String id) {
-		return propertyResolver.getPropertyNames(id);
+		Map<String, DataValue> pending = getPendingProperties(id, false);
+		if (pending == null || pending.isEmpty()) {
+			return propertyResolver.getPropertyNames(id);
+		}
+		
+		Collection<String> names = new LinkedHashSet<>(propertyResolver.getPropertyNames(id));
+		names.addAll(pending.keySet());
+		return Collections.unmodifiableCollection(names);
 	}
 
 	@Override
@@ -257,4 +431,295 @@ class SymbolTableImpl implements SymbolTable {
 		return promptResolver.promptForValue(name, description);
 	}
 
+
+	@Override
+	public void beginTransaction() {
+		if (isInTransaction()) {
+			throw new IllegalStateException("Symbol table is already in a transaction.");
+		}
+		
+		pendingVariables = new LinkedHashMap<>();
+		pendingProperties = new LinkedHashMap<>();
+		pendingIdProperties = new LinkedHashMap<>();
+		pendingHistory = new ArrayList<>();
+		rollResultMark = rollResults.mark();
+		labelMark = labels.mark();
+	}
+
+	@Override
+	public boolean isInTransaction() {
+		return pendingVariables != null;
+	}
+
+	@Override
+	public void commit() {
+		if (isInTransaction() == false) {
+			throw new IllegalStateException("Symbol table is not in a transaction.");
+		}
+		
+		Map<String, DataValue> variables = pendingVariables;
+		Map<String, DataValue> properties = pendingProperties;
+		Map<String, Map<String, DataValue>> idProperties = pendingIdProperties;
+		List<HistoryEvent> history = pendingHistory;
+		endTransaction();
+		
+		if (variables.isEmpty() == false) {
+			if (variableResolver instanceof BatchVariableResolver) {
+				((BatchVariableResolver) variableResolver).setVariables(variables);
+			} else {
+				for (Map.Entry<String, DataValue> entry : variables.entrySet()) {
+					variableResolver.setVariable(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		
+		if (properties.isEmpty() == false) {
+			prefetchedProperties.keySet().removeAll(properties.keySet());
+			if (propertyResolver instanceof BatchPropertyResolver) {
+				((BatchPropertyResolver) propertyResolver).setProperties(properties);
+			} else {
+				for (Map.Entry<String, DataValue> entry : properties.entrySet()) {
+					propertyResolver.setProperty(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		
+		for (Map.Entry<String, Map<String, DataValue>> idEntry : idProperties.entrySet()) {
+			if (mayBeDefaultId(idEntry.getKey())) {
+				prefetchedProperties.keySet().removeAll(idEntry.getValue().keySet());
+			}
+			if (propertyResolver instanceof BatchPropertyResolver) {
+				((BatchPropertyResolver) propertyResolver).setProperties(idEntry.getKey(), idEntry.getValue());
+			} else {
+				for (Map.Entry<String, DataValue> entry : idEntry.getValue().entrySet()) {
+					propertyResolver.setProperty(idEntry.getKey(), entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		
+		for (HistoryEvent event : history) {
+			if (event.rollResult) {
+				fireRollResultAdded(event.name, event.value);
+			} else {
+				fireLabelAdded(event.name, event.value);
+			}
+		}
+	}
+
+	@Override
+	public void prefetchProperties(Collection<String> names) {
+		if (names == null) {
+			throw new NullPointerException("Property names can not be null.");
+		}
+		
+		if (names.isEmpty() == false && propertyResolver instanceof BatchPropertyResolver) {
+			prefetchedProperties.putAll(((BatchPropertyResolver) propertyResolver).getProperties(names));
+		}
+	}
+
+	@Override
+	public void clearPrefetchedProperties() {
+		prefetchedProperties.clear();
+	}
+
+	@Override
+	public void reset() {
+		rollback();
+		prefetchedProperties.clear();
+		rollResults.clear();
+		rollExpressions.clear();
+		labels.clear();
+		
+		if (variableResolver instanceof DefaultVariableResolver) {
+			((DefaultVariableResolver) variableResolver).clear();
+		}
+		
+		if (propertyResolver instanceof DefaultPropertyResolver) {
+			((DefaultPropertyResolver) propertyResolver).clear();
+		}
+	}
+
+	@Override
+	public long getVariableVersion(String name) {
+		if (name == null) {
+			throw new NullPointerException("Variable name can not be null.");
+		}
+		
+		if (pendingVariables != null && pendingVariables.containsKey(name)) {
+			return NO_VERSION;
+		}
+		
+		if (variableResolver instanceof VersionedVariableResolver) {
+			return ((VersionedVariableResolver) variableResolver).getVariableVersion(name);
+		}
+		
+		return NO_VERSION;
+	}
+
+	@Override
+	public long getPropertyVersion(String name) {
+		if (name == null) {
+			throw new NullPointerException("Property name can not be null.");
+		}
+		
+		if (pendingProperties != null && pendingProperties.containsKey(name)) {
+			return NO_VERSION;
+		}
+		
+		if (propertyResolver instanceof VersionedPropertyResolver) {
+			return ((VersionedPropertyResolver) propertyResolver).getPropertyVersion(name);
+		}
+		
+		return NO_VERSION;
+	}
+
+	@Override
+	public long getPropertyVersion(String id, String name) {
+		if (id == null) {
+			throw new NullPointerException("Id of property holder can not be null.");
+		}
+		
+		if (name == null) {
+			throw new NullPointerException("Property name can not be null.");
+		}
+		
+		Map<String, DataValue> pending = getPendingProperties(id, false);
+		if (pending != null && pending.containsKey(name)) {
+			return NO_VERSION;
+		}
+		
+		if (propertyResolver instanceof VersionedPropertyResolver) {
+			return ((VersionedPropertyResolver) propertyResolver).getPropertyVersion(id, name);
+		}
+		
+		return NO_VERSION;
+	}
+
+	@Override
+	public RandomSource getRandomSource() {
+		return randomSource;
+	}
+
+	@Override
+	public void rollback() {
+		if (isInTransaction()) {
+			rollResults.rollback(rollResultMark);
+			labels.rollback(labelMark);
+		}
+		endTransaction();
+	}
+	
+	/**
+	 * Ends the current transaction without applying or undoing any of its changes.
+	 */
+	private void endTransaction() {
+		pendingVariables = null;
+		pendingProperties = null;
+		pendingIdProperties = null;
+		pendingHistory = null;
+	}
+	
+	/**
+	 * Delivers a roll result to the listeners.
+	 * 
+	 * @param name The name of the roll.
+	 * @param result The result of the roll.
+	 */
+	private void fireRollResultAdded(String name, DataValue result) {
+		for (HistoryListener listener : historyListeners) {
+			listener.rollResultAdded(contextId, name, result);
+		}
+	}
+	
+	/**
+	 * Delivers a label value to the listeners.
+	 * 
+	 * @param name The name of the label.
+	 * @param value The value for the label.
+	 */
+	private void fireLabelAdded(String name, DataValue value) {
+		for (HistoryListener listener : historyListeners) {
+			listener.labelAdded(contextId, name, value);
+		}
+	}
+	
+	/**
+	 * Returns the properties set in the current transaction for the specified id.
+	 * 
+	 * @param id The id for the property set.
+	 * @param create Should the map be created if it does not exist.
+	 * 
+	 * @return the properties set in the transaction, or null if there are none and
+	 *         create is false.
+	 *         
+	 * @throws NullPointerException if id is null.
+	 */
+	private Map<String, DataValue> getPendingProperties(String id, boolean create) {
+		if (id == null) {
+			throw new NullPointerException("Id of property holder can not be null.");
+		}
+		
+		if (pendingIdProperties == null) {
+			return null;
+		}
+		
+		Map<String, DataValue> properties = pendingIdProperties.get(id);
+		if (properties == null && create) {
+			properties = new LinkedHashMap<>();
+			pendingIdProperties.put(id, properties);
+		}
+		
+		return properties;
+	}
+	
+	/**
+	 * Checks that a property can be set in a transaction, the same checks are performed
+	 * as when the property is set directly so that the script fails at the assignment
+	 * rather than when the transaction is committed.
+	 * 
+	 * @param name The name of the property.
+	 * @param value The value of the property.
+	 * @param canBeSet Can the property be set to the data type of the value.
+	 * 
+	 * @throws NullPointerException if name or value is null.
+	 * @throws IllegalArgumentException if the property can not be set to the value.
+	 */
+	private void checkPropertyValue(String name, DataValue value, boolean canBeSet) {
+		if (name == null) {
+			throw new NullPointerException("Property name can not be null.");
+		}
+		
+		if (canBeSet == false) {
+			throw new IllegalArgumentException("Property " + name + " can not be set to a " + value.dataType().toString());
+		}
+	}
+	
+	/**
+	 * A roll result or label value added in a transaction, waiting to be delivered to the 
+	 * listeners when the transaction is committed.
+	 */
+	private static final class HistoryEvent {
+		
+		/** Is the value a roll result rather than a label value. */
+		private final boolean rollResult;
+		
+		/** The name of the roll or label. */
+		private final String name;
+		
+		/** The value added. */
+		private final DataValue value;
+		
+		/**
+		 * Creates a new HistoryEvent.
+		 * 
+		 * @param roll Is the value a roll result rather than a label value.
+		 * @param eventName The name of the roll or label.
+		 * @param eventValue The value added.
+		 */
+		private HistoryEvent(boolean roll, String eventName, DataValue eventValue) {
+			rollResult = roll;
+			name = eventName;
+			value = eventValue;
+		}
+	}
 }
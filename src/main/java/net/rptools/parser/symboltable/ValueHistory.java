@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.rptools.lib.datavalue.DataValue;
+
+/**
+ * The values added under each name of the roll results or labels of a symbol table, 
+ * bounded by a {@link HistoryPolicy}. Values are numbered in the order they are added so
+ * that the values added since a mark can be removed when a transaction is rolled back.
+ */
+class ValueHistory {
+	
+	/**
+	 * A value added to the history.
+	 */
+	private static final class Entry {
+		
+		/** The name the value was added under. */
+		private final String name;
+		
+		/** The value. */
+		private final DataValue value;
+		
+		/** The number of the value in the order values were added. */
+		private final long sequence;
+		
+		/**
+		 * Creates a new Entry.
+		 * 
+		 * @param name The name the value was added under.
+		 * @param value The value.
+		 * @param sequence The number of the value in the order values were added.
+		 */
+		private Entry(String name, DataValue value, long sequence) {
+			this.name = name;
+			this.value = value;
+			this.sequence = sequence;
+		}
+	}
+	
+	/**
+	 * Read only view of the values kept for a name.
+	 */
+	private static final class ValuesView extends AbstractCollection<DataValue> {
+		
+		/** The entries for the name. */
+		private final ArrayDeque<Entry> entries;
+		
+		/**
+		 * Creates a new ValuesView.
+		 * 
+		 * @param entries The entries for the name.
+		 */
+		private ValuesView(ArrayDeque<Entry> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public Iterator<DataValue> iterator() {
+			final Iterator<Entry> iter = entries.iterator();
+			return new Iterator<DataValue>() {
+				@Override
+				public boolean hasNext() {
+					return iter.hasNext();
+				}
+
+				@Override
+				public DataValue next() {
+					return iter.next().value;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("Values can not be removed.");
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return entries.size();
+		}
+	}
+	
+	/** The policy for the values kept. */
+	private final HistoryPolicy policy;
+	
+	/** The values kept for each name, oldest first. */
+	private final Map<String, ArrayDeque<Entry>> values = new LinkedHashMap<>();
+	
+	/** The values kept for all names oldest first, null if there is no limit for all names. */
+	private final ArrayDeque<Entry> order;
+	
+	/** The number of the next value added. */
+	private long nextSequence;
+	
+	/**
+	 * Creates a new ValueHistory.
+	 * 
+	 * @param policy The policy for the values kept.
+	 */
+	ValueHistory(HistoryPolicy policy) {
+		this.policy = policy;
+		order = policy.getTotalLimit() > 0 ? new ArrayDeque<Entry>() : null;
+	}
+	
+	/**
+	 * Adds a value, discarding the oldest values if the policy requires it.
+	 * 
+	 * @param name The name to add the value under.
+	 * @param value The value to add.
+	 */
+	void add(String name, DataValue value) {
+		if (policy.isRetaining() == false) {
+			return;
+		}
+		
+		Entry entry = new Entry(name, value, nextSequence++);
+		ArrayDeque<Entry> entries = values.get(name);
+		if (entries == null) {
+			entries = new ArrayDeque<>();
+			values.put(name, entries);
+		}
+		entries.addLast(entry);
+		
+		if (policy.getPerNameLimit() != HistoryPolicy.NO_LIMIT && entries.size() > policy.getPerNameLimit()) {
+			entries.removeFirst();
+		}
+		
+		if (order != null) {
+			order.addLast(entry);
+			if (order.size() > policy.getTotalLimit()) {
+				Entry oldest = order.removeFirst();
+				ArrayDeque<Entry> oldestEntries = values.get(oldest.name);
+				oldestEntries.removeFirst();
+				if (oldestEntries.isEmpty()) {
+					values.remove(oldest.name);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks if any values are kept for a name.
+	 * 
+	 * @param name The name to check.
+	 * 
+	 * @return true if there are values for the name.
+	 */
+	boolean contains(String name) {
+		return values.containsKey(name);
+	}
+	
+	/**
+	 * Returns the values kept for a name, oldest first.
+	 * 
+	 * @param name The name to get the values for.
+	 * 
+	 * @return a read only view of the values or null if there are none.
+	 */
+	Collection<DataValue> get(String name) {
+		ArrayDeque<Entry> entries = values.get(name);
+		return entries == null ? null : new ValuesView(entries);
+	}
+	
+	/**
+	 * Returns the names that values are kept for.
+	 * 
+	 * @return the names in the order they were first added.
+	 */
+	Collection<String> names() {
+		return Collections.unmodifiableCollection(values.keySet());
+	}
+	
+	/**
+	 * Returns a mark that can be passed to {@link #rollback(long)} to remove the values
+	 * added after this call.
+	 * 
+	 * @return the mark.
+	 */
+	long mark() {
+		return nextSequence;
+	}
+	
+	/**
+	 * Removes the values added since the mark was taken. Older values discarded because of
+	 * the policy since the mark was taken are not restored.
+	 * 
+	 * @param mark The mark returned by {@link #mark()}.
+	 */
+	void rollback(long mark) {
+		Iterator<ArrayDeque<Entry>> iter = values.values().iterator();
+		while (iter.hasNext()) {
+			ArrayDeque<Entry> entries = iter.next();
+			while (entries.isEmpty() == false && entries.peekLast().sequence >= mark) {
+				entries.removeLast();
+			}
+			if (entries.isEmpty()) {
+				iter.remove();
+			}
+		}
+		
+		if (order != null) {
+			while (order.isEmpty() == false && order.peekLast().sequence >= mark) {
+				order.removeLast();
+			}
+		}
+	}
+	
+	/**
+	 * Removes all the values.
+	 */
+	void clear() {
+		values.clear();
+		if (order != null) {
+			order.clear();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+/**
+ * Interface describing a {@link PropertyResolver} that keeps a version stamp for each 
+ * property. The version of a property must change every time the value of the property 
+ * changes, this allows the results of scripts that read the property to be cached until
+ * it changes.
+ */
+public interface VersionedPropertyResolver extends PropertyResolver {
+
+	/**
+	 * Returns the version of a property for the default id. Properties that have not been
+	 * set also have a version which must change when they are set.
+	 * 
+	 * @param name The name of the property.
+	 * 
+	 * @return the version of the property or {@link SymbolTable#NO_VERSION} if the version
+	 *         is not known.
+	 * 
+	 * @throws NullPointerException if name is null.
+	 * @throws IllegalArgumentException if there is no default id.
+	 */
+	public long getPropertyVersion(String name);
+
+	/**
+	 * Returns the version of a property for the specified id. Properties that have not been
+	 * set also have a version which must change when they are set.
+	 * 
+	 * @param id The id for the property set.
+	 * @param name The name of the property.
+	 * 
+	 * @return the version of the property or {@link SymbolTable#NO_VERSION} if the version
+	 *         is not known.
+	 * 
+	 * @throws NullPointerException if any of the parameters are null.
+	 * @throws IllegalArgumentException if the id does not exist.
+	 */
+	public long getPropertyVersion(String id, String name);
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.symboltable;
+
+/**
+ * Interface describing a {@link VariableResolver} that keeps a version stamp for each 
+ * variable. The version of a variable must change every time the value of the variable 
+ * changes, this allows the results of scripts that read the variable to be cached until
+ * it changes.
+ */
+public interface VersionedVariableResolver extends VariableResolver {
+
+	/**
+	 * Returns the version of a variable. Variables that have not been set also have a 
+	 * version which must change when they are set.
+	 * 
+	 * @param name The name of the variable.
+	 * 
+	 * @return the version of the variable or {@link SymbolTable#NO_VERSION} if the version
+	 *         is not known.
+	 * 
+	 * @throws NullPointerException if name is null.
+	 */
+	public long getVariableVersion(String name);
+}
@@ -21,7 +21,7 @@ import net.rptools.parser.ScriptContext;
 /**
  * Script tree node to perform assignment to a property.
  */
-class AssignPropertyNode implements ScriptTreeNode {
+class AssignPropertyNode implements ColumnarNode {
 
 	/** The node of the expression. */
 	private final ScriptTreeNode child;
@@ -53,5 +53,31 @@ class AssignPropertyNode implements ScriptTreeNode {
 		return val;
 	}
 
-	
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		final DataValue[] vals = ColumnarEvaluator.evaluateColumn(child, contexts);
+		for (int i = 0; i < vals.length; i++) {
+			contexts[i].getSymbolTable().setProperty(propertyName, vals[i]);
+		}
+		return vals;
+	}
+
+	/**
+	 * Returns the node for the value being assigned.
+	 * 
+	 * @return the node for the value being assigned.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
+
+	/**
+	 * Returns the name of the property being assigned.
+	 * 
+	 * @return the name of the property.
+	 */
+	public String getPropertyName() {
+		return propertyName;
+	}
+
 }
@@ -21,7 +21,7 @@ import net.rptools.parser.ScriptContext;
 /**
  * Script tree node to perform assignment to a variable.
  */
-class AssignVariableNode implements ScriptTreeNode {
+class AssignVariableNode implements ColumnarNode {
 
 	/** The node for the child expression. */
 	private final ScriptTreeNode child;
@@ -54,5 +54,31 @@ class AssignVariableNode implements ScriptTreeNode {
 		return val;
 	}
 
-	
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] vals = ColumnarEvaluator.evaluateColumn(child, contexts);
+		for (int i = 0; i < vals.length; i++) {
+			contexts[i].getSymbolTable().setVariable(variableName, vals[i]);
+		}
+		return vals;
+	}
+
+	/**
+	 * Returns the node for the value being assigned.
+	 * 
+	 * @return the node for the value being assigned.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
+
+	/**
+	 * Returns the name of the variable being assigned.
+	 * 
+	 * @return the name of the variable.
+	 */
+	public String getVariableName() {
+		return variableName;
+	}
+
 }
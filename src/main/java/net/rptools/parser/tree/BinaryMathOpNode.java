@@ -21,7 +21,7 @@ import net.rptools.parser.ScriptContext;
 /**
  * Script node class that performs binary mathematical operations.
  */
-class BinaryMathOpNode implements ScriptTreeNode {
+class BinaryMathOpNode implements ColumnarNode {
 
 	/** The operation to perform. */
 	private Operation operation;
@@ -175,6 +175,30 @@ class BinaryMathOpNode implements ScriptTreeNode {
 		DataValue leftVal = leftChild.evaluate(context);
 		DataValue rightVal = rightChild.evaluate(context);
 		
+		return apply(leftVal, rightVal);
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] leftVals = ColumnarEvaluator.evaluateColumn(leftChild, contexts);
+		DataValue[] rightVals = ColumnarEvaluator.evaluateColumn(rightChild, contexts);
+		
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = apply(leftVals[i], rightVals[i]);
+		}
+		return results;
+	}
+	
+	/**
+	 * Applies the operation to two values.
+	 * 
+	 * @param leftVal The value on the left hand side of the operator.
+	 * @param rightVal The value on the right hand side of the operator.
+	 * 
+	 * @return the result of the operation.
+	 */
+	private DataValue apply(DataValue leftVal, DataValue rightVal) {
 		DataValue val = null;
 		
 		switch (operation) {
@@ -200,4 +224,31 @@ class BinaryMathOpNode implements ScriptTreeNode {
 		return val;
 	}
 
+	/**
+	 * Returns the operation performed.
+	 * 
+	 * @return the operation performed.
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * Returns the left hand side of the operation.
+	 * 
+	 * @return the left hand side of the operation.
+	 */
+	public ScriptTreeNode getLeftChild() {
+		return leftChild;
+	}
+
+	/**
+	 * Returns the right hand side of the operation.
+	 * 
+	 * @return the right hand side of the operation.
+	 */
+	public ScriptTreeNode getRightChild() {
+		return rightChild;
+	}
+
 }
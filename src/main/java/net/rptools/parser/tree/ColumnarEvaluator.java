@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ScriptContext;
+
+/**
+ * Evaluates a compiled script against several contexts at once, column by column. Each 
+ * node is dispatched once for all the contexts rather than once per context. Nodes whose
+ * evaluation depends on the context in ways that can not be shared, such as repeat groups,
+ * dice rolls and prompts, are evaluated once for each context.
+ *
+ */
+public final class ColumnarEvaluator {
+
+	/** Stop instantiation. */
+	private ColumnarEvaluator() {
+	}
+
+	/**
+	 * Evaluates the script for each of the contexts. 
+	 * 
+	 * @param node The root node of the compiled script.
+	 * @param contexts The contexts to evaluate the script with.
+	 * 
+	 * @return the result for each context, in the same order as the contexts.
+	 * 
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the script for
+	 *         any of the contexts.
+	 * @throws NullPointerException if node or contexts are null.
+	 */
+	public static DataValue[] evaluate(ScriptTreeNode node, ScriptContext[] contexts)
+			throws ExpressionEvaluatorException {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		if (contexts == null) {
+			throw new NullPointerException("Script contexts can not be null.");
+		}
+		
+		return evaluateColumn(node, contexts);
+	}
+	
+	/**
+	 * Evaluates a node for each of the contexts, using the columnar evaluation of the node
+	 * if it has one.
+	 * 
+	 * @param node The node to evaluate.
+	 * @param contexts The contexts to evaluate the node with.
+	 * 
+	 * @return the result for each context, in the same order as the contexts.
+	 * 
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the node.
+	 */
+	static DataValue[] evaluateColumn(ScriptTreeNode node, ScriptContext[] contexts) 
+			throws ExpressionEvaluatorException {
+		if (node instanceof ColumnarNode) {
+			return ((ColumnarNode) node).evaluateColumn(contexts);
+		}
+		
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < contexts.length; i++) {
+			results[i] = node.evaluate(contexts[i]);
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Evaluates a node for the selected contexts only, this is used by nodes that choose 
+	 * which of their children to evaluate for each context.
+	 * 
+	 * @param node The node to evaluate.
+	 * @param contexts The contexts to evaluate the node with.
+	 * @param selected Which of the contexts to evaluate the node for.
+	 * 
+	 * @return the result for each context, in the same order as the contexts, with null for
+	 *         the contexts that were not selected.
+	 * 
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the node.
+	 */
+	static DataValue[] evaluateSelected(ScriptTreeNode node, ScriptContext[] contexts, boolean[] selected)
+			throws ExpressionEvaluatorException {
+		int count = 0;
+		for (boolean s : selected) {
+			if (s) {
+				count++;
+			}
+		}
+		
+		DataValue[] results = new DataValue[contexts.length];
+		if (count == contexts.length) {
+			return evaluateColumn(node, contexts);
+		} else if (count == 0) {
+			return results;
+		}
+		
+		ScriptContext[] subset = new ScriptContext[count];
+		for (int i = 0, j = 0; i < contexts.length; i++) {
+			if (selected[i]) {
+				subset[j++] = contexts[i];
+			}
+		}
+		
+		DataValue[] subsetResults = evaluateColumn(node, subset);
+		for (int i = 0, j = 0; i < contexts.length; i++) {
+			if (selected[i]) {
+				results[i] = subsetResults[j++];
+			}
+		}
+		
+		return results;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ScriptContext;
+
+/**
+ * Interface for script tree nodes that can evaluate themselves for several contexts at 
+ * once. The node is dispatched once and evaluates each of its children for all the 
+ * contexts before combining the results, rather than walking the whole tree once per 
+ * context.
+ *
+ */
+interface ColumnarNode extends ScriptTreeNode {
+
+	/**
+	 * Evaluates the node for each of the contexts.
+	 * 
+	 * @param contexts The contexts to evaluate the node with.
+	 * 
+	 * @return the result for each context, in the same order as the contexts.
+	 * 
+	 * @throws ExpressionEvaluatorException if an error occurs evaluating the node for 
+	 *         any of the contexts.
+	 */
+	DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException;
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ScriptContext;
+import net.rptools.parser.SourcePosition;
+
+/**
+ * Script node class that compares two values.
+ */
+class ComparisonNode implements ColumnarNode {
+
+	/** The comparison to perform. */
+	private final Operation operation;
+	
+	/** The child node left hand side of the operator. */
+	private final ScriptTreeNode leftChild;
+	
+	/** The child node on the right hand side of the operator. */
+	private final ScriptTreeNode rightChild;
+	
+	/** The position of the comparison in the script, null if it is not known. */
+	private final SourcePosition sourcePosition;
+
+	/**
+	 * Enumeration used for determining the comparison type. 
+	 */
+	public enum Operation {
+		/** The values are equal (==). */
+		EQUAL,
+		/** The values are not equal (!=). */
+		NOT_EQUAL,
+		/** The left value is less than the right (&lt;). */
+		LESS_THAN,
+		/** The left value is less than or equal to the right (&lt;=). */
+		LESS_THAN_OR_EQUAL,
+		/** The left value is greater than the right (&gt;). */
+		GREATER_THAN,
+		/** The left value is greater than or equal to the right (&gt;=). */
+		GREATER_THAN_OR_EQUAL
+	}
+	
+	/**
+	 * Creates a new ComparisonNode.
+	 * 
+	 * @param op The comparison operator.
+	 * @param left The left child node.
+	 * @param right The right child node.
+	 * 
+	 */
+	public ComparisonNode(Operation op, ScriptTreeNode left, ScriptTreeNode right) {
+		this(op, left, right, null);
+	}
+	
+	/**
+	 * Creates a new ComparisonNode.
+	 * 
+	 * @param op The comparison operator.
+	 * @param left The left child node.
+	 * @param right The right child node.
+	 * @param pos The position of the comparison in the script or null.
+	 * 
+	 */
+	public ComparisonNode(Operation op, ScriptTreeNode left, ScriptTreeNode right, SourcePosition pos) {
+		assert left != null : "Left hand child node can not be null";
+		assert right != null : "Right hand child node can not be null";
+		assert op != null : "Operation can not be null";
+
+		operation = op;
+		leftChild = left;
+		rightChild = right;
+		sourcePosition = pos;
+	}
+	
+	@Override
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		DataValue leftVal = leftChild.evaluate(context);
+		DataValue rightVal = rightChild.evaluate(context);
+		
+		return Conditions.valueOf(apply(leftVal, rightVal, context));
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] leftVals = ColumnarEvaluator.evaluateColumn(leftChild, contexts);
+		DataValue[] rightVals = ColumnarEvaluator.evaluateColumn(rightChild, contexts);
+		
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = Conditions.valueOf(apply(leftVals[i], rightVals[i], contexts[i]));
+		}
+		return results;
+	}
+	
+	/**
+	 * Applies the comparison to two values.
+	 * 
+	 * @param leftVal The value on the left hand side of the operator.
+	 * @param rightVal The value on the right hand side of the operator.
+	 * @param context The context the comparison is evaluated with, null when constants are 
+	 *        folded.
+	 * 
+	 * @return the result of the comparison.
+	 * 
+	 * @throws ExpressionEvaluatorException if the values can not be compared.
+	 */
+	private boolean apply(DataValue leftVal, DataValue rightVal, ScriptContext context) 
+			throws ExpressionEvaluatorException {
+		if (operation != Operation.EQUAL && operation != Operation.NOT_EQUAL 
+				&& Conditions.canCompare(leftVal, rightVal) == false) {
+			// Errors returned as values are reported to the user so skip the stack traces.
+			ExpressionEvaluatorException e = new ExpressionEvaluatorException(
+					Conditions.getCompareError(leftVal, rightVal), null, context == null || !context.isErrorsAsValues());
+			e.setSourcePositionIfAbsent(sourcePosition);
+			throw e;
+		}
+		
+		boolean val = false;
+		
+		switch (operation) {
+			case EQUAL:
+				val = Conditions.isEqual(leftVal, rightVal);
+				break;
+			case NOT_EQUAL:
+				val = !Conditions.isEqual(leftVal, rightVal);
+				break;
+			case LESS_THAN:
+				val = Conditions.compare(leftVal, rightVal) < 0;
+				break;
+			case LESS_THAN_OR_EQUAL:
+				val = Conditions.compare(leftVal, rightVal) <= 0;
+				break;
+			case GREATER_THAN:
+				val = Conditions.compare(leftVal, rightVal) > 0;
+				break;
+			case GREATER_THAN_OR_EQUAL:
+				val = Conditions.compare(leftVal, rightVal) >= 0;
+				break;
+		}
+		return val;
+	}
+
+	/**
+	 * Returns the comparison performed.
+	 * 
+	 * @return the comparison performed.
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * Returns the left hand side of the comparison.
+	 * 
+	 * @return the left hand side of the comparison.
+	 */
+	public ScriptTreeNode getLeftChild() {
+		return leftChild;
+	}
+
+	/**
+	 * Returns the right hand side of the comparison.
+	 * 
+	 * @return the right hand side of the comparison.
+	 */
+	public ScriptTreeNode getRightChild() {
+		return rightChild;
+	}
+	
+	/**
+	 * Returns the position of the comparison in the script.
+	 * 
+	 * @return the position or null if it is not known.
+	 */
+	public SourcePosition getSourcePosition() {
+		return sourcePosition;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ScriptContext;
+
+/**
+ * Script node class for the conditional (condition ? a : b) expression. Only the branch 
+ * selected by the condition is evaluated.
+ */
+class ConditionalNode implements ColumnarNode {
+
+	/** The node of the condition. */
+	private final ScriptTreeNode condition;
+	
+	/** The node evaluated when the condition is true. */
+	private final ScriptTreeNode trueChild;
+	
+	/** The node evaluated when the condition is false. */
+	private final ScriptTreeNode falseChild;
+
+	/**
+	 * Creates a new ConditionalNode.
+	 * 
+	 * @param cond The node of the condition.
+	 * @param whenTrue The node evaluated when the condition is true.
+	 * @param whenFalse The node evaluated when the condition is false.
+	 */
+	public ConditionalNode(ScriptTreeNode cond, ScriptTreeNode whenTrue, ScriptTreeNode whenFalse) {
+		assert cond != null : "Condition node can not be null";
+		assert whenTrue != null : "True child node can not be null";
+		assert whenFalse != null : "False child node can not be null";
+
+		condition = cond;
+		trueChild = whenTrue;
+		falseChild = whenFalse;
+	}
+	
+	@Override
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		if (Conditions.isTrue(condition.evaluate(context))) {
+			return trueChild.evaluate(context);
+		} else {
+			return falseChild.evaluate(context);
+		}
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] conds = ColumnarEvaluator.evaluateColumn(condition, contexts);
+		
+		boolean[] taken = new boolean[conds.length];
+		boolean[] notTaken = new boolean[conds.length];
+		for (int i = 0; i < conds.length; i++) {
+			taken[i] = Conditions.isTrue(conds[i]);
+			notTaken[i] = !taken[i];
+		}
+		
+		DataValue[] results = ColumnarEvaluator.evaluateSelected(trueChild, contexts, taken);
+		DataValue[] falseVals = ColumnarEvaluator.evaluateSelected(falseChild, contexts, notTaken);
+		for (int i = 0; i < results.length; i++) {
+			if (notTaken[i]) {
+				results[i] = falseVals[i];
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the node of the condition.
+	 * 
+	 * @return the node of the condition.
+	 */
+	public ScriptTreeNode getCondition() {
+		return condition;
+	}
+
+	/**
+	 * Returns the node evaluated when the condition is true.
+	 * 
+	 * @return the node evaluated when the condition is true.
+	 */
+	public ScriptTreeNode getTrueChild() {
+		return trueChild;
+	}
+
+	/**
+	 * Returns the node evaluated when the condition is false.
+	 * 
+	 * @return the node evaluated when the condition is false.
+	 */
+	public ScriptTreeNode getFalseChild() {
+		return falseChild;
+	}
+
+}
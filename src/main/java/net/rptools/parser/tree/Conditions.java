@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.lib.datavalue.DataValueFactory;
+
+/**
+ * Utility methods for the truth and comparison of values used by the conditional and 
+ * logical script nodes.
+ *
+ */
+final class Conditions {
+	
+	/** The value returned for a true condition. */
+	static final DataValue TRUE = DataValueFactory.booleanValue(true);
+	
+	/** The value returned for a false condition. */
+	static final DataValue FALSE = DataValueFactory.booleanValue(false);
+
+	/** Stop instantiation. */
+	private Conditions() {
+	}
+	
+	/**
+	 * Returns the value for a boolean.
+	 * 
+	 * @param b The boolean.
+	 * 
+	 * @return {@link #TRUE} or {@link #FALSE}.
+	 */
+	static DataValue valueOf(boolean b) {
+		return b ? TRUE : FALSE;
+	}
+	
+	/**
+	 * Returns if a value is considered true when used as a condition. Null, false, zero, 
+	 * empty strings, empty lists and empty dictionaries are false, everything else is true.
+	 * 
+	 * @param val The value to test.
+	 * 
+	 * @return true if the value is considered true.
+	 */
+	static boolean isTrue(DataValue val) {
+		switch (val.dataType()) {
+			case NULL:
+				return false;
+			case BOOLEAN:
+				return "true".equals(val.asString());
+			case LONG:
+				return val.asLong() != 0;
+			case DOUBLE:
+			case RESULT:
+				return val.asDouble() != 0.0;
+			case LIST:
+				return !val.asList().isEmpty();
+			case DICTIONARY:
+				return !val.asDictionary().isEmpty();
+			default:
+				return !val.asString().isEmpty();
+		}
+	}
+	
+	/**
+	 * Returns if a value is numeric and can be compared by number rather than as a string.
+	 * 
+	 * @param val The value to test.
+	 * 
+	 * @return true if the value is numeric.
+	 */
+	private static boolean isNumeric(DataValue val) {
+		DataType type = val.dataType();
+		return type == DataType.LONG || type == DataType.DOUBLE || type == DataType.RESULT;
+	}
+	
+	/**
+	 * Returns if two values are equal. Numeric values are equal if they have the same number, 
+	 * other values are equal if they have the same type and string value.
+	 * 
+	 * @param left The left hand value.
+	 * @param right The right hand value.
+	 * 
+	 * @return true if the values are equal.
+	 */
+	static boolean isEqual(DataValue left, DataValue right) {
+		if (isNumeric(left) && isNumeric(right)) {
+			return compareNumbers(left, right) == 0;
+		}
+		
+		return left.dataType() == right.dataType() && left.asString().equals(right.asString());
+	}
+	
+	/**
+	 * Checks if two values have an order that can be compared. Numeric values can be 
+	 * compared with each other, and other values with values of the same type. Values of 
+	 * other mixed types, such as a number and a string, have no order.
+	 * 
+	 * @param left The left hand value.
+	 * @param right The right hand value.
+	 * 
+	 * @return true if the values can be compared.
+	 */
+	static boolean canCompare(DataValue left, DataValue right) {
+		return (isNumeric(left) && isNumeric(right)) || left.dataType() == right.dataType();
+	}
+	
+	/**
+	 * Returns the message for values that can not be compared.
+	 * 
+	 * @param left The left hand value.
+	 * @param right The right hand value.
+	 * 
+	 * @return the message.
+	 * 
+	 * @see #canCompare(DataValue, DataValue)
+	 */
+	static String getCompareError(DataValue left, DataValue right) {
+		return "Can not compare the order of " + left.dataType() + " and " + right.dataType() + " values.";
+	}
+	
+	/**
+	 * Compares the order of two values. Numeric values are compared by number, other values
+	 * of the same type are compared by their string value.
+	 * 
+	 * @param left The left hand value.
+	 * @param right The right hand value.
+	 * 
+	 * @return a negative number, zero or a positive number if the left value is less than, 
+	 *         equal to or greater than the right.
+	 *         
+	 * @throws IllegalArgumentException if the values can not be compared.
+	 * 
+	 * @see #canCompare(DataValue, DataValue)
+	 */
+	static int compare(DataValue left, DataValue right) {
+		if (isNumeric(left) && isNumeric(right)) {
+			return compareNumbers(left, right);
+		} else if (left.dataType() == right.dataType()) {
+			return left.asString().compareTo(right.asString());
+		} else {
+			throw new IllegalArgumentException(getCompareError(left, right));
+		}
+	}
+	
+	/**
+	 * Compares the order of two numeric values.
+	 * 
+	 * @param left The left hand value.
+	 * @param right The right hand value.
+	 * 
+	 * @return a negative number, zero or a positive number if the left value is less than, 
+	 *         equal to or greater than the right.
+	 */
+	private static int compareNumbers(DataValue left, DataValue right) {
+		if (left.dataType() == DataType.LONG && right.dataType() == DataType.LONG) {
+			return Long.compare(left.asLong(), right.asLong());
+		} else {
+			return Double.compare(left.asDouble(), right.asDouble());
+		}
+	}
+}
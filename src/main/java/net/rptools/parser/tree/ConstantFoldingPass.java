@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.parser.ExpressionEvaluatorException;
+
+/**
+ * Optimization pass that evaluates the parts of a script that only depend on constants
+ * when the script is optimized rather than every time it is evaluated. Conditional 
+ * expressions with a constant condition are replaced by the branch that is taken, and
+ * logical operations whose constant left hand side decides the result are replaced by
+ * the result.
+ *
+ * Operations that fail when evaluated are left alone so that the error is still reported
+ * when the script is evaluated.
+ */
+public final class ConstantFoldingPass extends RewritePass {
+
+	/** The name of the pass. */
+	public static final String NAME = "constant-folding";
+
+	/**
+	 * Creates a new ConstantFoldingPass that runs at the 
+	 * {@link PassManager#DEFAULT_OPTIMIZATION_LEVEL}.
+	 */
+	public ConstantFoldingPass() {
+		super(NAME, PassManager.DEFAULT_OPTIMIZATION_LEVEL);
+	}
+
+	@Override
+	protected ScriptTreeNode rewrite(ScriptTreeNode node) {
+		if (node instanceof ConditionalNode) {
+			ConditionalNode cond = (ConditionalNode) node;
+			if (cond.getCondition() instanceof ConstantNode) {
+				boolean taken = Conditions.isTrue(((ConstantNode) cond.getCondition()).getValue());
+				return taken ? cond.getTrueChild() : cond.getFalseChild();
+			}
+		} else if (node instanceof LogicalNode) {
+			LogicalNode op = (LogicalNode) node;
+			if (op.getLeftChild() instanceof ConstantNode) {
+				boolean left = Conditions.isTrue(((ConstantNode) op.getLeftChild()).getValue());
+				if (left != op.isAnd()) {
+					return new ConstantNode(Conditions.valueOf(left));
+				} else if (op.getRightChild() instanceof ConstantNode) {
+					return fold(node);
+				}
+			}
+		} else if (node instanceof BinaryMathOpNode || node instanceof ComparisonNode || node instanceof NegateNode 
+				|| node instanceof NotNode) {
+			for (ScriptTreeNode child : ScriptTrees.getChildren(node)) {
+				if (!(child instanceof ConstantNode)) {
+					return node;
+				}
+			}
+			return fold(node);
+		}
+		
+		return node;
+	}
+	
+	/**
+	 * Evaluates a node whose children are all constants. None of the nodes folded use the 
+	 * script context when their children are constants so no context is needed.
+	 * 
+	 * @param node The node to evaluate.
+	 * 
+	 * @return a constant node with the result or the node itself if evaluating it fails.
+	 */
+	private static ScriptTreeNode fold(ScriptTreeNode node) {
+		try {
+			return new ConstantNode(node.evaluate(null));
+		} catch (ExpressionEvaluatorException | RuntimeException e) {
+			return node;
+		}
+	}
+}
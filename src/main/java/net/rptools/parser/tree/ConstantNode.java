@@ -14,6 +14,8 @@
  */
 package net.rptools.parser.tree;
 
+import java.util.Arrays;
+
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
 import net.rptools.parser.ScriptContext;
@@ -21,7 +23,7 @@ import net.rptools.parser.ScriptContext;
 /**
  * Script node that represents constants.
  */
-class ConstantNode implements ScriptTreeNode {
+class ConstantNode implements ColumnarNode {
 
 
 	/** The value of the constant. */
@@ -59,9 +61,37 @@ class ConstantNode implements ScriptTreeNode {
     public ConstantNode(boolean val) {
         value = DataValueFactory.booleanValue(val);
     }
+    
+	/**
+	 * Creates a new ConstantNode for a value computed when the script is optimized.
+	 * 
+	 * @param val The value of the constant.
+	 */
+	ConstantNode(DataValue val) {
+		assert val != null : "Constant value can not be null";
+
+		value = val;
+	}
+
 	@Override
 	public DataValue evaluate(ScriptContext context) {
 		return value;
 	}
 
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) {
+		DataValue[] results = new DataValue[contexts.length];
+		Arrays.fill(results, value);
+		return results;
+	}
+
+	/**
+	 * Returns the value of the constant.
+	 * 
+	 * @return the value of the constant.
+	 */
+	public DataValue getValue() {
+		return value;
+	}
+
 }
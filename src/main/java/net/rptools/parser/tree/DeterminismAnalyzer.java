@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.parser.functions.FunctionDispatcher;
+
+/**
+ * Checks whether a compiled script is deterministic, that is its result depends only on 
+ * the variables and properties it reads and evaluating it has no side effects. 
+ *
+ * Scripts that roll dice, prompt, read prepared script parameters, assign variables or
+ * properties, add labels or call functions that have not been marked as deterministic
+ * are not deterministic.
+ *
+ */
+public final class DeterminismAnalyzer {
+
+	/** Stop instantiation. */
+	private DeterminismAnalyzer() {
+	}
+
+	/**
+	 * Checks whether a compiled script is deterministic.
+	 * 
+	 * @param node The root node of the compiled script.
+	 * 
+	 * @return true if the script is deterministic.
+	 * 
+	 * @throws NullPointerException if node is null.
+	 */
+	public static boolean isDeterministic(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		return check(node);
+	}
+	
+	/**
+	 * Checks whether a node and all of its children are deterministic.
+	 * 
+	 * @param node The node to check.
+	 * 
+	 * @return true if the node and its children are deterministic.
+	 */
+	private static boolean check(ScriptTreeNode node) {
+		if (node instanceof RollNode || node instanceof PromptVariableNode || node instanceof ParameterNode 
+				|| node instanceof AssignVariableNode || node instanceof AssignPropertyNode 
+				|| node instanceof LabelNode) {
+			return false;
+		} else if (node instanceof RepeatGroupNode) {
+			RepeatGroupNode repeat = (RepeatGroupNode) node;
+			if (repeat.isPrompt() || repeat.getParameterSlot() >= 0) {
+				return false;
+			}
+		} else if (node instanceof FunctionCallNode) {
+			String name = ((FunctionCallNode) node).getFunctionName();
+			if (!FunctionDispatcher.getFunctionDispatcher().isFunctionDeterministic(name)) {
+				return false;
+			}
+		}
+		
+		for (ScriptTreeNode child : ScriptTrees.getChildren(node)) {
+			if (!check(child)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
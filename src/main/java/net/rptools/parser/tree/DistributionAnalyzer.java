@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.List;
+
+import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.functions.dice.DiceDistribution;
+
+/**
+ * Computes the exact probability distribution of a compiled script that is a single 
+ * expression made up of dice rolls, integer constants, addition, subtraction, multiplication
+ * and negation. Each roll in the expression is treated as independent.
+ *
+ */
+public final class DistributionAnalyzer {
+
+	/** Stop instantiation. */
+	private DistributionAnalyzer() {
+	}
+
+	/**
+	 * Computes the probability distribution of a compiled script.
+	 * 
+	 * @param node The root node of the compiled script.
+	 * 
+	 * @return the distribution.
+	 * 
+	 * @throws NullPointerException if node is null.
+	 * @throws IllegalArgumentException if the script is not a single expression that a 
+	 *         distribution can be computed for, or the distribution has too many outcomes.
+	 */
+	public static DiceDistribution analyze(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		if (node instanceof ScriptNode) {
+			List<ScriptTreeNode> statements = ((ScriptNode) node).getStatements();
+			if (statements.size() != 1) {
+				throw new IllegalArgumentException("Distribution can only be computed for a single expression.");
+			}
+			return distribution(statements.get(0));
+		}
+		
+		return distribution(node);
+	}
+	
+	/**
+	 * Computes the probability distribution of a node.
+	 * 
+	 * @param node The node.
+	 * 
+	 * @return the distribution.
+	 * 
+	 * @throws IllegalArgumentException if a distribution can not be computed for the node.
+	 */
+	private static DiceDistribution distribution(ScriptTreeNode node) {
+		if (node instanceof RollNode) {
+			RollPlan plan = ((RollNode) node).getRollPlan();
+			if (plan == null) {
+				throw new IllegalArgumentException("Invalid roll " + ((RollNode) node).getRollExpression().getRollString());
+			}
+			return DiceDistribution.ofRoll(plan);
+		} else if (node instanceof ConstantNode) {
+			DataValue value = ((ConstantNode) node).getValue();
+			if (value.dataType() != DataType.LONG) {
+				throw new IllegalArgumentException("Distribution can only be computed for integer constants.");
+			}
+			return DiceDistribution.constant(value.asLong());
+		} else if (node instanceof NegateNode) {
+			return distribution(((NegateNode) node).getChild()).negate();
+		} else if (node instanceof LabelNode) {
+			return distribution(((LabelNode) node).getChild());
+		} else if (node instanceof BinaryMathOpNode) {
+			BinaryMathOpNode op = (BinaryMathOpNode) node;
+			switch (op.getOperation()) {
+				case ADD:
+					return distribution(op.getLeftChild()).add(distribution(op.getRightChild()));
+				case SUBTRACT:
+					return distribution(op.getLeftChild()).subtract(distribution(op.getRightChild()));
+				case MULTIPLY:
+					return distribution(op.getLeftChild()).multiply(distribution(op.getRightChild()));
+				default:
+					throw new IllegalArgumentException("Distribution can not be computed for " + op.getOperation());
+			}
+		}
+		
+		throw new IllegalArgumentException("Distribution can only be computed for dice rolls, integer constants, +, - and *.");
+	}
+}
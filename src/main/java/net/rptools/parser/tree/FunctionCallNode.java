@@ -16,12 +16,14 @@ package net.rptools.parser.tree;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.parser.ExpressionEvaluatorException;
 import net.rptools.parser.ScriptContext;
+import net.rptools.parser.SourcePosition;
 import net.rptools.parser.functions.FunctionDispatcher;
 import net.rptools.parser.functions.ArgumentList;
 
@@ -29,7 +31,7 @@ import net.rptools.parser.functions.ArgumentList;
  * Script node that represents a function call.
  * 
  */
-class FunctionCallNode implements ScriptTreeNode {
+class FunctionCallNode implements ColumnarNode {
 
 	/** The argument list for the function call. */
 	private final FunctionArgumentList argumentList;
@@ -37,6 +39,9 @@ class FunctionCallNode implements ScriptTreeNode {
 	/** The name of the function to call. */
 	private final String name;
 	
+	/** The position of the function call in the script, null if it is not known. */
+	private final SourcePosition sourcePosition;
+	
 	
 	/**
 	 * Creates a new FunctionCallNode.
@@ -45,16 +50,30 @@ class FunctionCallNode implements ScriptTreeNode {
 	 * @param argList The argument list for the function.
 	 */
 	public FunctionCallNode(String funcName, FunctionArgumentList argList) {
+		this(funcName, argList, null);
+	}
+	
+	/**
+	 * Creates a new FunctionCallNode.
+	 * 
+	 * @param funcName the name of the function.
+	 * @param argList The argument list for the function.
+	 * @param pos The position of the function call in the script or null.
+	 */
+	public FunctionCallNode(String funcName, FunctionArgumentList argList, SourcePosition pos) {
 		assert funcName != null : "Function name can not be null";
 		assert argList != null : "Argument list node can not be null";
 
 		name = funcName;
 		argumentList = argList;
+		sourcePosition = pos;
 	}
 	
 	
 	@Override
 	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		context.countStep();
+
 		final List<DataValue> posArgs  = new ArrayList<>();
 		final Map<String, DataValue> namedArgs = new HashMap<>();
 
@@ -69,7 +88,53 @@ class FunctionCallNode implements ScriptTreeNode {
 
 		ArgumentList alist = new ArgumentList(posArgs, namedArgs);
 		
-		return FunctionDispatcher.getFunctionDispatcher().call(name, alist, context);	
+		try {
+			return FunctionDispatcher.getFunctionDispatcher().call(name, alist, context);
+		} catch (ExpressionEvaluatorException e) {
+			e.setSourcePositionIfAbsent(sourcePosition);
+			throw e;
+		}
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		for (ScriptContext context : contexts) {
+			context.countStep();
+		}
+		
+		final List<DataValue[]> posArgs = new ArrayList<>();
+		final Map<String, DataValue[]> namedArgs = new LinkedHashMap<>();
+		
+		for (ScriptFunctionArgument arg : argumentList.getPositionalArguments()) {
+			posArgs.add(ColumnarEvaluator.evaluateColumn(arg.getExpression(), contexts));
+		}
+		
+		for (String argName : argumentList.getArgumentNames()) {
+			ScriptFunctionArgument arg = argumentList.getArgument(argName);
+			namedArgs.put(argName, ColumnarEvaluator.evaluateColumn(arg.getExpression(), contexts));
+		}
+		
+		final DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < contexts.length; i++) {
+			final List<DataValue> args = new ArrayList<>(posArgs.size());
+			for (DataValue[] vals : posArgs) {
+				args.add(vals[i]);
+			}
+			
+			final Map<String, DataValue> named = new HashMap<>();
+			for (Map.Entry<String, DataValue[]> entry : namedArgs.entrySet()) {
+				named.put(entry.getKey(), entry.getValue()[i]);
+			}
+			
+			ArgumentList alist = new ArgumentList(args, named);
+			try {
+				results[i] = FunctionDispatcher.getFunctionDispatcher().call(name, alist, contexts[i]);
+			} catch (ExpressionEvaluatorException e) {
+				e.setSourcePositionIfAbsent(sourcePosition);
+				throw e;
+			}
+		}
+		return results;
 	}
 
 
@@ -92,4 +157,14 @@ class FunctionCallNode implements ScriptTreeNode {
 		return name;
 	}
 
+
+	/**
+	 * Returns the position of the function call in the script.
+	 * 
+	 * @return the position or null if it is not known.
+	 */
+	public SourcePosition getSourcePosition() {
+		return sourcePosition;
+	}
+
 }
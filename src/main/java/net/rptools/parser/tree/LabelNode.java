@@ -24,7 +24,7 @@ import net.rptools.parser.ScriptContext;
  * Script Node that represents the label operation.
  *
  */
-class LabelNode implements ScriptTreeNode {
+class LabelNode implements ColumnarNode {
 
 	/** The name of the label. */
 	private final String label;
@@ -56,7 +56,33 @@ class LabelNode implements ScriptTreeNode {
 
 		return DataValueFactory.labeledValue(val, new DataLabel(label, 0));
 	}
-	
-	
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		final DataValue[] results = ColumnarEvaluator.evaluateColumn(child, contexts);
+		for (int i = 0; i < results.length; i++) {
+			contexts[i].getSymbolTable().addLabel(label, results[i]);
+			results[i] = DataValueFactory.labeledValue(results[i], new DataLabel(label, 0));
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the node for the value being labeled.
+	 * 
+	 * @return the node for the value being labeled.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
+
+	/**
+	 * Returns the name of the label.
+	 * 
+	 * @return the name of the label.
+	 */
+	public String getLabel() {
+		return label;
+	}
 
 }
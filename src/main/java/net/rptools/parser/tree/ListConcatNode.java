@@ -26,7 +26,7 @@ import net.rptools.parser.ScriptContext;
  * Script node that represents list concatenation operator.
  *
  */
-class ListConcatNode implements ScriptTreeNode {
+class ListConcatNode implements ColumnarNode {
 
 	/** The left list to concatenate. */
 	private final ScriptTreeNode left;
@@ -56,13 +56,69 @@ class ListConcatNode implements ScriptTreeNode {
 		final DataValue l = left.evaluate(context);
 		final DataValue r = right.evaluate(context);
 		
-		final List<DataValue> lst = new ArrayList<DataValue>();
-		lst.addAll(l.asList());
-		lst.addAll(r.asList());
+		return concat(context, l, r);
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		final DataValue[] leftVals = ColumnarEvaluator.evaluateColumn(left, contexts);
+		final DataValue[] rightVals = ColumnarEvaluator.evaluateColumn(right, contexts);
 		
-		return DataValueFactory.listValue(lst);
+		final DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = concat(contexts[i], leftVals[i], rightVals[i]);
+		}
+		return results;
 	}
 	
-	
+	/**
+	 * Concatenates two lists.
+	 * 
+	 * @param context The context the lists are concatenated in.
+	 * @param l The left list.
+	 * @param r The right list.
+	 * 
+	 * @return the concatenated list.
+	 * 
+	 * @throws ExpressionEvaluatorException if the memory limit of the context is exceeded or
+	 *         the concatenated list would be too large to create.
+	 */
+	private static DataValue concat(ScriptContext context, DataValue l, DataValue r) 
+			throws ExpressionEvaluatorException {
+		final List<DataValue> leftList = l.asList();
+		final List<DataValue> rightList = r.asList();
+		// The sum of two list sizes can be larger than an int.
+		final long size = (long) leftList.size() + rightList.size();
+		context.reserveListElements(size);
+		if (size > Integer.MAX_VALUE - 8) {
+			// Errors returned as values are reported to the user so skip the stack traces.
+			throw new ExpressionEvaluatorException("Concatenated list of " + size + " elements is too large.", 
+					null, !context.isErrorsAsValues());
+		}
+		
+		final List<DataValue> lst = new ArrayList<DataValue>((int) size);
+		lst.addAll(leftList);
+		lst.addAll(rightList);
+		
+		return DataValueFactory.listValue(lst);
+	}
+
+	/**
+	 * Returns the left hand side of the concatenation.
+	 * 
+	 * @return the left hand side of the concatenation.
+	 */
+	public ScriptTreeNode getLeft() {
+		return left;
+	}
+
+	/**
+	 * Returns the right hand side of the concatenation.
+	 * 
+	 * @return the right hand side of the concatenation.
+	 */
+	public ScriptTreeNode getRight() {
+		return right;
+	}
 
 }
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ScriptContext;
+
+/**
+ * Script node class that performs the short circuit logical operations. The right hand side
+ * is only evaluated when the left hand side does not already decide the result.
+ */
+class LogicalNode implements ColumnarNode {
+
+	/** True if this is a logical and, false if it is a logical or. */
+	private final boolean and;
+	
+	/** The child node left hand side of the operator. */
+	private final ScriptTreeNode leftChild;
+	
+	/** The child node on the right hand side of the operator. */
+	private final ScriptTreeNode rightChild;
+
+	/**
+	 * Returns a script node that will perform a logical and (&amp;&amp;) of two values. 
+	 * 
+	 * @param left The left child.
+	 * @param right The right child.
+	 * 
+	 * @return the node.
+	 */
+	public static LogicalNode getAndNode(ScriptTreeNode left, ScriptTreeNode right) {
+		return new LogicalNode(true, left, right);
+	}
+
+	/**
+	 * Returns a script node that will perform a logical or (||) of two values. 
+	 * 
+	 * @param left The left child.
+	 * @param right The right child.
+	 * 
+	 * @return the node.
+	 */
+	public static LogicalNode getOrNode(ScriptTreeNode left, ScriptTreeNode right) {
+		return new LogicalNode(false, left, right);
+	}
+
+	/**
+	 * Creates a new LogicalNode.
+	 * 
+	 * @param isAnd True for a logical and, false for a logical or.
+	 * @param left The left child node.
+	 * @param right The right child node.
+	 */
+	private LogicalNode(boolean isAnd, ScriptTreeNode left, ScriptTreeNode right) {
+		assert left != null : "Left hand child node can not be null";
+		assert right != null : "Right hand child node can not be null";
+
+		and = isAnd;
+		leftChild = left;
+		rightChild = right;
+	}
+	
+	@Override
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		boolean leftVal = Conditions.isTrue(leftChild.evaluate(context));
+		if (leftVal != and) {
+			// false && x and true || x are decided without evaluating x.
+			return Conditions.valueOf(leftVal);
+		}
+		
+		return Conditions.valueOf(Conditions.isTrue(rightChild.evaluate(context)));
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] results = ColumnarEvaluator.evaluateColumn(leftChild, contexts);
+		
+		boolean[] undecided = new boolean[results.length];
+		for (int i = 0; i < results.length; i++) {
+			boolean leftVal = Conditions.isTrue(results[i]);
+			results[i] = Conditions.valueOf(leftVal);
+			undecided[i] = leftVal == and;
+		}
+		
+		DataValue[] rightVals = ColumnarEvaluator.evaluateSelected(rightChild, contexts, undecided);
+		for (int i = 0; i < results.length; i++) {
+			if (undecided[i]) {
+				results[i] = Conditions.valueOf(Conditions.isTrue(rightVals[i]));
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns if this is a logical and.
+	 * 
+	 * @return true for a logical and, false for a logical or.
+	 */
+	public boolean isAnd() {
+		return and;
+	}
+
+	/**
+	 * Returns the left hand side of the operation.
+	 * 
+	 * @return the left hand side of the operation.
+	 */
+	public ScriptTreeNode getLeftChild() {
+		return leftChild;
+	}
+
+	/**
+	 * Returns the right hand side of the operation.
+	 * 
+	 * @return the right hand side of the operation.
+	 */
+	public ScriptTreeNode getRightChild() {
+		return rightChild;
+	}
+
+}
@@ -22,7 +22,7 @@ import net.rptools.parser.ScriptContext;
  * Negates the child script tree node.
  *
  */
-class NegateNode implements ScriptTreeNode {
+class NegateNode implements ColumnarNode {
 
 	/** The child node to negate. */
 	private final ScriptTreeNode child;
@@ -44,7 +44,23 @@ class NegateNode implements ScriptTreeNode {
 		final DataValue val = child.evaluate(context);
 		return val.negate();
 	}
-	
-	
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		DataValue[] results = ColumnarEvaluator.evaluateColumn(child, contexts);
+		for (int i = 0; i < results.length; i++) {
+			results[i] = results[i].negate();
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the node for the value being negated.
+	 * 
+	 * @return the node for the value being negated.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
 
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+/**
+ * Interface for an optimization pass that rewrites a compiled script tree. Passes are run 
+ * in order by a {@link PassManager}.
+ *
+ * A pass must not change the result of evaluating the script, or its side effects, and
+ * must not modify the nodes of the tree it is given. Passes must be safe to run on several
+ * trees at the same time.
+ */
+public interface OptimizationPass {
+
+	/**
+	 * Returns the name of the pass, used when reporting statistics.
+	 * 
+	 * @return the name of the pass.
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the lowest optimization level that this pass is run at.
+	 * 
+	 * @return the optimization level.
+	 */
+	public int getOptimizationLevel();
+	
+	/**
+	 * Runs the pass over a tree.
+	 * 
+	 * @param root The root node of the tree.
+	 * 
+	 * @return the result of the pass.
+	 */
+	public Result run(ScriptTreeNode root);
+	
+	/**
+	 * The result of running an optimization pass.
+	 */
+	public static final class Result {
+		
+		/** The root node of the rewritten tree. */
+		private final ScriptTreeNode root;
+		
+		/** The number of nodes that were rewritten. */
+		private final int rewriteCount;
+		
+		/**
+		 * Creates a new Result.
+		 * 
+		 * @param newRoot The root node of the rewritten tree.
+		 * @param rewrites The number of nodes that were rewritten.
+		 * 
+		 * @throws NullPointerException if newRoot is null.
+		 * @throws IllegalArgumentException if rewrites is negative.
+		 */
+		public Result(ScriptTreeNode newRoot, int rewrites) {
+			if (newRoot == null) {
+				throw new NullPointerException("Root node can not be null.");
+			}
+			
+			if (rewrites < 0) {
+				throw new IllegalArgumentException("Rewrite count can not be negative.");
+			}
+			
+			root = newRoot;
+			rewriteCount = rewrites;
+		}
+		
+		/**
+		 * Returns the root node of the rewritten tree.
+		 * 
+		 * @return the root node.
+		 */
+		public ScriptTreeNode getRoot() {
+			return root;
+		}
+		
+		/**
+		 * Returns the number of nodes that were rewritten.
+		 * 
+		 * @return the number of nodes rewritten.
+		 */
+		public int getRewriteCount() {
+			return rewriteCount;
+		}
+	}
+}
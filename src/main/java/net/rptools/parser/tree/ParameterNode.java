@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ScriptContext;
+
+/**
+ * Represents the script tree node that reads a parameter of a prepared script.
+ *
+ */
+class ParameterNode implements ColumnarNode {
+
+	/** The slot of the parameter. */
+	private final int slot;
+	
+	/**
+	 * Creates a new ParameterNode.
+	 * 
+	 * @param paramSlot The slot of the parameter.
+	 */
+	public ParameterNode(int paramSlot) {
+		assert paramSlot >= 0 : "Parameter slot can not be negative.";
+		
+		slot = paramSlot;
+	}
+
+	@Override
+	public DataValue evaluate(ScriptContext context) {
+		return context.getParameter(slot);
+	}
+
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) {
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < contexts.length; i++) {
+			results[i] = contexts[i].getParameter(slot);
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns the slot of the parameter.
+	 * 
+	 * @return the slot of the parameter.
+	 */
+	public int getSlot() {
+		return slot;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PassManager runs an ordered pipeline of {@link OptimizationPass}es over compiled script
+ * trees. Only the passes whose optimization level is at or below the level of the manager
+ * are run, and statistics are kept for each pass so that they can be measured 
+ * independently.
+ *
+ */
+public final class PassManager {
+	
+	/** The optimization level at which no passes are run. */
+	public static final int NO_OPTIMIZATION = 0;
+	
+	/** The default optimization level. */
+	public static final int DEFAULT_OPTIMIZATION_LEVEL = 1;
+
+	/** The passes in the order they are run. */
+	private final List<OptimizationPass> passes = new ArrayList<>();
+	
+	/** The statistics for each pass. */
+	private final Map<OptimizationPass, PassStatistics> statistics = new IdentityHashMap<>();
+	
+	/** The optimization level. */
+	private int optimizationLevel = DEFAULT_OPTIMIZATION_LEVEL;
+	
+	/**
+	 * Returns a PassManager with the built in optimization passes.
+	 * 
+	 * @return the PassManager.
+	 */
+	public static PassManager createDefault() {
+		return new PassManager().addPass(new ConstantFoldingPass());
+	}
+	
+	/**
+	 * Adds a pass to the end of the pipeline.
+	 * 
+	 * @param pass The pass to add.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws NullPointerException if pass is null.
+	 */
+	public synchronized PassManager addPass(OptimizationPass pass) {
+		if (pass == null) {
+			throw new NullPointerException("Optimization pass can not be null.");
+		}
+		
+		passes.add(pass);
+		statistics.put(pass, new PassStatistics(pass.getName(), 0, 0, 0));
+		return this;
+	}
+	
+	/**
+	 * Sets the optimization level, passes with a higher level are not run.
+	 * 
+	 * @param level The optimization level.
+	 * 
+	 * @return {@code this} so that methods can be chained.
+	 * 
+	 * @throws IllegalArgumentException if level is negative.
+	 */
+	public synchronized PassManager setOptimizationLevel(int level) {
+		if (level < 0) {
+			throw new IllegalArgumentException("Optimization level can not be negative.");
+		}
+		
+		optimizationLevel = level;
+		return this;
+	}
+	
+	/**
+	 * Returns the optimization level.
+	 * 
+	 * @return the optimization level.
+	 */
+	public synchronized int getOptimizationLevel() {
+		return optimizationLevel;
+	}
+	
+	/**
+	 * Returns the passes in the order they are run.
+	 * 
+	 * @return the passes.
+	 */
+	public synchronized List<OptimizationPass> getPasses() {
+		return Collections.unmodifiableList(new ArrayList<>(passes));
+	}
+	
+	/**
+	 * Runs the passes enabled at the current optimization level over a tree.
+	 * 
+	 * @param root The root node of the tree.
+	 * 
+	 * @return the root node of the optimized tree.
+	 * 
+	 * @throws NullPointerException if root is null.
+	 */
+	public ScriptTreeNode optimize(ScriptTreeNode root) {
+		if (root == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		List<OptimizationPass> toRun;
+		synchronized (this) {
+			toRun = new ArrayList<>(passes.size());
+			for (OptimizationPass pass : passes) {
+				if (pass.getOptimizationLevel() <= optimizationLevel) {
+					toRun.add(pass);
+				}
+			}
+		}
+		
+		ScriptTreeNode node = root;
+		for (OptimizationPass pass : toRun) {
+			long start = System.nanoTime();
+			OptimizationPass.Result result = pass.run(node);
+			long elapsed = System.nanoTime() - start;
+			
+			synchronized (this) {
+				statistics.put(pass, statistics.get(pass).add(result.getRewriteCount(), elapsed));
+			}
+			node = result.getRoot();
+		}
+		
+		return node;
+	}
+	
+	/**
+	 * Returns the statistics for each pass, in the order the passes are run.
+	 * 
+	 * @return the statistics.
+	 */
+	public synchronized List<PassStatistics> getStatistics() {
+		List<PassStatistics> stats = new ArrayList<>(passes.size());
+		for (OptimizationPass pass : passes) {
+			stats.add(statistics.get(pass));
+		}
+		return Collections.unmodifiableList(stats);
+	}
+	
+	/**
+	 * Resets the statistics for all the passes.
+	 */
+	public synchronized void resetStatistics() {
+		for (OptimizationPass pass : passes) {
+			statistics.put(pass, new PassStatistics(pass.getName(), 0, 0, 0));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+/**
+ * The statistics collected by a {@link PassManager} for one of its optimization passes.
+ */
+public final class PassStatistics {
+
+	/** The name of the pass. */
+	private final String passName;
+	
+	/** The number of times the pass has been run. */
+	private final long runCount;
+	
+	/** The total number of nodes rewritten by the pass. */
+	private final long rewriteCount;
+	
+	/** The total time spent running the pass in nanoseconds. */
+	private final long elapsedNanos;
+	
+	/**
+	 * Creates a new PassStatistics.
+	 * 
+	 * @param name The name of the pass.
+	 * @param runs The number of times the pass has been run.
+	 * @param rewrites The total number of nodes rewritten by the pass.
+	 * @param nanos The total time spent running the pass in nanoseconds.
+	 */
+	PassStatistics(String name, long runs, long rewrites, long nanos) {
+		passName = name;
+		runCount = runs;
+		rewriteCount = rewrites;
+		elapsedNanos = nanos;
+	}
+	
+	/**
+	 * Returns the name of the pass.
+	 * 
+	 * @return the name of the pass.
+	 */
+	public String getPassName() {
+		return passName;
+	}
+	
+	/**
+	 * Returns the number of times the pass has been run.
+	 * 
+	 * @return the number of runs.
+	 */
+	public long getRunCount() {
+		return runCount;
+	}
+	
+	/**
+	 * Returns the total number of nodes rewritten by the pass.
+	 * 
+	 * @return the number of nodes rewritten.
+	 */
+	public long getRewriteCount() {
+		return rewriteCount;
+	}
+	
+	/**
+	 * Returns the total time spent running the pass.
+	 * 
+	 * @return the elapsed time in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	/**
+	 * Returns statistics that include one more run of the pass.
+	 * 
+	 * @param rewrites The number of nodes rewritten by the run.
+	 * @param nanos The time taken by the run in nanoseconds.
+	 * 
+	 * @return the updated statistics.
+	 */
+	PassStatistics add(long rewrites, long nanos) {
+		return new PassStatistics(passName, runCount + 1, rewriteCount + rewrites, elapsedNanos + nanos);
+	}
+	
+	@Override
+	public String toString() {
+		return passName + ": runs = " + runCount + ", rewrites = " + rewriteCount + ", time = " + 
+				elapsedNanos / 1000 + "us";
+	}
+}
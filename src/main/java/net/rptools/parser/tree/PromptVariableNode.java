@@ -40,9 +40,9 @@ class PromptVariableNode implements ScriptTreeNode {
 		
 		DataValue val;
 		if (prompt == null) {
-			val = context.getSymbolTable().promptForValue(variableName);
+			val = context.promptForValue(variableName, null);
 		} else {
-			val = context.getSymbolTable().promptForValue(variableName == null ? "Group" : variableName, prompt);
+			val = context.promptForValue(variableName == null ? "Group" : variableName, prompt);
 		}
 		
 		if (variableName != null) { 
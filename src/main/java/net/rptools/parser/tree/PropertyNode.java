@@ -21,7 +21,7 @@ import net.rptools.parser.ScriptContext;
  * Represents the script tree node that will retrieve property values.
  *
  */
-class PropertyNode implements ScriptTreeNode {
+class PropertyNode implements ColumnarNode {
 
 	/** The name of the property. */
 	private final String propertyName;
@@ -44,4 +44,22 @@ class PropertyNode implements ScriptTreeNode {
 		return context.getSymbolTable().getProperty(propertyName);
 	}
 
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) {
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < contexts.length; i++) {
+			results[i] = contexts[i].getSymbolTable().getProperty(propertyName);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the name of the property.
+	 * 
+	 * @return the name of the property.
+	 */
+	public String getPropertyName() {
+		return propertyName;
+	}
+
 }
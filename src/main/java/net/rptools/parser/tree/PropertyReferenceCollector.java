@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the names of the properties that a compiled script reads so that they can 
+ * be fetched from the {@link net.rptools.parser.symboltable.PropertyResolver} in a single 
+ * request before the script is evaluated.
+ *
+ */
+public final class PropertyReferenceCollector {
+
+	/** Stop instantiation. */
+	private PropertyReferenceCollector() {
+	}
+
+	/**
+	 * Returns the names of the properties for the default id that are read by the script,
+	 * either as a value or as the number of times to repeat a repeat group.
+	 * 
+	 * @param node The root node of the compiled script.
+	 * 
+	 * @return the names of the properties in the order they first appear in the script.
+	 * 
+	 * @throws NullPointerException if node is null.
+	 */
+	public static Set<String> collect(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		Set<String> names = new LinkedHashSet<>();
+		collect(node, names);
+		return Collections.unmodifiableSet(names);
+	}
+	
+	/**
+	 * Adds the names of the properties read by a node and its children to a set.
+	 * 
+	 * @param node The node to collect the property names from.
+	 * @param names The set to add the names to.
+	 */
+	private static void collect(ScriptTreeNode node, Set<String> names) {
+		if (node instanceof PropertyNode) {
+			names.add(((PropertyNode) node).getPropertyName());
+		} else if (node instanceof RepeatGroupNode && ((RepeatGroupNode) node).getProperty() != null) {
+			names.add(((RepeatGroupNode) node).getProperty());
+		}
+		
+		for (ScriptTreeNode child : ScriptTrees.getChildren(node)) {
+			collect(child, names);
+		}
+	}
+}
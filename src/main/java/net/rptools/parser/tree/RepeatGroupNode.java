@@ -50,6 +50,9 @@ class RepeatGroupNode implements ScriptTreeNode {
 	/** Should the user be prompted for the number of times to repeat. */
 	private final boolean prompt;
 	
+	/** The parameter slot to get the number of times to repeat from, -1 if not a parameter. */
+	private final int parameterSlot;
+	
 	/** The name to use for the prompt. */
 	private static String PROMPT_NAME = "Repeat Group Prompt";
 	
@@ -78,6 +81,25 @@ class RepeatGroupNode implements ScriptTreeNode {
 	 * @param promptMsg
 	 */
 	RepeatGroupNode(int times, ScriptTreeNode child, boolean sum, String variable, String property, boolean prompt, String promptMsg) {
+		this(times, child, sum, variable, property, prompt, promptMsg, -1);
+	}
+	
+	/**
+	 * Creates a new RepeatGroupNode. Several of the options are mutually exclusive so the static
+	 * methods that get a repeat node should be used instead of using new.
+	 * 
+	 * @param times The number of times to repeat.
+	 * @param child The child to repeat.
+	 * @param sum Is the repeat group a sum group.
+	 * @param variable The variable to get the number times to repeat from.
+	 * @param property The property to get the number of times to repeat from.
+	 * @param prompt Should the number of times to repeat be prompted for.
+	 * @param promptMsg
+	 * @param slot The parameter slot to get the number of times to repeat from or -1.
+	 */
+	RepeatGroupNode(int times, ScriptTreeNode child, boolean sum, String variable, String property, boolean prompt, 
+			String promptMsg, int slot) {
+		this.parameterSlot = slot;
 		this.times = times;
 		this.child = child;
 		this.sum = sum;
@@ -136,6 +158,31 @@ class RepeatGroupNode implements ScriptTreeNode {
 		return new RepeatGroupNode(0, child, true, variable, null, false, null);
 	}
 	
+	/**
+	 * Returns a RepeatGroupNode that uses a parameter to determine the number of times to repeat.
+	 * 
+	 * @param slot The parameter slot.
+	 * @param child The child to repeat.
+	 * 
+	 * @return the RepeatGroupNode.
+	 */
+	public static RepeatGroupNode getParameterRepeatNode(int slot, ScriptTreeNode child) {
+		return new RepeatGroupNode(0, child, false, null, null, false, null, slot);
+	}
+	
+	/**
+	 * Returns a RepeatGroupNode that uses a parameter to determine the number of times to repeat
+	 * and returns a sum of the results.
+	 * 
+	 * @param slot The parameter slot.
+	 * @param child The child to repeat.
+	 * 
+	 * @return the RepeatGroupNode.
+	 */
+	public static RepeatGroupNode getParameterRepeatSumNode(int slot, ScriptTreeNode child) {
+		return new RepeatGroupNode(0, child, true, null, null, false, null, slot);
+	}
+	
 	/**
 	 * Returns a RepeatGroupNode that uses property to determine the number of times to repeat.
 	 * 
@@ -195,11 +242,9 @@ class RepeatGroupNode implements ScriptTreeNode {
 		long noTimes;
 		
 		if (prompt) {
-			if (promptMsg == null) {
-				noTimes = context.getSymbolTable().promptForValue(PROMPT_NAME).asLong();
-			} else {
-				noTimes = context.getSymbolTable().promptForValue(PROMPT_NAME, promptMsg).asLong();
-			}
+			noTimes = context.promptForValue(PROMPT_NAME, promptMsg).asLong();
+		} else if (parameterSlot >= 0) {
+			noTimes = context.getParameter(parameterSlot).asLong();
 		} else if (variable != null) {
 			DataValue dv = context.getSymbolTable().getVariable(variable);
 			if (dv == null) {
@@ -216,8 +261,13 @@ class RepeatGroupNode implements ScriptTreeNode {
 			noTimes = times;
 		}
 		
+		if (sum == false && noTimes > 0) {
+			context.reserveListElements(noTimes);
+		}
+		
 		DataValue total = DataValueFactory.longValue(0);
 		for (int i = 0; i < noTimes; i++) {
+			context.countStep();
 			DataValue val = child.evaluate(context);
 			values.add(val);
 			
@@ -242,6 +292,17 @@ class RepeatGroupNode implements ScriptTreeNode {
 		return retval;
 	}
 
+	/**
+	 * Returns a copy of this node that repeats a different child.
+	 * 
+	 * @param newChild The child to repeat.
+	 * 
+	 * @return the copy of this node.
+	 */
+	RepeatGroupNode withChild(ScriptTreeNode newChild) {
+		return new RepeatGroupNode(times, newChild, sum, variable, property, prompt, promptMsg, parameterSlot);
+	}
+
 	/**
 	 * Gets the prompt message used for prompting for the number of times to repeat.
 	 * 
@@ -251,4 +312,72 @@ class RepeatGroupNode implements ScriptTreeNode {
 		return promptMsg;
 	}
 
+	/**
+	 * Returns the node that is repeated.
+	 * 
+	 * @return the node that is repeated.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
+
+	/**
+	 * Checks to see if the number of times to repeat is a constant, rather than coming 
+	 * from a variable, property, parameter or prompt.
+	 * 
+	 * @return true if the number of times to repeat is a constant.
+	 */
+	public boolean hasConstantTimes() {
+		return variable == null && property == null && prompt == false && parameterSlot < 0;
+	}
+
+	/**
+	 * Returns the name of the property to get the number of times to repeat from.
+	 * 
+	 * @return the name of the property or null if the number of times to repeat does not
+	 *         come from a property.
+	 */
+	public String getProperty() {
+		return property;
+	}
+
+	/**
+	 * Returns the name of the variable to get the number of times to repeat from.
+	 * 
+	 * @return the name of the variable or null if the number of times to repeat does not
+	 *         come from a variable.
+	 */
+	public String getVariable() {
+		return variable;
+	}
+
+	/**
+	 * Returns the slot of the parameter to get the number of times to repeat from.
+	 * 
+	 * @return the slot of the parameter or -1 if the number of times to repeat does not
+	 *         come from a parameter.
+	 */
+	public int getParameterSlot() {
+		return parameterSlot;
+	}
+
+	/**
+	 * Checks to see if the number of times to repeat comes from a prompt.
+	 * 
+	 * @return true if the number of times to repeat comes from a prompt.
+	 */
+	public boolean isPrompt() {
+		return prompt;
+	}
+
+	/**
+	 * Returns the number of times to repeat, this is only meaningful if 
+	 * {@link #hasConstantTimes()} returns true.
+	 * 
+	 * @return the number of times to repeat.
+	 */
+	public int getTimes() {
+		return times;
+	}
+
 }
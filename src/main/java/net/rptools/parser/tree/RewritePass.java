@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for optimization passes that rewrite a tree one node at a time, from the 
+ * leaves up. Each node is passed to {@link #rewrite(ScriptTreeNode)} after its children
+ * have been rewritten, and every node that is replaced is counted as a rewrite.
+ */
+public abstract class RewritePass implements OptimizationPass {
+
+	/** The name of the pass. */
+	private final String name;
+	
+	/** The lowest optimization level the pass is run at. */
+	private final int optimizationLevel;
+	
+	/**
+	 * Creates a new RewritePass.
+	 * 
+	 * @param passName The name of the pass.
+	 * @param level The lowest optimization level the pass is run at.
+	 * 
+	 * @throws NullPointerException if passName is null.
+	 */
+	protected RewritePass(String passName, int level) {
+		if (passName == null) {
+			throw new NullPointerException("Pass name can not be null.");
+		}
+		
+		name = passName;
+		optimizationLevel = level;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getOptimizationLevel() {
+		return optimizationLevel;
+	}
+
+	@Override
+	public Result run(ScriptTreeNode root) {
+		if (root == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		int[] rewrites = new int[1];
+		ScriptTreeNode newRoot = rewriteTree(root, rewrites);
+		return new Result(newRoot, rewrites[0]);
+	}
+	
+	/**
+	 * Rewrites a node after rewriting its children.
+	 * 
+	 * @param node The node to rewrite.
+	 * @param rewrites Holds the count of the nodes that have been rewritten.
+	 * 
+	 * @return the rewritten node.
+	 */
+	private ScriptTreeNode rewriteTree(ScriptTreeNode node, int[] rewrites) {
+		List<ScriptTreeNode> children = ScriptTrees.getChildren(node);
+		List<ScriptTreeNode> newChildren = new ArrayList<>(children.size());
+		for (ScriptTreeNode child : children) {
+			newChildren.add(rewriteTree(child, rewrites));
+		}
+		
+		ScriptTreeNode withChildren = ScriptTrees.withChildren(node, newChildren);
+		ScriptTreeNode rewritten = rewrite(withChildren);
+		if (rewritten != withChildren) {
+			rewrites[0]++;
+		}
+		
+		return rewritten;
+	}
+	
+	/**
+	 * Rewrites a single node, its children have already been rewritten.
+	 * 
+	 * @param node The node to rewrite.
+	 * 
+	 * @return the node to replace it with, or the node itself if it is not rewritten.
+	 */
+	protected abstract ScriptTreeNode rewrite(ScriptTreeNode node);
+}
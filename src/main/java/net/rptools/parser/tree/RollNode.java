@@ -16,7 +16,11 @@ package net.rptools.parser.tree;
 
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.result.RollExpression;
+import net.rptools.parser.ExpressionEvaluatorException;
 import net.rptools.parser.ScriptContext;
+import net.rptools.parser.SourcePosition;
+import net.rptools.parser.functions.DiceRoller;
+import net.rptools.parser.functions.RollPlan;
 
 /**
  * Represents the ScriptTreeNode that performs dice rolls.
@@ -26,27 +30,85 @@ class RollNode implements ScriptTreeNode {
 	/** The name of the dice roll in the symbol table. */
 	private final String rollName;
 	
+	/** The dice roll expression. */
+	private final RollExpression rollExpression;
+	
+	/** The roll plan compiled from the roll expression, null if it is not a valid roll. */
+	private final RollPlan rollPlan;
+	
+	/** Why the roll expression could not be compiled, null if it is valid. */
+	private final String planError;
+	
+	/** The position of the roll in the script, null if it is not known. */
+	private final SourcePosition sourcePosition;
+	
 	/**
 	 * Creates a new RollNode.
 	 * 
 	 * @param name The name of the dice roll in the symbol table.
+	 * @param expr The dice roll expression.
 	 */
-	public RollNode(String name) {
+	public RollNode(String name, RollExpression expr) {
+		this(name, expr, null);
+	}
+	
+	/**
+	 * Creates a new RollNode.
+	 * 
+	 * @param name The name of the dice roll in the symbol table.
+	 * @param expr The dice roll expression.
+	 * @param pos The position of the roll in the script or null.
+	 */
+	public RollNode(String name, RollExpression expr, SourcePosition pos) {
 		assert name != null : "Roll name can not be null.";
+		assert expr != null : "Roll expression can not be null.";
 		
 		rollName = name;
+		rollExpression = expr;
+		
+		RollPlan plan;
+		String error;
+		try {
+			plan = RollPlan.compile(expr);
+			error = null;
+		} catch (IllegalArgumentException e) {
+			// Report the invalid roll when it is evaluated, as it was before rolls were compiled.
+			plan = null;
+			error = e.getMessage();
+		}
+		rollPlan = plan;
+		planError = error;
+		sourcePosition = pos;
 	}
 	
 	
 	@Override
-	public DataValue evaluate(ScriptContext context) {
-        DataValue rollRes = context.getSymbolTable().resolveRoll(rollName);
-        context.getSymbolTable().addRollResult(rollName, rollRes);
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		if (rollPlan == null) {
+			// Errors returned as values are reported to the user so skip the stack traces.
+			ExpressionEvaluatorException e = new ExpressionEvaluatorException(planError, null, 
+					!context.isErrorsAsValues());
+			e.setSourcePositionIfAbsent(sourcePosition);
+			throw e;
+		}
+		
+		// The script may have been compiled with a different symbol table.
+		if (context.getSymbolTable().getRollExpression(rollName) != rollExpression) {
+			context.getSymbolTable().setRollExpression(rollName, rollExpression);
+		}
+		
+        // Rolling does not count steps as it goes, so the whole roll is counted up front.
+        context.countSteps(DiceRoller.maxDraws(rollPlan));
+        context.reserveMemory(DiceRoller.trackingBytes(rollPlan));
+        if (rollPlan.isVerbose()) {
+        	// Verbose rolls keep every die and return them as a list.
+        	context.reserveListElements(rollPlan.getCount());
+        }
+        DataValue rollRes = context.resolveRoll(rollName, rollPlan);
         		
         DataValue result = null;
         
-        // TODO 
-        RollExpression rollExpr = context.getSymbolTable().getRollExpression(rollName);
+        RollExpression rollExpr = rollExpression;
         
         if (rollExpr.isVerbose()) {
         	if (rollExpr.isSum()) {
@@ -61,4 +123,31 @@ class RollNode implements ScriptTreeNode {
         return result;
 	}
 
+	/**
+	 * Returns the dice roll expression.
+	 * 
+	 * @return the dice roll expression.
+	 */
+	public RollExpression getRollExpression() {
+		return rollExpression;
+	}
+
+	/**
+	 * Returns the roll plan compiled from the dice roll expression.
+	 * 
+	 * @return the roll plan or null if the roll expression is not valid.
+	 */
+	public RollPlan getRollPlan() {
+		return rollPlan;
+	}
+	
+	/**
+	 * Returns the position of the roll in the script.
+	 * 
+	 * @return the position or null if it is not known.
+	 */
+	public SourcePosition getSourcePosition() {
+		return sourcePosition;
+	}
+
 }
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.parser.functions.DiceRoller;
+import net.rptools.parser.functions.FunctionDispatcher;
+import net.rptools.parser.functions.RollPlan;
+
+/**
+ * Estimates the worst case cost of evaluating a compiled script without evaluating it.
+ *
+ * The cost is measured in the same units as the evaluation steps counted by the
+ * {@link net.rptools.parser.ScriptContext}: each statement, repeat group iteration and
+ * function call costs one, each die that can be rolled costs one, including the dice rolled
+ * again when they explode, and each function call also costs
+ * the cost set for the function. The cost of a repeated group is multiplied by the number
+ * of times it is repeated, when this comes from a variable, property or prompt it can not
+ * be known so a fixed number of repeats is assumed. Only the more expensive branch of a
+ * conditional expression is counted. All arithmetic saturates at
+ * {@link Long#MAX_VALUE}.
+ *
+ */
+public final class ScriptCostEstimator {
+
+	/** The number of repeats assumed for repeat groups that do not use a constant. */
+	public static final long DEFAULT_UNKNOWN_REPEAT_COUNT = 100;
+
+	/** The number of repeats assumed for repeat groups that do not use a constant. */
+	private final long unknownRepeatCount;
+
+	/**
+	 * Creates a new ScriptCostEstimator that assumes {@link #DEFAULT_UNKNOWN_REPEAT_COUNT}
+	 * repeats for repeat groups that do not use a constant.
+	 */
+	public ScriptCostEstimator() {
+		this(DEFAULT_UNKNOWN_REPEAT_COUNT);
+	}
+
+	/**
+	 * Creates a new ScriptCostEstimator.
+	 *
+	 * @param unknownRepeats The number of repeats assumed for repeat groups that do not use
+	 *        a constant.
+	 *
+	 * @throws IllegalArgumentException if unknownRepeats is negative.
+	 */
+	public ScriptCostEstimator(long unknownRepeats) {
+		if (unknownRepeats < 0) {
+			throw new IllegalArgumentException("Number of unknown repeats can not be negative.");
+		}
+
+		unknownRepeatCount = unknownRepeats;
+	}
+
+	/**
+	 * Returns the estimated worst case cost of evaluating the script.
+	 *
+	 * @param node The root node of the compiled script.
+	 *
+	 * @return the estimated cost.
+	 *
+	 * @throws NullPointerException if node is null.
+	 */
+	public long estimate(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+
+		return cost(node);
+	}
+
+	/**
+	 * Returns the estimated cost of evaluating a node and all of its children.
+	 *
+	 * @param node The node to estimate the cost of.
+	 *
+	 * @return the estimated cost.
+	 */
+	private long cost(ScriptTreeNode node) {
+		long total;
+
+		if (node instanceof ScriptNode) {
+			total = 0;
+			for (ScriptTreeNode statement : ((ScriptNode) node).getStatements()) {
+				total = add(total, add(1, cost(statement)));
+			}
+		} else if (node instanceof RepeatGroupNode) {
+			RepeatGroupNode repeat = (RepeatGroupNode) node;
+			long times = repeat.hasConstantTimes() ? repeat.getTimes() : unknownRepeatCount;
+			total = multiply(Math.max(times, 0), add(1, cost(repeat.getChild())));
+		} else if (node instanceof FunctionCallNode) {
+			FunctionCallNode call = (FunctionCallNode) node;
+			FunctionArgumentList args = call.getArgumentList();
+			total = add(1, FunctionDispatcher.getFunctionDispatcher().getFunctionCost(call.getFunctionName()));
+			for (ScriptFunctionArgument arg : args.getPositionalArguments()) {
+				total = add(total, cost(arg.getExpression()));
+			}
+			for (String name : args.getArgumentNames()) {
+				total = add(total, cost(args.getArgument(name).getExpression()));
+			}
+		} else if (node instanceof RollNode) {
+			total = add(1, diceCount(((RollNode) node).getRollPlan()));
+		} else if (node instanceof BinaryMathOpNode) {
+			BinaryMathOpNode op = (BinaryMathOpNode) node;
+			total = add(1, add(cost(op.getLeftChild()), cost(op.getRightChild())));
+		} else if (node instanceof ComparisonNode) {
+			ComparisonNode op = (ComparisonNode) node;
+			total = add(1, add(cost(op.getLeftChild()), cost(op.getRightChild())));
+		} else if (node instanceof LogicalNode) {
+			LogicalNode op = (LogicalNode) node;
+			total = add(1, add(cost(op.getLeftChild()), cost(op.getRightChild())));
+		} else if (node instanceof ConditionalNode) {
+			// Only one branch is evaluated so the worst case is the more expensive branch.
+			ConditionalNode cond = (ConditionalNode) node;
+			total = add(1, add(cost(cond.getCondition()), 
+					Math.max(cost(cond.getTrueChild()), cost(cond.getFalseChild()))));
+		} else if (node instanceof ListConcatNode) {
+			ListConcatNode concat = (ListConcatNode) node;
+			total = add(1, add(cost(concat.getLeft()), cost(concat.getRight())));
+		} else if (node instanceof AssignVariableNode) {
+			total = add(1, cost(((AssignVariableNode) node).getChild()));
+		} else if (node instanceof AssignPropertyNode) {
+			total = add(1, cost(((AssignPropertyNode) node).getChild()));
+		} else if (node instanceof NegateNode) {
+			total = add(1, cost(((NegateNode) node).getChild()));
+		} else if (node instanceof NotNode) {
+			total = add(1, cost(((NotNode) node).getChild()));
+		} else if (node instanceof LabelNode) {
+			total = add(1, cost(((LabelNode) node).getChild()));
+		} else if (node instanceof TracingNode) {
+			// Tracing does not count steps so a traced node costs the same as the node it traces.
+			total = cost(((TracingNode) node).getChild());
+		} else {
+			// Constants, variables, properties, parameters and prompts have no children, any
+			// other node costs one more than its children.
+			total = 1;
+			for (ScriptTreeNode child : ScriptTrees.getChildren(node)) {
+				total = add(total, cost(child));
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Returns the most dice that can be rolled for a roll, counting the dice rolled again 
+	 * when they explode. The sides of the dice do not change the cost as each die is a 
+	 * single random number whatever its sides.
+	 *
+	 * @param plan The roll plan or null if the roll expression is not valid.
+	 *
+	 * @return the most dice that can be rolled.
+	 */
+	private static long diceCount(RollPlan plan) {
+		if (plan == null) {
+			// What an invalid roll would cost can not be known, so it costs the most possible.
+			return Long.MAX_VALUE;
+		}
+
+		return DiceRoller.maxDraws(plan);
+	}
+
+	/**
+	 * Adds two non negative costs, saturating at {@link Long#MAX_VALUE}.
+	 *
+	 * @param a The first cost.
+	 * @param b The second cost.
+	 *
+	 * @return the sum of the costs.
+	 */
+	private static long add(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * Multiplies two non negative costs, saturating at {@link Long#MAX_VALUE}.
+	 *
+	 * @param a The first cost.
+	 * @param b The second cost.
+	 *
+	 * @return the product of the costs.
+	 */
+	private static long multiply(long a, long b) {
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+
+		return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+	}
+}
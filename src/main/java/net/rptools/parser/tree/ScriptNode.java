@@ -27,7 +27,7 @@ import net.rptools.parser.ScriptContext;
  * Script tree node that represents the script to be run.
  *
  */
-class ScriptNode implements ScriptTreeNode {
+class ScriptNode implements ColumnarNode {
 	
 	/** The statements that make up the script. */
 	private final List<ScriptTreeNode> statements = new ArrayList<>();
@@ -46,12 +46,58 @@ class ScriptNode implements ScriptTreeNode {
 	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
 
         List<DataValue> results = new ArrayList<>(statements.size());
-		for (ScriptTreeNode node : statements) {
-			DataValue val = node.evaluate(context);
+		for (int i = 0; i < statements.size(); i++) {
+			context.countStep();
+			DataValue val;
+			try {
+				val = statements.get(i).evaluate(context);
+			} catch (ExpressionEvaluatorException e) {
+				e.setStatementIndexIfAbsent(i);
+				throw e;
+			}
             results.add(val);
 		}
 		
 		return DataValueFactory.listValue(results);
 	}
 
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) throws ExpressionEvaluatorException {
+		List<List<DataValue>> results = new ArrayList<>(contexts.length);
+		for (int i = 0; i < contexts.length; i++) {
+			results.add(new ArrayList<DataValue>(statements.size()));
+		}
+		
+		for (int s = 0; s < statements.size(); s++) {
+			for (ScriptContext context : contexts) {
+				context.countStep();
+			}
+			DataValue[] vals;
+			try {
+				vals = ColumnarEvaluator.evaluateColumn(statements.get(s), contexts);
+			} catch (ExpressionEvaluatorException e) {
+				e.setStatementIndexIfAbsent(s);
+				throw e;
+			}
+			for (int i = 0; i < vals.length; i++) {
+				results.get(i).add(vals[i]);
+			}
+		}
+		
+		DataValue[] lists = new DataValue[contexts.length];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = DataValueFactory.listValue(results.get(i));
+		}
+		return lists;
+	}
+
+	/**
+	 * Returns the statements that make up the script.
+	 * 
+	 * @return the statements that make up the script.
+	 */
+	public List<ScriptTreeNode> getStatements() {
+		return Collections.unmodifiableList(statements);
+	}
+
 }
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+/**
+ * Interface for objects that visit the nodes of a compiled script tree, see 
+ * {@link ScriptTrees#walk(ScriptTreeNode, ScriptTreeVisitor)}.
+ */
+public interface ScriptTreeVisitor {
+
+	/**
+	 * Visits a node, this is called before any of the children of the node are visited.
+	 * 
+	 * @param node The node being visited.
+	 * 
+	 * @return true if the children of the node should be visited.
+	 */
+	public boolean visit(ScriptTreeNode node);
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Utility methods for walking and rewriting the nodes of a compiled script tree. 
+ *
+ * Nodes are never modified, rewriting a tree creates new nodes for the parts of the tree
+ * that change and shares the rest.
+ *
+ */
+public final class ScriptTrees {
+
+	/** Stop instantiation. */
+	private ScriptTrees() {
+	}
+	
+	/**
+	 * Visits a node and its children depth first, in the order they are evaluated.
+	 * 
+	 * @param node The node to start at.
+	 * @param visitor The visitor to call for each node.
+	 * 
+	 * @throws NullPointerException if node or visitor is null.
+	 */
+	public static void walk(ScriptTreeNode node, ScriptTreeVisitor visitor) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		if (visitor == null) {
+			throw new NullPointerException("Visitor can not be null.");
+		}
+		
+		visit(node, visitor);
+	}
+	
+	/**
+	 * Visits a node and its children.
+	 * 
+	 * @param node The node to visit.
+	 * @param visitor The visitor to call for each node.
+	 */
+	private static void visit(ScriptTreeNode node, ScriptTreeVisitor visitor) {
+		if (visitor.visit(node)) {
+			for (ScriptTreeNode child : getChildren(node)) {
+				visit(child, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Returns the child nodes of a script tree node, in the order they are evaluated.
+	 * 
+	 * @param node The node to get the children of.
+	 * 
+	 * @return the child nodes, an empty list if the node has no children.
+	 * 
+	 * @throws NullPointerException if node is null.
+	 */
+	public static List<ScriptTreeNode> getChildren(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		List<ScriptTreeNode> children;
+		if (node instanceof ScriptNode) {
+			children = ((ScriptNode) node).getStatements();
+		} else if (node instanceof RepeatGroupNode) {
+			children = Collections.singletonList(((RepeatGroupNode) node).getChild());
+		} else if (node instanceof FunctionCallNode) {
+			FunctionArgumentList args = ((FunctionCallNode) node).getArgumentList();
+			children = new ArrayList<>(args.getArgumentCount());
+			for (ScriptFunctionArgument arg : args.getPositionalArguments()) {
+				children.add(arg.getExpression());
+			}
+			for (String name : args.getArgumentNames()) {
+				children.add(args.getArgument(name).getExpression());
+			}
+		} else if (node instanceof BinaryMathOpNode) {
+			BinaryMathOpNode op = (BinaryMathOpNode) node;
+			children = new ArrayList<>(2);
+			children.add(op.getLeftChild());
+			children.add(op.getRightChild());
+		} else if (node instanceof ComparisonNode) {
+			ComparisonNode op = (ComparisonNode) node;
+			children = new ArrayList<>(2);
+			children.add(op.getLeftChild());
+			children.add(op.getRightChild());
+		} else if (node instanceof LogicalNode) {
+			LogicalNode op = (LogicalNode) node;
+			children = new ArrayList<>(2);
+			children.add(op.getLeftChild());
+			children.add(op.getRightChild());
+		} else if (node instanceof ConditionalNode) {
+			ConditionalNode cond = (ConditionalNode) node;
+			children = new ArrayList<>(3);
+			children.add(cond.getCondition());
+			children.add(cond.getTrueChild());
+			children.add(cond.getFalseChild());
+		} else if (node instanceof ListConcatNode) {
+			ListConcatNode concat = (ListConcatNode) node;
+			children = new ArrayList<>(2);
+			children.add(concat.getLeft());
+			children.add(concat.getRight());
+		} else if (node instanceof AssignVariableNode) {
+			children = Collections.singletonList(((AssignVariableNode) node).getChild());
+		} else if (node instanceof AssignPropertyNode) {
+			children = Collections.singletonList(((AssignPropertyNode) node).getChild());
+		} else if (node instanceof NegateNode) {
+			children = Collections.singletonList(((NegateNode) node).getChild());
+		} else if (node instanceof NotNode) {
+			children = Collections.singletonList(((NotNode) node).getChild());
+		} else if (node instanceof LabelNode) {
+			children = Collections.singletonList(((LabelNode) node).getChild());
+		} else if (node instanceof TracingNode) {
+			children = Collections.singletonList(((TracingNode) node).getChild());
+		} else {
+			children = Collections.emptyList();
+		}
+		
+		return children;
+	}
+	
+	/**
+	 * Returns a node that is the same as the specified node but with different children.
+	 * 
+	 * @param node The node to copy.
+	 * @param children The new children in the same order as returned by 
+	 *        {@link #getChildren(ScriptTreeNode)}.
+	 * 
+	 * @return the node itself if the children are the same, otherwise a copy of the node
+	 *         with the new children.
+	 * 
+	 * @throws NullPointerException if node or children are null.
+	 * @throws IllegalArgumentException if the number of children does not match.
+	 */
+	public static ScriptTreeNode withChildren(ScriptTreeNode node, List<ScriptTreeNode> children) {
+		List<ScriptTreeNode> current = getChildren(node);
+		if (children == null) {
+			throw new NullPointerException("Children can not be null.");
+		}
+		
+		if (children.size() != current.size()) {
+			throw new IllegalArgumentException("Expected " + current.size() + " children but got " + 
+					children.size() + ".");
+		}
+		
+		if (children.contains(null)) {
+			throw new NullPointerException("Child node can not be null.");
+		}
+		
+		if (children.equals(current)) {
+			return node;
+		}
+		
+		ScriptTreeNode copy;
+		if (node instanceof ScriptNode) {
+			ScriptNode script = new ScriptNode();
+			for (ScriptTreeNode statement : children) {
+				script.addStatement(statement);
+			}
+			copy = script;
+		} else if (node instanceof RepeatGroupNode) {
+			copy = ((RepeatGroupNode) node).withChild(children.get(0));
+		} else if (node instanceof FunctionCallNode) {
+			FunctionCallNode call = (FunctionCallNode) node;
+			FunctionArgumentList args = call.getArgumentList();
+			FunctionArgumentList newArgs = new FunctionArgumentList();
+			int i = 0;
+			for (; i < args.getPositionalArguments().size(); i++) {
+				newArgs.addArgument(new ScriptFunctionArgument(children.get(i)));
+			}
+			for (String name : args.getArgumentNames()) {
+				newArgs.addArgument(new ScriptFunctionArgument(name, children.get(i++)));
+			}
+			copy = new FunctionCallNode(call.getFunctionName(), newArgs, call.getSourcePosition());
+		} else if (node instanceof BinaryMathOpNode) {
+			copy = new BinaryMathOpNode(((BinaryMathOpNode) node).getOperation(), children.get(0), children.get(1));
+		} else if (node instanceof ComparisonNode) {
+			ComparisonNode op = (ComparisonNode) node;
+			copy = new ComparisonNode(op.getOperation(), children.get(0), children.get(1), op.getSourcePosition());
+		} else if (node instanceof LogicalNode) {
+			if (((LogicalNode) node).isAnd()) {
+				copy = LogicalNode.getAndNode(children.get(0), children.get(1));
+			} else {
+				copy = LogicalNode.getOrNode(children.get(0), children.get(1));
+			}
+		} else if (node instanceof ConditionalNode) {
+			copy = new ConditionalNode(children.get(0), children.get(1), children.get(2));
+		} else if (node instanceof ListConcatNode) {
+			copy = new ListConcatNode(children.get(0), children.get(1));
+		} else if (node instanceof AssignVariableNode) {
+			copy = new AssignVariableNode(((AssignVariableNode) node).getVariableName(), children.get(0));
+		} else if (node instanceof AssignPropertyNode) {
+			copy = new AssignPropertyNode(((AssignPropertyNode) node).getPropertyName(), children.get(0));
+		} else if (node instanceof NegateNode) {
+			copy = new NegateNode(children.get(0));
+		} else if (node instanceof NotNode) {
+			copy = new NotNode(children.get(0));
+		} else if (node instanceof LabelNode) {
+			copy = new LabelNode(((LabelNode) node).getLabel(), children.get(0));
+		} else if (node instanceof TracingNode) {
+			TracingNode trace = (TracingNode) node;
+			copy = new TracingNode(children.get(0), trace.getDescription(), trace.getSourceSpan());
+		} else {
+			// Only nodes with children can get here and they are all handled above.
+			throw new IllegalArgumentException("Unknown script node " + node.getClass().getName() + ".");
+		}
+		
+		return copy;
+	}
+}
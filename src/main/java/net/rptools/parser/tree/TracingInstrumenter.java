@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.rptools.parser.SourceSpan;
+
+/**
+ * TracingInstrumenter creates a copy of a script tree with every node below the root
+ * wrapped in a node that records its evaluation to the trace buffer and profile recorder
+ * of the context. The original tree is left unchanged, so the tree used when not debugging
+ * or profiling has no tracing code in it at all.
+ *
+ */
+public final class TracingInstrumenter {
+
+	/** The spans of the source text the nodes were parsed from. */
+	private final Map<ScriptTreeNode, SourceSpan> sourceSpans;
+	
+	/**
+	 * Creates a new TracingInstrumenter.
+	 * 
+	 * @param spans The spans of the source text the nodes were parsed from.
+	 */
+	private TracingInstrumenter(Map<ScriptTreeNode, SourceSpan> spans) {
+		sourceSpans = spans;
+	}
+	
+	/**
+	 * Returns a copy of a script tree with tracing added to every node below the root.
+	 * 
+	 * @param root The root of the script tree.
+	 * @param spans The spans of the source text the nodes were parsed from, nodes without 
+	 *        a span are traced without one.
+	 * 
+	 * @return the copy of the tree with tracing.
+	 * 
+	 * @throws NullPointerException if root is null.
+	 */
+	public static ScriptTreeNode instrument(ScriptTreeNode root, Map<ScriptTreeNode, SourceSpan> spans) {
+		if (root == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		Map<ScriptTreeNode, SourceSpan> spanMap = spans;
+		if (spanMap == null) {
+			spanMap = Collections.emptyMap();
+		}
+		
+		TracingInstrumenter instrumenter = new TracingInstrumenter(spanMap);
+		return ScriptTrees.withChildren(root, instrumenter.instrumentChildren(root));
+	}
+	
+	/**
+	 * Returns the children of a node with tracing added.
+	 * 
+	 * @param node The node.
+	 * 
+	 * @return the children with tracing.
+	 */
+	private List<ScriptTreeNode> instrumentChildren(ScriptTreeNode node) {
+		List<ScriptTreeNode> children = ScriptTrees.getChildren(node);
+		List<ScriptTreeNode> traced = new ArrayList<>(children.size());
+		for (ScriptTreeNode child : children) {
+			traced.add(instrument(child));
+		}
+		return traced;
+	}
+	
+	/**
+	 * Returns a node and its children with tracing added.
+	 * 
+	 * @param node The node.
+	 * 
+	 * @return the node with tracing.
+	 */
+	private ScriptTreeNode instrument(ScriptTreeNode node) {
+		ScriptTreeNode copy = ScriptTrees.withChildren(node, instrumentChildren(node));
+		return new TracingNode(copy, describe(node), sourceSpans.get(node));
+	}
+	
+	/**
+	 * Returns a short description of a node.
+	 * 
+	 * @param node The node.
+	 * 
+	 * @return the description.
+	 */
+	private static String describe(ScriptTreeNode node) {
+		String name = node.getClass().getSimpleName();
+		if (name.endsWith("Node")) {
+			name = name.substring(0, name.length() - "Node".length());
+		}
+		
+		if (node instanceof FunctionCallNode) {
+			return name + " " + ((FunctionCallNode) node).getFunctionName();
+		} else if (node instanceof VariableNode) {
+			return name + " $" + ((VariableNode) node).getVariableName();
+		} else if (node instanceof PropertyNode) {
+			return name + " @" + ((PropertyNode) node).getPropertyName();
+		} else if (node instanceof AssignVariableNode) {
+			return name + " $" + ((AssignVariableNode) node).getVariableName();
+		} else if (node instanceof AssignPropertyNode) {
+			return name + " @" + ((AssignPropertyNode) node).getPropertyName();
+		} else if (node instanceof BinaryMathOpNode) {
+			return name + " " + ((BinaryMathOpNode) node).getOperation();
+		} else if (node instanceof ComparisonNode) {
+			return name + " " + ((ComparisonNode) node).getOperation();
+		} else if (node instanceof ConstantNode) {
+			return name + " " + ((ConstantNode) node).getValue();
+		}
+		
+		return name;
+	}
+}
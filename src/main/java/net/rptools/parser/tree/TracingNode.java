@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import net.rptools.lib.datavalue.DataValue;
+import net.rptools.parser.ExpressionEvaluatorException;
+import net.rptools.parser.ProfileRecorder;
+import net.rptools.parser.ScriptContext;
+import net.rptools.parser.SourceSpan;
+import net.rptools.parser.TraceBuffer;
+import net.rptools.parser.TracePoint;
+
+/**
+ * Script node that wraps another node and records the evaluation of the node in the
+ * trace buffer and profile recorder of the context. These nodes are only added to the copy
+ * of the script tree created by {@link TracingInstrumenter} so scripts evaluated without 
+ * debug mode or profiling do not pay anything for them.
+ *
+ */
+class TracingNode implements ScriptTreeNode, TracePoint {
+
+	/** The node that is traced. */
+	private final ScriptTreeNode child;
+	
+	/** The description of the node that is traced. */
+	private final String description;
+	
+	/** The span of the source text the node was parsed from, null if it is not known. */
+	private final SourceSpan sourceSpan;
+	
+	/** The name of the frame for the node in profiles. */
+	private final String frameName;
+	
+	/**
+	 * Creates a new TracingNode.
+	 * 
+	 * @param node The node to trace.
+	 * @param desc The description of the node.
+	 * @param span The span of the source text of the node or null.
+	 */
+	TracingNode(ScriptTreeNode node, String desc, SourceSpan span) {
+		assert node != null : "Child node can not be null.";
+		
+		child = node;
+		description = desc;
+		sourceSpan = span;
+		
+		String name = desc;
+		if (span != null) {
+			name = name + " @" + span.getStart().getLine() + ":" + span.getStart().getColumn();
+		}
+		// Folded stacks separate frames with ; and stacks with new lines.
+		frameName = name.replace(';', ',').replace('\n', ' ');
+	}
+	
+	@Override
+	public DataValue evaluate(ScriptContext context) throws ExpressionEvaluatorException {
+		TraceBuffer trace = context.getTraceBuffer();
+		ProfileRecorder profile = context.getProfileRecorder();
+		if (trace == null && profile == null) {
+			return child.evaluate(context);
+		}
+		
+		if (trace != null) {
+			trace.enter(this);
+		}
+		if (profile != null) {
+			profile.enter(frameName);
+		}
+		
+		try {
+			DataValue value = child.evaluate(context);
+			if (trace != null) {
+				trace.exit(this, value);
+			}
+			return value;
+		} catch (ExpressionEvaluatorException | RuntimeException e) {
+			if (trace != null) {
+				trace.error(this, e);
+			}
+			throw e;
+		} finally {
+			if (profile != null) {
+				profile.exit();
+			}
+		}
+	}
+
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public SourceSpan getSourceSpan() {
+		return sourceSpan;
+	}
+
+	/**
+	 * Returns the name of the frame for the node in profiles.
+	 * 
+	 * @return the frame name.
+	 */
+	public String getFrameName() {
+		return frameName;
+	}
+
+	/**
+	 * Returns the node that is traced.
+	 * 
+	 * @return the node that is traced.
+	 */
+	public ScriptTreeNode getChild() {
+		return child;
+	}
+}
@@ -20,7 +20,7 @@ import net.rptools.parser.ScriptContext;
 /**
  * Script tree node that represents variable lookup.
  */
-class VariableNode implements ScriptTreeNode {
+class VariableNode implements ColumnarNode {
 	
 	/** The name of the variable. */
 	private final String variableName;
@@ -43,4 +43,22 @@ class VariableNode implements ScriptTreeNode {
 		return context.getSymbolTable().getVariable(variableName);
 	}
 
+	@Override
+	public DataValue[] evaluateColumn(ScriptContext[] contexts) {
+		DataValue[] results = new DataValue[contexts.length];
+		for (int i = 0; i < contexts.length; i++) {
+			results[i] = contexts[i].getSymbolTable().getVariable(variableName);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the name of the variable.
+	 * 
+	 * @return the name of the variable.
+	 */
+	public String getVariableName() {
+		return variableName;
+	}
+
 }
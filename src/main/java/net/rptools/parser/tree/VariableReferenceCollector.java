@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * 
+ */
+package net.rptools.parser.tree;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the names of the variables that a compiled script reads, so that the results
+ * of the script can be cached until one of them changes.
+ *
+ */
+public final class VariableReferenceCollector {
+
+	/** Stop instantiation. */
+	private VariableReferenceCollector() {
+	}
+
+	/**
+	 * Returns the names of the variables that are read by the script, either as a value or
+	 * as the number of times to repeat a repeat group.
+	 * 
+	 * @param node The root node of the compiled script.
+	 * 
+	 * @return the names of the variables in the order they first appear in the script.
+	 * 
+	 * @throws NullPointerException if node is null.
+	 */
+	public static Set<String> collect(ScriptTreeNode node) {
+		if (node == null) {
+			throw new NullPointerException("Script node can not be null.");
+		}
+		
+		Set<String> names = new LinkedHashSet<>();
+		collect(node, names);
+		return Collections.unmodifiableSet(names);
+	}
+	
+	/**
+	 * Adds the names of the variables read by a node and its children to a set.
+	 * 
+	 * @param node The node to collect the variable names from.
+	 * @param names The set to add the names to.
+	 */
+	private static void collect(ScriptTreeNode node, Set<String> names) {
+		if (node instanceof VariableNode) {
+			names.add(((VariableNode) node).getVariableName());
+		} else if (node instanceof RepeatGroupNode && ((RepeatGroupNode) node).getVariable() != null) {
+			names.add(((RepeatGroupNode) node).getVariable());
+		}
+		
+		for (ScriptTreeNode child : ScriptTrees.getChildren(node)) {
+			collect(child, names);
+		}
+	}
+}
@@ -73,6 +73,8 @@ function doShowResult(args) {
            ", individual = " + args.res.getIndividualValues();
 }
 
+// Math.random draws from the random source of the script context calling the function, so
+// rolls made here are reproduced by seeded and replayed evaluations.
 function rand(max) {
     return Math.floor(Math.random() * max) + 1;
 }
@@ -1,9 +1,51 @@
 package net.rptools.parser;
 
 import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
 import net.rptools.lib.datavalue.DataValue;
 import net.rptools.lib.datavalue.DataValueFactory;
 import net.rptools.lib.datavalue.DataType;
+import net.rptools.lib.permissions.PermissionLevel;
+import net.rptools.parser.audit.RollAuditLog;
+import net.rptools.parser.audit.RollAuditReader;
+import net.rptools.parser.audit.RollAuditRecord;
+import net.rptools.parser.functions.DiceRoller;
+import net.rptools.parser.functions.FunctionDefinition;
+import net.rptools.parser.functions.FunctionDefinitionBuilder;
+import net.rptools.parser.functions.FunctionManager;
+import net.rptools.parser.functions.RollFaces;
+import net.rptools.parser.functions.RollPlan;
+import net.rptools.parser.functions.ScriptFunction;
+import net.rptools.parser.functions.dice.DiceDistribution;
+import net.rptools.parser.random.RandomSource;
+import net.rptools.parser.random.RecordingRandomSource;
+import net.rptools.parser.random.ReplayRandomSource;
+import net.rptools.parser.random.RollLog;
+import net.rptools.parser.random.SplitMix64RandomSource;
+import net.rptools.parser.random.ThreadLocalRandomSource;
+import net.rptools.parser.symboltable.BatchPropertyResolver;
+import net.rptools.parser.symboltable.HistoryListener;
+import net.rptools.parser.symboltable.HistoryPolicy;
+import net.rptools.parser.symboltable.SymbolTable;
+import net.rptools.parser.tree.ConstantFoldingPass;
+import net.rptools.parser.tree.PassManager;
+import net.rptools.parser.tree.PassStatistics;
+import net.rptools.parser.tree.ScriptCostEstimator;
+import net.rptools.parser.tree.ScriptTreeNode;
+import net.rptools.parser.tree.TracingInstrumenter;
 import org.junit.Test;
 
 public class ExpressionEvaluatorTest {
@@ -379,6 +421,1194 @@ public class ExpressionEvaluatorTest {
 	}
 	
 
+	@Test public void stepLimitExceeded() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setMaxSteps(5000).toScriptContext();
+		try {
+			ScriptEvaluator.getInstance(context, "1000{1000{1}}").evaluateNext();
+			fail("Step limit not enforced.");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.STEPS, e.getLimit());
+			assertEquals(5001, e.getSteps());
+		}
+		
+		DataValue dv = ScriptEvaluator.getInstance(context, "10{10{1}}").evaluateNext();
+		assertEquals(10, dv.asList().get(0).asList().size());
+	}
+	
+	@Test public void cancelledEvaluation() throws ExpressionEvaluatorException {
+		CancellationToken token = new CancellationToken();
+		ScriptContext context = new ScriptContextBuilder().setCancellationToken(token).toScriptContext();
+		token.cancel();
+		try {
+			ScriptEvaluator.getInstance(context, "100{100{1}}").evaluateNext();
+			fail("Cancellation not honoured.");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.CANCELLED, e.getLimit());
+		}
+	}
+	
+	@Test public void memoryLimitExceeded() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setMemoryLimit(32000).toScriptContext();
+		try {
+			ScriptEvaluator.getInstance(context, "100000000{1}").evaluateNext();
+			fail("Memory limit not enforced.");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.MEMORY, e.getLimit());
+			assertTrue(e.getSteps() < 10);
+		}
+		
+		DataValue dv = ScriptEvaluator.getInstance(context, "10{10{1}}").evaluateNext();
+		assertEquals(10, dv.asList().get(0).asList().size());
+	}
+	
+	@Test public void costLimitExceeded() throws ExpressionEvaluatorException {
+		ScriptContextBuilder builder = new ScriptContextBuilder();
+		for (PermissionLevel level : PermissionLevel.values()) {
+			builder.setCostLimit(level, 1000);
+		}
+		ScriptContext context = builder.toScriptContext();
+		
+		ScriptEvaluator evaluator = ScriptEvaluator.getInstance(context, "10{100{1d6}}");
+		assertEquals(3011, evaluator.estimateNextCost());
+		try {
+			evaluator.evaluateNext();
+			fail("Cost limit not enforced.");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.COST, e.getLimit());
+			assertFalse(context.getSymbolTable().containsRollResult("Roll Sequence 1"));
+		}
+		
+		DataValue dv = ScriptEvaluator.getInstance(context, "10{10{1d6}}").evaluateNext();
+		assertEquals(10, dv.asList().get(0).asList().size());
+	}
+	
+	@Test public void transactionalEvaluation() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setTransactional(true).toScriptContext();
+		try {
+			ScriptEvaluator.getInstance(context, "$a = 5; $b = noSuchFunction()").evaluateNext();
+			fail("Unknown function did not fail.");
+		} catch (ExpressionEvaluatorException e) {
+			assertFalse(context.getSymbolTable().containsVariable("a"));
+			assertFalse(context.getSymbolTable().isInTransaction());
+		}
+		
+		DataValue dv = ScriptEvaluator.getInstance(context, "$a = 5; $a + 1").evaluateNext();
+		assertEquals(6, dv.asList().get(1).asLong());
+		assertEquals(5, context.getSymbolTable().getVariable("a").asLong());
+	}
+	
+	@Test public void columnarEvaluation() throws ExpressionEvaluatorException {
+		CompiledScript script = CompiledScript.compile("$a = 2; $a * 3 + 1; 1d1; @hp = 4; @hp * 2");
+		ScriptContext[] contexts = new ScriptContextBuilder().toScriptContexts(Arrays.asList("t1", "t2", "t3"));
+		
+		DataValue[] results = script.evaluate(contexts);
+		assertEquals(3, results.length);
+		for (int i = 0; i < results.length; i++) {
+			List<DataValue> vals = results[i].asList();
+			assertEquals(7, vals.get(1).asLong());
+			assertEquals(8, vals.get(4).asLong());
+			assertEquals(4, contexts[i].getSymbolTable().getProperty("hp").asLong());
+			assertTrue(contexts[i].getSymbolTable().containsRollResult(script.getRollNames().get(0)));
+		}
+		
+		assertEquals(7, script.evaluate(new ScriptContextBuilder().toScriptContext()).asList().get(1).asLong());
+	}
+	
+	@Test public void suspendedEvaluation() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		CompiledScript script = CompiledScript.compile("$a = 3; ?$b : \"How many?\"; $a + $b");
+		
+		SuspendableEvaluation evaluation = SuspendableEvaluation.start(script, context);
+		assertTrue(evaluation.isSuspended());
+		assertEquals("b", evaluation.getPromptName());
+		assertEquals("How many?", evaluation.getPromptDescription());
+		assertFalse(context.getSymbolTable().containsVariable("a"));
+		
+		evaluation.resume(DataValueFactory.longValue(4));
+		assertFalse(evaluation.isSuspended());
+		assertEquals(7, evaluation.getResult().asList().get(2).asLong());
+		assertEquals(4, context.getSymbolTable().getVariable("b").asLong());
+	}
+	
+	@Test public void preparedScript() throws ExpressionEvaluatorException {
+		PreparedScript script = PreparedScript.prepare("$hp - $dmg; $dmg{1d1}", "hp", "dmg");
+		assertEquals(Arrays.asList("hp", "dmg"), script.getParameterNames());
+		
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		DataValue dv = script.execute(context, DataValueFactory.longValue(10), DataValueFactory.longValue(3));
+		assertEquals(7, dv.asList().get(0).asLong());
+		assertEquals(3, dv.asList().get(1).asList().size());
+		
+		dv = script.execute(context, DataValueFactory.longValue(20), DataValueFactory.longValue(5));
+		assertEquals(15, dv.asList().get(0).asLong());
+		assertFalse(context.getSymbolTable().containsVariable("hp"));
+		
+		try {
+			script.execute(context, DataValueFactory.longValue(1));
+			fail("Expected IllegalArgumentException for missing argument.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		try {
+			PreparedScript.prepare("$hp = 1", "hp");
+			fail("Expected IllegalArgumentException for assigning a parameter.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test public void conditionalExpressions() throws ExpressionEvaluatorException {
+		DataValue dv = ScriptEvaluator.getInstance("$a = 5; $a > 3 ? \"big\" : \"small\"; $a <= 3 || $a == 5; " +
+				"!($a != 5) && $a >= 6; |lbl| 1 < 2").evaluateNext();
+		assertEquals("big", dv.asList().get(1).asString());
+		assertEquals("true", dv.asList().get(2).asString());
+		assertEquals("false", dv.asList().get(3).asString());
+		
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		CompiledScript script = CompiledScript.compile("false && 1d6; true || 1d6; true ? 2 : 1d6");
+		assertEquals(2, script.evaluate(context).asList().get(2).asLong());
+		assertEquals(3, script.getRollNames().size());
+		for (String rollName : script.getRollNames()) {
+			assertFalse(context.getSymbolTable().containsRollResult(rollName));
+		}
+		
+		script = CompiledScript.compile("@hp > 5 ? 1d6 : 1d8");
+		ScriptContext[] contexts = new ScriptContextBuilder().toScriptContexts(Arrays.asList("t1", "t2"));
+		contexts[0].getSymbolTable().setProperty("hp", DataValueFactory.longValue(10));
+		contexts[1].getSymbolTable().setProperty("hp", DataValueFactory.longValue(1));
+		script.evaluate(contexts);
+		String d6 = script.getRollNames().get(0);
+		String d8 = script.getRollNames().get(1);
+		assertTrue(contexts[0].getSymbolTable().containsRollResult(d6));
+		assertFalse(contexts[0].getSymbolTable().containsRollResult(d8));
+		assertTrue(contexts[1].getSymbolTable().containsRollResult(d8));
+		assertFalse(contexts[1].getSymbolTable().containsRollResult(d6));
+	}
+	
+	@Test public void scriptResultCache() throws ExpressionEvaluatorException {
+		ScriptResultCache cache = new ScriptResultCache();
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		SymbolTable symbolTable = context.getSymbolTable();
+		symbolTable.setProperty("str", DataValueFactory.longValue(5));
+		symbolTable.setVariable("bonus", DataValueFactory.longValue(1));
+		
+		CompiledScript script = CompiledScript.compile("@str * 2 + $bonus");
+		assertTrue(script.isDeterministic());
+		assertEquals(11, cache.evaluate(script, context).asList().get(0).asLong());
+		assertEquals(11, cache.evaluate(script, context).asList().get(0).asLong());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		
+		symbolTable.setProperty("str", DataValueFactory.longValue(7));
+		assertEquals(15, cache.evaluate(script, context).asList().get(0).asLong());
+		assertEquals(2, cache.getMissCount());
+		
+		CompiledScript rolled = CompiledScript.compile("@str + 1d6");
+		assertFalse(rolled.isDeterministic());
+		cache.evaluate(rolled, context);
+		cache.evaluate(rolled, context);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+	
+	@Test public void constantFolding() throws ExpressionEvaluatorException {
+		PassManager passManager = PassManager.createDefault();
+		CompiledScript script = CompiledScript.compile("$a = 1; 2 * 3 + 1; true ? 4 : 1d6; false && $a; $a + 1 * 2");
+		CompiledScript optimized = script.optimize(passManager);
+		
+		PassStatistics stats = passManager.getStatistics().get(0);
+		assertEquals(ConstantFoldingPass.NAME, stats.getPassName());
+		assertEquals(5, stats.getRewriteCount());
+		assertTrue(optimized.estimateCost() < script.estimateCost());
+		
+		List<DataValue> vals = optimized.evaluate(new ScriptContextBuilder().toScriptContext()).asList();
+		assertEquals(7, vals.get(1).asLong());
+		assertEquals(4, vals.get(2).asLong());
+		assertEquals("false", vals.get(3).asString());
+		assertEquals(3, vals.get(4).asLong());
+		
+		passManager.setOptimizationLevel(PassManager.NO_OPTIMIZATION);
+		assertSame(script, script.optimize(passManager));
+	}
+	
+	@Test public void errorsAsValues() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		CompiledScript script = CompiledScript.compile("1 + 2;\n2 * noSuchFunction(3)");
+		
+		EvaluationResult result = script.evaluateToResult(context);
+		assertTrue(result.isError());
+		ScriptError error = result.getError();
+		assertEquals(ScriptError.Kind.EVALUATION, error.getKind());
+		assertEquals(1, error.getStatementIndex());
+		assertEquals(new SourcePosition(2, 5), error.getSourcePosition());
+		assertFalse(context.isErrorsAsValues());
+		
+		try {
+			script.evaluate(context);
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			assertEquals(new SourcePosition(2, 5), e.getSourcePosition());
+			assertTrue(e.getStackTrace().length > 0);
+		}
+		
+		result = CompiledScript.compile("1 + 2").evaluateToResult(context);
+		assertFalse(result.isError());
+		assertEquals(3, result.getValue().asList().get(0).asLong());
+	}
+	
+	@Test public void scriptContextPool() throws ExpressionEvaluatorException {
+		ScriptContextPool pool = new ScriptContextBuilder().setMaxSteps(1000).toScriptContextPool(2);
+		ScriptContext context = pool.acquire();
+		CompiledScript script = CompiledScript.compile("$a = 1; |hit| 1d6");
+		script.evaluate(context);
+		String rollName = script.getRollNames().get(0);
+		assertFalse(context.getSymbolTable().getLabels().isEmpty());
+		assertTrue(context.getSymbolTable().containsVariable("a"));
+		assertTrue(context.getSymbolTable().containsRollResult(rollName));
+		
+		pool.release(context);
+		assertEquals(1, pool.getIdleCount());
+		
+		ScriptContext reused = pool.acquire();
+		assertSame(context, reused);
+		assertFalse(reused.getSymbolTable().containsVariable("a"));
+		assertFalse(reused.getSymbolTable().containsRollResult(rollName));
+		assertTrue(reused.getSymbolTable().getLabels().isEmpty());
+		assertTrue(reused.hasEvaluationLimits());
+		
+		try {
+			new ScriptContextBuilder().toScriptContextPool(1).release(reused);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test public void evaluationTrace() throws ExpressionEvaluatorException {
+		String text = "1 + 2 * 3";
+		CompiledScript script = CompiledScript.compile(text);
+		ScriptContext context = new ScriptContextBuilder().setDebug(true).toScriptContext();
+		script.evaluate(context);
+		
+		List<TraceEvent> events = context.getTraceBuffer().getEvents();
+		assertEquals(10, events.size());
+		TraceEvent first = events.get(0);
+		assertEquals(TraceEvent.Kind.ENTER, first.getKind());
+		assertEquals(0, first.getDepth());
+		assertEquals(text, text.substring(first.getTracePoint().getSourceSpan().getStartIndex(), 
+				first.getTracePoint().getSourceSpan().getEndIndex()));
+		
+		TraceEvent multiply = events.get(3);
+		assertEquals(1, multiply.getDepth());
+		SourceSpan span = multiply.getTracePoint().getSourceSpan();
+		assertEquals("2 * 3", text.substring(span.getStartIndex(), span.getEndIndex()));
+		assertEquals(new SourcePosition(1, 5), span.getStart());
+		
+		TraceEvent last = events.get(9);
+		assertEquals(TraceEvent.Kind.EXIT, last.getKind());
+		assertEquals(7, last.getValue().asLong());
+		
+		ScriptContext small = new ScriptContextBuilder().setDebug(true).setTraceCapacity(4).toScriptContext();
+		script.evaluate(small);
+		assertEquals(4, small.getTraceBuffer().getEventCount());
+		assertEquals(6, small.getTraceBuffer().getDroppedCount());
+		
+		assertNull(new ScriptContextBuilder().toScriptContext().getTraceBuffer());
+	}
+	
+	@Test public void scriptProfiler() throws Exception {
+		ScriptProfiler profiler = new ScriptProfiler(2);
+		ScriptContext context = new ScriptContextBuilder().setProfiler(profiler).toScriptContext();
+		CompiledScript script = CompiledScript.compile("1d6 + 2 * 3");
+		for (int i = 0; i < 4; i++) {
+			script.evaluate(context);
+		}
+		assertEquals(2, profiler.getSampleCount());
+		assertNull(context.getProfileRecorder());
+		
+		assertTrue(profiler.getSelfTimes().containsKey("BinaryMathOp ADD @1:1"));
+		assertTrue(profiler.getSelfTimes().containsKey("BinaryMathOp MULTIPLY @1:7"));
+		
+		StringBuilder folded = new StringBuilder();
+		profiler.writeFoldedStacks(folded);
+		assertTrue(folded.toString().contains("BinaryMathOp ADD @1:1;BinaryMathOp MULTIPLY @1:7 "));
+		
+		profiler.reset();
+		assertEquals(0, profiler.getSampleCount());
+		assertTrue(profiler.getSelfTimes().isEmpty());
+	}
+	
+	@Test public void randomSources() throws ExpressionEvaluatorException {
+		RandomSource first = new SplitMix64RandomSource(42);
+		RandomSource second = new SplitMix64RandomSource(42);
+		int[] faces = new int[1000];
+		first.nextInts(6, faces, 0, faces.length);
+		for (int face : faces) {
+			assertTrue(face >= 0 && face < 6);
+			assertEquals(face, second.nextInt(6));
+		}
+		
+		RandomSource split = first.split();
+		assertNotSame(first, split);
+		assertSame(ThreadLocalRandomSource.INSTANCE, ThreadLocalRandomSource.INSTANCE.split());
+		
+		try {
+			first.nextInt(0);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		ScriptContext context = new ScriptContextBuilder().setRandomSource(new SplitMix64RandomSource(7))
+				.toScriptContext();
+		CompiledScript script = CompiledScript.compile("10d6");
+		script.evaluate(context);
+		assertTrue(context.getSymbolTable().containsRollResult(script.getRollNames().get(0)));
+	}
+	
+	@Test public void rollPlans() throws ExpressionEvaluatorException {
+		RollPlan plan = RollPlan.compile("3d6", true, false);
+		assertEquals(3, plan.getCount());
+		assertEquals(6, plan.getSides());
+		assertTrue(plan.isVerbose());
+		assertEquals(1, RollPlan.compile("D20", false, false).getCount());
+		assertEquals(plan, RollPlan.compile("3D6", true, false));
+		
+		for (String invalid : Arrays.asList("d", "3d", "3x6", "3d6x", "99999999999d6")) {
+			try {
+				RollPlan.compile(invalid, false, false);
+				fail("Expected an IllegalArgumentException for " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		EvaluationResult result = CompiledScript.compile("1 + foo").evaluateToResult(
+				new ScriptContextBuilder().toScriptContext());
+		assertTrue(result.isError());
+	}
+	
+	@Test public void diceDistributions() throws ExpressionEvaluatorException {
+		DiceDistribution dist = CompiledScript.compile("2d6").getDistribution();
+		assertEquals(2, dist.getMin());
+		assertEquals(12, dist.getMax());
+		assertEquals(36, dist.getTotal());
+		assertEquals(6, dist.getCount(7));
+		assertEquals(7.0, dist.getMean(), 1e-12);
+		assertEquals(DiceDistribution.ofDice(20, 6), CompiledScript.compile("20d6").getDistribution());
+		
+		dist = CompiledScript.compile("2 * 1d4 - 1d4 + 3").getDistribution();
+		assertEquals(2 + 3 - 4, dist.getMin());
+		assertEquals(8 + 3 - 1, dist.getMax());
+		assertEquals(16, dist.getTotal());
+		
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		DataValue dv = CompiledScript.compile("dice.chance(\"1d20 + 5\", atLeast: 15)").evaluate(context);
+		assertEquals(0.55, dv.asList().get(0).asDouble(), 1e-12);
+		dv = CompiledScript.compile("dice.mean(\"3d6 + 1\")").evaluate(context);
+		assertEquals(11.5, dv.asList().get(0).asDouble(), 1e-12);
+		dv = CompiledScript.compile("dice.distribution(\"2d6\")").evaluate(context);
+		assertEquals(11, dv.asList().get(0).asDictionary().size());
+		assertEquals(1.0 / 36, dv.asList().get(0).asDictionary().get("12").asDouble(), 1e-12);
+		
+		assertTrue(CompiledScript.compile("dice.chance(\"1d6 / 2\", atLeast: 2)").evaluateToResult(context).isError());
+		assertTrue(CompiledScript.compile("dice.chance(\"1d6\")").evaluateToResult(context).isError());
+		try {
+			CompiledScript.compile("100000d100000").getDistribution();
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test public void largeRollTotals() throws ExpressionEvaluatorException {
+		DiceRoller roller = new DiceRoller(new SplitMix64RandomSource(7));
+		long total = roller.rollTotal(RollPlan.compile("1000000d100000", false, false));
+		assertTrue("Total should not overflow an int: " + total, total > Integer.MAX_VALUE);
+		assertTrue(total <= 100000L * 1000000);
+		
+		DataValue dv = roller.roll(RollPlan.compile("1000000d6", false, false));
+		assertTrue(dv.asResult().getValues().isEmpty());
+		long sum = dv.asResult().getValue().asLong();
+		assertTrue(sum >= 3400000 && sum <= 3600000);
+		
+		dv = roller.roll(RollPlan.compile("3d6", true, false));
+		assertEquals(3, dv.asResult().getValues().size());
+		
+		assertEquals(new DiceRoller(new SplitMix64RandomSource(3)).rollTotal(RollPlan.compile("5000d20", false, false)),
+				new DiceRoller(new SplitMix64RandomSource(3)).roll(RollPlan.compile("5000d20", true, false)).asResult().getValue().asLong());
+	}
+	
+	@Test public void rollFaces() throws ExpressionEvaluatorException {
+		RollFaces faces = new DiceRoller(new SplitMix64RandomSource(11)).rollFaces(RollPlan.compile("4d6", true, false));
+		assertEquals(4, faces.size());
+		long total = 0;
+		StringBuilder details = new StringBuilder();
+		for (int i = 0; i < faces.size(); i++) {
+			assertTrue(faces.getFace(i) >= 1 && faces.getFace(i) <= 6);
+			assertEquals(faces.getFace(i), faces.asList().get(i).asLong());
+			total += faces.getFace(i);
+			details.append(i > 0 ? "," : "").append(faces.getFace(i));
+		}
+		assertEquals(total, faces.getTotal());
+		assertEquals(details + " = " + total, faces.getDetails());
+		assertSame(faces.asList(), faces.asList());
+		
+		faces.toArray()[0] = 100;
+		assertTrue(faces.getFace(0) <= 6);
+		
+		DataValue dv = new DiceRoller(new SplitMix64RandomSource(11)).roll(RollPlan.compile("4d6", true, false));
+		assertEquals(faces.getDetails(), dv.asResult().getDetailedResult().asString());
+		assertEquals(faces.asList(), dv.asResult().getValues());
+	}
+	
+	@Test public void diceModifiers() throws ExpressionEvaluatorException {
+		RollPlan plan = RollPlan.compile("4d6kh3", false, false);
+		assertEquals(3, plan.getKeep());
+		assertTrue(plan.isKeepHighest());
+		assertEquals(plan, RollPlan.compile("4d6dl1", false, false));
+		assertEquals(plan, RollPlan.compile("4d6d1", false, false));
+		assertEquals(10, RollPlan.compile("d10e", false, false).getExplodeAt());
+		assertEquals(1, RollPlan.compile("4d6r1", false, false).getRerollAt());
+		for (String invalid : Arrays.asList("4d6kh", "4d6x", "d1e", "d6e1", "4d6r6", "4d6r0", "4d6kh3kl1", "4d6e0")) {
+			try {
+				RollPlan.compile(invalid, false, false);
+				fail("Expected an IllegalArgumentException for " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		for (String roll : Arrays.asList("7d6kh3", "7d6dl2", "7d6kl2", "7d6dh5", "5d6k0", "1500d20kh700", "1500d20kl1000")) {
+			for (long seed = 0; seed < 50; seed++) {
+				plan = RollPlan.compile(roll, true, false);
+				RollFaces faces = new DiceRoller(new SplitMix64RandomSource(seed)).rollFaces(plan);
+				int[] sorted = faces.toArray();
+				Arrays.sort(sorted);
+				long expected = 0;
+				for (int i = 0; i < plan.getKeep(); i++) {
+					expected += plan.isKeepHighest() ? sorted[sorted.length - 1 - i] : sorted[i];
+				}
+				assertEquals(roll, expected, faces.getTotal());
+				assertEquals(plan.getKeep(), faces.asList().size());
+				assertEquals(roll, expected, new DiceRoller(new SplitMix64RandomSource(seed)).rollTotal(plan));
+			}
+		}
+		
+		RollFaces faces = new DiceRoller(new SplitMix64RandomSource(5)).rollFaces(RollPlan.compile("200d6e6r1", true, false));
+		long total = 0;
+		for (int i = 0; i < faces.size(); i++) {
+			int face = faces.getFace(i);
+			assertTrue(face >= 1 && face % 6 != 0);
+			total += face;
+		}
+		assertEquals(total, faces.getTotal());
+		assertTrue(faces.getTotal() > 200 * 3.5);
+		
+		ScriptContext context = new ScriptContextBuilder().setRandomSource(new SplitMix64RandomSource(9)).toScriptContext();
+		long kept = CompiledScript.compile("4d6kh3").evaluate(context).asList().get(0).asLong();
+		assertTrue(kept >= 3 && kept <= 18);
+		assertTrue(CompiledScript.compile("4d6kh3!").evaluate(context).asList().get(0).asList().size() == 3);
+	}
+	
+	@Test public void scriptSimulation() throws ExpressionEvaluatorException {
+		CompiledScript script = CompiledScript.compile("2d6 + 1");
+		ScriptContextBuilder builder = new ScriptContextBuilder();
+		SimulationResult result = builder.toScriptSimulator().simulate(script, 20000, 42);
+		assertEquals(20000, result.getIterations());
+		assertEquals(8.0, result.getMean(), 0.1);
+		assertEquals(35.0 / 6, result.getVariance(), 0.3);
+		assertEquals(3.0, result.getMin(), 0);
+		assertEquals(13.0, result.getMax(), 0);
+		long total = 0;
+		for (long count : result.getHistogram().values()) {
+			total += count;
+		}
+		assertEquals(20000, total);
+		assertEquals(Double.valueOf(3), result.getHistogram().firstKey());
+		assertEquals(11, result.getHistogram().size());
+		assertEquals(8.0, result.getPercentile(50), 0);
+		assertEquals(3.0, result.getPercentile(0), 0);
+		assertEquals(13.0, result.getPercentile(100), 0);
+		
+		ForkJoinPool single = new ForkJoinPool(1);
+		try {
+			SimulationResult again = builder.toScriptSimulator(single).simulate(script, 20000, 42);
+			assertEquals(result.getMean(), again.getMean(), 1e-9);
+			assertEquals(result.getHistogram(), again.getHistogram());
+		} finally {
+			single.shutdown();
+		}
+		
+		assertEquals(0, builder.toScriptSimulator().simulate(script, 0).getIterations());
+		try {
+			builder.toScriptSimulator().simulate(CompiledScript.compile("'text'"), 3000);
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			// expected
+		}
+	}
+	
+	@Test public void rollRecordAndReplay() throws ExpressionEvaluatorException {
+		CompiledScript script = CompiledScript.compile("1d1000000; 5d6; d20e; 4d6kh3; 1000d6");
+		RollLog log = new RollLog();
+		ScriptContextBuilder builder = new ScriptContextBuilder()
+				.setRandomSource(new RecordingRandomSource(ThreadLocalRandomSource.INSTANCE, log));
+		List<DataValue> recorded = script.evaluate(builder.toScriptContext()).asList();
+		
+		assertEquals(1, log.getChildren().size());
+		RollLog contextLog = log.getChildren().get(0);
+		assertTrue(contextLog.getIntCount() >= 1 + 5 + 1 + 4 + 1000);
+		byte[] bytes = log.toByteArray();
+		assertTrue("Log too large: " + bytes.length, bytes.length < contextLog.getIntCount() + 32);
+		
+		builder.setRandomSource(new ReplayRandomSource(RollLog.fromByteArray(bytes)));
+		List<DataValue> replayed = script.evaluate(builder.toScriptContext()).asList();
+		for (int i = 0; i < recorded.size(); i++) {
+			assertEquals(recorded.get(i).asLong(), replayed.get(i).asLong());
+		}
+		
+		RandomSource replay = new ReplayRandomSource(RollLog.fromByteArray(bytes)).split();
+		assertEquals(recorded.get(0).asLong(), replay.nextInt(1000000) + 1);
+		
+		RollLog small = new RollLog();
+		RandomSource recorder = new RecordingRandomSource(new SplitMix64RandomSource(3), small);
+		int draws = 1;
+		while (recorder.nextInt(100) < 10) {
+			draws++;
+		}
+		replay = new ReplayRandomSource(small);
+		for (int i = 1; i < draws; i++) {
+			replay.nextInt(100);
+		}
+		try {
+			replay.nextInt(10);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected, the recorded value does not fit the bound
+		}
+		replay = new ReplayRandomSource(small);
+		int[] values = new int[draws];
+		replay.nextInts(100, values, 0, draws);
+		try {
+			replay.nextInt(100);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected, all of the recorded values have been replayed
+		}
+		
+		try {
+			RollLog.fromByteArray(Arrays.copyOf(bytes, bytes.length - 1));
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test public void rollAuditLog() throws Exception {
+		Path dir = Files.createTempDirectory("roll-audit");
+		try {
+			RollAuditLog log = new RollAuditLog(dir, 1024, 1 << 20);
+			ScriptContextBuilder builder = new ScriptContextBuilder().setRollAuditLog(log);
+			ScriptContext first = builder.toScriptContext();
+			ScriptContext second = builder.toScriptContext();
+			assertTrue(first.getId() != second.getId());
+			
+			CompiledScript script = CompiledScript.compile("3d6; 4d6kh3; 1d20");
+			long firstTotal = 0;
+			for (int i = 0; i < 20; i++) {
+				for (DataValue dv : script.evaluate(first).asList()) {
+					firstTotal += dv.asLong();
+				}
+			}
+			script.evaluate(second);
+			CompiledScript.compile("300d100").evaluate(second);
+			log.flush();
+			assertEquals(20 * 3 + 4, log.getWrittenCount());
+			
+			RollAuditReader reader = new RollAuditReader(dir);
+			List<RollAuditRecord> records = reader.readAll();
+			assertEquals(64, records.size());
+			List<RollAuditRecord> firstRecords = reader.findByContext(first.getId());
+			assertEquals(60, firstRecords.size());
+			long audited = 0;
+			for (RollAuditRecord record : firstRecords) {
+				audited += record.getTotal();
+			}
+			assertEquals(firstTotal, audited);
+			
+			RollAuditRecord kept = firstRecords.get(1);
+			assertEquals(RollPlan.compile("4d6kh3", false, false), kept.getRollPlan());
+			int dropped = 0;
+			for (int i = 0; i < kept.getFaces().length; i++) {
+				dropped += kept.isDropped(i) ? 1 : 0;
+			}
+			assertEquals(1, dropped);
+			assertEquals(300, reader.findByContext(second.getId()).get(3).getFaces().length);
+			assertEquals(64, reader.findBetween(0, Long.MAX_VALUE).size());
+			assertEquals(0, reader.findBetween(0, 1).size());
+			log.close();
+			
+			int segments = dir.toFile().list().length;
+			assertTrue("Expected the log to rotate segments", segments > 1);
+			log = new RollAuditLog(dir, 1024, 1024);
+			DiceRoller roller = new DiceRoller();
+			RollPlan large = RollPlan.compile("1000d6", false, false);
+			assertFalse(log.append(1, large, roller.rollFaces(large)));
+			assertEquals(1, log.getDroppedCount());
+			assertTrue(log.append(1, RollPlan.compile("d6", false, false), 
+					roller.rollFaces(RollPlan.compile("d6", false, false))));
+			assertFalse(log.canAppendDice(large));
+			ScriptContext summarised = new ScriptContextBuilder().setRollAuditLog(log).toScriptContext();
+			long total = CompiledScript.compile("1000d6").evaluate(summarised).asList().get(0).asLong();
+			log.close();
+			assertEquals(1, log.getDroppedCount());
+			assertEquals(segments + 1, dir.toFile().list().length);
+			assertEquals(66, reader.readAll().size());
+			RollAuditRecord summary = reader.findByContext(summarised.getId()).get(0);
+			assertTrue(summary.isSummary());
+			assertEquals(large, summary.getRollPlan());
+			assertEquals(total, summary.getTotal());
+			assertEquals(0, summary.getFaces().length);
+			assertFalse(log.append(1, RollPlan.compile("d6", false, false), 
+					new DiceRoller().rollFaces(RollPlan.compile("d6", false, false))));
+		} finally {
+			for (File file : dir.toFile().listFiles()) {
+				file.delete();
+			}
+			dir.toFile().delete();
+		}
+	}
+	
+	@Test public void rollAndLabelHistory() throws ExpressionEvaluatorException {
+		CompiledScript script = CompiledScript.compile("|a| 1d6; |a| 1d6; |b| 1d6");
+		ScriptContext unbounded = new ScriptContextBuilder().toScriptContext();
+		script.evaluate(unbounded);
+		script.evaluate(unbounded);
+		List<String> rolls = script.getRollNames();
+		assertEquals(2, unbounded.getSymbolTable().getRollResult(rolls.get(0)).size());
+		assertEquals(4, unbounded.getSymbolTable().getLabels("a").size());
+		
+		final List<String> events = new ArrayList<>();
+		HistoryListener listener = new HistoryListener() {
+			@Override
+			public void rollResultAdded(long contextId, String name, DataValue result) {
+				events.add(contextId + ":" + name);
+			}
+			
+			@Override
+			public void labelAdded(long contextId, String name, DataValue value) {
+				events.add(contextId + ":|" + name + "|");
+			}
+		};
+		ScriptContextBuilder builder = new ScriptContextBuilder().addHistoryListener(listener)
+				.setRollHistoryPolicy(HistoryPolicy.ringBuffer(4)).setLabelHistoryPolicy(HistoryPolicy.lastPerName(2));
+		ScriptContext bounded = builder.toScriptContext();
+		for (int i = 0; i < 3; i++) {
+			script.evaluate(bounded);
+		}
+		assertEquals(18, events.size());
+		assertEquals(bounded.getId() + ":" + rolls.get(0), events.get(0));
+		assertEquals(bounded.getId() + ":|a|", events.get(1));
+		SymbolTable table = bounded.getSymbolTable();
+		assertEquals(1, table.getRollResult(rolls.get(0)).size());
+		assertEquals(1, table.getRollResult(rolls.get(1)).size());
+		assertEquals(2, table.getRollResult(rolls.get(2)).size());
+		assertEquals(2, table.getLabels("a").size());
+		assertEquals(2, table.getLabels("b").size());
+		
+		ScriptContext streamed = builder.setRollHistoryPolicy(HistoryPolicy.NONE)
+				.setLabelHistoryPolicy(HistoryPolicy.NONE).toScriptContext();
+		events.clear();
+		script.evaluate(streamed);
+		assertEquals(6, events.size());
+		assertFalse(streamed.getSymbolTable().containsRollResult(rolls.get(0)));
+		assertTrue(streamed.getSymbolTable().getRollResult(rolls.get(0)).isEmpty());
+		assertTrue(streamed.getSymbolTable().getLabels().isEmpty());
+		
+		events.clear();
+		table.beginTransaction();
+		table.addRollResult(rolls.get(0), DataValueFactory.longValue(1));
+		table.addLabel("c", DataValueFactory.longValue(2));
+		assertTrue(events.isEmpty());
+		table.rollback();
+		assertEquals(1, table.getRollResult(rolls.get(0)).size());
+		assertFalse(table.containsLabel("c"));
+		assertTrue(events.isEmpty());
+		
+		table.beginTransaction();
+		table.addLabel("d", DataValueFactory.longValue(3));
+		table.addRollResult(rolls.get(1), DataValueFactory.longValue(4));
+		assertTrue(events.isEmpty());
+		table.commit();
+		assertEquals(Arrays.asList(bounded.getId() + ":|d|", bounded.getId() + ":" + rolls.get(1)), events);
+		assertEquals("ring buffer of 4", HistoryPolicy.ringBuffer(4).toString());
+	}
+	
+	@Test public void independentSimulationStreams() {
+		RandomSource first = SplitMix64RandomSource.stream(42, 0);
+		Set<Long> firstDraws = new HashSet<>();
+		for (int i = 0; i < 4096; i++) {
+			firstDraws.add(first.nextLong());
+		}
+		for (long block = 1; block < 4; block++) {
+			RandomSource next = SplitMix64RandomSource.stream(42, block);
+			for (int i = 0; i < 16; i++) {
+				assertFalse("Block " + block + " is a shifted copy of block 0", firstDraws.contains(next.nextLong()));
+			}
+		}
+		
+		RandomSource root = new SplitMix64RandomSource(42);
+		RandomSource split = root.split();
+		assertEquals(split.nextLong(), SplitMix64RandomSource.stream(42, 0).nextLong());
+		split = root.split();
+		assertEquals(split.nextLong(), SplitMix64RandomSource.stream(42, 1).nextLong());
+	}
+	
+	@Test public void suspendedEvaluationReplaysFunctionCalls() throws ExpressionEvaluatorException {
+		final int[] calls = new int[1];
+		ScriptFunction counter = new ScriptFunction() {
+			@Override
+			public FunctionDefinition getDefinition() {
+				return new FunctionDefinitionBuilder().setName("test.counter").setReturnType(DataType.LONG)
+						.toFunctionDefinition();
+			}
+			
+			@Override
+			public DataValue call(ScriptContext context, Map<String, DataValue> args) {
+				return DataValueFactory.longValue(++calls[0]);
+			}
+		};
+		FunctionManager.definFunction(counter);
+		try {
+			ScriptContext context = new ScriptContextBuilder().toScriptContext();
+			CompiledScript script = CompiledScript.compile("test.counter(); ?$b : \"Go?\"; ?$c; test.counter() * 10");
+			SuspendableEvaluation evaluation = SuspendableEvaluation.start(script, context);
+			assertTrue(evaluation.isSuspended());
+			assertEquals(1, calls[0]);
+			
+			evaluation.resume(DataValueFactory.longValue(2));
+			assertTrue(evaluation.isSuspended());
+			evaluation.resume(DataValueFactory.longValue(3));
+			assertFalse(evaluation.isSuspended());
+			assertEquals(2, calls[0]);
+			assertEquals(1, evaluation.getResult().asList().get(0).asLong());
+			assertEquals(20, evaluation.getResult().asList().get(3).asLong());
+		} finally {
+			FunctionManager.undefineFunction(counter);
+		}
+	}
+	
+	@Test public void compiledScriptsInOneContext() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		CompiledScript d6 = CompiledScript.compile("1d6");
+		CompiledScript d20 = CompiledScript.compile("1d20");
+		assertFalse(d6.getRollNames().equals(d20.getRollNames()));
+		d6.evaluate(context);
+		d20.evaluate(context);
+		d6.evaluate(context);
+		assertEquals(2, context.getSymbolTable().getRollResult(d6.getRollNames().get(0)).size());
+		assertEquals(1, context.getSymbolTable().getRollResult(d20.getRollNames().get(0)).size());
+		
+		SymbolTable table = context.getSymbolTable();
+		table.beginTransaction();
+		CompiledScript.compile("$a = 1").evaluate(context);
+		assertTrue(table.isInTransaction());
+		try {
+			CompiledScript.compile("$b = 2; no.such.function()").evaluate(context);
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			assertTrue(table.isInTransaction());
+		}
+		assertEquals(2, table.getVariable("b").asLong());
+		table.rollback();
+		assertFalse(table.containsVariable("a"));
+		assertFalse(table.containsVariable("b"));
+		
+		ScriptContext transactional = new ScriptContextBuilder().setTransactional(true).toScriptContext();
+		transactional.getSymbolTable().beginTransaction();
+		CompiledScript.compile("$a = 1").evaluate(transactional);
+		assertTrue(transactional.getSymbolTable().isInTransaction());
+		transactional.getSymbolTable().commit();
+		assertEquals(1, transactional.getSymbolTable().getVariable("a").asLong());
+	}
+	
+	@Test public void diceDistributionLimits() throws ExpressionEvaluatorException {
+		try {
+			DiceDistribution.ofDice(1, 2000000000);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		DiceDistribution big = DiceDistribution.ofDice(1, 1000000);
+		try {
+			big.add(big);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		long start = System.nanoTime();
+		assertTrue(CompiledScript.compile("dice.mean(\"1d2000000000\")").evaluateToResult(context).isError());
+		assertTrue(CompiledScript.compile("dice.chance(\"1d1000000 + 1d1000000\", atLeast: 5)")
+				.evaluateToResult(context).isError());
+		assertTrue(System.nanoTime() - start < 5000000000L);
+		assertEquals(0.5, DiceDistribution.ofDice(1, 4000).add(DiceDistribution.ofDice(1, 4000))
+				.probabilityAtLeast(4001), 1e-3);
+	}
+	
+	@Test public void rollsCountAgainstBudget() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setMaxSteps(100000).setMemoryLimit(1 << 20)
+				.toScriptContext();
+		assertEquals(2, CompiledScript.compile("100d6e; 1000d6kh3").evaluate(context).asList().size());
+		
+		String[] scripts = { "2147483647d6", "1000d6e", "1000000000d6kh500000000" };
+		EvaluationLimitExceededException.Limit[] limits = { EvaluationLimitExceededException.Limit.STEPS, 
+				EvaluationLimitExceededException.Limit.STEPS, EvaluationLimitExceededException.Limit.MEMORY };
+		ScriptContext unlimitedSteps = new ScriptContextBuilder().setMemoryLimit(1 << 20).toScriptContext();
+		for (int i = 0; i < scripts.length; i++) {
+			try {
+				CompiledScript.compile(scripts[i]).evaluate(i < 2 ? context : unlimitedSteps);
+				fail("Expected an EvaluationLimitExceededException for " + scripts[i]);
+			} catch (EvaluationLimitExceededException e) {
+				assertEquals(limits[i], e.getLimit());
+			}
+		}
+	}
+	
+	@Test public void memoryLimitIgnoresNegativeCounts() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setMemoryLimit(32 * 100).toScriptContext();
+		context.getSymbolTable().setVariable("n", DataValueFactory.longValue(-1000000));
+		try {
+			CompiledScript.compile("$n{1}; 1000{1}").evaluate(context);
+			fail("Expected an EvaluationLimitExceededException");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.MEMORY, e.getLimit());
+		}
+		
+		try {
+			CompiledScript.compile("1000d6!").evaluate(context);
+			fail("Expected an EvaluationLimitExceededException");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.MEMORY, e.getLimit());
+		}
+		assertEquals(50, CompiledScript.compile("50d6!").evaluate(context).asList().get(0).asList().size());
+	}
+	
+	@Test public void functionLimitErrors() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().setMemoryLimit(32 * 100).toScriptContext();
+		EvaluationResult result = CompiledScript.compile("list.union(60{1}, 30{2})").evaluateToResult(context);
+		assertTrue(result.isError());
+		assertEquals(ScriptError.Kind.LIMIT, result.getError().getKind());
+		
+		try {
+			CompiledScript.compile("list.union(60{1}, 30{2})").evaluate(context);
+			fail("Expected an EvaluationLimitExceededException");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.MEMORY, e.getLimit());
+		}
+	}
+	
+	@Test public void shuffleAndJavaScriptUseRandomSource() throws ExpressionEvaluatorException {
+		CompiledScript script = CompiledScript.compile(
+				"list.shuffle(list(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16)); rollSomeDice(20, 6)");
+		List<DataValue> first = script.evaluate(new ScriptContextBuilder()
+				.setRandomSource(new SplitMix64RandomSource(5)).toScriptContext()).asList();
+		List<DataValue> second = script.evaluate(new ScriptContextBuilder()
+				.setRandomSource(new SplitMix64RandomSource(5)).toScriptContext()).asList();
+		assertEquals(first.get(0).asList(), second.get(0).asList());
+		assertEquals(first.get(1).asResult().getValues(), second.get(1).asResult().getValues());
+		
+		RollLog log = new RollLog();
+		List<DataValue> recorded = script.evaluate(new ScriptContextBuilder()
+				.setRandomSource(new RecordingRandomSource(ThreadLocalRandomSource.INSTANCE, log))
+				.toScriptContext()).asList();
+		List<DataValue> replayed = script.evaluate(new ScriptContextBuilder()
+				.setRandomSource(new ReplayRandomSource(RollLog.fromByteArray(log.toByteArray())))
+				.toScriptContext()).asList();
+		assertEquals(recorded.get(0).asList(), replayed.get(0).asList());
+		assertEquals(recorded.get(1).asResult().getValues(), replayed.get(1).asResult().getValues());
+	}
+	
+	@Test public void prefetchedProperties() throws ExpressionEvaluatorException {
+		CountingPropertyResolver resolver = new CountingPropertyResolver();
+		resolver.setProperty("a", DataValueFactory.longValue(3));
+		resolver.setProperty("b", DataValueFactory.longValue(4));
+		ScriptContext context = new ScriptContextBuilder().setPropertyResolver(resolver).toScriptContext();
+		
+		DataValue dv = CompiledScript.compile("@a + @b + @a; 2{@b}").evaluate(context);
+		assertEquals(10, dv.asList().get(0).asLong());
+		assertEquals(1, resolver.batchReads);
+		assertEquals(0, resolver.singleReads);
+		
+		SymbolTable symbolTable = context.getSymbolTable();
+		symbolTable.prefetchProperties(Arrays.asList("a", "b"));
+		symbolTable.setProperty(CountingPropertyResolver.DEFAULT_ID, "a", DataValueFactory.longValue(9));
+		assertEquals(9, symbolTable.getProperty("a").asLong());
+		symbolTable.clearPrefetchedProperties();
+		
+		context = new ScriptContextBuilder().setPropertyResolver(resolver).toScriptContexts(Arrays.asList("tok"))[0];
+		symbolTable = context.getSymbolTable();
+		symbolTable.setProperty("tok", "a", DataValueFactory.longValue(5));
+		symbolTable.prefetchProperties(Arrays.asList("a"));
+		symbolTable.setProperty(CountingPropertyResolver.DEFAULT_ID, "a", DataValueFactory.longValue(6));
+		assertEquals(5, symbolTable.getProperty("a").asLong());
+		symbolTable.setProperty("tok", "a", DataValueFactory.longValue(7));
+		assertEquals(7, symbolTable.getProperty("a").asLong());
+	}
+	
+	@Test public void pooledCancellationTokens() throws ExpressionEvaluatorException {
+		ScriptContextPool pool = new ScriptContextBuilder().toScriptContextPool(2);
+		CancellationToken firstToken = new CancellationToken();
+		ScriptContext first = pool.acquire(firstToken);
+		ScriptContext second = pool.acquire(new CancellationToken());
+		CompiledScript script = CompiledScript.compile("100{100{1}}");
+		
+		firstToken.cancel();
+		try {
+			script.evaluate(first);
+			fail("Cancellation not honoured.");
+		} catch (EvaluationLimitExceededException e) {
+			assertEquals(EvaluationLimitExceededException.Limit.CANCELLED, e.getLimit());
+		}
+		assertEquals(100, script.evaluate(second).asList().get(0).asList().size());
+		
+		pool.release(first);
+		ScriptContext reused = pool.acquire();
+		assertSame(first, reused);
+		assertEquals(100, script.evaluate(reused).asList().get(0).asList().size());
+		
+		pool.release(second);
+		try {
+			pool.release(second);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, pool.getIdleCount());
+	}
+	
+	@Test public void mixedTypeComparisons() throws ExpressionEvaluatorException {
+		List<DataValue> values = CompiledScript.compile("10 < 9.5; \"10\" < \"9\"; 10 == \"10\"")
+				.evaluate(new ScriptContextBuilder().toScriptContext()).asList();
+		assertEquals("false", values.get(0).asString());
+		assertEquals("true", values.get(1).asString());
+		assertEquals("false", values.get(2).asString());
+		
+		try {
+			CompiledScript.compile("10 < \"9\"").evaluate(new ScriptContextBuilder().toScriptContext());
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			// expected, numbers and strings have no order
+		}
+	}
+	
+	@Test public void scriptResultCacheRechecksDeterminism() throws ExpressionEvaluatorException {
+		final int[] calls = new int[1];
+		ScriptFunction counter = new ScriptFunction() {
+			@Override
+			public FunctionDefinition getDefinition() {
+				return new FunctionDefinitionBuilder().setName("test.cached").setReturnType(DataType.LONG)
+						.toFunctionDefinition();
+			}
+			
+			@Override
+			public DataValue call(ScriptContext context, Map<String, DataValue> args) {
+				return DataValueFactory.longValue(++calls[0]);
+			}
+		};
+		FunctionManager.definFunction(counter);
+		try {
+			ScriptResultCache cache = new ScriptResultCache();
+			ScriptContext context = new ScriptContextBuilder().toScriptContext();
+			context.getSymbolTable().setProperty("str", DataValueFactory.longValue(5));
+			CompiledScript script = CompiledScript.compile("@str + test.cached()");
+			
+			FunctionManager.setDeterministic(counter, true);
+			assertEquals(6, cache.evaluate(script, context).asList().get(0).asLong());
+			assertEquals(6, cache.evaluate(script, context).asList().get(0).asLong());
+			assertEquals(1, calls[0]);
+			
+			FunctionManager.setDeterministic(counter, false);
+			assertEquals(7, cache.evaluate(script, context).asList().get(0).asLong());
+			assertEquals(2, calls[0]);
+		} finally {
+			FunctionManager.undefineFunction(counter);
+		}
+	}
+	
+	@Test public void positionedScriptErrors() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		String[] scripts = { "1;\n  dice.mean()", "1;\n  dice.mean(\"1d6\", bad: 1)", "1;\n  1 < \"a\"", "1;\n  1d0" };
+		SourcePosition[] positions = { new SourcePosition(2, 3), new SourcePosition(2, 3), new SourcePosition(2, 5), 
+				new SourcePosition(2, 3) };
+		for (int i = 0; i < scripts.length; i++) {
+			EvaluationResult result = CompiledScript.compile(scripts[i]).evaluateToResult(context);
+			assertTrue(scripts[i], result.isError());
+			assertEquals(scripts[i], ScriptError.Kind.EVALUATION, result.getError().getKind());
+			assertEquals(scripts[i], positions[i], result.getError().getSourcePosition());
+		}
+		
+		try {
+			CompiledScript.compile("dice.mean()").evaluate(context);
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			assertTrue(e.getStackTrace().length > 0);
+		}
+	}
+	
+	@Test public void suspendedEvaluationDetectsDivergedReplay() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		SymbolTable symbolTable = context.getSymbolTable();
+		symbolTable.setProperty("hp", DataValueFactory.longValue(10));
+		SuspendableEvaluation evaluation = SuspendableEvaluation.start(
+				CompiledScript.compile("@hp > 5 ? 3d6 : 1d20; ?$b"), context);
+		assertTrue(evaluation.isSuspended());
+		symbolTable.setProperty("hp", DataValueFactory.longValue(1));
+		try {
+			evaluation.resume(DataValueFactory.longValue(1));
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("expected the roll"));
+		}
+		
+		symbolTable.setProperty("hp", DataValueFactory.longValue(10));
+		evaluation = SuspendableEvaluation.start(CompiledScript.compile("?$a; @hp > 5 ? ?$b : ?$c; $a"), context);
+		evaluation.resume(DataValueFactory.longValue(1));
+		assertEquals("b", evaluation.getPromptName());
+		symbolTable.setProperty("hp", DataValueFactory.longValue(1));
+		try {
+			evaluation.resume(DataValueFactory.longValue(2));
+			fail("Expected an ExpressionEvaluatorException");
+		} catch (ExpressionEvaluatorException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("expected the prompt b but reached the prompt c"));
+		}
+	}
+	
+	@Test public void suspendedPreparedScriptKeepsParameters() throws ExpressionEvaluatorException {
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		PreparedScript prepared = PreparedScript.prepare("?$b; $hp + $b", "hp");
+		SuspendableEvaluation evaluation = SuspendableEvaluation.start(prepared, context, 
+				DataValueFactory.longValue(10));
+		assertTrue(evaluation.isSuspended());
+		DataValue other = PreparedScript.prepare("$x + 1", "x").execute(context, DataValueFactory.longValue(2));
+		assertEquals(3, other.asList().get(0).asLong());
+		evaluation.resume(DataValueFactory.longValue(5));
+		assertEquals(15, evaluation.getResult().asList().get(1).asLong());
+	}
+	
+	@Test public void rollCostEstimates() {
+		assertEquals(6, CompiledScript.compile("4d6").estimateCost());
+		assertEquals(2 + 4 * (RollPlan.MAX_EXPLOSIONS + 1), CompiledScript.compile("4d6e").estimateCost());
+		assertEquals(Long.MAX_VALUE, CompiledScript.compile("1d0").estimateCost());
+	}
+	
+	@Test public void tracedScriptCostEstimate() {
+		CompiledScript script = CompiledScript.compile("10{2d6 + 1}; $a = 4d6e");
+		ScriptTreeNode traced = TracingInstrumenter.instrument(script.getRoot(), null);
+		assertEquals(script.estimateCost(), new ScriptCostEstimator().estimate(traced));
+	}
+	
+	@Test public void fractionalScriptSimulation() throws ExpressionEvaluatorException {
+		ScriptContextBuilder builder = new ScriptContextBuilder();
+		SimulationResult result = builder.toScriptSimulator().simulate(CompiledScript.compile("1d6 / 6.0"), 6000, 7);
+		assertEquals(6, result.getHistogram().size());
+		assertEquals(1.0 / 6, result.getPercentile(0), result.getBinWidth());
+		int face = 1;
+		for (double start : result.getHistogram().keySet()) {
+			assertEquals(face++ / 6.0, start, result.getBinWidth());
+		}
+		assertEquals(1.0, result.getPercentile(100), result.getBinWidth());
+		
+		result = builder.toScriptSimulator().simulate(CompiledScript.compile("1d1000000 / 7.0"), 20000, 7);
+		assertTrue(result.getHistogram().size() <= 2048);
+		assertTrue(result.getBinWidth() > 1);
+		long total = 0;
+		for (long count : result.getHistogram().values()) {
+			total += count;
+		}
+		assertEquals(20000, total);
+		assertEquals(result.getMax(), result.getPercentile(100), result.getBinWidth());
+		assertEquals(500000.0 / 7, result.getPercentile(50), 2000);
+	}
+	
+	@Test public void rollAuditLogCountsEveryRollWhenClosed() throws Exception {
+		Path dir = Files.createTempDirectory("roll-audit");
+		try {
+			final RollAuditLog log = new RollAuditLog(dir, 1 << 16, 1 << 20);
+			final RollPlan plan = RollPlan.compile("3d6", false, false);
+			final RollFaces faces = new DiceRoller().rollFaces(plan);
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 5000; i++) {
+							log.append(1, plan, faces);
+						}
+					}
+				});
+				threads[t].start();
+			}
+			Thread.sleep(2);
+			log.close();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(threads.length * 5000, log.getWrittenCount() + log.getDroppedCount());
+			assertEquals(log.getWrittenCount(), new RollAuditReader(dir).readAll().size());
+		} finally {
+			for (File file : dir.toFile().listFiles()) {
+				file.delete();
+			}
+			dir.toFile().delete();
+		}
+	}
+	
+	@Test public void modifiedDiceOutpaceJavaScriptRolls() throws ExpressionEvaluatorException {
+		// The JavaScript rolls do not keep or explode dice, so they do less work than the native rolls.
+		String[][] pairs = { { "4d6kh3", "rollSomeDice(4, 6)" }, { "d10e", "rollSomeDice(1, 10)" } };
+		ScriptContext context = new ScriptContextBuilder().toScriptContext();
+		for (String[] pair : pairs) {
+			CompiledScript nativeRoll = CompiledScript.compile(pair[0]);
+			CompiledScript javaScriptRoll = CompiledScript.compile(pair[1]);
+			long nativeNanos = Long.MAX_VALUE;
+			long javaScriptNanos = Long.MAX_VALUE;
+			// The fastest of several runs is the least affected by warm up and garbage collection.
+			for (int run = 0; run < 5; run++) {
+				nativeNanos = Math.min(nativeNanos, timeEvaluations(nativeRoll, context, 2000));
+				javaScriptNanos = Math.min(javaScriptNanos, timeEvaluations(javaScriptRoll, context, 2000));
+			}
+			System.out.println(pair[0] + " is " + (double) javaScriptNanos / nativeNanos + " times faster than " + pair[1]);
+			assertTrue(pair[0] + " is not ten times faster than " + pair[1], nativeNanos * 10 < javaScriptNanos);
+		}
+	}
+	
+	/**
+	 * Returns how long it takes to evaluate a script a number of times.
+	 * 
+	 * @param script The script to evaluate.
+	 * @param context The context to evaluate the script with.
+	 * @param times The number of times to evaluate the script.
+	 * 
+	 * @return the time taken in nanoseconds.
+	 * 
+	 * @throws ExpressionEvaluatorException if the script can not be evaluated.
+	 */
+	private static long timeEvaluations(CompiledScript script, ScriptContext context, int times) 
+			throws ExpressionEvaluatorException {
+		long start = System.nanoTime();
+		for (int i = 0; i < times; i++) {
+			script.evaluate(context);
+			context.reset();
+		}
+		return System.nanoTime() - start;
+	}
+	
+
     // This needs to be removed but for now its handy for debugging :)
 	@Test public void RemoveMe() throws ExpressionEvaluatorException {
 		try {
@@ -469,6 +1699,62 @@ public class ExpressionEvaluatorTest {
 		}
 	}
 	
-	
+	/**
+	 * Batch property resolver that counts how the properties are read.
+	 */
+	private static class CountingPropertyResolver implements BatchPropertyResolver {
+		
+		/** The default id. */
+		static final String DEFAULT_ID = "default";
+		
+		/** The properties mapped by id and name. */
+		private final Map<String, Map<String, DataValue>> properties = new HashMap<>();
+		
+		/** The number of properties read one at a time. */
+		int singleReads;
+		
+		/** The number of batches read. */
+		int batchReads;
+		
+		/** Returns the properties for an id, creating them if needed. */
+		private Map<String, DataValue> getIdProperties(String id) {
+			Map<String, DataValue> idProperties = properties.get(id);
+			if (idProperties == null) {
+				idProperties = new HashMap<>();
+				properties.put(id, idProperties);
+			}
+			return idProperties;
+		}
 
+		@Override public void setProperty(String name, DataValue value) { setProperty(DEFAULT_ID, name, value); }
+		@Override public DataValue getProperty(String name) { return getProperty(DEFAULT_ID, name); }
+		@Override public boolean containsProperty(String name) { return containsProperty(DEFAULT_ID, name); }
+		@Override public boolean canBeSetTo(String name, DataType type) { return true; }
+		@Override public DataType dataType(String name) { return dataType(DEFAULT_ID, name); }
+		@Override public Collection<String> getPropertyNames() { return getPropertyNames(DEFAULT_ID); }
+		@Override public void setProperty(String id, String name, DataValue value) { getIdProperties(id).put(name, value); }
+		
+		@Override public DataValue getProperty(String id, String name) {
+			singleReads++;
+			return getIdProperties(id).get(name);
+		}
+		
+		@Override public boolean containsProperty(String id, String name) { return getIdProperties(id).containsKey(name); }
+		@Override public boolean canBeSetTo(String id, String name, DataType type) { return true; }
+		@Override public DataType dataType(String id, String name) { return getIdProperties(id).get(name).dataType(); }
+		@Override public Collection<String> getPropertyNames(String id) { return getIdProperties(id).keySet(); }
+		@Override public boolean hasDefaultId() { return true; }
+		@Override public boolean hasId(String id) { return true; }
+		@Override public Map<String, DataValue> getProperties(Collection<String> names) { return getProperties(DEFAULT_ID, names); }
+		
+		@Override public Map<String, DataValue> getProperties(String id, Collection<String> names) {
+			batchReads++;
+			Map<String, DataValue> values = new HashMap<>(getIdProperties(id));
+			values.keySet().retainAll(names);
+			return values;
+		}
+		
+		@Override public void setProperties(Map<String, DataValue> values) { setProperties(DEFAULT_ID, values); }
+		@Override public void setProperties(String id, Map<String, DataValue> values) { getIdProperties(id).putAll(values); }
+	}
 }